@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+/**
+ * The number of chunks of a response the server may still send before the
+ * client has read more of them. The client grants more credit as it reads
+ * chunks, so a response which isn't read only fills its own window instead of
+ * stalling the other responses multiplexed over the same channel.
+ */
+class ChunkWindow
+{
+    private final long timeoutMillis;
+    private int credits; // Guarded by this
+    private boolean closed; // Guarded by this
+
+    ChunkWindow( long timeoutMillis )
+    {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Waits until there's credit for one more chunk and takes it.
+     *
+     * @throws ComException if no credit was granted within the timeout or
+     * the window was closed.
+     */
+    synchronized void acquire()
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while ( credits == 0 && !closed )
+        {
+            long timeLeft = deadline - System.currentTimeMillis();
+            if ( timeLeft <= 0 )
+            {
+                throw new ComException( "Response not read within " + timeoutMillis + "ms" );
+            }
+            try
+            {
+                wait( timeLeft );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+                throw new ComException( e );
+            }
+        }
+        if ( closed )
+        {
+            throw new ComException( "Channel has been closed" );
+        }
+        credits--;
+    }
+
+    synchronized void grant( int chunks )
+    {
+        credits += chunks;
+        notifyAll();
+    }
+
+    synchronized void close()
+    {
+        closed = true;
+        notifyAll();
+    }
+}
@@ -34,28 +34,64 @@ import org.jboss.netty.buffer.ChannelBufferIndexFinder;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 
+/**
+ * Splits what's written to it into chunks of at most {@code capacity} bytes
+ * and writes them to the channel as they fill up. Each chunk starts with a
+ * continuation byte, telling whether or not more chunks follow, and the id
+ * of the request the chunk belongs to, so that chunks of different requests
+ * can be interleaved on the same channel.
+ *
+ * Given a {@link ChunkWindow} it waits for credit from the receiver before
+ * writing each chunk, see {@link #credit(int, int)}.
+ */
 public class ChunkingChannelBuffer implements ChannelBuffer
 {
     static final byte CONTINUATION_LAST = 0;
     static final byte CONTINUATION_MORE = 1;
+    // Not a chunk, but the receiver granting the sender more chunks
+    static final byte CONTINUATION_CREDIT = 2;
     
     private ChannelBuffer buffer;
     private final Channel channel;
     private final int capacity;
+    private final int requestId;
+    private final ChunkWindow window;
     private int continuationPosition;
 
-    public ChunkingChannelBuffer( ChannelBuffer buffer, Channel channel, int capacity )
+    public ChunkingChannelBuffer( ChannelBuffer buffer, Channel channel, int capacity, int requestId )
+    {
+        this( buffer, channel, capacity, requestId, null );
+    }
+
+    ChunkingChannelBuffer( ChannelBuffer buffer, Channel channel, int capacity, int requestId,
+            ChunkWindow window )
     {
         this.buffer = buffer;
         this.channel = channel;
         this.capacity = capacity;
+        this.requestId = requestId;
+        this.window = window;
         addRoomForContinuationHeader();
     }
 
+    /**
+     * @return a message granting the sender of the response to request
+     * {@code requestId} credit for {@code chunks} more chunks.
+     */
+    static ChannelBuffer credit( int requestId, int chunks )
+    {
+        ChannelBuffer message = ChannelBuffers.buffer( 9 );
+        message.writeByte( CONTINUATION_CREDIT );
+        message.writeInt( requestId );
+        message.writeInt( chunks );
+        return message;
+    }
+
     private void addRoomForContinuationHeader()
     {
         continuationPosition = writerIndex();
         buffer.writeByte( CONTINUATION_LAST );
+        buffer.writeInt( requestId );
     }
     
     private void setContinuation( byte value )
@@ -492,6 +528,10 @@ public class ChunkingChannelBuffer implements ChannelBuffer
 
     private void writeCurrentChunk()
     {
+        if ( window != null )
+        {
+            window.acquire();
+        }
         channel.write( buffer );
     }
 
@@ -23,28 +23,38 @@ import static org.neo4j.com.Protocol.addLengthFieldPipes;
 import static org.neo4j.com.Protocol.readString;
 import static org.neo4j.com.Protocol.writeString;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
 import java.util.Arrays;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
-import org.jboss.netty.handler.queue.BlockingReadHandler;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.Triplet;
@@ -60,71 +70,71 @@ import org.neo4j.kernel.impl.util.StringLogger;
  * serializes requests and sends them to the master, more specifically
  * {@link Server} (which delegates to {@link MasterImpl}
  * on the master side.
+ *
+ * Requests are multiplexed over a few channels. Each request gets an id
+ * which is part of every chunk of both the request and its response, so
+ * that many requests can be in flight on the same channel at once and
+ * their responses can arrive in any order.
  */
 public abstract class Client<M> implements ChannelPipelineFactory
 {
-    public static final int DEFAULT_MAX_NUMBER_OF_CONCURRENT_REQUESTS_PER_CLIENT = 20;
+    public static final int DEFAULT_MAX_NUMBER_OF_CONCURRENT_REQUESTS_PER_CLIENT = 200;
     public static final int DEFAULT_READ_RESPONSE_TIMEOUT_SECONDS = 20;
-    private static final int DEFAULT_MAX_NUMBER_OF_UNUSED_CHANNELS = 5;
+    public static final int DEFAULT_NUMBER_OF_CHANNELS = 5;
+    public static final int DEFAULT_MAX_UNREAD_CHUNKS_PER_RESPONSE = 16;
 
     private final ClientBootstrap bootstrap;
     private final SocketAddress address;
     private final StringLogger msgLog;
     private final ExecutorService executor;
-    private final ResourcePool<Triplet<Channel, ChannelBuffer, ByteBuffer>> channelPool;
+    private final Channel[] channels; // Guarded by itself
+    private int nextChannel; // Guarded by channels
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, PendingResponse> pendingResponses =
+            new ConcurrentHashMap<Integer, PendingResponse>();
+    private final Semaphore requestPermits;
+    private final Queue<ByteBuffer> byteBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
     private final GraphDatabaseService graphDb;
+    private final int readResponseTimeoutSeconds;
+    private final int maxUnreadChunksPerResponse;
     private StoreId myStoreId;
 
     public Client( String hostNameOrIp, int port, GraphDatabaseService graphDb )
     {
         this( hostNameOrIp, port, graphDb, DEFAULT_MAX_NUMBER_OF_CONCURRENT_REQUESTS_PER_CLIENT,
-                DEFAULT_READ_RESPONSE_TIMEOUT_SECONDS, DEFAULT_MAX_NUMBER_OF_UNUSED_CHANNELS );
+                DEFAULT_READ_RESPONSE_TIMEOUT_SECONDS, DEFAULT_NUMBER_OF_CHANNELS );
     }
     
-    public Client( String hostNameOrIp, int port, GraphDatabaseService graphDb, int maxConcurrentTransactions,
-            int readResponseTimeoutSeconds, int maxUnusedPoolSize )
+    /**
+     * @param maxConcurrentRequests the maximum number of requests in flight
+     * at the same time, further requests will wait for one of them to get
+     * its response.
+     * @param readResponseTimeoutSeconds how long to wait for each chunk of
+     * a response.
+     * @param numberOfChannels the number of channels to multiplex the
+     * requests over.
+     */
+    public Client( String hostNameOrIp, int port, GraphDatabaseService graphDb, int maxConcurrentRequests,
+            int readResponseTimeoutSeconds, int numberOfChannels )
     {
-        this.graphDb = graphDb;
-        channelPool = new ResourcePool<Triplet<Channel, ChannelBuffer, ByteBuffer>>(
-                maxConcurrentTransactions, maxUnusedPoolSize )
-        {
-            @Override
-            protected Triplet<Channel, ChannelBuffer, ByteBuffer> create()
-            {
-                ChannelFuture channelFuture = bootstrap.connect( address );
-                channelFuture.awaitUninterruptibly( 5, TimeUnit.SECONDS );
-                Triplet<Channel, ChannelBuffer, ByteBuffer> channel = null;
-                if ( channelFuture.isSuccess() )
-                {
-                    channel = Triplet.of( channelFuture.getChannel(),
-                                          ChannelBuffers.dynamicBuffer(),
-                                          ByteBuffer.allocateDirect( 1024 * 1024 ) );
-                    msgLog.logMessage( "Opened a new channel to " + address, true );
-                    return channel;
-                }
-
-                // TODO Here it would be neat if we could ask the db to find us a new master
-                // and if this still will be a slave then retry to connect.
-
-                String msg = "Client could not connect to " + address;
-                msgLog.logMessage( msg, true );
-                throw new ComException( msg );
-            }
-
-            @Override
-            protected boolean isAlive( Triplet<Channel, ChannelBuffer, ByteBuffer> resource )
-            {
-                return resource.first().isConnected();
-            }
-
-            @Override
-            protected void dispose( Triplet<Channel, ChannelBuffer, ByteBuffer> resource )
-            {
-                Channel channel = resource.first();
-                if ( channel.isConnected() ) channel.close();
-            }
-        };
+        this( hostNameOrIp, port, graphDb, maxConcurrentRequests, readResponseTimeoutSeconds,
+                numberOfChannels, DEFAULT_MAX_UNREAD_CHUNKS_PER_RESPONSE );
+    }
 
+    /**
+     * @param maxUnreadChunksPerResponse the number of chunks of a response
+     * the server may send before the requesting thread has read them. Each
+     * response has its own window, so one which isn't read doesn't hold up
+     * the others on the same channel.
+     */
+    public Client( String hostNameOrIp, int port, GraphDatabaseService graphDb, int maxConcurrentRequests,
+            int readResponseTimeoutSeconds, int numberOfChannels, int maxUnreadChunksPerResponse )
+    {
+        this.graphDb = graphDb;
+        this.readResponseTimeoutSeconds = readResponseTimeoutSeconds;
+        this.maxUnreadChunksPerResponse = maxUnreadChunksPerResponse;
+        this.requestPermits = new Semaphore( maxConcurrentRequests, true );
+        this.channels = new Channel[numberOfChannels];
         address = new InetSocketAddress( hostNameOrIp, port );
         executor = Executors.newCachedThreadPool();
         bootstrap = new ClientBootstrap( new NioClientSocketChannelFactory( executor, executor ) );
@@ -137,72 +147,77 @@ public abstract class Client<M> implements ChannelPipelineFactory
     protected <R> Response<R> sendRequest( RequestType<M> type, SlaveContext context,
             Serializer serializer, Deserializer<R> deserializer )
     {
-        Triplet<Channel, ChannelBuffer, ByteBuffer> channelContext = null;
+        return send( type, context, serializer, deserializer ).get();
+    }
+
+    /**
+     * Sends a request without waiting for its response. The response is
+     * read and deserialized by whichever thread first calls
+     * {@link Future#get()} on the returned future, and any problem doing so
+     * is thrown from there as a {@link ComException}.
+     */
+    protected <R> Future<Response<R>> sendRequestAsync( RequestType<M> type, SlaveContext context,
+            Serializer serializer, Deserializer<R> deserializer )
+    {
+        return send( type, context, serializer, deserializer );
+    }
+
+    private <R> ResponseFuture<R> send( RequestType<M> type, SlaveContext context,
+            Serializer serializer, Deserializer<R> deserializer )
+    {
+        requestPermits.acquireUninterruptibly();
+        PendingResponse pending = null;
+        ByteBuffer byteBuffer = acquireByteBuffer();
         try
         {
-            // Send 'em over the wire
-            channelContext = getChannel();
-            Channel channel = channelContext.first();
-            channelContext.second().clear();
+            Channel channel = getChannel();
+            int requestId = nextRequestId.incrementAndGet();
+            pending = new PendingResponse( requestId, channel );
+            pendingResponses.put( requestId, pending );
             
-            ChunkingChannelBuffer chunkingBuffer = new ChunkingChannelBuffer( channelContext.second(),
-                    channel, Protocol.MAX_FRAME_LENGTH );
+            // Send 'em over the wire
+            ChunkingChannelBuffer chunkingBuffer = new ChunkingChannelBuffer( ChannelBuffers.dynamicBuffer(),
+                    channel, Protocol.MAX_FRAME_LENGTH, requestId );
             chunkingBuffer.writeByte( type.id() );
             writeContext( type, context, chunkingBuffer );
-            serializer.write( chunkingBuffer, channelContext.third() );
+            serializer.write( chunkingBuffer, byteBuffer );
             chunkingBuffer.done();
-
-            // Read the response
-            @SuppressWarnings( "unchecked" )
-            BlockingReadHandler<ChannelBuffer> reader = (BlockingReadHandler<ChannelBuffer>)
-                    channel.getPipeline().get( "blockingHandler" );
-            final Triplet<Channel, ChannelBuffer, ByteBuffer> finalChannelContext = channelContext;
-            DechunkingChannelBuffer dechunkingBuffer = new DechunkingChannelBuffer( reader, DEFAULT_READ_RESPONSE_TIMEOUT_SECONDS )
-            {
-                @Override
-                protected ChannelBuffer readNext()
-                {
-                    ChannelBuffer result = super.readNext();
-                    if ( result == null )
-                    {
-                        channelPool.dispose( finalChannelContext );
-                        throw new ComException( "Channel has been closed" );
-                    }
-                    return result;
-                }
-            };
-            R response = deserializer.read( dechunkingBuffer, channelContext.third() );
-            StoreId storeId = readStoreId( dechunkingBuffer, channelContext.third() );
-            if ( shouldCheckStoreId( type ) )
-            {
-                assertCorrectStoreId( storeId );
-            }
-            TransactionStream txStreams = readTransactionStreams( dechunkingBuffer );
-            return new Response<R>( response, storeId, txStreams );
-        }
-        catch ( ClosedChannelException e )
-        {
-            channelPool.dispose( channelContext );
-            throw new ComException( e );
-        }
-        catch ( IOException e )
-        {
-            throw new ComException( e );
-        }
-        catch ( InterruptedException e )
-        {
-            throw new ComException( e );
+            channel.write( ChunkingChannelBuffer.credit( requestId, maxUnreadChunksPerResponse ) );
+            return new ResponseFuture<R>( type, pending, deserializer, byteBuffer );
         }
         catch ( Exception e )
         {
-            throw new ComException( e );
-        }
-        finally
-        {
-            releaseChannel();
+            byteBuffers.offer( byteBuffer );
+            if ( pending != null )
+            {
+                pending.complete();
+            }
+            else
+            {
+                requestPermits.release();
+            }
+            throw e instanceof ComException ? (ComException) e : new ComException( e );
         }
     }
 
+    /**
+     * @return the number of requests which have been sent, but whose
+     * responses haven't been fully received yet.
+     */
+    public int getInFlightRequests()
+    {
+        return pendingResponses.size();
+    }
+
+    /**
+     * @return the (estimated) number of requests waiting to be sent because
+     * the maximum number of concurrent requests are already in flight.
+     */
+    public int getQueuedRequests()
+    {
+        return requestPermits.getQueueLength();
+    }
+
     protected boolean shouldCheckStoreId( RequestType<M> type )
     {
         return true;
@@ -250,33 +265,259 @@ public abstract class Client<M> implements ChannelPipelineFactory
         }
     }
 
-    private Triplet<Channel, ChannelBuffer, ByteBuffer> getChannel() throws Exception
+    private Channel getChannel()
+    {
+        synchronized ( channels )
+        {
+            int index = nextChannel;
+            nextChannel = (nextChannel + 1) % channels.length;
+            Channel channel = channels[index];
+            if ( channel == null || !channel.isConnected() )
+            {
+                channel = openChannel();
+                channels[index] = channel;
+            }
+            return channel;
+        }
+    }
+
+    private Channel openChannel()
     {
-        return channelPool.acquire();
+        ChannelFuture channelFuture = bootstrap.connect( address );
+        channelFuture.awaitUninterruptibly( 5, TimeUnit.SECONDS );
+        if ( channelFuture.isSuccess() )
+        {
+            msgLog.logMessage( "Opened a new channel to " + address, true );
+            return channelFuture.getChannel();
+        }
+
+        // TODO Here it would be neat if we could ask the db to find us a new master
+        // and if this still will be a slave then retry to connect.
+
+        String msg = "Client could not connect to " + address;
+        msgLog.logMessage( msg, true );
+        throw new ComException( msg );
     }
 
-    private void releaseChannel()
+    private ByteBuffer acquireByteBuffer()
     {
-        channelPool.release();
+        ByteBuffer buffer = byteBuffers.poll();
+        if ( buffer == null )
+        {
+            buffer = ByteBuffer.allocateDirect( 1024 * 1024 );
+        }
+        buffer.clear();
+        return buffer;
     }
 
     public ChannelPipeline getPipeline() throws Exception
     {
         ChannelPipeline pipeline = Channels.pipeline();
         addLengthFieldPipes( pipeline );
-        BlockingReadHandler<ChannelBuffer> reader = new BlockingReadHandler<ChannelBuffer>(
-                new ArrayBlockingQueue<ChannelEvent>( 3, false ) );
-        pipeline.addLast( "blockingHandler", reader );
+        pipeline.addLast( "responseDispatcher", new ResponseDispatcher() );
         return pipeline;
     }
 
     public void shutdown()
     {
         msgLog.logMessage( "MasterClient shutdown", true );
-        channelPool.close( true );
+        synchronized ( channels )
+        {
+            for ( Channel channel : channels )
+            {
+                if ( channel != null && channel.isConnected() )
+                {
+                    channel.close();
+                }
+            }
+        }
         executor.shutdownNow();
     }
 
+    /**
+     * Puts each arriving chunk in the queue of the response it belongs to.
+     */
+    private class ResponseDispatcher extends SimpleChannelHandler
+    {
+        @Override
+        public void messageReceived( ChannelHandlerContext ctx, MessageEvent event ) throws Exception
+        {
+            ChannelBuffer chunk = (ChannelBuffer) event.getMessage();
+            int requestId = chunk.getInt( chunk.readerIndex() + 1 );
+            PendingResponse pending = pendingResponses.get( requestId );
+            if ( pending == null )
+            {
+                msgLog.logMessage( "Got response chunk for unknown request " + requestId );
+                return;
+            }
+            pending.chunkArrived( chunk );
+        }
+
+        @Override
+        public void channelClosed( ChannelHandlerContext ctx, ChannelStateEvent event ) throws Exception
+        {
+            for ( PendingResponse pending : pendingResponses.values() )
+            {
+                if ( pending.channel == event.getChannel() )
+                {
+                    pending.channelClosed();
+                }
+            }
+            super.channelClosed( ctx, event );
+        }
+
+        @Override
+        public void exceptionCaught( ChannelHandlerContext ctx, ExceptionEvent e ) throws Exception
+        {
+            msgLog.logMessage( "Exception on channel " + e.getChannel(), e.getCause() );
+        }
+    }
+
+    private class PendingResponse
+    {
+        private final int requestId;
+        private final Channel channel;
+        private final BlockingQueue<ChannelBuffer> chunks = new LinkedBlockingQueue<ChannelBuffer>();
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private int chunksRead; // Only touched by the reading thread
+
+        PendingResponse( int requestId, Channel channel )
+        {
+            this.requestId = requestId;
+            this.channel = channel;
+        }
+
+        void chunkArrived( ChannelBuffer chunk )
+        {
+            chunks.add( chunk );
+            if ( chunk.getByte( chunk.readerIndex() ) == ChunkingChannelBuffer.CONTINUATION_LAST )
+            {
+                complete();
+            }
+        }
+
+        void chunkRead()
+        {
+            // Credit is granted in batches rather than for every chunk read
+            int batch = Math.max( maxUnreadChunksPerResponse / 2, 1 );
+            if ( ++chunksRead % batch == 0 && !completed.get() )
+            {
+                channel.write( ChunkingChannelBuffer.credit( requestId, batch ) );
+            }
+        }
+
+        void channelClosed()
+        {
+            // The empty buffer tells the reader that the channel was closed
+            chunks.add( ChannelBuffers.EMPTY_BUFFER );
+            complete();
+        }
+
+        void complete()
+        {
+            if ( completed.compareAndSet( false, true ) )
+            {
+                pendingResponses.remove( requestId );
+                requestPermits.release();
+            }
+        }
+    }
+
+    private class ResponseFuture<R> implements Future<Response<R>>
+    {
+        private final RequestType<M> type;
+        private final PendingResponse pending;
+        private final Deserializer<R> deserializer;
+        private final ByteBuffer byteBuffer;
+        private Response<R> response; // Guarded by this
+
+        ResponseFuture( RequestType<M> type, PendingResponse pending, Deserializer<R> deserializer,
+                ByteBuffer byteBuffer )
+        {
+            this.type = type;
+            this.pending = pending;
+            this.deserializer = deserializer;
+            this.byteBuffer = byteBuffer;
+        }
+
+        public synchronized Response<R> get()
+        {
+            if ( response == null )
+            {
+                response = readResponse( readResponseTimeoutSeconds );
+            }
+            return response;
+        }
+
+        public synchronized Response<R> get( long timeout, TimeUnit unit )
+        {
+            if ( response == null )
+            {
+                response = readResponse( (int) Math.max( unit.toSeconds( timeout ), 1 ) );
+            }
+            return response;
+        }
+
+        private Response<R> readResponse( int timeoutSeconds )
+        {
+            try
+            {
+                DechunkingChannelBuffer dechunkingBuffer = new DechunkingChannelBuffer( pending.chunks,
+                        timeoutSeconds )
+                {
+                    @Override
+                    protected ChannelBuffer readNext()
+                    {
+                        ChannelBuffer result = super.readNext();
+                        pending.chunkRead();
+                        if ( result == null )
+                        {
+                            throw new ComException( "Channel has been closed" );
+                        }
+                        return result;
+                    }
+                };
+                R result = deserializer.read( dechunkingBuffer, byteBuffer );
+                StoreId storeId = readStoreId( dechunkingBuffer, byteBuffer );
+                if ( shouldCheckStoreId( type ) )
+                {
+                    assertCorrectStoreId( storeId );
+                }
+                TransactionStream txStreams = readTransactionStreams( dechunkingBuffer );
+                return new Response<R>( result, storeId, txStreams );
+            }
+            catch ( ComException e )
+            {
+                pending.complete();
+                throw e;
+            }
+            catch ( Exception e )
+            {
+                pending.complete();
+                throw new ComException( e );
+            }
+            finally
+            {
+                byteBuffers.offer( byteBuffer );
+            }
+        }
+
+        public boolean cancel( boolean mayInterruptIfRunning )
+        {
+            return false;
+        }
+
+        public boolean isCancelled()
+        {
+            return false;
+        }
+
+        public boolean isDone()
+        {
+            return pending.completed.get();
+        }
+    }
+
     protected static TransactionStream readTransactionStreams( final ChannelBuffer buffer )
     {
         final String[] datasources = readTransactionStreamHeader( buffer );
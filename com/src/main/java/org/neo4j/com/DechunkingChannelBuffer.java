@@ -27,43 +27,54 @@ import java.nio.ByteOrder;
 import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ScatteringByteChannel;
 import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferFactory;
 import org.jboss.netty.buffer.ChannelBufferIndexFinder;
 import org.jboss.netty.buffer.ChannelBuffers;
-import org.jboss.netty.handler.queue.BlockingReadHandler;
 
+/**
+ * Reads the chunks of one response, as written by a
+ * {@link ChunkingChannelBuffer}, from a queue which the chunks are put in
+ * as they arrive. An empty buffer in the queue means that the channel was
+ * closed before the whole response arrived.
+ */
 public class DechunkingChannelBuffer implements ChannelBuffer
 {
-    private final BlockingReadHandler<ChannelBuffer> reader;
+    private final BlockingQueue<ChannelBuffer> chunks;
     private ChannelBuffer buffer;
     private boolean more;
     private boolean hasMarkedReaderIndex;
     private final int timeoutSeconds;
 
-    DechunkingChannelBuffer( BlockingReadHandler<ChannelBuffer> reader, int timeoutSeconds )
+    DechunkingChannelBuffer( BlockingQueue<ChannelBuffer> chunks, int timeoutSeconds )
     {
-        this.reader = reader;
+        this.chunks = chunks;
         this.timeoutSeconds = timeoutSeconds;
         readNextChunk();
     }
     
+    /**
+     * @return the next chunk, or {@code null} if the channel was closed.
+     */
     protected ChannelBuffer readNext()
     {
+        ChannelBuffer chunk;
         try
         {
-            return reader.read( timeoutSeconds, TimeUnit.SECONDS );
+            chunk = chunks.poll( timeoutSeconds, TimeUnit.SECONDS );
         }
-        catch ( IOException e )
+        catch ( InterruptedException e )
         {
             throw new ComException( e );
         }
-        catch ( InterruptedException e )
+        if ( chunk == null )
         {
-            throw new ComException( e );
+            throw new ComException( "No response within " + timeoutSeconds + " seconds" );
         }
+        return chunk.readable() ? chunk : null;
     }
 
     private void readNextChunkIfNeeded( int bytesPlus )
@@ -78,6 +89,7 @@ public class DechunkingChannelBuffer implements ChannelBuffer
     {
         ChannelBuffer readBuffer = readNext();
         more = readBuffer.readByte() == ChunkingChannelBuffer.CONTINUATION_MORE;
+        readBuffer.skipBytes( 4 ); // request id
         if ( !more && buffer == null )
         {
             // Optimization: this is the first chunk and it'll be the only chunk
@@ -24,12 +24,20 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.helpers.Pair;
@@ -39,6 +47,8 @@ import org.neo4j.helpers.collection.ClosableIterable;
 import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.kernel.AbstractGraphDatabase;
 import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.nioneo.store.ChangedPages;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
 import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
 import org.neo4j.kernel.impl.transaction.XaDataSourceManager;
@@ -47,6 +57,8 @@ import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 
 public class MasterUtil
 {
+    public static final int DEFAULT_STORE_COPY_THREADS = 4;
+    
     private static File getBaseDir( GraphDatabaseService graphDb )
     {
         File file = new File( ((AbstractGraphDatabase) graphDb).getStoreDir() );
@@ -73,6 +85,44 @@ public class MasterUtil
     }
     
     public static SlaveContext rotateLogsAndStreamStoreFiles( GraphDatabaseService graphDb, StoreWriter writer )
+    {
+        return rotateLogsAndStreamStoreFiles( graphDb, writer, DEFAULT_STORE_COPY_THREADS );
+    }
+    
+    /**
+     * Rotates the logical logs and streams all store files to {@code writer},
+     * using {@code numberOfThreads} threads to read several files at once.
+     * If the writer has an interrupted copy to resume and the logical logs
+     * needed for that are still around the copy continues from where it
+     * left off, otherwise it starts over.
+     *
+     * @return the transactions which must be applied to the copied store
+     * files to make them consistent.
+     */
+    public static SlaveContext rotateLogsAndStreamStoreFiles( GraphDatabaseService graphDb,
+            StoreWriter writer, int numberOfThreads )
+    {
+        return rotateLogsAndStreamStoreFiles( graphDb, writer, numberOfThreads,
+                ChangedPages.NO_CHECKPOINT, ChangedPages.NO_CHECKPOINT );
+    }
+    
+    /**
+     * Like {@link #rotateLogsAndStreamStoreFiles(GraphDatabaseService, StoreWriter)}
+     * but also starts the backup checkpoint {@code newCheckpoint} for the
+     * store files which keep track of their {@link ChangedPages}. For those
+     * of them whose previous checkpoint is {@code sinceCheckpoint} only the
+     * pages changed since then are streamed, along with the file length.
+     * Other files are streamed as a whole.
+     */
+    public static SlaveContext rotateLogsAndStreamChangedPages( GraphDatabaseService graphDb,
+            StoreWriter writer, long sinceCheckpoint, long newCheckpoint )
+    {
+        return rotateLogsAndStreamStoreFiles( graphDb, writer, DEFAULT_STORE_COPY_THREADS,
+                sinceCheckpoint, newCheckpoint );
+    }
+    
+    private static SlaveContext rotateLogsAndStreamStoreFiles( GraphDatabaseService graphDb,
+            final StoreWriter writer, int numberOfThreads, long sinceCheckpoint, long newCheckpoint )
     {
         if ( Config.osIsWindows() )
         {
@@ -81,7 +131,7 @@ public class MasterUtil
                     + "isn't supported on Windows due to limitations in OS/filesystem" );
         }
 
-        File baseDir = getBaseDir( graphDb );
+        final File baseDir = getBaseDir( graphDb );
         XaDataSourceManager dsManager =
                 ((AbstractGraphDatabase) graphDb).getConfig().getTxModule().getXaDataSourceManager();
         Collection<XaDataSource> sources = dsManager.getAllRegisteredDataSources();
@@ -103,41 +153,277 @@ public class MasterUtil
             }
         }
         SlaveContext context = new SlaveContext( -1, -1, appliedTransactions );
+        SlaveContext resumeContext = writer.resumeContext();
+        final boolean resume = sinceCheckpoint == ChangedPages.NO_CHECKPOINT
+                && resumeContext != null && canResume( dsManager, context, resumeContext );
+        if ( resume )
+        {
+            context = resumeContext;
+        }
         
-        ByteBuffer temporaryBuffer = ByteBuffer.allocateDirect( 1024*1024 );
-        for ( XaDataSource ds : sources )
+        // Changes from here on end up in the new checkpoint. The pages are
+        // read after this, so the ones changed in between are sent now
+        // and again next time.
+        Map<ChangedPages, ChangedPages.Snapshot> checkpointed =
+                new HashMap<ChangedPages, ChangedPages.Snapshot>();
+        final Map<File, ChangedPages.Snapshot> changedPages = new HashMap<File, ChangedPages.Snapshot>();
+        if ( newCheckpoint != ChangedPages.NO_CHECKPOINT )
         {
-            try
+            NeoStore neoStore = ((NeoStoreXaDataSource) dsManager.getXaDataSource(
+                    Config.DEFAULT_DATA_SOURCE_NAME )).getNeoStore();
+            for ( Map.Entry<String, ChangedPages> entry : neoStore.getAllChangedPages().entrySet() )
             {
-                ClosableIterable<File> files = ds.listStoreFiles();
-                try
+                ChangedPages.Snapshot snapshot = entry.getValue().checkpoint( newCheckpoint );
+                checkpointed.put( entry.getValue(), snapshot );
+                if ( sinceCheckpoint != ChangedPages.NO_CHECKPOINT
+                     && snapshot.getCheckpoint() == sinceCheckpoint )
+                {
+                    changedPages.put( canonicalFile( new File( entry.getKey() ) ), snapshot );
+                }
+            }
+        }
+        
+        List<ClosableIterable<File>> fileLists = new ArrayList<ClosableIterable<File>>();
+        boolean success = false;
+        try
+        {
+            writer.begin( context );
+            List<File> files = new ArrayList<File>();
+            for ( XaDataSource ds : sources )
+            {
+                ClosableIterable<File> dsFiles = ds.listStoreFiles();
+                fileLists.add( dsFiles );
+                for ( File storefile : dsFiles )
+                {
+                    files.add( storefile );
+                }
+            }
+            // Start with the big ones so that they don't end up last, in one thread
+            Collections.sort( files, new Comparator<File>()
+            {
+                public int compare( File o1, File o2 )
+                {
+                    long l1 = o1.length(), l2 = o2.length();
+                    return l1 > l2 ? -1 : l1 < l2 ? 1 : 0;
+                }
+            } );
+            
+            final Queue<File> queue = new ConcurrentLinkedQueue<File>( files );
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread[] threads = new Thread[Math.max( 1, Math.min( numberOfThreads, files.size() ) )];
+            for ( i = 0; i < threads.length; i++ )
+            {
+                threads[i] = new Thread( "Store copier " + i )
                 {
-                    for ( File storefile : files )
+                    @Override
+                    public void run()
                     {
-                        FileInputStream stream = new FileInputStream( storefile );
-                        try
-                        {
-                            writer.write( relativePath( baseDir, storefile ), stream.getChannel(), temporaryBuffer,
-                                    storefile.length() > 0 );
-                        }
-                        finally
+                        ByteBuffer temporaryBuffer = ByteBuffer.allocateDirect( 1024*1024 );
+                        File storefile;
+                        while ( failure.get() == null && (storefile = queue.poll()) != null )
                         {
-                            stream.close();
+                            try
+                            {
+                                streamFile( baseDir, storefile, writer, temporaryBuffer, resume,
+                                        changedPages.get( canonicalFile( storefile ) ) );
+                            }
+                            catch ( Throwable t )
+                            {
+                                failure.compareAndSet( null, t );
+                            }
                         }
                     }
+                };
+                threads[i].start();
+            }
+            for ( Thread thread : threads )
+            {
+                thread.join();
+            }
+            if ( failure.get() != null )
+            {
+                throw new MasterFailureException( failure.get() );
+            }
+            success = true;
+        }
+        catch ( IOException e )
+        {
+            // TODO: what about error message?
+            throw new MasterFailureException( e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+            throw new MasterFailureException( e );
+        }
+        finally
+        {
+            for ( ClosableIterable<File> dsFiles : fileLists )
+            {
+                dsFiles.close();
+            }
+            if ( !success )
+            {
+                for ( Map.Entry<ChangedPages, ChangedPages.Snapshot> entry : checkpointed.entrySet() )
+                {
+                    entry.getKey().revert( entry.getValue(), newCheckpoint );
                 }
-                finally
+            }
+        }
+        return context;
+    }
+    
+    private static void streamFile( File baseDir, File storefile, StoreWriter writer,
+            ByteBuffer temporaryBuffer, boolean resume, ChangedPages.Snapshot changedPages )
+            throws IOException
+    {
+        String path = relativePath( baseDir, storefile );
+        FileInputStream stream = new FileInputStream( storefile );
+        try
+        {
+            FileChannel channel = stream.getChannel();
+            long length = channel.size();
+            if ( changedPages != null )
+            {
+                streamChangedPages( path, channel, length, writer, temporaryBuffer, changedPages );
+                return;
+            }
+            long position = resume ? writer.resumePosition( path ) : 0;
+            if ( position > length )
+            {
+                position = 0;
+            }
+            channel.position( position );
+            temporaryBuffer.clear();
+            writer.write( path, channel, temporaryBuffer, length > position, position );
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+    
+    private static void streamChangedPages( String path, FileChannel channel, long length,
+            StoreWriter writer, ByteBuffer temporaryBuffer, ChangedPages.Snapshot changedPages )
+            throws IOException
+    {
+        // The receiver already has the unchanged pages, but the length
+        // of the file may have changed either way
+        writer.write( path, null, temporaryBuffer, false, length );
+        long page = changedPages.nextChanged( 0 );
+        while ( page != -1 && page * ChangedPages.PAGE_SIZE < length )
+        {
+            long end = page + 1;
+            while ( changedPages.isChanged( end ) )
+            {
+                end++;
+            }
+            long from = page * ChangedPages.PAGE_SIZE;
+            long to = Math.min( end * ChangedPages.PAGE_SIZE, length );
+            channel.position( from );
+            temporaryBuffer.clear();
+            writer.write( path, new BoundedChannel( channel, to - from ), temporaryBuffer, true, from );
+            page = changedPages.nextChanged( end );
+        }
+    }
+    
+    private static File canonicalFile( File file )
+    {
+        try
+        {
+            return file.getCanonicalFile();
+        }
+        catch ( IOException e )
+        {
+            return file.getAbsoluteFile();
+        }
+    }
+    
+    /**
+     * Reads at most a given number of bytes from another channel.
+     */
+    private static class BoundedChannel implements ReadableByteChannel
+    {
+        private final ReadableByteChannel delegate;
+        private long remaining;
+
+        BoundedChannel( ReadableByteChannel delegate, long length )
+        {
+            this.delegate = delegate;
+            this.remaining = length;
+        }
+
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1;
+            }
+            int limit = dst.limit();
+            if ( dst.remaining() > remaining )
+            {
+                dst.limit( dst.position() + (int) remaining );
+            }
+            try
+            {
+                int read = delegate.read( dst );
+                if ( read > 0 )
                 {
-                    files.close();
+                    remaining -= read;
                 }
+                return read;
             }
-            catch ( IOException e )
+            finally
             {
-                // TODO: what about error message?
-                throw new MasterFailureException( e );
+                dst.limit( limit );
             }
         }
-        return context;
+
+        public boolean isOpen()
+        {
+            return delegate.isOpen();
+        }
+
+        public void close()
+        {
+            // The underlying channel is closed by whoever opened it
+        }
+    }
+    
+    /**
+     * An interrupted copy can be resumed if the store files copied then are
+     * not newer than the ones which will be copied now, and if all
+     * transactions committed since then are still available, since they'll
+     * have to be applied to the store.
+     */
+    private static boolean canResume( XaDataSourceManager dsManager, SlaveContext context,
+            SlaveContext resumeContext )
+    {
+        Map<String, Long> resumeTxs = StoreCopyProgress.asMap( resumeContext );
+        if ( !resumeTxs.keySet().equals( StoreCopyProgress.asMap( context ).keySet() ) )
+        {
+            return false;
+        }
+        for ( Pair<String, Long> tx : context.lastAppliedTransactions() )
+        {
+            long resumeTx = resumeTxs.get( tx.first() );
+            if ( resumeTx > tx.other() )
+            {
+                return false;
+            }
+            if ( resumeTx < tx.other() )
+            {
+                try
+                {
+                    dsManager.getXaDataSource( tx.first() ).getMasterForCommittedTx( resumeTx + 1 );
+                }
+                catch ( Exception e )
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
     
     public static <T> Response<T> packResponse( GraphDatabaseService graphDb,
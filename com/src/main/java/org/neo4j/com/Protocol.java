@@ -19,13 +19,21 @@
  */
 package org.neo4j.com;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
 import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.neo4j.helpers.Pair;
 
 public abstract class Protocol
 {
@@ -75,6 +83,10 @@ public abstract class Protocol
         {
         }
     };
+    /**
+     * Reads the store files written by a {@link ToNetworkStoreWriter} and
+     * hands them over to a {@link StoreWriter}, block by block.
+     */
     public static class FileStreamsDeserializer implements Deserializer<Void>
     {
         private final StoreWriter writer;
@@ -85,20 +97,122 @@ public abstract class Protocol
         }
         
         // NOTICE: this assumes a "smart" ChannelBuffer that continues to next chunk
+        @SuppressWarnings( "unchecked" )
         public Void read( ChannelBuffer buffer, ByteBuffer temporaryBuffer ) throws IOException
         {
-            int pathLength;
-            while ( 0 != ( pathLength = buffer.readUnsignedShort() ) )
+            Map<Integer, Pair<String, Long>> files = new HashMap<Integer, Pair<String, Long>>();
+            byte[] raw = new byte[ToNetworkStoreWriter.BLOCK_SIZE];
+            byte[] stored = new byte[ToNetworkStoreWriter.BLOCK_SIZE];
+            Inflater inflater = new Inflater();
+            CRC32 checksum = new CRC32();
+            try
             {
-                String path = readString( buffer, pathLength );
-                boolean hasData = buffer.readByte() == 1;
-                writer.write( path, hasData ? new BlockLogReader( buffer ) : null, temporaryBuffer, hasData );
+                byte type;
+                while ( ToNetworkStoreWriter.DONE != ( type = buffer.readByte() ) )
+                {
+                    switch ( type )
+                    {
+                    case ToNetworkStoreWriter.CONTEXT:
+                        Pair<String, Long>[] txs = new Pair[buffer.readInt()];
+                        for ( int i = 0; i < txs.length; i++ )
+                        {
+                            txs[i] = Pair.of( readString( buffer ), buffer.readLong() );
+                        }
+                        writer.begin( new SlaveContext( -1, -1, txs ) );
+                        break;
+                    case ToNetworkStoreWriter.FILE:
+                        int fileId = buffer.readInt();
+                        String path = readString( buffer );
+                        long position = buffer.readLong();
+                        boolean hasData = buffer.readByte() == 1;
+                        // Creates the file, even if it has no data
+                        temporaryBuffer.clear();
+                        writer.write( path, null, temporaryBuffer, false, position );
+                        if ( hasData )
+                        {
+                            files.put( fileId, Pair.of( path, position ) );
+                        }
+                        break;
+                    case ToNetworkStoreWriter.BLOCK:
+                        int blockFileId = buffer.readInt();
+                        Pair<String, Long> file = files.get( blockFileId );
+                        int length = buffer.readInt();
+                        int storedLength = buffer.readInt();
+                        int expectedChecksum = buffer.readInt();
+                        buffer.readBytes( stored, 0, storedLength );
+                        byte[] data = stored;
+                        if ( storedLength != length )
+                        {
+                            inflater.reset();
+                            inflater.setInput( stored, 0, storedLength );
+                            try
+                            {
+                                if ( inflater.inflate( raw, 0, length ) != length )
+                                {
+                                    throw new IOException( "Corrupt block for " + file.first() );
+                                }
+                            }
+                            catch ( DataFormatException e )
+                            {
+                                throw new IOException( e );
+                            }
+                            data = raw;
+                        }
+                        checksum.reset();
+                        checksum.update( data, 0, length );
+                        if ( (int) checksum.getValue() != expectedChecksum )
+                        {
+                            throw new IOException( "Checksum mismatch for block of " + file.first()
+                                    + " at " + file.other() );
+                        }
+                        temporaryBuffer.clear();
+                        writer.write( file.first(), Channels.newChannel(
+                                new ByteArrayInputStream( data, 0, length ) ), temporaryBuffer,
+                                true, file.other() );
+                        files.put( blockFileId, Pair.of( file.first(), file.other() + length ) );
+                        break;
+                    default:
+                        throw new IOException( "Unknown store copy message " + type );
+                    }
+                }
+            }
+            finally
+            {
+                inflater.end();
             }
             writer.done();
             return null;
         }
     };
     
+    /**
+     * Writes the options of a store copy request, which a
+     * {@link ToFileStoreWriter} can use to resume an interrupted copy.
+     */
+    public static class StoreCopyRequestSerializer implements Serializer
+    {
+        private final StoreWriter writer;
+
+        public StoreCopyRequestSerializer( StoreWriter writer )
+        {
+            this.writer = writer;
+        }
+
+        public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+        {
+            if ( writer instanceof ToFileStoreWriter )
+            {
+                ((ToFileStoreWriter) writer).writeCopyRequest( buffer );
+            }
+            else
+            {
+                buffer.writeByte( 0 );
+                buffer.writeInt( 0 );
+                buffer.writeInt( 0 );
+            }
+        }
+    }
+    
     public static void addLengthFieldPipes( ChannelPipeline pipeline )
     {
         pipeline.addLast( "frameDecoder",
@@ -26,7 +26,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -64,6 +67,8 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
     public static final int DEFAULT_BACKUP_PORT = 6362;
     
     private final static int DEAD_CONNECTIONS_CHECK_INTERVAL = 3;
+    // How long to wait for the client to grant credit for more chunks of a response
+    private final static int RESPONSE_CREDIT_TIMEOUT_SECONDS = 60;
     protected final static int DEFAULT_MAX_NUMBER_OF_CONCURRENT_TRANSACTIONS = 200;
 
     private final ChannelFactory channelFactory;
@@ -71,13 +76,14 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
     private final M realMaster;
     private final ChannelGroup channelGroup;
     private final ScheduledExecutorService deadConnectionsPoller;
-    private final Map<Channel, SlaveContext> connectedSlaveChannels = new HashMap<Channel, SlaveContext>();
-    private final Map<Channel, Pair<ChannelBuffer, ByteBuffer>> channelBuffers =
-            new HashMap<Channel, Pair<ChannelBuffer,ByteBuffer>>();
+    private final Map<SlaveContext, Channel> connectedSlaveChannels = new HashMap<SlaveContext, Channel>();
+    private final Queue<ByteBuffer> byteBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
     private final ExecutorService executor;
     private final StringLogger msgLog;
-    private final Map<Channel, PartialRequest> partialRequests =
-            Collections.synchronizedMap( new HashMap<Channel, PartialRequest>() );
+    private final Map<Pair<Channel, Integer>, PartialRequest> partialRequests =
+            Collections.synchronizedMap( new HashMap<Pair<Channel, Integer>, PartialRequest>() );
+    private final Map<Pair<Channel, Integer>, ChunkWindow> responseWindows =
+            Collections.synchronizedMap( new HashMap<Pair<Channel, Integer>, ChunkWindow>() );
 
     public Server( M realMaster, final int port, String storeDir )
     {
@@ -156,70 +162,82 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
     @SuppressWarnings( "unchecked" )
     protected void handleRequest( ChannelBuffer buffer, final Channel channel ) throws IOException
     {
-        // TODO Too long method, refactor please
         byte continuation = buffer.readByte();
-        if ( continuation == ChunkingChannelBuffer.CONTINUATION_MORE )
+        int requestId = buffer.readInt();
+        Pair<Channel, Integer> key = Pair.of( channel, requestId );
+        if ( continuation == ChunkingChannelBuffer.CONTINUATION_CREDIT )
         {
-            PartialRequest partialRequest = partialRequests.get( channel );
-            if ( partialRequest == null )
+            ChunkWindow window = responseWindows.get( key );
+            if ( window != null )
             {
-                // This is the first chunk
-                RequestType<M> type = getRequestContext( buffer.readByte() );
-                SlaveContext context = readContext( buffer );
-                Pair<ChannelBuffer, ByteBuffer> targetBuffers = mapSlave( channel, context );
-                partialRequest = new PartialRequest( type, context, targetBuffers );
-                partialRequests.put( channel, partialRequest );
+                window.grant( buffer.readInt() );
             }
-            partialRequest.add( buffer );
+            return;
         }
-        else
+        
+        PartialRequest partialRequest = partialRequests.get( key );
+        if ( partialRequest == null )
         {
-            PartialRequest partialRequest = partialRequests.remove( channel );
-            RequestType<M> type = null;
-            SlaveContext context = null;
-            Pair<ChannelBuffer, ByteBuffer> targetBuffers;
-            ChannelBuffer bufferToReadFrom = null;
-            ChannelBuffer bufferToWriteTo = null;
-            if ( partialRequest == null )
+            // This is the first chunk. The client grants credit for the
+            // response after it has sent the whole request, so the window
+            // must be there before any later message is handled.
+            RequestType<M> type = getRequestContext( buffer.readByte() );
+            SlaveContext context = readContext( buffer );
+            mapSlave( channel, context );
+            partialRequest = new PartialRequest( type, context, requestId );
+            responseWindows.put( key, new ChunkWindow(
+                    TimeUnit.SECONDS.toMillis( RESPONSE_CREDIT_TIMEOUT_SECONDS ) ) );
+            if ( continuation == ChunkingChannelBuffer.CONTINUATION_MORE )
             {
-                type = getRequestContext( buffer.readByte() );
-                context = readContext( buffer );
-                targetBuffers = mapSlave( channel, context );
-                bufferToReadFrom = buffer;
-                bufferToWriteTo = targetBuffers.first();
+                partialRequests.put( key, partialRequest );
             }
-            else
+        }
+        else if ( continuation == ChunkingChannelBuffer.CONTINUATION_LAST )
+        {
+            partialRequests.remove( key );
+        }
+
+        if ( continuation == ChunkingChannelBuffer.CONTINUATION_MORE )
+        {
+            partialRequest.add( buffer );
+        }
+        else
+        {
+            // Requests which span a single chunk are read directly from it.
+            // The master is called from the executor since it may block,
+            // f.ex. waiting for a lock, and other requests multiplexed over
+            // the same channel shouldn't have to wait for that.
+            ChannelBuffer bufferToReadFrom = buffer;
+            if ( partialRequest.buffer != null )
             {
-                type = partialRequest.type;
-                context = partialRequest.context;
-                targetBuffers = partialRequest.buffers;
                 partialRequest.add( buffer );
-                bufferToReadFrom = targetBuffers.first();
-                bufferToWriteTo = ChannelBuffers.dynamicBuffer();
+                bufferToReadFrom = partialRequest.buffer;
             }
-
-            bufferToWriteTo.clear();
-            final ChunkingChannelBuffer chunkingBuffer = new ChunkingChannelBuffer( bufferToWriteTo, channel, MAX_FRAME_LENGTH );
-            Response<R> response = type.getMasterCaller().callMaster( realMaster, context, bufferToReadFrom, chunkingBuffer );
-            executor.submit( responseWriter( type, channel, context, chunkingBuffer, targetBuffers.other(), response ) );
+            executor.submit( requestHandler( partialRequest, channel, bufferToReadFrom, key ) );
         }
     }
 
-    private Runnable responseWriter( final RequestType<M> type, final Channel channel, final SlaveContext context,
-            final ChunkingChannelBuffer targetBuffer, final ByteBuffer targetByteBuffer, final Response<R> response )
+    private Runnable requestHandler( final PartialRequest request, final Channel channel,
+            final ChannelBuffer bufferToReadFrom, final Pair<Channel, Integer> key )
     {
         return new Runnable()
         {
             @SuppressWarnings( "unchecked" )
             public void run()
             {
+                ByteBuffer byteBuffer = acquireByteBuffer();
                 try
                 {
-                    type.getObjectSerializer().write( response.response(), targetBuffer );
+                    ChunkingChannelBuffer targetBuffer = new ChunkingChannelBuffer(
+                            ChannelBuffers.dynamicBuffer(), channel, MAX_FRAME_LENGTH, request.requestId,
+                            responseWindows.get( key ) );
+                    Response<R> response = request.type.getMasterCaller().callMaster( realMaster,
+                            request.context, bufferToReadFrom, targetBuffer );
+                    request.type.getObjectSerializer().write( response.response(), targetBuffer );
                     writeStoreId( response.getStoreId(), targetBuffer );
-                    writeTransactionStreams( response.transactions(), targetBuffer, targetByteBuffer );
+                    writeTransactionStreams( response.transactions(), targetBuffer, byteBuffer );
                     targetBuffer.done();
-                    responseWritten( type, channel, context );
+                    responseWritten( request.type, channel, request.context );
                 }
                 catch ( IOException e )
                 {
@@ -231,9 +249,25 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
                     e.printStackTrace();
                     throw e;
                 }
+                finally
+                {
+                    responseWindows.remove( key );
+                    byteBuffers.offer( byteBuffer );
+                }
             }
         };
     }
+
+    private ByteBuffer acquireByteBuffer()
+    {
+        ByteBuffer buffer = byteBuffers.poll();
+        if ( buffer == null )
+        {
+            buffer = ByteBuffer.allocateDirect( 1*1024*1024 );
+        }
+        buffer.clear();
+        return buffer;
+    }
     
     protected abstract void responseWritten( RequestType<M> type, Channel channel, SlaveContext context );
 
@@ -288,32 +322,23 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
 
     protected abstract RequestType<M> getRequestContext( byte id );
 
-    protected Pair<ChannelBuffer, ByteBuffer> mapSlave( Channel channel, SlaveContext slave )
+    protected void mapSlave( Channel channel, SlaveContext slave )
     {
         channelGroup.add( channel );
-        Pair<ChannelBuffer, ByteBuffer> buffer = null;
         synchronized ( connectedSlaveChannels )
         {
-            if ( slave != null )
-            {
-                connectedSlaveChannels.put( channel, slave );
-            }
-            buffer = channelBuffers.get( channel );
-            if ( buffer == null )
+            if ( slave != null && slave != SlaveContext.EMPTY )
             {
-                buffer = Pair.of( ChannelBuffers.dynamicBuffer(), ByteBuffer.allocateDirect( 1*1024*1024 ) );
-                channelBuffers.put( channel, buffer );
+                connectedSlaveChannels.put( slave, channel );
             }
-            buffer.first().clear();
         }
-        return buffer;
     }
 
     protected void unmapSlave( Channel channel, SlaveContext slave )
     {
         synchronized ( connectedSlaveChannels )
         {
-            connectedSlaveChannels.remove( channel );
+            connectedSlaveChannels.remove( slave );
         }
     }
     
@@ -337,22 +362,45 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
     {
         synchronized ( connectedSlaveChannels )
         {
-            Collection<Channel> channelsToRemove = new ArrayList<Channel>();
-            for ( Map.Entry<Channel, SlaveContext> entry : connectedSlaveChannels.entrySet() )
+            // Many slave contexts can be multiplexed over the same channel
+            Collection<SlaveContext> contextsToRemove = new ArrayList<SlaveContext>();
+            for ( Map.Entry<SlaveContext, Channel> entry : connectedSlaveChannels.entrySet() )
+            {
+                if ( !channelIsOpen( entry.getValue() ) )
+                {
+                    msgLog.logMessage( "Found dead channel " + entry.getValue() + ", " + entry.getKey() );
+                    finishOffConnection( entry.getValue(), entry.getKey() );
+                    msgLog.logMessage( "Removed " + entry.getValue() + ", " + entry.getKey() );
+                    contextsToRemove.add( entry.getKey() );
+                }
+            }
+            for ( SlaveContext context : contextsToRemove )
+            {
+                connectedSlaveChannels.remove( context );
+            }
+        }
+        synchronized ( partialRequests )
+        {
+            for ( Iterator<Pair<Channel, Integer>> keys = partialRequests.keySet().iterator(); keys.hasNext(); )
             {
-                if ( !channelIsOpen( entry.getKey() ) )
+                if ( !channelIsOpen( keys.next().first() ) )
                 {
-                    msgLog.logMessage( "Found dead channel " + entry.getKey() + ", " + entry.getValue() );
-                    finishOffConnection( entry.getKey(), entry.getValue() );
-                    msgLog.logMessage( "Removed " + entry.getKey() + ", " + entry.getValue() );
-                    channelsToRemove.add( entry.getKey() );
+                    keys.remove();
                 }
             }
-            for ( Channel channel : channelsToRemove )
+        }
+        synchronized ( responseWindows )
+        {
+            // Wakes up the handlers waiting for credit which won't come
+            for ( Iterator<Map.Entry<Pair<Channel, Integer>, ChunkWindow>> entries =
+                    responseWindows.entrySet().iterator(); entries.hasNext(); )
             {
-                connectedSlaveChannels.remove( channel );
-                channelBuffers.remove( channel );
-                partialRequests.remove( channel );
+                Map.Entry<Pair<Channel, Integer>, ChunkWindow> entry = entries.next();
+                if ( !channelIsOpen( entry.getKey().first() ) )
+                {
+                    entry.getValue().close();
+                    entries.remove();
+                }
             }
         }
     }
@@ -368,7 +416,7 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
         return channel.isConnected() && channel.isOpen();
     }
     
-    public Map<Channel, SlaveContext> getConnectedSlaveChannels()
+    public Map<SlaveContext, Channel> getConnectedSlaveChannels()
     {
         return connectedSlaveChannels;
     }
@@ -381,19 +429,24 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
     private class PartialRequest
     {
         final SlaveContext context;
-        final Pair<ChannelBuffer, ByteBuffer> buffers;
         final RequestType<M> type;
+        final int requestId;
+        ChannelBuffer buffer;
 
-        public PartialRequest( RequestType<M> type, SlaveContext context, Pair<ChannelBuffer, ByteBuffer> buffers )
+        public PartialRequest( RequestType<M> type, SlaveContext context, int requestId )
         {
             this.type = type;
             this.context = context;
-            this.buffers = buffers;
+            this.requestId = requestId;
         }
 
         public void add( ChannelBuffer buffer )
         {
-            this.buffers.first().writeBytes( buffer );
+            if ( this.buffer == null )
+            {
+                this.buffer = ChannelBuffers.dynamicBuffer();
+            }
+            this.buffer.writeBytes( buffer );
         }
     }
 }
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.neo4j.helpers.Pair;
+
+/**
+ * Keeps track of how far a store copy into a directory has come, so that an
+ * interrupted copy can be resumed instead of started over. The progress is
+ * kept in a file in the target directory which is deleted when the copy has
+ * completed, so the existence of that file means that the store in that
+ * directory isn't complete.
+ */
+public class StoreCopyProgress
+{
+    public static final String FILE_NAME = "store_copy.progress";
+    private static final String TX_PREFIX = "tx.";
+    private static final String FILE_PREFIX = "file.";
+    private static final long SAVE_INTERVAL_MILLIS = 1000;
+
+    private final File file;
+    private final Map<String, Long> positions = new HashMap<String, Long>();
+    private SlaveContext context;
+    private long lastSaved;
+
+    public StoreCopyProgress( File directory ) throws IOException
+    {
+        this.file = new File( directory, FILE_NAME );
+        if ( file.exists() )
+        {
+            load();
+        }
+    }
+
+    public static boolean isInProgress( String directory )
+    {
+        return new File( directory, FILE_NAME ).exists();
+    }
+
+    /**
+     * @return the transactions the store files being copied are at least
+     * as new as, or {@code null} if no copy has been started.
+     */
+    public synchronized SlaveContext getContext()
+    {
+        return context;
+    }
+
+    /**
+     * Called when the sender has told which transactions the copy starts
+     * from. Unless that's the same as for the interrupted copy the file
+     * positions from that copy can't be trusted anymore.
+     */
+    public synchronized void begin( SlaveContext context ) throws IOException
+    {
+        if ( this.context == null || !asMap( this.context ).equals( asMap( context ) ) )
+        {
+            positions.clear();
+        }
+        this.context = context;
+        save();
+    }
+
+    public synchronized long position( String path )
+    {
+        Long position = positions.get( path );
+        return position != null ? position : 0;
+    }
+
+    public synchronized Map<String, Long> getPositions()
+    {
+        return new HashMap<String, Long>( positions );
+    }
+
+    public synchronized void written( String path, long endPosition ) throws IOException
+    {
+        positions.put( path, endPosition );
+        if ( System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL_MILLIS )
+        {
+            save();
+        }
+    }
+
+    public synchronized void save() throws IOException
+    {
+        Properties properties = new Properties();
+        if ( context != null )
+        {
+            for ( Pair<String, Long> tx : context.lastAppliedTransactions() )
+            {
+                properties.setProperty( TX_PREFIX + tx.first(), "" + tx.other() );
+            }
+        }
+        for ( Map.Entry<String, Long> position : positions.entrySet() )
+        {
+            properties.setProperty( FILE_PREFIX + position.getKey(), "" + position.getValue() );
+        }
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream( file );
+        try
+        {
+            properties.store( out, "Progress of an ongoing store copy" );
+        }
+        finally
+        {
+            out.close();
+        }
+        lastSaved = System.currentTimeMillis();
+    }
+
+    public synchronized void completed()
+    {
+        positions.clear();
+        context = null;
+        file.delete();
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private void load() throws IOException
+    {
+        Properties properties = new Properties();
+        FileInputStream in = new FileInputStream( file );
+        try
+        {
+            properties.load( in );
+        }
+        finally
+        {
+            in.close();
+        }
+        Map<String, Long> txs = new HashMap<String, Long>();
+        for ( String key : properties.stringPropertyNames() )
+        {
+            long value = Long.parseLong( properties.getProperty( key ) );
+            if ( key.startsWith( TX_PREFIX ) )
+            {
+                txs.put( key.substring( TX_PREFIX.length() ), value );
+            }
+            else if ( key.startsWith( FILE_PREFIX ) )
+            {
+                positions.put( key.substring( FILE_PREFIX.length() ), value );
+            }
+        }
+        if ( !txs.isEmpty() )
+        {
+            Pair<String, Long>[] lastAppliedTransactions = new Pair[txs.size()];
+            int i = 0;
+            for ( Map.Entry<String, Long> tx : txs.entrySet() )
+            {
+                lastAppliedTransactions[i++] = Pair.of( tx.getKey(), tx.getValue() );
+            }
+            context = new SlaveContext( -1, -1, lastAppliedTransactions );
+        }
+        else
+        {
+            // Without the transactions to start from the file positions are useless
+            positions.clear();
+        }
+    }
+
+    static Map<String, Long> asMap( SlaveContext context )
+    {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for ( Pair<String, Long> tx : context.lastAppliedTransactions() )
+        {
+            result.put( tx.first(), tx.other() );
+        }
+        return result;
+    }
+}
@@ -23,13 +23,37 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 
+/**
+ * Receives the store files of a store copy. Files may be written from
+ * several threads concurrently, each file by only one thread at a time and
+ * in order, so implementations must be thread safe.
+ */
 public interface StoreWriter
 {
+    /**
+     * @return the context of an earlier, interrupted copy which this copy
+     * may continue, or {@code null} if there's none.
+     */
+    SlaveContext resumeContext();
+
+    /**
+     * @return the position in {@code path} to resume copying from, if the
+     * copy continues from {@link #resumeContext()}.
+     */
+    long resumePosition( String path );
+
+    /**
+     * Called before any file is written, with the transactions the store
+     * files are at least as new as. Those are the transactions which must be
+     * applied after the copy for the store to become consistent.
+     */
+    void begin( SlaveContext context ) throws IOException;
+
     // "hasData" is an effect of the block format not supporting a zero length block
     // whereas a neostore file may actually be 0 bytes we'll have to keep track
     // of that special case.
-    void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer, boolean hasData )
-            throws IOException;
+    void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer, boolean hasData,
+            long position ) throws IOException;
 
     void done();
 }
@@ -25,44 +25,117 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.neo4j.helpers.Pair;
+
+/**
+ * Writes store files into a directory and keeps track of the progress in a
+ * {@link StoreCopyProgress}, so that an interrupted copy into the same
+ * directory can be resumed. Call {@link #copyCompleted()} when the store in
+ * the directory is complete and consistent.
+ */
 public class ToFileStoreWriter implements StoreWriter
 {
     private final File basePath;
+    private final boolean compressTransfer;
+    private final boolean resumable;
+    private final StoreCopyProgress progress;
+    private final Map<String, FileChannel> openFiles = new HashMap<String, FileChannel>();
 
     public ToFileStoreWriter( String graphDbStoreDir )
+    {
+        this( graphDbStoreDir, false );
+    }
+
+    /**
+     * @param compressTransfer whether or not the sender should be asked to
+     * compress the store files on the wire.
+     */
+    public ToFileStoreWriter( String graphDbStoreDir, boolean compressTransfer )
+    {
+        this( graphDbStoreDir, compressTransfer, true );
+    }
+
+    /**
+     * @param resumable whether or not the files are written sequentially so
+     * that how far each one has come can be used to resume the copy. If not,
+     * an interrupted copy only leaves a mark that the store is incomplete and
+     * will have to be copied all over again.
+     */
+    public ToFileStoreWriter( String graphDbStoreDir, boolean compressTransfer, boolean resumable )
     {
         this.basePath = new File( graphDbStoreDir );
+        this.compressTransfer = compressTransfer;
+        this.resumable = resumable;
+        try
+        {
+            this.progress = new StoreCopyProgress( basePath );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Couldn't read store copy progress in " + basePath, e );
+        }
+    }
+
+    public SlaveContext resumeContext()
+    {
+        return progress.getContext();
+    }
+
+    public long resumePosition( String path )
+    {
+        return progress.position( path );
+    }
+
+    public void begin( SlaveContext context ) throws IOException
+    {
+        progress.begin( context );
     }
 
     public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer,
-            boolean hasData ) throws IOException
+            boolean hasData, long position ) throws IOException
     {
         try
         {
-            File file = new File( basePath, path );
-            RandomAccessFile randomAccessFile = null;
-            try
+            FileChannel channel = openFile( path, position );
+            long end = position;
+            if ( hasData )
             {
-                file.getParentFile().mkdirs();
-                randomAccessFile = new RandomAccessFile( file, "rw" );
-                if ( hasData )
+                if ( data instanceof FileChannel && end <= channel.size() )
+                {
+                    // Local copy, let the OS move the bytes
+                    FileChannel source = (FileChannel) data;
+                    long count = source.size() - source.position();
+                    while ( count > 0 )
+                    {
+                        long transferred = channel.transferFrom( source, end, count );
+                        if ( transferred <= 0 )
+                        {
+                            break;
+                        }
+                        end += transferred;
+                        count -= transferred;
+                    }
+                }
+                else
                 {
-                    FileChannel channel = randomAccessFile.getChannel();
                     while ( data.read( temporaryBuffer ) >= 0 )
                     {
                         temporaryBuffer.flip();
-                        channel.write( temporaryBuffer );
+                        while ( temporaryBuffer.hasRemaining() )
+                        {
+                            end += channel.write( temporaryBuffer, end );
+                        }
                         temporaryBuffer.clear();
                     }
                 }
             }
-            finally
+            if ( resumable )
             {
-                if ( randomAccessFile != null )
-                {
-                    randomAccessFile.close();
-                }
+                progress.written( path, end );
             }
         }
         catch ( Throwable t )
@@ -72,8 +145,87 @@ public class ToFileStoreWriter implements StoreWriter
         }
     }
 
+    private FileChannel openFile( String path, long position ) throws IOException
+    {
+        synchronized ( openFiles )
+        {
+            FileChannel channel = openFiles.get( path );
+            if ( channel == null )
+            {
+                File file = new File( basePath, path );
+                file.getParentFile().mkdirs();
+                channel = new RandomAccessFile( file, "rw" ).getChannel();
+                // Whatever is after the position is from an earlier copy
+                // and will be sent again
+                channel.truncate( position );
+                openFiles.put( path, channel );
+            }
+            return channel;
+        }
+    }
+
     public void done()
     {
-        // Do nothing
+        synchronized ( openFiles )
+        {
+            for ( FileChannel channel : openFiles.values() )
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch ( IOException e )
+                {
+                    e.printStackTrace();
+                }
+            }
+            openFiles.clear();
+        }
+        try
+        {
+            progress.save();
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Marks the copy as completed, so that it won't be resumed.
+     */
+    public void copyCompleted()
+    {
+        progress.completed();
+    }
+
+    /**
+     * Writes the options of a store copy request for the sender, see
+     * {@link ToNetworkStoreWriter#forRequest(ChannelBuffer, ChannelBuffer)}.
+     */
+    public void writeCopyRequest( ChannelBuffer buffer )
+    {
+        buffer.writeByte( compressTransfer ? 1 : 0 );
+        SlaveContext context = progress.getContext();
+        Pair<String, Long>[] txs = context != null ? context.lastAppliedTransactions() : null;
+        buffer.writeInt( txs != null ? txs.length : 0 );
+        if ( txs != null )
+        {
+            for ( Pair<String, Long> tx : txs )
+            {
+                Protocol.writeString( buffer, tx.first() );
+                buffer.writeLong( tx.other() );
+            }
+        }
+        Map<String, Long> positions = txs != null ? progress.getPositions()
+                : new HashMap<String, Long>();
+        buffer.writeInt( positions.size() );
+        for ( Map.Entry<String, Long> position : positions.entrySet() )
+        {
+            // Never resume beyond what actually made it to the file
+            long length = new File( basePath, position.getKey() ).length();
+            Protocol.writeString( buffer, position.getKey() );
+            buffer.writeLong( Math.min( position.getValue(), length ) );
+        }
     }
 }
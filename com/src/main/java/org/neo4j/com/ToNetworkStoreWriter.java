@@ -22,36 +22,195 @@ package org.neo4j.com;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.neo4j.helpers.Pair;
 
+/**
+ * Writes store files to the response of a store copy request. Each file is
+ * split up into blocks which are tagged with the id of the file, so that
+ * blocks of several files being read concurrently can be interleaved in
+ * the response. Blocks can optionally be compressed, which is decided by
+ * the receiver when making the request.
+ *
+ * The format is a sequence of messages, each starting with a type byte:
+ * <ul>
+ * <li>{@link #CONTEXT}: the transactions the copy starts from</li>
+ * <li>{@link #FILE}: id, path, position to start writing at and whether or
+ * not there's any data to follow</li>
+ * <li>{@link #BLOCK}: file id, uncompressed length, stored length, a CRC32
+ * checksum of the uncompressed bytes and the stored bytes. The block is
+ * compressed if the lengths differ</li>
+ * <li>{@link #DONE}: no more messages</li>
+ * </ul>
+ */
 public class ToNetworkStoreWriter implements StoreWriter
 {
+    static final byte DONE = 0;
+    static final byte CONTEXT = 1;
+    static final byte FILE = 2;
+    static final byte BLOCK = 3;
+    static final int BLOCK_SIZE = 64*1024;
+
     private final ChannelBuffer targetBuffer;
+    private final boolean compress;
+    private final SlaveContext resumeContext;
+    private final Map<String, Long> resumePositions;
+    private final AtomicInteger nextFileId = new AtomicInteger( 1 );
 
     public ToNetworkStoreWriter( ChannelBuffer targetBuffer )
+    {
+        this( targetBuffer, false, null, new HashMap<String, Long>() );
+    }
+
+    public ToNetworkStoreWriter( ChannelBuffer targetBuffer, boolean compress,
+            SlaveContext resumeContext, Map<String, Long> resumePositions )
     {
         this.targetBuffer = targetBuffer;
+        this.compress = compress;
+        this.resumeContext = resumeContext;
+        this.resumePositions = resumePositions;
+    }
+
+    /**
+     * Reads the options written by {@link ToFileStoreWriter#writeCopyRequest(ChannelBuffer)}.
+     */
+    @SuppressWarnings( "unchecked" )
+    public static ToNetworkStoreWriter forRequest( ChannelBuffer input, ChannelBuffer targetBuffer )
+    {
+        boolean compress = input.readByte() == 1;
+        int txCount = input.readInt();
+        Pair<String, Long>[] txs = new Pair[txCount];
+        for ( int i = 0; i < txCount; i++ )
+        {
+            txs[i] = Pair.of( Protocol.readString( input ), input.readLong() );
+        }
+        Map<String, Long> positions = new HashMap<String, Long>();
+        int positionCount = input.readInt();
+        for ( int i = 0; i < positionCount; i++ )
+        {
+            positions.put( Protocol.readString( input ), input.readLong() );
+        }
+        return new ToNetworkStoreWriter( targetBuffer, compress,
+                txCount > 0 ? new SlaveContext( -1, -1, txs ) : null, positions );
+    }
+
+    public SlaveContext resumeContext()
+    {
+        return resumeContext;
+    }
+
+    public long resumePosition( String path )
+    {
+        Long position = resumePositions.get( path );
+        return position != null ? position : 0;
     }
-    
+
+    public void begin( SlaveContext context ) throws IOException
+    {
+        Pair<String, Long>[] txs = context.lastAppliedTransactions();
+        synchronized ( targetBuffer )
+        {
+            targetBuffer.writeByte( CONTEXT );
+            targetBuffer.writeInt( txs.length );
+            for ( Pair<String, Long> tx : txs )
+            {
+                Protocol.writeString( targetBuffer, tx.first() );
+                targetBuffer.writeLong( tx.other() );
+            }
+        }
+    }
+
     public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer,
-            boolean hasData ) throws IOException
+            boolean hasData, long position ) throws IOException
     {
-        char[] chars = path.toCharArray();
-        targetBuffer.writeShort( chars.length );
-        Protocol.writeChars( targetBuffer, chars );
-        targetBuffer.writeByte( hasData ? 1 : 0 );
-        // TODO Make use of temporaryBuffer?
-        BlockLogBuffer buffer = new BlockLogBuffer( targetBuffer );
-        if ( hasData )
+        int fileId = nextFileId.getAndIncrement();
+        synchronized ( targetBuffer )
+        {
+            targetBuffer.writeByte( FILE );
+            targetBuffer.writeInt( fileId );
+            Protocol.writeString( targetBuffer, path );
+            targetBuffer.writeLong( position );
+            targetBuffer.writeByte( hasData ? 1 : 0 );
+        }
+        if ( !hasData )
         {
-            buffer.write( data );
-            buffer.done();
+            return;
+        }
+
+        Deflater deflater = compress ? new Deflater( Deflater.BEST_SPEED ) : null;
+        CRC32 checksum = new CRC32();
+        byte[] raw = new byte[BLOCK_SIZE];
+        byte[] compressed = compress ? new byte[BLOCK_SIZE] : null;
+        try
+        {
+            int limit = Math.min( temporaryBuffer.capacity(), BLOCK_SIZE );
+            while ( true )
+            {
+                // Read outside of the lock so that other files can be read
+                // from disk while this block is written to the response
+                temporaryBuffer.clear().limit( limit );
+                while ( temporaryBuffer.hasRemaining() )
+                {
+                    if ( data.read( temporaryBuffer ) < 0 )
+                    {
+                        break;
+                    }
+                }
+                temporaryBuffer.flip();
+                int length = temporaryBuffer.remaining();
+                if ( length == 0 )
+                {
+                    break;
+                }
+
+                temporaryBuffer.get( raw, 0, length );
+                checksum.reset();
+                checksum.update( raw, 0, length );
+                int storedLength = length;
+                if ( compress )
+                {
+                    deflater.reset();
+                    deflater.setInput( raw, 0, length );
+                    deflater.finish();
+                    storedLength = deflater.deflate( compressed );
+                    if ( !deflater.finished() || storedLength >= length )
+                    {
+                        // Incompressible, send it as it is
+                        storedLength = length;
+                    }
+                }
+                synchronized ( targetBuffer )
+                {
+                    targetBuffer.writeByte( BLOCK );
+                    targetBuffer.writeInt( fileId );
+                    targetBuffer.writeInt( length );
+                    targetBuffer.writeInt( storedLength );
+                    targetBuffer.writeInt( (int) checksum.getValue() );
+                    targetBuffer.writeBytes( storedLength < length ? compressed : raw, 0,
+                            storedLength );
+                }
+            }
+        }
+        finally
+        {
+            if ( deflater != null )
+            {
+                deflater.end();
+            }
         }
     }
 
     public void done()
     {
-        targetBuffer.writeShort( 0 );
+        synchronized ( targetBuffer )
+        {
+            targetBuffer.writeByte( DONE );
+        }
     }
 }
@@ -19,17 +19,23 @@
  */
 package org.neo4j.com.backup;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.neo4j.com.Client;
+import org.neo4j.com.Deserializer;
 import org.neo4j.com.MasterCaller;
 import org.neo4j.com.ObjectSerializer;
 import org.neo4j.com.Protocol;
 import org.neo4j.com.RequestType;
 import org.neo4j.com.Response;
+import org.neo4j.com.Serializer;
 import org.neo4j.com.SlaveContext;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.com.ToNetworkStoreWriter;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.nioneo.store.StoreId;
 
 class BackupClient extends Client<TheBackupInterface> implements TheBackupInterface
 {
@@ -38,10 +44,11 @@ class BackupClient extends Client<TheBackupInterface> implements TheBackupInterf
         super( hostNameOrIp, port, graphDb );
     }
     
-    public Response<Void> fullBackup( StoreWriter storeWriter )
+    public Response<Long> fullBackup( StoreWriter storeWriter )
     {
         return sendRequest( BackupRequestType.FULL_BACKUP, SlaveContext.EMPTY,
-                Protocol.EMPTY_SERIALIZER, new Protocol.FileStreamsDeserializer( storeWriter ) );
+                new Protocol.StoreCopyRequestSerializer( storeWriter ),
+                new CheckpointDeserializer( storeWriter ) );
     }
     
     public Response<Void> incrementalBackup( SlaveContext context )
@@ -50,22 +57,57 @@ class BackupClient extends Client<TheBackupInterface> implements TheBackupInterf
                 Protocol.EMPTY_SERIALIZER, Protocol.VOID_DESERIALIZER );
     }
     
+    public Response<Long> incrementalPageBackup( final StoreId storeId, final long checkpoint,
+            StoreWriter storeWriter )
+    {
+        final Serializer copyRequest = new Protocol.StoreCopyRequestSerializer( storeWriter );
+        return sendRequest( BackupRequestType.INCREMENTAL_PAGE_BACKUP, SlaveContext.EMPTY,
+                new Serializer()
+                {
+                    public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+                    {
+                        buffer.writeLong( storeId.getCreationTime() );
+                        buffer.writeLong( storeId.getRandomId() );
+                        buffer.writeLong( checkpoint );
+                        copyRequest.write( buffer, readBuffer );
+                    }
+                }, new CheckpointDeserializer( storeWriter ) );
+    }
+    
     @Override
     protected boolean shouldCheckStoreId( RequestType<TheBackupInterface> type )
     {
-        return type != BackupRequestType.FULL_BACKUP;
+        // The page backup compares the store ids itself, see OnlineBackup
+        return type != BackupRequestType.FULL_BACKUP
+                && type != BackupRequestType.INCREMENTAL_PAGE_BACKUP;
+    }
+    
+    private static class CheckpointDeserializer implements Deserializer<Long>
+    {
+        private final Deserializer<Void> files;
+        
+        CheckpointDeserializer( StoreWriter writer )
+        {
+            this.files = new Protocol.FileStreamsDeserializer( writer );
+        }
+        
+        public Long read( ChannelBuffer buffer, ByteBuffer temporaryBuffer ) throws IOException
+        {
+            files.read( buffer, temporaryBuffer );
+            return buffer.readLong();
+        }
     }
     
     public static enum BackupRequestType implements RequestType<TheBackupInterface>
     {
-        FULL_BACKUP( new MasterCaller<TheBackupInterface, Void>()
+        FULL_BACKUP( new MasterCaller<TheBackupInterface, Long>()
         {
-            public Response<Void> callMaster( TheBackupInterface master, SlaveContext context,
+            public Response<Long> callMaster( TheBackupInterface master, SlaveContext context,
                     ChannelBuffer input, ChannelBuffer target )
             {
-                return master.fullBackup( new ToNetworkStoreWriter( target ) );
+                return master.fullBackup( ToNetworkStoreWriter.forRequest( input, target ) );
             }
-        }, Protocol.VOID_SERIALIZER ),
+        }, Protocol.LONG_SERIALIZER ),
         INCREMENTAL_BACKUP( new MasterCaller<TheBackupInterface, Void>()
         {
             public Response<Void> callMaster( TheBackupInterface master, SlaveContext context,
@@ -73,7 +115,18 @@ class BackupClient extends Client<TheBackupInterface> implements TheBackupInterf
             {
                 return master.incrementalBackup( context );
             }
-        }, Protocol.VOID_SERIALIZER )
+        }, Protocol.VOID_SERIALIZER ),
+        INCREMENTAL_PAGE_BACKUP( new MasterCaller<TheBackupInterface, Long>()
+        {
+            public Response<Long> callMaster( TheBackupInterface master, SlaveContext context,
+                    ChannelBuffer input, ChannelBuffer target )
+            {
+                StoreId storeId = new StoreId( input.readLong(), input.readLong() );
+                long checkpoint = input.readLong();
+                return master.incrementalPageBackup( storeId, checkpoint,
+                        ToNetworkStoreWriter.forRequest( input, target ) );
+            }
+        }, Protocol.LONG_SERIALIZER )
         
         ;
         @SuppressWarnings( "rawtypes" )
@@ -24,25 +24,62 @@ import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.nioneo.store.ChangedPages;
+import org.neo4j.kernel.impl.nioneo.store.StoreId;
+import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
 
 class BackupImpl implements TheBackupInterface
 {
     private final GraphDatabaseService graphDb;
+    private long lastCheckpoint = ChangedPages.NO_CHECKPOINT;
 
     public BackupImpl( GraphDatabaseService graphDb )
     {
         this.graphDb = graphDb;
     }
     
-    public Response<Void> fullBackup( StoreWriter writer )
+    public Response<Long> fullBackup( StoreWriter writer )
     {
-        SlaveContext context = MasterUtil.rotateLogsAndStreamStoreFiles( graphDb, writer );
-        writer.done();
-        return MasterUtil.packResponse( graphDb, context, null, MasterUtil.ALL );
+        return incrementalPageBackup( ChangedPages.NO_CHECKPOINT, writer );
     }
     
     public Response<Void> incrementalBackup( SlaveContext context )
     {
         return MasterUtil.packResponse( graphDb, context, null, MasterUtil.ALL );
     }
+    
+    public Response<Long> incrementalPageBackup( StoreId storeId, long checkpoint, StoreWriter writer )
+    {
+        if ( !storeId.equals( getStoreId() ) )
+        {
+            writer.done();
+            return MasterUtil.packResponseWithoutTransactionStream( graphDb, SlaveContext.EMPTY,
+                    ChangedPages.NO_CHECKPOINT );
+        }
+        return incrementalPageBackup( checkpoint, writer );
+    }
+    
+    private Response<Long> incrementalPageBackup( long sinceCheckpoint, StoreWriter writer )
+    {
+        long checkpoint = newCheckpoint();
+        SlaveContext context = MasterUtil.rotateLogsAndStreamChangedPages( graphDb, writer,
+                sinceCheckpoint, checkpoint );
+        writer.done();
+        return MasterUtil.packResponse( graphDb, context, checkpoint, MasterUtil.ALL );
+    }
+    
+    private synchronized long newCheckpoint()
+    {
+        // Time based so that checkpoints from before a restart aren't reused
+        lastCheckpoint = Math.max( System.currentTimeMillis(), lastCheckpoint + 1 );
+        return lastCheckpoint;
+    }
+    
+    private StoreId getStoreId()
+    {
+        return ((NeoStoreXaDataSource) ((AbstractGraphDatabase) graphDb).getConfig().getTxModule()
+                .getXaDataSourceManager().getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME )).getStoreId();
+    }
 }
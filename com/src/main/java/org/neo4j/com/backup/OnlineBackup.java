@@ -21,27 +21,35 @@ package org.neo4j.com.backup;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.neo4j.com.ComException;
 import org.neo4j.com.MasterUtil;
 import org.neo4j.com.MasterUtil.TxHandler;
 import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
+import org.neo4j.com.StoreCopyProgress;
 import org.neo4j.com.ToFileStoreWriter;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.AbstractGraphDatabase;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.ChangedPages;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.StoreId;
 import org.neo4j.kernel.impl.transaction.XaDataSourceManager;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 public class OnlineBackup
 {
+    private static final String CHECKPOINT_FILE = "backup.checkpoint";
+    
     private final String hostNameOrIp;
     private final int port;
     private final Map<String, Long> lastCommittedTxs = new TreeMap<String, Long>();
@@ -64,7 +72,20 @@ public class OnlineBackup
     
     public OnlineBackup full( String targetDirectory )
     {
-        if ( directoryContainsDb( targetDirectory ) )
+        return full( targetDirectory, false );
+    }
+    
+    /**
+     * Makes a full backup into {@code targetDirectory}, which must not
+     * contain a database unless it's from an earlier full backup which was
+     * interrupted. Such a backup is resumed rather than started over.
+     *
+     * @param compress whether or not the store files should be compressed
+     * when sent over the network.
+     */
+    public OnlineBackup full( String targetDirectory, boolean compress )
+    {
+        if ( directoryContainsDb( targetDirectory ) && !StoreCopyProgress.isInProgress( targetDirectory ) )
         {
             throw new RuntimeException( targetDirectory + " already contains a database" );
         }
@@ -73,26 +94,138 @@ public class OnlineBackup
         BackupClient client = new BackupClient( hostNameOrIp, port, new NotYetExistingGraphDatabase( targetDirectory ) );
         try
         {
-            Response<Void> response = client.fullBackup( new ToFileStoreWriter( targetDirectory ) );
-            GraphDatabaseService targetDb = startTemporaryDb( targetDirectory );
-            try
-            {
-                unpackResponse( response, targetDb, MasterUtil.txHandlerForFullCopy() );
-            }
-            finally
+            ToFileStoreWriter writer = new ToFileStoreWriter( targetDirectory, compress );
+            Response<Long> response = client.fullBackup( writer );
+            applyCopiedStore( targetDirectory, writer, response );
+        }
+        finally
+        {
+            client.shutdown();
+            // TODO This is also ugly
+            StringLogger.close( targetDirectory );
+        }
+        return this;
+    }
+    
+    /**
+     * Brings the backup in {@code targetDirectory} up to date by copying
+     * the store pages which have changed since the last full or page
+     * backup into it. Store files for which that isn't known, or if the
+     * last backup didn't complete, are copied as a whole.
+     */
+    public OnlineBackup incrementalPages( String targetDirectory )
+    {
+        return incrementalPages( targetDirectory, false );
+    }
+    
+    /**
+     * @see #incrementalPages(String)
+     * @param compress whether or not the pages should be compressed
+     * when sent over the network.
+     */
+    public OnlineBackup incrementalPages( String targetDirectory, boolean compress )
+    {
+        if ( !directoryContainsDb( targetDirectory ) )
+        {
+            throw new RuntimeException( targetDirectory + " doesn't contain a database" );
+        }
+        
+        StoreId storeId;
+        try
+        {
+            storeId = NeoStore.readStoreId( new File( targetDirectory, "neostore" ).getPath() );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to read store id of " + targetDirectory, e );
+        }
+        long checkpoint = StoreCopyProgress.isInProgress( targetDirectory ) ?
+                ChangedPages.NO_CHECKPOINT : readCheckpoint( targetDirectory );
+        // Pages are about to be written, so the checkpoint won't be valid
+        // until they all have been
+        new File( targetDirectory, CHECKPOINT_FILE ).delete();
+        BackupClient client = new BackupClient( hostNameOrIp, port, new NotYetExistingGraphDatabase( targetDirectory ) );
+        try
+        {
+            ToFileStoreWriter writer = new ToFileStoreWriter( targetDirectory, compress, false );
+            Response<Long> response = client.incrementalPageBackup( storeId, checkpoint, writer );
+            if ( !storeId.equals( response.getStoreId() ) )
             {
-                targetDb.shutdown();
+                throw new ComException( response.getStoreId() + " from response doesn't match my " + storeId );
             }
+            applyCopiedStore( targetDirectory, writer, response );
         }
         finally
         {
             client.shutdown();
-            // TODO This is also ugly
             StringLogger.close( targetDirectory );
         }
         return this;
     }
     
+    private void applyCopiedStore( String targetDirectory, ToFileStoreWriter writer,
+            Response<Long> response )
+    {
+        GraphDatabaseService targetDb = startTemporaryDb( targetDirectory );
+        try
+        {
+            unpackResponse( response, targetDb, MasterUtil.txHandlerForFullCopy() );
+        }
+        finally
+        {
+            targetDb.shutdown();
+        }
+        writer.copyCompleted();
+        writeCheckpoint( targetDirectory, response.response() );
+    }
+    
+    private long readCheckpoint( String targetDirectory )
+    {
+        File file = new File( targetDirectory, CHECKPOINT_FILE );
+        if ( !file.exists() )
+        {
+            return ChangedPages.NO_CHECKPOINT;
+        }
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile( file, "r" );
+            try
+            {
+                return raf.readLong();
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // Then all pages will be copied
+            return ChangedPages.NO_CHECKPOINT;
+        }
+    }
+    
+    private void writeCheckpoint( String targetDirectory, long checkpoint )
+    {
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile( new File( targetDirectory, CHECKPOINT_FILE ), "rw" );
+            try
+            {
+                raf.setLength( 0 );
+                raf.writeLong( checkpoint );
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to write backup checkpoint to " + targetDirectory, e );
+        }
+    }
+    
     private boolean directoryContainsDb( String targetDirectory )
     {
         return new File( targetDirectory, "neostore" ).exists();
@@ -150,7 +283,7 @@ public class OnlineBackup
         return this;
     }
     
-    private void unpackResponse( Response<Void> response, GraphDatabaseService graphDb, TxHandler txHandler )
+    private void unpackResponse( Response<?> response, GraphDatabaseService graphDb, TxHandler txHandler )
     {
         try
         {
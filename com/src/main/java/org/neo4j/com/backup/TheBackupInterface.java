@@ -22,10 +22,24 @@ package org.neo4j.com.backup;
 import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
 import org.neo4j.com.StoreWriter;
+import org.neo4j.kernel.impl.nioneo.store.StoreId;
 
 public interface TheBackupInterface
 {
-    Response<Void> fullBackup( StoreWriter writer );
+    /**
+     * Streams all the store files and starts a new backup checkpoint,
+     * which is the response.
+     */
+    Response<Long> fullBackup( StoreWriter writer );
     
     Response<Void> incrementalBackup( SlaveContext context );
+    
+    /**
+     * Streams the store pages which have changed since backup checkpoint
+     * {@code checkpoint} and starts a new checkpoint, which is the response.
+     * Store files for which the changes aren't known are streamed as a whole.
+     * If {@code storeId} isn't the id of this store nothing is streamed and
+     * the response is {@link org.neo4j.kernel.impl.nioneo.store.ChangedPages#NO_CHECKPOINT}.
+     */
+    Response<Long> incrementalPageBackup( StoreId storeId, long checkpoint, StoreWriter writer );
 }
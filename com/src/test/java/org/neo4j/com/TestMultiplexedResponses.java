@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.StoreId;
+
+public class TestMultiplexedResponses
+{
+    private static final int PORT = 8391;
+    // Spans a few chunks, each chunk being at most Protocol.MAX_FRAME_LENGTH
+    private static final int BIG_RESPONSE = 5*1000*1000;
+    
+    private final String path = "target/var/multiplexed";
+    private GraphDatabaseService graphDb;
+    private NumbersServer server;
+    private NumbersClient client;
+    
+    @Before
+    public void before() throws Exception
+    {
+        FileUtils.deleteDirectory( new File( path ) );
+        graphDb = new EmbeddedGraphDatabase( path );
+        server = new NumbersServer( path );
+        client = new NumbersClient( graphDb );
+    }
+    
+    @After
+    public void after()
+    {
+        client.shutdown();
+        server.shutdown();
+        graphDb.shutdown();
+    }
+    
+    @Test
+    public void unreadResponseDoesntHoldUpOtherResponsesOnTheSameChannel() throws Exception
+    {
+        // Nobody reads this one until the end, so the server soon runs
+        // out of credit for sending more of it
+        Future<Response<Long>> big = client.sum( BIG_RESPONSE );
+        
+        assertEquals( sumOf( 10 ), client.sum( 10 ).get().response().longValue() );
+        assertEquals( sumOf( 1000 ), client.sum( 1000 ).get().response().longValue() );
+        assertEquals( sumOf( BIG_RESPONSE ), big.get().response().longValue() );
+    }
+    
+    private static long sumOf( int count )
+    {
+        return (long) count * (count - 1) / 2;
+    }
+    
+    private static enum NumbersRequestType implements RequestType<Object>
+    {
+        NUMBERS;
+
+        public MasterCaller<Object, Void> getMasterCaller()
+        {
+            return new MasterCaller<Object, Void>()
+            {
+                public Response<Void> callMaster( Object master, SlaveContext context,
+                        ChannelBuffer input, ChannelBuffer target )
+                {
+                    int count = input.readInt();
+                    target.writeInt( count );
+                    for ( int i = 0; i < count; i++ )
+                    {
+                        target.writeLong( i );
+                    }
+                    return new Response<Void>( null, new StoreId(), TransactionStream.EMPTY );
+                }
+            };
+        }
+
+        public ObjectSerializer<Void> getObjectSerializer()
+        {
+            return Protocol.VOID_SERIALIZER;
+        }
+
+        public byte id()
+        {
+            return (byte) ordinal();
+        }
+    }
+    
+    private static class NumbersServer extends Server<Object, Void>
+    {
+        NumbersServer( String storeDir )
+        {
+            super( new Object(), PORT, storeDir );
+        }
+
+        @Override
+        protected void responseWritten( RequestType<Object> type, Channel channel, SlaveContext context )
+        {
+        }
+
+        @Override
+        protected RequestType<Object> getRequestContext( byte id )
+        {
+            return NumbersRequestType.values()[id];
+        }
+
+        @Override
+        protected void finishOffConnection( Channel channel, SlaveContext context )
+        {
+        }
+    }
+    
+    private static class NumbersClient extends Client<Object>
+    {
+        NumbersClient( GraphDatabaseService graphDb )
+        {
+            // A single channel and room for a single unread chunk per response
+            super( "localhost", PORT, graphDb, DEFAULT_MAX_NUMBER_OF_CONCURRENT_REQUESTS_PER_CLIENT,
+                    DEFAULT_READ_RESPONSE_TIMEOUT_SECONDS, 1, 1 );
+        }
+        
+        Future<Response<Long>> sum( final int count )
+        {
+            return sendRequestAsync( NumbersRequestType.NUMBERS, SlaveContext.EMPTY, new Serializer()
+            {
+                public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+                {
+                    buffer.writeInt( count );
+                }
+            }, new Deserializer<Long>()
+            {
+                public Long read( ChannelBuffer buffer, ByteBuffer temporaryBuffer ) throws IOException
+                {
+                    long sum = 0;
+                    for ( int count = buffer.readInt(); count > 0; count-- )
+                    {
+                        sum += buffer.readLong();
+                    }
+                    return sum;
+                }
+            } );
+        }
+        
+        @Override
+        protected boolean shouldCheckStoreId( RequestType<Object> type )
+        {
+            return false;
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package org.neo4j.com.backup;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 import static org.neo4j.helpers.collection.MapUtil.stringMap;
 
@@ -29,6 +30,7 @@ import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.com.ComException;
+import org.neo4j.com.StoreCopyProgress;
 import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
@@ -106,6 +108,50 @@ public class TestBackup
         shutdownServer( server );
     }
     
+    @Test
+    public void compressedFullThenIncremental() throws Exception
+    {
+        if ( Config.osIsWindows() ) return;
+        DbRepresentation initialDataSetRepresentation = createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+        OnlineBackup backup = OnlineBackup.from( "localhost" );
+        backup.full( backupPath, true );
+        assertFalse( StoreCopyProgress.isInProgress( backupPath ) );
+        assertEquals( initialDataSetRepresentation, DbRepresentation.of( backupPath ) );
+        shutdownServer( server );
+        
+        DbRepresentation furtherRepresentation = addMoreData( serverPath );
+        server = startServer( serverPath );
+        backup.incremental( backupPath );
+        assertEquals( furtherRepresentation, DbRepresentation.of( backupPath ) );
+        shutdownServer( server );
+    }
+    
+    @Test
+    public void fullThenIncrementalPages() throws Exception
+    {
+        if ( Config.osIsWindows() ) return;
+        DbRepresentation initialDataSetRepresentation = createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+        OnlineBackup backup = OnlineBackup.from( "localhost" );
+        backup.full( backupPath );
+        assertEquals( initialDataSetRepresentation, DbRepresentation.of( backupPath ) );
+        shutdownServer( server );
+        
+        DbRepresentation furtherRepresentation = addMoreData( serverPath );
+        server = startServer( serverPath );
+        backup.incrementalPages( backupPath, true );
+        assertFalse( StoreCopyProgress.isInProgress( backupPath ) );
+        assertEquals( furtherRepresentation, DbRepresentation.of( backupPath ) );
+        shutdownServer( server );
+        
+        furtherRepresentation = addMoreData( serverPath );
+        server = startServer( serverPath );
+        backup.incrementalPages( backupPath );
+        assertEquals( furtherRepresentation, DbRepresentation.of( backupPath ) );
+        shutdownServer( server );
+    }
+    
     @Test
     public void makeSureStoreIdIsEnforced() throws Exception
     {
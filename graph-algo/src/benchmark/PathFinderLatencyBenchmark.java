@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.GraphAlgoFactory;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphalgo.impl.util.DoubleHeap;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipExpander;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.Traversal;
+
+/**
+ * Measures the latency of single cheapest path queries between random node
+ * pairs, comparing {@link GraphAlgoFactory#dijkstra} with the primitive
+ * Dijkstra using a binary and a pairing heap respectively. The p50 and p99
+ * latencies of the individual queries are printed, as well as the average
+ * time per run.
+ * <p>
+ * Unlike the other benchmarks here it uses the graphdb API, so it generates
+ * its own graph, by preferential attachment, instead of using the graph
+ * generators. Pass an empty store directory, or one it has generated
+ * before, as argument.
+ */
+public class PathFinderLatencyBenchmark
+{
+    private static enum MyRelTypes implements RelationshipType
+    {
+        R1
+    }
+
+    private static final int NUMBER_OF_NODES = 250000;
+    private static final int EDGES_PER_NODE = 4;
+    private static final int NUMBER_OF_WARMUP_RUNS = 3;
+    private static final int NUMBER_OF_RUNS = 20;
+    private static final int QUERIES_PER_RUN = 100;
+
+    private static final CostEvaluator<Double> UNIT_COST = new CostEvaluator<Double>()
+    {
+        public Double getCost( Relationship relationship, Direction direction )
+        {
+            return 1.0;
+        }
+    };
+
+    public static void main( String args[] )
+    {
+        GraphDatabaseService graphDb = new EmbeddedGraphDatabase(
+            args.length > 0 ? args[0] : "target/benchmarkdata" );
+        try
+        {
+            long[] nodes = generateGraph( graphDb );
+            RelationshipExpander expander = Traversal.expanderForTypes(
+                MyRelTypes.R1, Direction.BOTH );
+            run( "Dijkstra", GraphAlgoFactory.dijkstra( expander, UNIT_COST ),
+                graphDb, nodes );
+            run( "PrimitiveDijkstra(BINARY)", GraphAlgoFactory.primitiveDijkstra(
+                expander, UNIT_COST, DoubleHeap.Type.BINARY ), graphDb, nodes );
+            run( "PrimitiveDijkstra(PAIRING)", GraphAlgoFactory.primitiveDijkstra(
+                expander, UNIT_COST, DoubleHeap.Type.PAIRING ), graphDb, nodes );
+        }
+        finally
+        {
+            graphDb.shutdown();
+        }
+    }
+
+    /**
+     * Connects each new node to {@link #EDGES_PER_NODE} existing nodes,
+     * picked with a probability proportional to their degree, unless the
+     * graph is already there.
+     *
+     * @return the ids of the nodes of the graph.
+     */
+    private static long[] generateGraph( GraphDatabaseService graphDb )
+    {
+        long[] nodes = new long[NUMBER_OF_NODES];
+        Node referenceNode = graphDb.getReferenceNode();
+        if ( referenceNode.hasRelationship( MyRelTypes.R1 ) )
+        {
+            int count = 0;
+            for ( Node node : graphDb.getAllNodes() )
+            {
+                if ( count < nodes.length )
+                {
+                    nodes[count++] = node.getId();
+                }
+            }
+            return Arrays.copyOf( nodes, count );
+        }
+
+        System.out.println( "Generating graph" );
+        Random random = new Random( 1 );
+        // Every node is in here once per relationship it has
+        long[] ends = new long[NUMBER_OF_NODES * EDGES_PER_NODE * 2];
+        int endCount = 0;
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            nodes[0] = referenceNode.getId();
+            ends[endCount++] = nodes[0];
+            for ( int i = 1; i < nodes.length; i++ )
+            {
+                Node node = graphDb.createNode();
+                nodes[i] = node.getId();
+                int existingEnds = endCount;
+                for ( int j = 0; j < Math.min( i, EDGES_PER_NODE ); j++ )
+                {
+                    Node other = graphDb.getNodeById(
+                        ends[random.nextInt( existingEnds )] );
+                    node.createRelationshipTo( other, MyRelTypes.R1 );
+                    ends[endCount++] = nodes[i];
+                    ends[endCount++] = other.getId();
+                }
+                if ( i % 10000 == 0 )
+                {
+                    tx.success();
+                    tx.finish();
+                    tx = graphDb.beginTx();
+                }
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        return nodes;
+    }
+
+    private static void run( String name, PathFinder<WeightedPath> finder,
+        GraphDatabaseService graphDb, long[] nodes )
+    {
+        System.out.println( "Starting benchmark " + name );
+        Random random = new Random( 2 );
+        long[] latencies = new long[NUMBER_OF_RUNS * QUERIES_PER_RUN];
+        long totalTime = 0;
+        for ( int run = 0; run < NUMBER_OF_WARMUP_RUNS + NUMBER_OF_RUNS; run++ )
+        {
+            boolean warmup = run < NUMBER_OF_WARMUP_RUNS;
+            long runStart = System.currentTimeMillis();
+            Transaction tx = graphDb.beginTx();
+            try
+            {
+                for ( int i = 0; i < QUERIES_PER_RUN; i++ )
+                {
+                    Node startNode = graphDb.getNodeById(
+                        nodes[random.nextInt( nodes.length )] );
+                    Node endNode = graphDb.getNodeById(
+                        nodes[random.nextInt( nodes.length )] );
+                    long start = System.nanoTime();
+                    finder.findSinglePath( startNode, endNode );
+                    if ( !warmup )
+                    {
+                        latencies[(run - NUMBER_OF_WARMUP_RUNS) *
+                            QUERIES_PER_RUN + i] = System.nanoTime() - start;
+                    }
+                }
+            }
+            finally
+            {
+                tx.finish();
+            }
+            if ( !warmup )
+            {
+                totalTime += System.currentTimeMillis() - runStart;
+            }
+        }
+        Arrays.sort( latencies );
+        System.out.println( name + " average time: "
+            + totalTime / NUMBER_OF_RUNS / 1000.0 + "s, p50: "
+            + percentile( latencies, 0.50 ) / 1000000.0 + "ms, p99: "
+            + percentile( latencies, 0.99 ) / 1000000.0 + "ms" );
+    }
+
+    private static long percentile( long[] sorted, double percentile )
+    {
+        if ( sorted.length == 0 )
+        {
+            return 0;
+        }
+        int index = (int) Math.ceil( percentile * sorted.length ) - 1;
+        return sorted[Math.max( 0, Math.min( index, sorted.length - 1 ) )];
+    }
+}
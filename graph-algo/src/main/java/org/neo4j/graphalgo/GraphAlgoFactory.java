@@ -23,8 +23,11 @@ import org.neo4j.graphalgo.impl.path.AStar;
 import org.neo4j.graphalgo.impl.path.AllPaths;
 import org.neo4j.graphalgo.impl.path.AllSimplePaths;
 import org.neo4j.graphalgo.impl.path.Dijkstra;
+import org.neo4j.graphalgo.impl.path.PrimitiveAStar;
+import org.neo4j.graphalgo.impl.path.PrimitiveDijkstra;
 import org.neo4j.graphalgo.impl.path.ShortestPath;
 import org.neo4j.graphalgo.impl.util.DoubleEvaluator;
+import org.neo4j.graphalgo.impl.util.DoubleHeap;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
@@ -178,4 +181,77 @@ public abstract class GraphAlgoFactory
     {
         return dijkstra( expander, new DoubleEvaluator( relationshipPropertyRepresentingCost ) );
     }
+
+    /**
+     * Returns an {@link PathFinder} which uses the A* algorithm to find the
+     * cheapest path between two nodes, like
+     * {@link #aStar(RelationshipExpander, CostEvaluator, EstimateEvaluator)},
+     * but with its state kept in primitive arrays instead of maps of boxed
+     * values, which makes it create a lot less garbage. Only one path is
+     * returned, even if there are several paths with the same cost.
+     * 
+     * @see PrimitiveAStar
+     * @param expander the {@link RelationshipExpander} to use for expanding
+     * {@link Relationship}s for each {@link Node}.
+     * @param lengthEvaluator evaluator that can return the cost represented
+     * by each relationship the algorithm traverses.
+     * @param estimateEvaluator evaluator that returns an (optimistic)
+     * estimation of the cost to get from the current node (in the traversal)
+     * to the end node.
+     * @param heapType the type of heap to prioritize nodes with.
+     * @return an algorithm which finds the cheapest path between two nodes
+     * using the A* algorithm.
+     */
+    public static PathFinder<WeightedPath> primitiveAStar( RelationshipExpander expander,
+            CostEvaluator<Double> lengthEvaluator, EstimateEvaluator<Double> estimateEvaluator,
+            DoubleHeap.Type heapType )
+    {
+        return new PrimitiveAStar( expander, lengthEvaluator, estimateEvaluator, heapType );
+    }
+
+    /**
+     * See {@link #primitiveAStar(RelationshipExpander, CostEvaluator, EstimateEvaluator, DoubleHeap.Type)}.
+     * 
+     * Uses a binary heap.
+     */
+    public static PathFinder<WeightedPath> primitiveAStar( RelationshipExpander expander,
+            CostEvaluator<Double> lengthEvaluator, EstimateEvaluator<Double> estimateEvaluator )
+    {
+        return primitiveAStar( expander, lengthEvaluator, estimateEvaluator,
+                DoubleHeap.Type.BINARY );
+    }
+
+    /**
+     * Returns an {@link PathFinder} which uses the Dijkstra algorithm to find
+     * the cheapest path between two nodes, like
+     * {@link #dijkstra(RelationshipExpander, CostEvaluator)}, but with its
+     * state kept in primitive arrays instead of maps of boxed values, which
+     * makes it create a lot less garbage. Only one path is returned, even if
+     * there are several paths with the same cost.
+     * 
+     * @see PrimitiveDijkstra
+     * @param expander the {@link RelationshipExpander} to use for expanding
+     * {@link Relationship}s for each {@link Node}.
+     * @param costEvaluator evaluator that can return the cost represented
+     * by each relationship the algorithm traverses.
+     * @param heapType the type of heap to prioritize nodes with.
+     * @return an algorithm which finds the cheapest path between two nodes
+     * using the Dijkstra algorithm.
+     */
+    public static PathFinder<WeightedPath> primitiveDijkstra( RelationshipExpander expander,
+            CostEvaluator<Double> costEvaluator, DoubleHeap.Type heapType )
+    {
+        return new PrimitiveDijkstra( expander, costEvaluator, heapType );
+    }
+
+    /**
+     * See {@link #primitiveDijkstra(RelationshipExpander, CostEvaluator, DoubleHeap.Type)}.
+     * 
+     * Uses a binary heap.
+     */
+    public static PathFinder<WeightedPath> primitiveDijkstra( RelationshipExpander expander,
+            CostEvaluator<Double> costEvaluator )
+    {
+        return primitiveDijkstra( expander, costEvaluator, DoubleHeap.Type.BINARY );
+    }
 }
@@ -0,0 +1,536 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.centrality;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
+
+/**
+ * PageRank for all the nodes in a graph database. Instead of iterating over
+ * a given set of nodes this reads the node and relationship stores directly,
+ * split into id ranges which are scanned by a number of threads. The
+ * relationships are then kept as primitive arrays, grouped by the node the
+ * rank flows to, so that each thread can compute the new scores for its own
+ * range of nodes without any synchronization. Scores are indexed by node id.
+ * <p>
+ * With a damping factor of 1.0 the result is the eigenvector centrality of
+ * the (column normalized) adjacency matrix. Nodes without any relationships
+ * to follow distribute their score evenly to all nodes.
+ * <p>
+ * Since the stores are read directly, only committed data is seen, changes
+ * made in transactions that haven't been committed yet are not.
+ * @complexity O(m + i * n) when i iterations are done, divided among the
+ *             threads.
+ */
+public class ParallelPageRank implements EigenvectorCentrality
+{
+    private final GraphDatabaseService graphDb;
+    private final Direction direction;
+    private final RelationshipType[] types;
+    private double dampingFactor = 0.85;
+    private double tolerance = 0.000001;
+    private int maxIterations = 100;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean doneCalculation = false;
+    private int totalIterations = 0;
+
+    private boolean[] inUse;
+    private int nodeCount;
+    private double[] scores;
+    private double[] newScores;
+    private int[] outDegrees;
+    private int[] offsets;
+    private int[] sources;
+
+    /**
+     * @param graphDb
+     *            The graph database to calculate the scores for.
+     * @param direction
+     *            The direction in which the rank flows along the
+     *            relationships, {@link Direction#OUTGOING} being the normal
+     *            PageRank and {@link Direction#BOTH} treats the graph as
+     *            undirected.
+     * @param types
+     *            The relationship types to follow, or none to follow
+     *            relationships of all types.
+     */
+    public ParallelPageRank( GraphDatabaseService graphDb,
+        Direction direction, RelationshipType... types )
+    {
+        if ( !(graphDb instanceof AbstractGraphDatabase) )
+        {
+            throw new IllegalArgumentException( graphDb
+                + " doesn't give access to its stores" );
+        }
+        this.graphDb = graphDb;
+        this.direction = direction;
+        this.types = types;
+    }
+
+    /**
+     * @param dampingFactor
+     *            The probability of following a relationship rather than
+     *            jumping to a random node, 0.85 per default.
+     */
+    public void setDampingFactor( double dampingFactor )
+    {
+        this.dampingFactor = dampingFactor;
+    }
+
+    /**
+     * @param tolerance
+     *            The calculation stops when the sum of the changes of all
+     *            scores in one iteration is below this value.
+     */
+    public void setTolerance( double tolerance )
+    {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param maxIterations
+     *            The maximum number of iterations to run, 100 per default.
+     */
+    public void setMaxIterations( int maxIterations )
+    {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @param threads
+     *            The number of threads to scan the stores and compute the
+     *            scores with. Per default the number of available
+     *            processors.
+     */
+    public void setThreads( int threads )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid number of threads "
+                + threads );
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @return the number of iterations made.
+     */
+    public int getTotalIterations()
+    {
+        return totalIterations;
+    }
+
+    /**
+     * @return the score of {@code node}, or null if the node wasn't in the
+     *         store when the calculation was made.
+     */
+    public Double getCentrality( Node node )
+    {
+        calculate();
+        long id = node.getId();
+        return id < inUse.length && inUse[(int) id] ? scores[(int) id] : null;
+    }
+
+    /**
+     * @return the scores of all nodes, indexed by node id. Ids not in use
+     *         have the score 0.
+     */
+    public double[] getCentralities()
+    {
+        calculate();
+        return scores;
+    }
+
+    public void reset()
+    {
+        doneCalculation = false;
+    }
+
+    public void calculate()
+    {
+        if ( doneCalculation )
+        {
+            return;
+        }
+        doneCalculation = true;
+        totalIterations = 0;
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            NeoStore neoStore = getNeoStore();
+            loadNodes( executor, neoStore.getNodeStore() );
+            loadRelationships( executor, neoStore.getRelationshipStore() );
+            iterate( executor );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        newScores = null;
+        offsets = sources = outDegrees = null;
+    }
+
+    /**
+     * Writes the scores to the nodes as a property, committing a
+     * transaction for every {@code batchSize} nodes. If called from within
+     * a transaction all changes will be a part of that transaction instead.
+     * @param key
+     *            The key of the property to set.
+     * @param batchSize
+     *            The number of nodes to update in each transaction.
+     */
+    public void writeProperty( String key, int batchSize )
+    {
+        calculate();
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            int inTx = 0;
+            for ( int id = 0; id < inUse.length; id++ )
+            {
+                if ( !inUse[id] )
+                {
+                    continue;
+                }
+                graphDb.getNodeById( id ).setProperty( key, scores[id] );
+                if ( ++inTx >= batchSize )
+                {
+                    tx.success();
+                    tx.finish();
+                    tx = graphDb.beginTx();
+                    inTx = 0;
+                }
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private NeoStore getNeoStore()
+    {
+        Config config = ((AbstractGraphDatabase) graphDb).getConfig();
+        return ((NeoStoreXaDataSource) config.getTxModule()
+            .getXaDataSourceManager().getXaDataSource( "nioneodb" ))
+            .getNeoStore();
+    }
+
+    private int[] typeIds()
+    {
+        if ( types.length == 0 )
+        {
+            return null;
+        }
+        Config config = ((AbstractGraphDatabase) graphDb).getConfig();
+        int[] ids = new int[types.length];
+        int count = 0;
+        for ( RelationshipType type : types )
+        {
+            Integer id = config.getRelationshipTypeHolder().getIdFor(
+                type.name() );
+            if ( id != null )
+            {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf( ids, count );
+    }
+
+    private void loadNodes( ExecutorService executor, final NodeStore store )
+    {
+        int highId = (int) store.getHighId();
+        inUse = new boolean[highId];
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for ( final int[] range : partition( highId ) )
+        {
+            tasks.add( new Callable<Integer>()
+            {
+                public Integer call()
+                {
+                    int count = 0;
+                    for ( int id = range[0]; id < range[1]; id++ )
+                    {
+                        if ( store.loadLightNode( id ) )
+                        {
+                            inUse[id] = true;
+                            count++;
+                        }
+                    }
+                    return count;
+                }
+            } );
+        }
+        nodeCount = 0;
+        for ( Integer count : invokeAll( executor, tasks ) )
+        {
+            nodeCount += count;
+        }
+    }
+
+    private void loadRelationships( ExecutorService executor,
+        final RelationshipStore store )
+    {
+        final int[] typeIds = typeIds();
+        List<Callable<int[][]>> tasks = new ArrayList<Callable<int[][]>>();
+        for ( final int[] range : partition( (int) store.getHighId() ) )
+        {
+            tasks.add( new Callable<int[][]>()
+            {
+                public int[][] call()
+                {
+                    return scanRelationships( store, range[0], range[1],
+                        typeIds );
+                }
+            } );
+        }
+        List<int[][]> chunks = invokeAll( executor, tasks );
+
+        // Group the relationships by the node the rank flows to, a
+        // counting sort over all the chunks
+        outDegrees = new int[inUse.length];
+        offsets = new int[inUse.length + 1];
+        int total = 0;
+        for ( int[][] chunk : chunks )
+        {
+            for ( int i = 0; i < chunk[0].length; i++ )
+            {
+                outDegrees[chunk[0][i]]++;
+                offsets[chunk[1][i] + 1]++;
+            }
+            total += chunk[0].length;
+        }
+        for ( int i = 0; i < inUse.length; i++ )
+        {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] cursors = Arrays.copyOf( offsets, inUse.length );
+        sources = new int[total];
+        for ( int[][] chunk : chunks )
+        {
+            for ( int i = 0; i < chunk[0].length; i++ )
+            {
+                sources[cursors[chunk[1][i]]++] = chunk[0][i];
+            }
+        }
+    }
+
+    /**
+     * Reads the relationships with ids in the given range.
+     * @return the nodes the rank flows from and to, as two arrays.
+     */
+    private int[][] scanRelationships( RelationshipStore store, int start,
+        int end, int[] typeIds )
+    {
+        int perRelationship = direction == Direction.BOTH ? 2 : 1;
+        int[] from = new int[16];
+        int[] to = new int[16];
+        int count = 0;
+        for ( int id = start; id < end; id++ )
+        {
+            RelationshipRecord record = store.getLightRel( id );
+            if ( record == null || !matchesType( record.getType(), typeIds ) )
+            {
+                continue;
+            }
+            int first = record.getFirstNode();
+            int second = record.getSecondNode();
+            if ( first >= inUse.length || second >= inUse.length )
+            {
+                // Nodes created after the node store was scanned
+                continue;
+            }
+            if ( count + perRelationship > from.length )
+            {
+                from = Arrays.copyOf( from, from.length * 2 );
+                to = Arrays.copyOf( to, to.length * 2 );
+            }
+            if ( direction != Direction.INCOMING )
+            {
+                from[count] = first;
+                to[count++] = second;
+            }
+            if ( direction != Direction.OUTGOING )
+            {
+                from[count] = second;
+                to[count++] = first;
+            }
+        }
+        return new int[][] { Arrays.copyOf( from, count ),
+            Arrays.copyOf( to, count ) };
+    }
+
+    private static boolean matchesType( int type, int[] typeIds )
+    {
+        if ( typeIds == null )
+        {
+            return true;
+        }
+        for ( int typeId : typeIds )
+        {
+            if ( typeId == type )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void iterate( ExecutorService executor )
+    {
+        scores = new double[inUse.length];
+        newScores = new double[inUse.length];
+        if ( nodeCount == 0 )
+        {
+            return;
+        }
+        double initial = 1.0 / nodeCount;
+        for ( int id = 0; id < inUse.length; id++ )
+        {
+            if ( inUse[id] )
+            {
+                scores[id] = initial;
+            }
+        }
+        List<int[]> ranges = partition( inUse.length );
+        while ( totalIterations < maxIterations )
+        {
+            totalIterations++;
+            double danglingScore = 0;
+            for ( int id = 0; id < inUse.length; id++ )
+            {
+                if ( inUse[id] && outDegrees[id] == 0 )
+                {
+                    danglingScore += scores[id];
+                }
+            }
+            final double base = (1.0 - dampingFactor + dampingFactor
+                * danglingScore) / nodeCount;
+            List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+            for ( final int[] range : ranges )
+            {
+                tasks.add( new Callable<Double>()
+                {
+                    public Double call()
+                    {
+                        return computeScores( range[0], range[1], base );
+                    }
+                } );
+            }
+            double change = 0;
+            for ( Double partialChange : invokeAll( executor, tasks ) )
+            {
+                change += partialChange;
+            }
+            double[] swap = scores;
+            scores = newScores;
+            newScores = swap;
+            if ( change < tolerance )
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Computes the new scores for the nodes in the given id range.
+     * @return the sum of the changes of the scores.
+     */
+    private double computeScores( int start, int end, double base )
+    {
+        double change = 0;
+        for ( int id = start; id < end; id++ )
+        {
+            if ( !inUse[id] )
+            {
+                continue;
+            }
+            double sum = 0;
+            for ( int i = offsets[id], stop = offsets[id + 1]; i < stop; i++ )
+            {
+                int source = sources[i];
+                sum += scores[source] / outDegrees[source];
+            }
+            double score = base + dampingFactor * sum;
+            change += Math.abs( score - scores[id] );
+            newScores[id] = score;
+        }
+        return change;
+    }
+
+    /**
+     * Splits the ids up to {@code highId} into a few more ranges than there
+     * are threads, so that a thread finishing early can pick up another.
+     */
+    private List<int[]> partition( int highId )
+    {
+        int partitions = threads * 4;
+        int size = Math.max( (highId + partitions - 1) / partitions, 1 );
+        List<int[]> ranges = new ArrayList<int[]>();
+        for ( int start = 0; start < highId; start += size )
+        {
+            ranges.add( new int[] { start, Math.min( start + size, highId ) } );
+        }
+        return ranges;
+    }
+
+    private static <T> List<T> invokeAll( ExecutorService executor,
+        List<Callable<T>> tasks )
+    {
+        List<T> results = new ArrayList<T>( tasks.size() );
+        try
+        {
+            for ( Future<T> future : executor.invokeAll( tasks ) )
+            {
+                results.add( future.get() );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new RuntimeException( e.getCause() );
+        }
+        return results;
+    }
+}
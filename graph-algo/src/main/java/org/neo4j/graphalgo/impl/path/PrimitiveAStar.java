@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.path;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.EstimateEvaluator;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphalgo.impl.util.DoubleHeap;
+import org.neo4j.graphalgo.impl.util.PathImpl;
+import org.neo4j.graphalgo.impl.util.PrimitiveLongIntMap;
+import org.neo4j.graphalgo.impl.util.WeightedPathImpl;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipExpander;
+
+/**
+ * An A* implementation specialized for double costs. Where {@link AStar}
+ * keeps its state in maps keyed by boxed ids and a {@code TreeMap} of node
+ * sets, this one gives each visited node a dense index through a
+ * {@link PrimitiveLongIntMap} and keeps costs, estimates and the relationship
+ * each node was reached through in primitive arrays, prioritized by a
+ * {@link DoubleHeap} with decrease-key. That way a search creates next to no
+ * garbage besides the node and relationship proxies it has to look at.
+ *
+ * Only one cheapest path is returned, also from
+ * {@link #findAllPaths(Node, Node)}. The estimate evaluator is expected to
+ * be consistent (monotone), since a node is never expanded more than once.
+ */
+public class PrimitiveAStar implements PathFinder<WeightedPath>
+{
+    private final RelationshipExpander expander;
+    private final CostEvaluator<Double> lengthEvaluator;
+    private final EstimateEvaluator<Double> estimateEvaluator;
+    private final DoubleHeap.Type heapType;
+
+    /**
+     * @param expander the {@link RelationshipExpander} to use for expanding
+     * {@link Relationship}s for each {@link Node}.
+     * @param lengthEvaluator evaluator that can return the cost represented
+     * by each relationship the algorithm traverses.
+     * @param estimateEvaluator evaluator that returns an (optimistic)
+     * estimation of the cost to get from the current node to the end node,
+     * or {@code null} for no estimation, which makes this Dijkstra.
+     * @param heapType the type of heap to prioritize the nodes to expand with.
+     */
+    public PrimitiveAStar( RelationshipExpander expander,
+            CostEvaluator<Double> lengthEvaluator,
+            EstimateEvaluator<Double> estimateEvaluator, DoubleHeap.Type heapType )
+    {
+        this.expander = expander;
+        this.lengthEvaluator = lengthEvaluator;
+        this.estimateEvaluator = estimateEvaluator;
+        this.heapType = heapType;
+    }
+
+    public WeightedPath findSinglePath( Node start, Node end )
+    {
+        return new Search( start, end ).run();
+    }
+
+    public Iterable<WeightedPath> findAllPaths( Node start, Node end )
+    {
+        WeightedPath path = findSinglePath( start, end );
+        return path != null ? Collections.singletonList( path )
+                : Collections.<WeightedPath>emptyList();
+    }
+
+    private class Search
+    {
+        private final Node start;
+        private final Node end;
+        private final PrimitiveLongIntMap indexes = new PrimitiveLongIntMap();
+        private final DoubleHeap heap = heapType.newHeap( 64 );
+        private Node[] nodes = new Node[64];
+        private double[] costs = new double[64];
+        private double[] estimates = new double[64];
+        private long[] cameFrom = new long[64];
+        private boolean[] expanded = new boolean[64];
+        private int count;
+
+        Search( Node start, Node end )
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        WeightedPath run()
+        {
+            int startIndex = indexOf( start );
+            costs[startIndex] = 0;
+            heap.offer( startIndex, estimates[startIndex] );
+            long endId = end.getId();
+            while ( !heap.isEmpty() )
+            {
+                int index = heap.poll();
+                expanded[index] = true;
+                Node node = nodes[index];
+                if ( node.getId() == endId )
+                {
+                    return toPath( index );
+                }
+                expand( index, node );
+            }
+            return null;
+        }
+
+        private void expand( int index, Node node )
+        {
+            double cost = costs[index];
+            for ( Relationship rel : expander.expand( node ) )
+            {
+                Node other = rel.getOtherNode( node );
+                int otherIndex = indexOf( other );
+                if ( expanded[otherIndex] )
+                {
+                    continue;
+                }
+                double newCost = cost
+                        + lengthEvaluator.getCost( rel, Direction.OUTGOING );
+                if ( newCost < costs[otherIndex] )
+                {
+                    costs[otherIndex] = newCost;
+                    cameFrom[otherIndex] = rel.getId();
+                    heap.offer( otherIndex, newCost + estimates[otherIndex] );
+                }
+            }
+        }
+
+        private int indexOf( Node node )
+        {
+            int index = indexes.get( node.getId() );
+            if ( index != -1 )
+            {
+                return index;
+            }
+            if ( count == nodes.length )
+            {
+                int newLength = count * 2;
+                nodes = Arrays.copyOf( nodes, newLength );
+                costs = Arrays.copyOf( costs, newLength );
+                estimates = Arrays.copyOf( estimates, newLength );
+                cameFrom = Arrays.copyOf( cameFrom, newLength );
+                expanded = Arrays.copyOf( expanded, newLength );
+            }
+            index = count++;
+            indexes.put( node.getId(), index );
+            nodes[index] = node;
+            costs[index] = Double.POSITIVE_INFINITY;
+            estimates[index] = estimateEvaluator != null
+                    ? estimateEvaluator.getCost( node, end ) : 0;
+            cameFrom[index] = -1;
+            return index;
+        }
+
+        private WeightedPath toPath( int endIndex )
+        {
+            GraphDatabaseService graphDb = start.getGraphDatabase();
+            int length = 0;
+            Relationship[] rels = new Relationship[4];
+            Node node = nodes[endIndex];
+            for ( int index = endIndex; cameFrom[index] != -1; )
+            {
+                Relationship rel = graphDb.getRelationshipById( cameFrom[index] );
+                if ( length == rels.length )
+                {
+                    rels = Arrays.copyOf( rels, length * 2 );
+                }
+                rels[length++] = rel;
+                node = rel.getOtherNode( node );
+                index = indexes.get( node.getId() );
+            }
+            PathImpl.Builder builder = new PathImpl.Builder( start );
+            for ( int i = length - 1; i >= 0; i-- )
+            {
+                builder = builder.push( rels[i] );
+            }
+            return new WeightedPathImpl( costs[endIndex], builder.build() );
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.path;
+
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.impl.util.DoubleHeap;
+import org.neo4j.graphdb.RelationshipExpander;
+
+/**
+ * A Dijkstra implementation specialized for double costs, see
+ * {@link PrimitiveAStar}. Unlike {@link Dijkstra} only one cheapest path is
+ * returned, also when there are several paths of the same cost.
+ */
+public class PrimitiveDijkstra extends PrimitiveAStar
+{
+    public PrimitiveDijkstra( RelationshipExpander expander,
+            CostEvaluator<Double> costEvaluator, DoubleHeap.Type heapType )
+    {
+        super( expander, costEvaluator, null, heapType );
+    }
+}
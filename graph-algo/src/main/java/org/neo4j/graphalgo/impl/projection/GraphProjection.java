@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.projection;
+
+import org.neo4j.graphalgo.impl.util.PrimitiveLongIntMap;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * A read-only, in-memory copy of (a part of) a graph, laid out in compressed
+ * sparse row form. Every projected node is given a dense int index in the
+ * range {@code [0, nodeCount())} and the relationships are kept in one
+ * {@link Adjacency} per direction, so that algorithms can run on primitive
+ * arrays without going through the {@link Node}/{@link Relationship}
+ * proxies, the caches or any transaction state.
+ *
+ * A projection is a snapshot; changes made to the graph after it has been
+ * created aren't reflected in it. Create one with a {@link GraphProjector}.
+ */
+public class GraphProjection
+{
+    private final GraphDatabaseService graphDb;
+    private final long[] nodeIds;
+    private final PrimitiveLongIntMap nodeIndexes;
+    final Adjacency outgoing;
+    final Adjacency incoming;
+
+    GraphProjection( GraphDatabaseService graphDb, long[] nodeIds,
+            PrimitiveLongIntMap nodeIndexes, Adjacency outgoing,
+            Adjacency incoming )
+    {
+        this.graphDb = graphDb;
+        this.nodeIds = nodeIds;
+        this.nodeIndexes = nodeIndexes;
+        this.outgoing = outgoing;
+        this.incoming = incoming;
+    }
+
+    /**
+     * @return the number of nodes in this projection.
+     */
+    public int nodeCount()
+    {
+        return nodeIds.length;
+    }
+
+    /**
+     * @return the number of relationships in this projection.
+     */
+    public int relationshipCount()
+    {
+        return outgoing.targets.length;
+    }
+
+    /**
+     * @param index the dense index of a projected node.
+     * @return the id of the node with the given index.
+     */
+    public long nodeId( int index )
+    {
+        return nodeIds[index];
+    }
+
+    /**
+     * @param nodeId the id of a node in the graph.
+     * @return the dense index of the node with the given id, or {@code -1}
+     * if that node isn't part of this projection.
+     */
+    public int indexOf( long nodeId )
+    {
+        return nodeIndexes.get( nodeId );
+    }
+
+    /**
+     * @param node a node in the graph.
+     * @return the dense index of {@code node}, or {@code -1} if it isn't part
+     * of this projection.
+     */
+    public int indexOf( Node node )
+    {
+        return indexOf( node.getId() );
+    }
+
+    /**
+     * @param index the dense index of a projected node.
+     * @return the {@link Node} with the given index.
+     */
+    public Node getNode( int index )
+    {
+        return graphDb.getNodeById( nodeIds[index] );
+    }
+
+    Relationship getRelationship( long relationshipId )
+    {
+        return graphDb.getRelationshipById( relationshipId );
+    }
+
+    /**
+     * @param direction {@link Direction#OUTGOING} or
+     * {@link Direction#INCOMING}.
+     * @return the adjacency of all projected nodes in the given direction.
+     */
+    public Adjacency adjacency( Direction direction )
+    {
+        switch ( direction )
+        {
+        case OUTGOING:
+            return outgoing;
+        case INCOMING:
+            return incoming;
+        default:
+            throw new IllegalArgumentException( "Adjacency is kept per "
+                    + "direction, not for " + direction );
+        }
+    }
+
+    /**
+     * @param index the dense index of a projected node.
+     * @param direction the direction of the relationships to count.
+     * @return the number of projected relationships the node has in the
+     * given direction.
+     */
+    public int degree( int index, Direction direction )
+    {
+        switch ( direction )
+        {
+        case OUTGOING:
+            return outgoing.degree( index );
+        case INCOMING:
+            return incoming.degree( index );
+        default:
+            return outgoing.degree( index ) + incoming.degree( index );
+        }
+    }
+
+    /**
+     * The relationships of all projected nodes in one direction. The
+     * relationships of the node with index {@code n} are found at the edge
+     * positions {@code [start(n), end(n))}, where each edge position has a
+     * target node index, a weight and the id of the relationship it was
+     * created from.
+     *
+     * The weight is the cost of traversing the relationship from the node
+     * owning the edge, i.e. the cost for {@link Direction#OUTGOING} in the
+     * outgoing adjacency and the cost for {@link Direction#INCOMING} in the
+     * incoming adjacency.
+     */
+    public static final class Adjacency
+    {
+        final int[] offsets;
+        final int[] targets;
+        final double[] weights;
+        final long[] relationshipIds;
+
+        Adjacency( int[] offsets, int[] targets, double[] weights,
+                long[] relationshipIds )
+        {
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
+            this.relationshipIds = relationshipIds;
+        }
+
+        public int start( int node )
+        {
+            return offsets[node];
+        }
+
+        public int end( int node )
+        {
+            return offsets[node + 1];
+        }
+
+        public int degree( int node )
+        {
+            return offsets[node + 1] - offsets[node];
+        }
+
+        public int target( int edge )
+        {
+            return targets[edge];
+        }
+
+        public double weight( int edge )
+        {
+            return weights[edge];
+        }
+
+        public long relationshipId( int edge )
+        {
+            return relationshipIds[edge];
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.projection;
+
+import java.util.Arrays;
+
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.impl.projection.GraphProjection.Adjacency;
+import org.neo4j.graphalgo.impl.util.PrimitiveLongIntMap;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Loads a subgraph into a {@link GraphProjection}. Which relationships are
+ * loaded is decided by the relationship types given to the projector (all
+ * types if none are given) and by both their nodes being part of the
+ * projection. The weight of each relationship is taken from a
+ * {@link CostEvaluator}, which is called once for each direction of each
+ * relationship when the projection is created and never after that.
+ */
+public class GraphProjector
+{
+    private static final CostEvaluator<Double> UNIT_COST = new CostEvaluator<Double>()
+    {
+        public Double getCost( Relationship relationship, Direction direction )
+        {
+            return 1.0;
+        }
+    };
+
+    private final CostEvaluator<Double> costEvaluator;
+    private final RelationshipType[] types;
+
+    /**
+     * @param costEvaluator evaluator for the weight of each relationship,
+     * or {@code null} to give all relationships the weight {@code 1.0}.
+     * @param types the relationship types to project, or none to project
+     * relationships of all types.
+     */
+    public GraphProjector( CostEvaluator<Double> costEvaluator,
+            RelationshipType... types )
+    {
+        this.costEvaluator = costEvaluator != null ? costEvaluator : UNIT_COST;
+        this.types = types;
+    }
+
+    /**
+     * Projects relationships with their weights in the given property,
+     * {@code defaultWeight} is used for relationships which doesn't have
+     * the property.
+     */
+    public GraphProjector( String weightProperty, double defaultWeight,
+            RelationshipType... types )
+    {
+        this( CommonEvaluators.doubleCostEvaluator( weightProperty,
+                defaultWeight ), types );
+    }
+
+    /**
+     * Projects {@code nodes} and the relationships between them which
+     * matches the relationship types of this projector.
+     * @param nodes the nodes to project.
+     * @return the created projection.
+     */
+    public GraphProjection project( Iterable<Node> nodes )
+    {
+        Loader loader = new Loader();
+        for ( Node node : nodes )
+        {
+            loader.addNode( node );
+        }
+        for ( int i = 0; i < loader.nodeCount; i++ )
+        {
+            Node node = loader.graphDb.getNodeById( loader.nodeIds[i] );
+            if ( types.length == 0 )
+            {
+                loader.addRelationships( i,
+                        node.getRelationships( Direction.OUTGOING ) );
+            }
+            else
+            {
+                for ( RelationshipType type : types )
+                {
+                    loader.addRelationships( i, node.getRelationships( type,
+                            Direction.OUTGOING ) );
+                }
+            }
+        }
+        return loader.build();
+    }
+
+    /**
+     * Projects {@code nodes} and those of the given relationships which are
+     * between projected nodes and matches the relationship types of this
+     * projector.
+     * @param nodes the nodes to project.
+     * @param relationships the candidate relationships to project.
+     * @return the created projection.
+     */
+    public GraphProjection project( Iterable<Node> nodes,
+            Iterable<Relationship> relationships )
+    {
+        Loader loader = new Loader();
+        for ( Node node : nodes )
+        {
+            loader.addNode( node );
+        }
+        for ( Relationship relationship : relationships )
+        {
+            if ( !matchesType( relationship ) )
+            {
+                continue;
+            }
+            int source = loader.indexes.get(
+                    relationship.getStartNode().getId() );
+            if ( source != -1 )
+            {
+                loader.addRelationship( source, relationship );
+            }
+        }
+        return loader.build();
+    }
+
+    private boolean matchesType( Relationship relationship )
+    {
+        if ( types.length == 0 )
+        {
+            return true;
+        }
+        for ( RelationshipType type : types )
+        {
+            if ( relationship.isType( type ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class Loader
+    {
+        private GraphDatabaseService graphDb;
+        private final PrimitiveLongIntMap indexes = new PrimitiveLongIntMap();
+        private long[] nodeIds = new long[16];
+        private int nodeCount;
+
+        private int[] sources = new int[16];
+        private long[] targetIds = new long[16];
+        private double[] forwardWeights = new double[16];
+        private double[] backwardWeights = new double[16];
+        private long[] relationshipIds = new long[16];
+        private int relationshipCount;
+
+        void addNode( Node node )
+        {
+            if ( graphDb == null )
+            {
+                graphDb = node.getGraphDatabase();
+            }
+            if ( indexes.containsKey( node.getId() ) )
+            {
+                return;
+            }
+            if ( nodeCount == nodeIds.length )
+            {
+                nodeIds = Arrays.copyOf( nodeIds, nodeCount * 2 );
+            }
+            indexes.put( node.getId(), nodeCount );
+            nodeIds[nodeCount++] = node.getId();
+        }
+
+        void addRelationships( int source, Iterable<Relationship> relationships )
+        {
+            for ( Relationship relationship : relationships )
+            {
+                addRelationship( source, relationship );
+            }
+        }
+
+        void addRelationship( int source, Relationship relationship )
+        {
+            if ( relationshipCount == sources.length )
+            {
+                int newLength = relationshipCount * 2;
+                sources = Arrays.copyOf( sources, newLength );
+                targetIds = Arrays.copyOf( targetIds, newLength );
+                forwardWeights = Arrays.copyOf( forwardWeights, newLength );
+                backwardWeights = Arrays.copyOf( backwardWeights, newLength );
+                relationshipIds = Arrays.copyOf( relationshipIds, newLength );
+            }
+            int i = relationshipCount++;
+            sources[i] = source;
+            targetIds[i] = relationship.getEndNode().getId();
+            forwardWeights[i] = costEvaluator.getCost( relationship,
+                    Direction.OUTGOING );
+            backwardWeights[i] = costEvaluator.getCost( relationship,
+                    Direction.INCOMING );
+            relationshipIds[i] = relationship.getId();
+        }
+
+        GraphProjection build()
+        {
+            // Resolve the target node ids, dropping relationships to nodes
+            // outside of the projection
+            int[] targets = new int[relationshipCount];
+            int count = 0;
+            for ( int i = 0; i < relationshipCount; i++ )
+            {
+                int target = indexes.get( targetIds[i] );
+                if ( target == -1 )
+                {
+                    continue;
+                }
+                sources[count] = sources[i];
+                targets[count] = target;
+                forwardWeights[count] = forwardWeights[i];
+                backwardWeights[count] = backwardWeights[i];
+                relationshipIds[count] = relationshipIds[i];
+                count++;
+            }
+            Adjacency outgoing = adjacency( count, sources, targets,
+                    forwardWeights );
+            Adjacency incoming = adjacency( count, targets, sources,
+                    backwardWeights );
+            return new GraphProjection( graphDb, Arrays.copyOf( nodeIds,
+                    nodeCount ), indexes, outgoing, incoming );
+        }
+
+        private Adjacency adjacency( int count, int[] owners, int[] others,
+                double[] weights )
+        {
+            int[] offsets = new int[nodeCount + 1];
+            for ( int i = 0; i < count; i++ )
+            {
+                offsets[owners[i] + 1]++;
+            }
+            for ( int i = 0; i < nodeCount; i++ )
+            {
+                offsets[i + 1] += offsets[i];
+            }
+            int[] cursors = Arrays.copyOf( offsets, nodeCount );
+            int[] adjacentTargets = new int[count];
+            double[] adjacentWeights = new double[count];
+            long[] adjacentRelationshipIds = new long[count];
+            for ( int i = 0; i < count; i++ )
+            {
+                int position = cursors[owners[i]]++;
+                adjacentTargets[position] = others[i];
+                adjacentWeights[position] = weights[i];
+                adjacentRelationshipIds[position] = relationshipIds[i];
+            }
+            return new Adjacency( offsets, adjacentTargets, adjacentWeights,
+                    adjacentRelationshipIds );
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.projection;
+
+import java.util.Arrays;
+
+import org.neo4j.graphalgo.impl.centrality.BetweennessCentrality;
+import org.neo4j.graphalgo.impl.projection.GraphProjection.Adjacency;
+import org.neo4j.graphalgo.impl.util.BinaryDoubleHeap;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+
+/**
+ * Betweenness centrality as defined by Linton C. Freeman (1977) using the
+ * algorithm by Ulrik Brandes (2001), run on a {@link GraphProjection}. Gives
+ * the same result as {@link BetweennessCentrality} with an underlying
+ * Dijkstra search, but all the per-source state (costs, path counts,
+ * predecessors and dependencies) lives in primitive arrays which are reused
+ * between the sources.
+ * @complexity O(n * m log(n)).
+ */
+public class ProjectedBetweennessCentrality
+{
+    private final GraphProjection projection;
+    private final Direction direction;
+    private boolean doneCalculation = false;
+    private double[] centralities;
+
+    // Per source state, reused between sources
+    private double[] costs;
+    private double[] pathCounts;
+    private double[] dependencies;
+    private boolean[] settledNodes;
+    private int[] settledOrder;
+    private int[] predecessorHeads;
+    private int[] predecessorNext;
+    private int[] predecessorNodes;
+    private int predecessorCount;
+
+    /**
+     * @param projection the projected graph to run the calculation on.
+     * @param direction the direction in which the paths should follow the
+     * relationships.
+     */
+    public ProjectedBetweennessCentrality( GraphProjection projection,
+            Direction direction )
+    {
+        this.projection = projection;
+        this.direction = direction;
+    }
+
+    /**
+     * @return the centrality of {@code node}, or null if it isn't part of
+     * the projection.
+     */
+    public Double getCentrality( Node node )
+    {
+        calculate();
+        int index = projection.indexOf( node );
+        return index == -1 ? null : centralities[index];
+    }
+
+    /**
+     * @return the centrality values of all nodes, indexed by their indexes
+     * in the projection.
+     */
+    public double[] getCentralities()
+    {
+        calculate();
+        return centralities;
+    }
+
+    public void reset()
+    {
+        doneCalculation = false;
+    }
+
+    public void calculate()
+    {
+        if ( doneCalculation )
+        {
+            return;
+        }
+        doneCalculation = true;
+        int nodeCount = projection.nodeCount();
+        centralities = new double[nodeCount];
+        costs = new double[nodeCount];
+        pathCounts = new double[nodeCount];
+        dependencies = new double[nodeCount];
+        settledNodes = new boolean[nodeCount];
+        settledOrder = new int[nodeCount];
+        predecessorHeads = new int[nodeCount];
+        int maxPredecessors = direction == Direction.BOTH ? 2 * projection.relationshipCount()
+                : projection.relationshipCount();
+        predecessorNext = new int[maxPredecessors];
+        predecessorNodes = new int[maxPredecessors];
+        double globalFactor = direction == Direction.BOTH ? 0.5 : 1.0;
+        BinaryDoubleHeap heap = new BinaryDoubleHeap( nodeCount );
+        for ( int source = 0; source < nodeCount; source++ )
+        {
+            int settled = search( source, heap );
+            // Accumulate the dependencies in order of decreasing cost
+            Arrays.fill( dependencies, 0.0 );
+            for ( int i = settled - 1; i > 0; i-- )
+            {
+                int node = settledOrder[i];
+                for ( int p = predecessorHeads[node]; p != -1; p = predecessorNext[p] )
+                {
+                    int predecessor = predecessorNodes[p];
+                    dependencies[predecessor] += pathCounts[predecessor]
+                            / pathCounts[node] * (1 + dependencies[node]);
+                }
+                centralities[node] += dependencies[node] * globalFactor;
+            }
+        }
+        costs = pathCounts = dependencies = null;
+        settledNodes = null;
+        settledOrder = predecessorHeads = predecessorNext = predecessorNodes = null;
+    }
+
+    /**
+     * Dijkstra search from {@code source} which counts the number of
+     * cheapest paths to each node and remembers all predecessors on them.
+     * @return the number of nodes settled, which are found in the settled
+     * order array.
+     */
+    private int search( int source, BinaryDoubleHeap heap )
+    {
+        Arrays.fill( costs, Double.POSITIVE_INFINITY );
+        Arrays.fill( pathCounts, 0.0 );
+        Arrays.fill( predecessorHeads, -1 );
+        Arrays.fill( settledNodes, false );
+        predecessorCount = 0;
+        costs[source] = 0.0;
+        pathCounts[source] = 1.0;
+        heap.clear();
+        heap.offer( source, 0.0 );
+        int settled = 0;
+        while ( !heap.isEmpty() )
+        {
+            int node = heap.poll();
+            settledNodes[node] = true;
+            settledOrder[settled++] = node;
+            if ( direction != Direction.INCOMING )
+            {
+                relax( node, projection.outgoing, heap );
+            }
+            if ( direction != Direction.OUTGOING )
+            {
+                relax( node, projection.incoming, heap );
+            }
+        }
+        return settled;
+    }
+
+    private void relax( int node, Adjacency adjacency, BinaryDoubleHeap heap )
+    {
+        double cost = costs[node];
+        for ( int edge = adjacency.offsets[node], end = adjacency.offsets[node + 1]; edge < end; edge++ )
+        {
+            int target = adjacency.targets[edge];
+            // Its paths are counted and it may already have been passed on
+            // to nodes after it, e.g. over relationships with zero cost
+            if ( settledNodes[target] )
+            {
+                continue;
+            }
+            double newCost = cost + adjacency.weights[edge];
+            if ( newCost < costs[target] )
+            {
+                costs[target] = newCost;
+                pathCounts[target] = pathCounts[node];
+                predecessorHeads[target] = -1;
+                addPredecessor( target, node );
+                heap.offer( target, newCost );
+            }
+            else if ( newCost == costs[target] )
+            {
+                pathCounts[target] += pathCounts[node];
+                addPredecessor( target, node );
+            }
+        }
+    }
+
+    private void addPredecessor( int node, int predecessor )
+    {
+        if ( predecessorCount == predecessorNodes.length )
+        {
+            // Predecessors which were later replaced by cheaper ones still
+            // occupy slots, so this can happen for some graphs.
+            predecessorNodes = Arrays.copyOf( predecessorNodes,
+                    predecessorCount * 2 + 1 );
+            predecessorNext = Arrays.copyOf( predecessorNext,
+                    predecessorCount * 2 + 1 );
+        }
+        predecessorNodes[predecessorCount] = predecessor;
+        predecessorNext[predecessorCount] = predecessorHeads[node];
+        predecessorHeads[node] = predecessorCount++;
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.projection;
+
+import java.util.Arrays;
+
+import org.neo4j.graphalgo.impl.centrality.EigenvectorCentrality;
+import org.neo4j.graphalgo.impl.centrality.EigenvectorCentralityPower;
+import org.neo4j.graphalgo.impl.projection.GraphProjection.Adjacency;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+
+/**
+ * Computing eigenvector centrality with the "power method" on a
+ * {@link GraphProjection}. Gives the same result as
+ * {@link EigenvectorCentralityPower}, but keeps the vectors in primitive
+ * arrays indexed by the dense node indexes of the projection instead of in
+ * maps keyed by {@link Node}, and never touches the graph itself while
+ * iterating. The start vector is uniform rather than random so that the
+ * number of iterations needed is the same for every run.
+ * @complexity O(i(n + m)) when i iterations are done.
+ */
+public class ProjectedEigenvectorCentrality implements EigenvectorCentrality
+{
+    private final GraphProjection projection;
+    private final Direction relationDirection;
+    private final double precision;
+    private boolean doneCalculation = false;
+    private double[] values;
+    private double[] newValues;
+    private int totalIterations = 0;
+    private int maxIterations = Integer.MAX_VALUE;
+
+    /**
+     * @param projection
+     *            The projected graph to run the calculation on.
+     * @param relationDirection
+     *            The direction in which the paths should follow the
+     *            relationships.
+     * @param precision
+     *            Precision factor (ex. 0.01 for 1% error). Note that this is
+     *            not the error from the correct values, but the amount of
+     *            change tolerated in one iteration.
+     */
+    public ProjectedEigenvectorCentrality( GraphProjection projection,
+            Direction relationDirection, double precision )
+    {
+        this.projection = projection;
+        this.relationDirection = relationDirection;
+        this.precision = precision;
+    }
+
+    /**
+     * Will return null if the node is not part of the projection. The
+     * calculation is done the first time this method is run. Upon successive
+     * requests, the old result is returned, unless the calculation is reset
+     * via {@link #reset()}
+     */
+    public Double getCentrality( Node node )
+    {
+        calculate();
+        int index = projection.indexOf( node );
+        return index == -1 ? null : values[index];
+    }
+
+    /**
+     * @return the centrality values of all nodes, indexed by their indexes
+     * in the projection.
+     */
+    public double[] getCentralities()
+    {
+        calculate();
+        return values;
+    }
+
+    public void reset()
+    {
+        doneCalculation = false;
+    }
+
+    public void calculate()
+    {
+        if ( doneCalculation )
+        {
+            return;
+        }
+        doneCalculation = true;
+        start();
+        runIterations( maxIterations );
+    }
+
+    private void start()
+    {
+        int nodeCount = projection.nodeCount();
+        values = new double[nodeCount];
+        newValues = new double[nodeCount];
+        totalIterations = 0;
+        Arrays.fill( values, 1.0 );
+        normalize( values );
+    }
+
+    /**
+     * This runs a number of iterations in the computation and stops when enough
+     * precision has been reached. A maximum number of iterations to perform is
+     * supplied. NOTE: For maxNrIterations > 0 at least one iteration will be
+     * run, regardless if good precision has already been reached or not. This
+     * method also ignores the global limit defined by maxIterations. If
+     * the calculation hasn't been started the iterations start from the
+     * start vector.
+     * @param maxNrIterations
+     *            The maximum number of iterations to run.
+     * @return the number of iterations performed. if this is lower than the
+     *         given maxNrIterations the desired precision has been reached.
+     */
+    public int runIterations( int maxNrIterations )
+    {
+        if ( values == null )
+        {
+            start();
+        }
+        if ( maxNrIterations <= 0 || values.length == 0 )
+        {
+            return 0;
+        }
+        int localIterations = 0;
+        while ( true )
+        {
+            ++localIterations;
+            ++totalIterations;
+            Arrays.fill( newValues, 0.0 );
+            // "matrix multiplication"
+            if ( relationDirection == Direction.BOTH
+                 || relationDirection == Direction.OUTGOING )
+            {
+                multiply( projection.outgoing );
+            }
+            if ( relationDirection == Direction.BOTH
+                 || relationDirection == Direction.INCOMING )
+            {
+                multiply( projection.incoming );
+            }
+            normalize( newValues );
+            boolean timeToStop = timeToStop( values, newValues );
+            double[] swap = values;
+            values = newValues;
+            newValues = swap;
+            if ( timeToStop || localIterations >= maxNrIterations )
+            {
+                break;
+            }
+        }
+        // If the first value is negative (possibly the whole vector), negate
+        // the whole vector
+        if ( values[0] < 0 )
+        {
+            for ( int i = 0; i < values.length; i++ )
+            {
+                values[i] = -values[i];
+            }
+        }
+        return localIterations;
+    }
+
+    private void multiply( Adjacency adjacency )
+    {
+        int[] offsets = adjacency.offsets;
+        int[] targets = adjacency.targets;
+        double[] weights = adjacency.weights;
+        for ( int node = 0; node < values.length; node++ )
+        {
+            double value = values[node];
+            for ( int edge = offsets[node], end = offsets[node + 1]; edge < end; edge++ )
+            {
+                newValues[targets[edge]] += value * weights[edge];
+            }
+        }
+    }
+
+    /**
+     * Stop condition for the iteration.
+     * @return true if enough precision has been achieved.
+     */
+    private boolean timeToStop( double[] oldValues, double[] newValues )
+    {
+        for ( int i = 0; i < oldValues.length; i++ )
+        {
+            if ( oldValues[i] == 0.0 )
+            {
+                if ( Math.abs( newValues[i] ) > precision )
+                {
+                    return false;
+                }
+                continue;
+            }
+            double factor = Math.abs( newValues[i] / oldValues[i] );
+            if ( factor - precision > 1.0 || factor + precision < 1.0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void normalize( double[] vector )
+    {
+        double sum = 0;
+        for ( double d : vector )
+        {
+            sum += d * d;
+        }
+        sum = Math.sqrt( sum );
+        if ( sum > 0.0 )
+        {
+            for ( int i = 0; i < vector.length; i++ )
+            {
+                vector[i] /= sum;
+            }
+        }
+    }
+
+    /**
+     * @return the number of iterations made.
+     */
+    public int getTotalIterations()
+    {
+        return totalIterations;
+    }
+
+    /**
+     * @return the maxIterations
+     */
+    public int getMaxIterations()
+    {
+        return maxIterations;
+    }
+
+    /**
+     * Limit the maximum number of iterations to run. Per default,
+     * the maximum iterations are set to Integer.MAX_VALUE, which should
+     * be limited to 50-100 normally.
+     * @param maxIterations
+     *            the maxIterations to set
+     */
+    public void setMaxIterations( int maxIterations )
+    {
+        this.maxIterations = maxIterations;
+    }
+}
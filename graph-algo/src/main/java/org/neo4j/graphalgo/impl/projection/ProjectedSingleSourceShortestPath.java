@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.projection;
+
+import java.util.Arrays;
+
+import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphalgo.impl.projection.GraphProjection.Adjacency;
+import org.neo4j.graphalgo.impl.util.BinaryDoubleHeap;
+import org.neo4j.graphalgo.impl.util.PathImpl;
+import org.neo4j.graphalgo.impl.util.WeightedPathImpl;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * Dijkstra's algorithm for finding the cheapest paths from one start node
+ * to all other nodes in a {@link GraphProjection}. Costs and predecessors
+ * are kept in primitive arrays indexed by the dense node indexes of the
+ * projection, so no graph entities are loaded until a path is asked for.
+ * Negative weights aren't supported.
+ * @complexity O(m log n).
+ */
+public class ProjectedSingleSourceShortestPath
+{
+    private final GraphProjection projection;
+    private final Direction direction;
+    private int startNode = -1;
+    private boolean doneCalculation = false;
+    private double[] costs;
+    private int[] predecessors;
+    private int[] predecessorEdges;
+    private boolean[] predecessorBackwards;
+
+    /**
+     * @param projection the projected graph to search in.
+     * @param direction the direction in which the paths should follow the
+     * relationships.
+     */
+    public ProjectedSingleSourceShortestPath( GraphProjection projection,
+            Direction direction )
+    {
+        this.projection = projection;
+        this.direction = direction;
+    }
+
+    public void setStartNode( Node node )
+    {
+        int index = projection.indexOf( node );
+        if ( index == -1 )
+        {
+            throw new IllegalArgumentException( node
+                    + " isn't part of the projection" );
+        }
+        setStartNode( index );
+    }
+
+    public void setStartNode( int index )
+    {
+        startNode = index;
+        doneCalculation = false;
+    }
+
+    public Direction getDirection()
+    {
+        return direction;
+    }
+
+    /**
+     * @param node the node to get the cost to.
+     * @return the cost of the cheapest path from the start node to
+     * {@code node}, or null if there is no such path.
+     */
+    public Double getCost( Node node )
+    {
+        int index = projection.indexOf( node );
+        if ( index == -1 )
+        {
+            return null;
+        }
+        double cost = getCosts()[index];
+        return cost == Double.POSITIVE_INFINITY ? null : cost;
+    }
+
+    /**
+     * @return the costs of the cheapest paths from the start node to every
+     * node, indexed by their indexes in the projection. Unreachable nodes
+     * have the cost {@link Double#POSITIVE_INFINITY}.
+     */
+    public double[] getCosts()
+    {
+        calculate();
+        return costs;
+    }
+
+    /**
+     * @param node the end node of the path.
+     * @return the cheapest path from the start node to {@code node}, or null
+     * if there is no such path.
+     */
+    public WeightedPath getPath( Node node )
+    {
+        int index = projection.indexOf( node );
+        if ( index == -1 || getCosts()[index] == Double.POSITIVE_INFINITY )
+        {
+            return null;
+        }
+        int length = 0;
+        for ( int current = index; current != startNode; current = predecessors[current] )
+        {
+            length++;
+        }
+        Relationship[] relationships = new Relationship[length];
+        for ( int current = index; current != startNode; current = predecessors[current] )
+        {
+            Adjacency adjacency = predecessorBackwards[current] ? projection.incoming
+                    : projection.outgoing;
+            relationships[--length] = projection.getRelationship(
+                    adjacency.relationshipIds[predecessorEdges[current]] );
+        }
+        PathImpl.Builder builder = new PathImpl.Builder(
+                projection.getNode( startNode ) );
+        for ( Relationship relationship : relationships )
+        {
+            builder = builder.push( relationship );
+        }
+        return new WeightedPathImpl( costs[index], builder.build() );
+    }
+
+    /**
+     * Runs the search, unless it has already been run for the current start
+     * node.
+     */
+    public void calculate()
+    {
+        if ( doneCalculation )
+        {
+            return;
+        }
+        if ( startNode == -1 )
+        {
+            throw new IllegalStateException( "No start node set" );
+        }
+        doneCalculation = true;
+        int nodeCount = projection.nodeCount();
+        costs = new double[nodeCount];
+        Arrays.fill( costs, Double.POSITIVE_INFINITY );
+        predecessors = new int[nodeCount];
+        predecessorEdges = new int[nodeCount];
+        predecessorBackwards = new boolean[nodeCount];
+        boolean[] settled = new boolean[nodeCount];
+        BinaryDoubleHeap heap = new BinaryDoubleHeap( nodeCount );
+        costs[startNode] = 0.0;
+        heap.offer( startNode, 0.0 );
+        while ( !heap.isEmpty() )
+        {
+            int node = heap.poll();
+            settled[node] = true;
+            if ( direction != Direction.INCOMING )
+            {
+                relax( node, projection.outgoing, false, settled, heap );
+            }
+            if ( direction != Direction.OUTGOING )
+            {
+                relax( node, projection.incoming, true, settled, heap );
+            }
+        }
+    }
+
+    private void relax( int node, Adjacency adjacency, boolean backwards,
+            boolean[] settled, BinaryDoubleHeap heap )
+    {
+        double cost = costs[node];
+        for ( int edge = adjacency.offsets[node], end = adjacency.offsets[node + 1]; edge < end; edge++ )
+        {
+            int target = adjacency.targets[edge];
+            if ( settled[target] )
+            {
+                continue;
+            }
+            double newCost = cost + adjacency.weights[edge];
+            if ( newCost < costs[target] )
+            {
+                costs[target] = newCost;
+                predecessors[target] = node;
+                predecessorEdges[target] = edge;
+                predecessorBackwards[target] = backwards;
+                heap.offer( target, newCost );
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary min-heap of dense int indexes prioritized by primitive doubles.
+ * The heap keeps track of where each index is positioned so that the
+ * priority of an index already in the heap can be decreased in O(log n),
+ * which is what Dijkstra-like algorithms need.
+ */
+public class BinaryDoubleHeap implements DoubleHeap
+{
+    private int[] heap;
+    private double[] priorities;
+    private int[] positions;
+    private int size;
+
+    public BinaryDoubleHeap()
+    {
+        this( 16 );
+    }
+
+    public BinaryDoubleHeap( int capacity )
+    {
+        capacity = Math.max( capacity, 1 );
+        heap = new int[capacity];
+        priorities = new double[capacity];
+        positions = new int[capacity];
+        Arrays.fill( positions, -1 );
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean contains( int index )
+    {
+        return index < positions.length && positions[index] != -1;
+    }
+
+    public boolean offer( int index, double priority )
+    {
+        ensureCapacity( index );
+        int position = positions[index];
+        if ( position == -1 )
+        {
+            position = size++;
+            heap[position] = index;
+            positions[index] = position;
+        }
+        else if ( priorities[index] <= priority )
+        {
+            return false;
+        }
+        priorities[index] = priority;
+        siftUp( position );
+        return true;
+    }
+
+    public double priority( int index )
+    {
+        if ( !contains( index ) )
+        {
+            throw new NoSuchElementException( "" + index );
+        }
+        return priorities[index];
+    }
+
+    public int peek()
+    {
+        if ( size == 0 )
+        {
+            throw new NoSuchElementException();
+        }
+        return heap[0];
+    }
+
+    public int poll()
+    {
+        int first = peek();
+        positions[first] = -1;
+        if ( --size > 0 )
+        {
+            int last = heap[size];
+            heap[0] = last;
+            positions[last] = 0;
+            siftDown( 0 );
+        }
+        return first;
+    }
+
+    public void clear()
+    {
+        for ( int i = 0; i < size; i++ )
+        {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void ensureCapacity( int index )
+    {
+        if ( index >= positions.length )
+        {
+            int newLength = Math.max( positions.length * 2, index + 1 );
+            heap = Arrays.copyOf( heap, newLength );
+            priorities = Arrays.copyOf( priorities, newLength );
+            int oldLength = positions.length;
+            positions = Arrays.copyOf( positions, newLength );
+            Arrays.fill( positions, oldLength, newLength, -1 );
+        }
+    }
+
+    private void siftUp( int position )
+    {
+        int index = heap[position];
+        double priority = priorities[index];
+        while ( position > 0 )
+        {
+            int parentPosition = (position - 1) >>> 1;
+            int parent = heap[parentPosition];
+            if ( priorities[parent] <= priority )
+            {
+                break;
+            }
+            heap[position] = parent;
+            positions[parent] = position;
+            position = parentPosition;
+        }
+        heap[position] = index;
+        positions[index] = position;
+    }
+
+    private void siftDown( int position )
+    {
+        int index = heap[position];
+        double priority = priorities[index];
+        int half = size >>> 1;
+        while ( position < half )
+        {
+            int childPosition = 2 * position + 1;
+            int child = heap[childPosition];
+            int rightPosition = childPosition + 1;
+            if ( rightPosition < size
+                 && priorities[heap[rightPosition]] < priorities[child] )
+            {
+                childPosition = rightPosition;
+                child = heap[childPosition];
+            }
+            if ( priority <= priorities[child] )
+            {
+                break;
+            }
+            heap[position] = child;
+            positions[child] = position;
+            position = childPosition;
+        }
+        heap[position] = index;
+        positions[index] = position;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+/**
+ * A min-heap of dense, non-negative int indexes prioritized by primitive
+ * doubles, where the priority of an index already in the heap can be
+ * decreased. The indexes are typically given out by the algorithm using the
+ * heap, f.ex. by mapping node ids through a {@link PrimitiveLongIntMap}.
+ */
+public interface DoubleHeap
+{
+    /**
+     * The available {@link DoubleHeap} implementations.
+     */
+    public static enum Type
+    {
+        /**
+         * A {@link BinaryDoubleHeap}, with O(log n) insert, decrease and poll.
+         */
+        BINARY
+        {
+            @Override
+            public DoubleHeap newHeap( int capacity )
+            {
+                return new BinaryDoubleHeap( capacity );
+            }
+        },
+        /**
+         * A {@link PairingDoubleHeap}, with O(1) insert and cheap decrease,
+         * but amortized O(log n) poll. Often the faster choice when there are
+         * many more decreases than polls, i.e. in dense graphs.
+         */
+        PAIRING
+        {
+            @Override
+            public DoubleHeap newHeap( int capacity )
+            {
+                return new PairingDoubleHeap( capacity );
+            }
+        };
+
+        /**
+         * @param capacity the initial capacity, the heap grows as needed.
+         * @return a new empty heap of this type.
+         */
+        public abstract DoubleHeap newHeap( int capacity );
+    }
+
+    /**
+     * Inserts {@code index} with the given priority, or lowers its priority
+     * if it's already in the heap and {@code priority} is lower than the
+     * current one.
+     * @return {@code true} if the heap was changed.
+     */
+    boolean offer( int index, double priority );
+
+    /**
+     * Removes and returns the index with the lowest priority.
+     */
+    int poll();
+
+    /**
+     * @return the index with the lowest priority, without removing it.
+     */
+    int peek();
+
+    /**
+     * @return the priority of {@code index}, which must be in the heap.
+     */
+    double priority( int index );
+
+    boolean contains( int index );
+
+    boolean isEmpty();
+
+    int size();
+
+    void clear();
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A pairing heap of dense int indexes prioritized by primitive doubles. The
+ * tree is kept in arrays indexed by the heap indexes themselves (first child,
+ * next sibling and previous sibling or parent), so no objects are created
+ * while the heap is used. Inserting and decreasing are O(1) and polling is
+ * amortized O(log n).
+ */
+public class PairingDoubleHeap implements DoubleHeap
+{
+    private static final int NONE = -1;
+
+    private double[] priorities;
+    private int[] child;
+    private int[] sibling;
+    private int[] previous;
+    private boolean[] inHeap;
+    private int root = NONE;
+    private int size;
+
+    public PairingDoubleHeap()
+    {
+        this( 16 );
+    }
+
+    public PairingDoubleHeap( int capacity )
+    {
+        capacity = Math.max( capacity, 1 );
+        priorities = new double[capacity];
+        child = new int[capacity];
+        sibling = new int[capacity];
+        previous = new int[capacity];
+        inHeap = new boolean[capacity];
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean contains( int index )
+    {
+        return index < inHeap.length && inHeap[index];
+    }
+
+    public boolean offer( int index, double priority )
+    {
+        ensureCapacity( index );
+        if ( !inHeap[index] )
+        {
+            inHeap[index] = true;
+            priorities[index] = priority;
+            child[index] = sibling[index] = previous[index] = NONE;
+            root = meld( root, index );
+            size++;
+            return true;
+        }
+        if ( priorities[index] <= priority )
+        {
+            return false;
+        }
+        priorities[index] = priority;
+        if ( index != root )
+        {
+            cut( index );
+            root = meld( root, index );
+        }
+        return true;
+    }
+
+    public double priority( int index )
+    {
+        if ( !contains( index ) )
+        {
+            throw new NoSuchElementException( "" + index );
+        }
+        return priorities[index];
+    }
+
+    public int peek()
+    {
+        if ( size == 0 )
+        {
+            throw new NoSuchElementException();
+        }
+        return root;
+    }
+
+    public int poll()
+    {
+        int first = peek();
+        inHeap[first] = false;
+        size--;
+        root = mergePairs( child[first] );
+        if ( root != NONE )
+        {
+            previous[root] = NONE;
+        }
+        return first;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( inHeap, false );
+        root = NONE;
+        size = 0;
+    }
+
+    /**
+     * Detaches the subtree rooted at {@code index} from its parent.
+     */
+    private void cut( int index )
+    {
+        int prev = previous[index];
+        if ( child[prev] == index )
+        {
+            child[prev] = sibling[index];
+        }
+        else
+        {
+            sibling[prev] = sibling[index];
+        }
+        if ( sibling[index] != NONE )
+        {
+            previous[sibling[index]] = prev;
+        }
+        sibling[index] = previous[index] = NONE;
+    }
+
+    /**
+     * Melds two detached trees, making the one with the higher priority
+     * the first child of the other.
+     * @return the root of the resulting tree.
+     */
+    private int meld( int first, int second )
+    {
+        if ( first == NONE )
+        {
+            return second;
+        }
+        if ( second == NONE )
+        {
+            return first;
+        }
+        if ( priorities[second] < priorities[first] )
+        {
+            int tmp = first;
+            first = second;
+            second = tmp;
+        }
+        int firstChild = child[first];
+        sibling[second] = firstChild;
+        if ( firstChild != NONE )
+        {
+            previous[firstChild] = second;
+        }
+        previous[second] = first;
+        child[first] = second;
+        return first;
+    }
+
+    /**
+     * The standard two pass merge of the children of a removed root: meld
+     * the children pairwise from left to right, then meld the resulting
+     * trees from right to left.
+     */
+    private int mergePairs( int first )
+    {
+        if ( first == NONE )
+        {
+            return NONE;
+        }
+        // First pass, the melded pairs are linked in reverse order through
+        // their sibling pointers.
+        int pairs = NONE;
+        while ( first != NONE )
+        {
+            int a = first;
+            int b = sibling[a];
+            int merged;
+            if ( b == NONE )
+            {
+                first = NONE;
+                sibling[a] = previous[a] = NONE;
+                merged = a;
+            }
+            else
+            {
+                first = sibling[b];
+                sibling[a] = previous[a] = NONE;
+                sibling[b] = previous[b] = NONE;
+                merged = meld( a, b );
+            }
+            sibling[merged] = pairs;
+            pairs = merged;
+        }
+        // Second pass
+        int result = pairs;
+        int current = sibling[result];
+        sibling[result] = NONE;
+        while ( current != NONE )
+        {
+            int next = sibling[current];
+            sibling[current] = NONE;
+            result = meld( result, current );
+            current = next;
+        }
+        return result;
+    }
+
+    private void ensureCapacity( int index )
+    {
+        if ( index >= inHeap.length )
+        {
+            int newLength = Math.max( inHeap.length * 2, index + 1 );
+            priorities = Arrays.copyOf( priorities, newLength );
+            child = Arrays.copyOf( child, newLength );
+            sibling = Arrays.copyOf( sibling, newLength );
+            previous = Arrays.copyOf( previous, newLength );
+            inHeap = Arrays.copyOf( inHeap, newLength );
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from non-negative long keys (typically node
+ * ids) to non-negative int values, which doesn't box its keys or values.
+ * Used to map entity ids to dense indexes in the primitive algorithm
+ * implementations.
+ */
+public class PrimitiveLongIntMap
+{
+    private static final long FREE = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int resizeThreshold;
+
+    public PrimitiveLongIntMap()
+    {
+        this( 16 );
+    }
+
+    public PrimitiveLongIntMap( int expectedSize )
+    {
+        int capacity = 4;
+        while ( capacity * 0.75 <= expectedSize )
+        {
+            capacity <<= 1;
+        }
+        allocate( capacity );
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        Arrays.fill( keys, FREE );
+        values = new int[capacity];
+        resizeThreshold = (int) (capacity * 0.75);
+    }
+
+    private static int hash( long key )
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slotOf( long key )
+    {
+        int mask = keys.length - 1;
+        int slot = hash( key ) & mask;
+        while ( keys[slot] != FREE && keys[slot] != key )
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @param key the key to look up.
+     * @return the value associated with {@code key}, or {@code -1} if
+     * there's no such key in this map.
+     */
+    public int get( long key )
+    {
+        int slot = slotOf( key );
+        return keys[slot] == FREE ? -1 : values[slot];
+    }
+
+    public boolean containsKey( long key )
+    {
+        return keys[slotOf( key )] != FREE;
+    }
+
+    /**
+     * Associates {@code value} with {@code key}.
+     * @return the value previously associated with {@code key}, or
+     * {@code -1} if there was none.
+     */
+    public int put( long key, int value )
+    {
+        if ( key < 0 )
+        {
+            throw new IllegalArgumentException( "Negative key " + key );
+        }
+        int slot = slotOf( key );
+        if ( keys[slot] != FREE )
+        {
+            int previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if ( ++size > resizeThreshold )
+        {
+            rehash();
+        }
+        return -1;
+    }
+
+    private void rehash()
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate( oldKeys.length << 1 );
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldKeys[i] != FREE )
+            {
+                int slot = slotOf( oldKeys[i] );
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( keys, FREE );
+        size = 0;
+    }
+}
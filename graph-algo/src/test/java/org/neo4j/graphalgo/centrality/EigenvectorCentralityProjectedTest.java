@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.centrality;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Set;
+
+import org.junit.Test;
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.impl.centrality.EigenvectorCentrality;
+import org.neo4j.graphalgo.impl.projection.GraphProjector;
+import org.neo4j.graphalgo.impl.projection.ProjectedEigenvectorCentrality;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+public class EigenvectorCentralityProjectedTest extends EigenvectorCentralityTest
+{
+    @Override
+    public EigenvectorCentrality getEigenvectorCentrality(
+        Direction relationDirection, CostEvaluator<Double> costEvaluator,
+        Set<Node> nodeSet, Set<Relationship> relationshipSet, double precision )
+    {
+        return new ProjectedEigenvectorCentrality( new GraphProjector(
+            costEvaluator ).project( nodeSet, relationshipSet ),
+            relationDirection, precision );
+    }
+
+    @Test
+    public void testRunIterationsBeforeCalculate()
+    {
+        graph.makeEdgeChain( "a,b,c,a" );
+        ProjectedEigenvectorCentrality eigenvectorCentrality = new ProjectedEigenvectorCentrality(
+            new GraphProjector( (CostEvaluator<Double>) null ).project(
+                graph.getAllNodes() ), Direction.OUTGOING, 0.01 );
+        assertEquals( 1, eigenvectorCentrality.runIterations( 1 ) );
+        assertEquals( 1, eigenvectorCentrality.getTotalIterations() );
+    }
+}
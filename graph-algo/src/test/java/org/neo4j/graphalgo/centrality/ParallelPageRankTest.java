@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.centrality;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.neo4j.graphalgo.impl.centrality.ParallelPageRank;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+import common.Neo4jAlgoTestCase;
+
+public class ParallelPageRankTest extends Neo4jAlgoTestCase
+{
+    private static final double DAMPING = 0.85;
+
+    private void makeGraph()
+    {
+        graph.makeEdgeChain( "a,b,c,d,a" );
+        graph.makeEdgeChain( "e,a,f,c" );
+        graph.makeNode( "g" );
+        graph.makeNode( "h" );
+        graph.setCurrentRelType( MyRelTypes.R2 );
+        graph.makeEdgeChain( "h,a,b" );
+        graph.setCurrentRelType( MyRelTypes.R1 );
+        restartTx();
+    }
+
+    private ParallelPageRank pageRank( Direction direction,
+        RelationshipType... types )
+    {
+        ParallelPageRank pageRank = new ParallelPageRank( graphDb, direction,
+            types );
+        pageRank.setDampingFactor( DAMPING );
+        pageRank.setTolerance( 0.0000000001 );
+        pageRank.setMaxIterations( 1000 );
+        pageRank.setThreads( 3 );
+        return pageRank;
+    }
+
+    @Test
+    public void testSameAsSequentialPageRank()
+    {
+        makeGraph();
+        for ( Direction direction : Direction.values() )
+        {
+            assertScores( pageRank( direction ), reference( direction ) );
+        }
+    }
+
+    @Test
+    public void testOnlyGivenTypes()
+    {
+        makeGraph();
+        assertScores( pageRank( Direction.OUTGOING, MyRelTypes.R2 ),
+            reference( Direction.OUTGOING, MyRelTypes.R2 ) );
+    }
+
+    @Test
+    public void testScoresSumToOne()
+    {
+        makeGraph();
+        double sum = 0;
+        for ( double score : pageRank( Direction.OUTGOING ).getCentralities() )
+        {
+            sum += score;
+        }
+        assertEquals( 1.0, sum, 0.000001 );
+    }
+
+    @Test
+    public void testDeletedNodesHaveNoScore()
+    {
+        makeGraph();
+        Node deleted = graphDb.createNode();
+        restartTx();
+        deleted.delete();
+        restartTx();
+        ParallelPageRank pageRank = pageRank( Direction.OUTGOING );
+        assertNull( pageRank.getCentrality( deleted ) );
+        assertEquals( 0.0, pageRank.getCentralities()[(int) deleted.getId()],
+            0.0 );
+    }
+
+    @Test
+    public void testWriteProperty()
+    {
+        makeGraph();
+        ParallelPageRank pageRank = pageRank( Direction.OUTGOING );
+        tx.success();
+        tx.finish();
+        pageRank.writeProperty( "rank", 3 );
+        tx = graphDb.beginTx();
+        for ( Node node : graphDb.getAllNodes() )
+        {
+            assertEquals( pageRank.getCentrality( node ),
+                (Double) node.getProperty( "rank" ) );
+        }
+    }
+
+    private void assertScores( ParallelPageRank pageRank,
+        Map<Node, Double> expected )
+    {
+        for ( Map.Entry<Node, Double> entry : expected.entrySet() )
+        {
+            assertEquals( entry.getValue(), pageRank.getCentrality(
+                entry.getKey() ), 0.000001 );
+        }
+    }
+
+    /**
+     * A straight forward PageRank using the graph API.
+     */
+    private Map<Node, Double> reference( Direction direction,
+        RelationshipType... types )
+    {
+        Map<Node, Double> scores = new HashMap<Node, Double>();
+        int nodeCount = 0;
+        for ( Node node : graphDb.getAllNodes() )
+        {
+            nodeCount++;
+        }
+        for ( Node node : graphDb.getAllNodes() )
+        {
+            scores.put( node, 1.0 / nodeCount );
+        }
+        for ( int iteration = 0; iteration < 1000; iteration++ )
+        {
+            Map<Node, Double> newScores = new HashMap<Node, Double>();
+            double dangling = 0;
+            for ( Node node : scores.keySet() )
+            {
+                newScores.put( node, 0.0 );
+            }
+            for ( Node node : scores.keySet() )
+            {
+                int degree = 0;
+                for ( Relationship relationship : relationships( node,
+                    direction, types ) )
+                {
+                    degree++;
+                }
+                if ( degree == 0 )
+                {
+                    dangling += scores.get( node );
+                    continue;
+                }
+                for ( Relationship relationship : relationships( node,
+                    direction, types ) )
+                {
+                    Node other = relationship.getOtherNode( node );
+                    newScores.put( other, newScores.get( other )
+                        + DAMPING * scores.get( node ) / degree );
+                }
+            }
+            double base = (1.0 - DAMPING + DAMPING * dangling) / nodeCount;
+            for ( Node node : scores.keySet() )
+            {
+                newScores.put( node, newScores.get( node ) + base );
+            }
+            scores = newScores;
+        }
+        return scores;
+    }
+
+    private Iterable<Relationship> relationships( Node node,
+        Direction direction, RelationshipType[] types )
+    {
+        return types.length == 0 ? node.getRelationships( direction )
+            : node.getRelationships( types[0], direction );
+    }
+}
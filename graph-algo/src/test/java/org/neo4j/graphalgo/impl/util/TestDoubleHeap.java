@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestDoubleHeap
+{
+    @Test
+    public void testBinaryHeap()
+    {
+        assertOrderAndDecrease( DoubleHeap.Type.BINARY );
+        assertAgainstReference( DoubleHeap.Type.BINARY );
+    }
+
+    @Test
+    public void testPairingHeap()
+    {
+        assertOrderAndDecrease( DoubleHeap.Type.PAIRING );
+        assertAgainstReference( DoubleHeap.Type.PAIRING );
+    }
+
+    private void assertOrderAndDecrease( DoubleHeap.Type type )
+    {
+        DoubleHeap heap = type.newHeap( 2 );
+        assertTrue( heap.offer( 0, 5d ) );
+        assertTrue( heap.offer( 1, 4d ) );
+        assertFalse( heap.offer( 1, 4d ) );
+        assertTrue( heap.offer( 1, 3d ) );
+        assertTrue( heap.offer( 10, 7d ) );
+        assertTrue( heap.offer( 10, 1d ) );
+        assertEquals( 3, heap.size() );
+        assertEquals( 1d, heap.priority( 10 ), 0d );
+        assertEquals( 10, heap.poll() );
+        assertFalse( heap.contains( 10 ) );
+        assertEquals( 1, heap.poll() );
+        assertEquals( 0, heap.poll() );
+        assertTrue( heap.isEmpty() );
+    }
+
+    private void assertAgainstReference( DoubleHeap.Type type )
+    {
+        Random random = new Random( 1234 );
+        DoubleHeap heap = type.newHeap( 16 );
+        int count = 1000;
+        double[] priorities = new double[count];
+        boolean[] polled = new boolean[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            priorities[i] = random.nextDouble() * 100;
+            heap.offer( i, priorities[i] );
+        }
+        for ( int round = 0; round < count; round++ )
+        {
+            for ( int i = 0; i < 3; i++ )
+            {
+                int index = random.nextInt( count );
+                if ( !polled[index] )
+                {
+                    priorities[index] -= random.nextDouble() * 10;
+                    heap.offer( index, priorities[index] );
+                }
+            }
+            int expected = -1;
+            for ( int i = 0; i < count; i++ )
+            {
+                if ( !polled[i] && (expected == -1 || priorities[i] < priorities[expected]) )
+                {
+                    expected = i;
+                }
+            }
+            assertEquals( expected, heap.poll() );
+            polled[expected] = true;
+        }
+        assertTrue( heap.isEmpty() );
+    }
+}
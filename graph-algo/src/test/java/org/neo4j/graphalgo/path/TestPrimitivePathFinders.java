@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphalgo.GraphAlgoFactory;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphalgo.impl.util.DoubleHeap;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.kernel.Traversal;
+
+import common.Neo4jAlgoTestCase;
+
+public class TestPrimitivePathFinders extends Neo4jAlgoTestCase
+{
+    private void createGraph()
+    {
+        graph.makeEdge( "start", "a", "cost", (double) 1 );
+        graph.makeEdge( "a", "x", "cost", (double) 9 );
+        graph.makeEdge( "a", "b", "cost", (double) 1 );
+        graph.makeEdge( "b", "x", "cost", (double) 7 );
+        graph.makeEdge( "b", "c", "cost", (double) 1 );
+        graph.makeEdge( "c", "x", "cost", (double) 5 );
+        graph.makeEdge( "c", "x", "cost", (double) 3 );
+        graph.makeEdge( "c", "d", "cost", (double) 2 );
+        graph.makeEdge( "d", "x", "cost", (double) 3 );
+        graph.makeEdge( "x", "y", "cost", (double) 2 );
+    }
+
+    @Test
+    public void testDijkstra()
+    {
+        createGraph();
+        for ( DoubleHeap.Type heapType : DoubleHeap.Type.values() )
+        {
+            PathFinder<WeightedPath> finder = GraphAlgoFactory.primitiveDijkstra(
+                    Traversal.expanderForTypes( MyRelTypes.R1, Direction.OUTGOING ),
+                    CommonEvaluators.doubleCostEvaluator( "cost" ), heapType );
+            WeightedPath path = finder.findSinglePath( graph.getNode( "start" ),
+                    graph.getNode( "y" ) );
+            assertPathDef( path, "start", "a", "b", "c", "x", "y" );
+            assertEquals( 8d, path.weight(), 0d );
+            assertNull( finder.findSinglePath( graph.getNode( "y" ),
+                    graph.getNode( "start" ) ) );
+        }
+    }
+
+    @Test
+    public void testAStar()
+    {
+        Node nodeA = graph.makeNode( "A", "x", 0d, "y", 0d );
+        Node nodeB = graph.makeNode( "B", "x", 2d, "y", 1d );
+        Node nodeC = graph.makeNode( "C", "x", 7d, "y", 0d );
+        graph.makeEdge( "A", "B", "length", 2d );
+        graph.makeEdge( "A", "B", "length", 2d );
+        graph.makeEdge( "B", "C", "length", 3d );
+        graph.makeEdge( "A", "C", "length", 10d );
+        for ( DoubleHeap.Type heapType : DoubleHeap.Type.values() )
+        {
+            PathFinder<WeightedPath> astar = GraphAlgoFactory.primitiveAStar(
+                    Traversal.expanderForAllTypes(),
+                    CommonEvaluators.doubleCostEvaluator( "length" ),
+                    TestAStar.ESTIMATE_EVALUATOR, heapType );
+            int counter = 0;
+            for ( WeightedPath path : astar.findAllPaths( nodeA, nodeC ) )
+            {
+                assertEquals( 5d, path.weight(), 0d );
+                assertPath( path, nodeA, nodeB, nodeC );
+                counter++;
+            }
+            assertEquals( 1, counter );
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.projection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphalgo.impl.projection.GraphProjection;
+import org.neo4j.graphalgo.impl.projection.GraphProjector;
+import org.neo4j.graphalgo.impl.projection.ProjectedBetweennessCentrality;
+import org.neo4j.graphalgo.impl.projection.ProjectedSingleSourceShortestPath;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+
+import common.Neo4jAlgoTestCase;
+
+public class TestGraphProjection extends Neo4jAlgoTestCase
+{
+    private GraphProjection project( String weightProperty )
+    {
+        return new GraphProjector( weightProperty, 1.0, MyRelTypes.R1 )
+            .project( graph.getAllNodes() );
+    }
+
+    @Test
+    public void testProjectionContainsOnlyGivenTypesAndNodes()
+    {
+        graph.makeEdgeChain( "a,b,c" );
+        graph.setCurrentRelType( MyRelTypes.R2 );
+        graph.makeEdgeChain( "a,c" );
+        graph.setCurrentRelType( MyRelTypes.R1 );
+        Node outside = graphDb.createNode();
+        graph.getNode( "c" ).createRelationshipTo( outside, MyRelTypes.R1 );
+        GraphProjection projection = project( "cost" );
+        assertEquals( 3, projection.nodeCount() );
+        assertEquals( 2, projection.relationshipCount() );
+        assertEquals( -1, projection.indexOf( outside ) );
+        int b = projection.indexOf( graph.getNode( "b" ) );
+        assertEquals( graph.getNode( "b" ), projection.getNode( b ) );
+        assertEquals( 1, projection.degree( b, Direction.OUTGOING ) );
+        assertEquals( 1, projection.degree( b, Direction.INCOMING ) );
+        assertEquals( 2, projection.degree( b, Direction.BOTH ) );
+        GraphProjection.Adjacency outgoing = projection.adjacency( Direction.OUTGOING );
+        int edge = outgoing.start( b );
+        assertEquals( graph.getNode( "c" ), projection.getNode( outgoing.target( edge ) ) );
+        assertEquals( 1.0, outgoing.weight( edge ), 0.0 );
+        outside.getSingleRelationship( MyRelTypes.R1, Direction.INCOMING ).delete();
+        outside.delete();
+    }
+
+    @Test
+    public void testShortestPath()
+    {
+        graph.makeEdge( "start", "a", "cost", (double) 1 );
+        graph.makeEdge( "a", "x", "cost", (double) 9 );
+        graph.makeEdge( "a", "b", "cost", (double) 1 );
+        graph.makeEdge( "b", "x", "cost", (double) 7 );
+        graph.makeEdge( "b", "c", "cost", (double) 1 );
+        graph.makeEdge( "c", "x", "cost", (double) 3 );
+        graph.makeEdge( "x", "y", "cost", (double) 2 );
+        graph.makeNode( "z" );
+        GraphProjection projection = project( "cost" );
+
+        ProjectedSingleSourceShortestPath outgoing = new ProjectedSingleSourceShortestPath(
+            projection, Direction.OUTGOING );
+        outgoing.setStartNode( graph.getNode( "start" ) );
+        assertEquals( 6.0, outgoing.getCost( graph.getNode( "x" ) ), 0.0 );
+        assertEquals( 8.0, outgoing.getCost( graph.getNode( "y" ) ), 0.0 );
+        assertNull( outgoing.getCost( graph.getNode( "z" ) ) );
+        WeightedPath path = outgoing.getPath( graph.getNode( "y" ) );
+        assertPathDef( path, "start", "a", "b", "c", "x", "y" );
+        assertEquals( 8.0, path.weight(), 0.0 );
+
+        ProjectedSingleSourceShortestPath incoming = new ProjectedSingleSourceShortestPath(
+            projection, Direction.INCOMING );
+        incoming.setStartNode( graph.getNode( "x" ) );
+        assertPathDef( incoming.getPath( graph.getNode( "start" ) ), "x", "c", "b",
+            "a", "start" );
+        assertNull( incoming.getPath( graph.getNode( "y" ) ) );
+    }
+
+    @Test
+    public void testBetweennessOnBox()
+    {
+        graph.makeEdgeChain( "a,b,c,d,a" );
+        ProjectedBetweennessCentrality betweennessCentrality = new ProjectedBetweennessCentrality(
+            new GraphProjector( (CostEvaluator<Double>) null ).project(
+                graph.getAllNodes() ), Direction.BOTH );
+        for ( String node : new String[] { "a", "b", "c", "d" } )
+        {
+            assertEquals( 0.5, betweennessCentrality.getCentrality(
+                graph.getNode( node ) ), 0.0 );
+        }
+    }
+
+    @Test
+    public void testBetweennessWithSeveralShortestPaths()
+    {
+        graph.makeEdgeChain( "a,b,d,e,f,h" );
+        graph.makeEdgeChain( "a,c,d" );
+        graph.makeEdgeChain( "e,g,h" );
+        ProjectedBetweennessCentrality betweennessCentrality = new ProjectedBetweennessCentrality(
+            new GraphProjector( CommonEvaluators.doubleCostEvaluator( "cost", 1.0 ) )
+                .project( graph.getAllNodes() ), Direction.OUTGOING );
+        assertEquals( 0.0, betweennessCentrality.getCentrality( graph.getNode( "a" ) ), 0.0 );
+        assertEquals( 2.5, betweennessCentrality.getCentrality( graph.getNode( "b" ) ), 0.0 );
+        assertEquals( 2.5, betweennessCentrality.getCentrality( graph.getNode( "c" ) ), 0.0 );
+        assertEquals( 12.0, betweennessCentrality.getCentrality( graph.getNode( "d" ) ), 0.0 );
+        assertEquals( 12.0, betweennessCentrality.getCentrality( graph.getNode( "e" ) ), 0.0 );
+        assertEquals( 2.5, betweennessCentrality.getCentrality( graph.getNode( "f" ) ), 0.0 );
+        assertEquals( 2.5, betweennessCentrality.getCentrality( graph.getNode( "g" ) ), 0.0 );
+        assertEquals( 0.0, betweennessCentrality.getCentrality( graph.getNode( "h" ) ), 0.0 );
+    }
+
+    @Test
+    public void testBetweennessWithZeroCostRelationships()
+    {
+        graph.makeEdge( "s", "a", "cost", (double) 1 );
+        graph.makeEdge( "a", "b", "cost", (double) 0 );
+        ProjectedBetweennessCentrality betweennessCentrality = new ProjectedBetweennessCentrality(
+            new GraphProjector( CommonEvaluators.doubleCostEvaluator( "cost" ) )
+                .project( graph.getAllNodes() ), Direction.BOTH );
+        assertEquals( 0.0, betweennessCentrality.getCentrality( graph.getNode( "s" ) ), 0.0 );
+        assertEquals( 1.0, betweennessCentrality.getCentrality( graph.getNode( "a" ) ), 0.0 );
+        assertEquals( 0.0, betweennessCentrality.getCentrality( graph.getNode( "b" ) ), 0.0 );
+    }
+}
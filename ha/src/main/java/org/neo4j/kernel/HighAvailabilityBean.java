@@ -35,6 +35,8 @@ import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.Service;
 import org.neo4j.kernel.ha.ConnectionInformation;
 import org.neo4j.kernel.ha.MasterServer;
+import org.neo4j.kernel.ha.TransactionFeed;
+import org.neo4j.kernel.ha.TransactionFeed.Subscription;
 import org.neo4j.management.HighAvailability;
 import org.neo4j.management.InstanceInfo;
 import org.neo4j.management.SlaveInfo;
@@ -110,15 +112,17 @@ public final class HighAvailabilityBean extends ManagementBeanProvider
         }
 
         @Description( "(If this is a master) Information about "
-                      + "the instances connected to this instance" )
+                      + "the instances connected to this instance, "
+                      + "including how far behind the master they are" )
         public SlaveInfo[] getConnectedSlaves()
         {
             MasterServer master = db.getMasterServerIfMaster();
             if ( master == null ) return null;
             List<SlaveInfo> result = new ArrayList<SlaveInfo>();
+            TransactionFeed feed = master.getTransactionFeed();
             for ( Map.Entry<Integer, Collection<SlaveContext>> entry : master.getSlaveInformation().entrySet() )
             {
-                result.add( slaveInfo( entry.getKey().intValue(), entry.getValue() ) );
+                result.add( slaveInfo( entry.getKey().intValue(), entry.getValue(), feed ) );
             }
             return result.toArray( new SlaveInfo[result.size()] );
         }
@@ -145,7 +149,8 @@ public final class HighAvailabilityBean extends ManagementBeanProvider
             return "Update completed in " + time + "ms";
         }
 
-        private SlaveInfo slaveInfo( int machineId, Collection<SlaveContext> contexts )
+        private SlaveInfo slaveInfo( int machineId, Collection<SlaveContext> contexts,
+                TransactionFeed feed )
         {
             List<SlaveTransaction> txInfo = new ArrayList<SlaveTransaction>();
             for ( SlaveContext context : contexts )
@@ -158,10 +163,27 @@ public final class HighAvailabilityBean extends ManagementBeanProvider
                 txInfo.add( new SlaveTransaction( context.getEventIdentifier(), lastTransactions ) );
             }
             ConnectionInformation connection = db.getBroker().getConnectionInformation( machineId );
+            Subscription subscription = feed.getSubscription( machineId );
+            boolean streaming = subscription != null && subscription.isActive();
+            long transactionLag;
+            long lagMillis;
+            if ( streaming )
+            {
+                transactionLag = subscription.getTransactionLag();
+                lagMillis = subscription.getLagMillis();
+            }
+            else
+            {
+                // Go with what the slave last reported to ZooKeeper
+                transactionLag = Math.max( 0, db.getConfig().getTxModule().getXaDataSourceManager()
+                        .getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME ).getLastCommittedTxId()
+                        - connection.getLastCommitedTransactionId() );
+                lagMillis = -1;
+            }
             return new SlaveInfo( connection.getJMXServiceURL().toString(),
                     connection.getInstanceId(), machineId, false,
-                    connection.getLastCommitedTransactionId(),
-                    txInfo.toArray( new SlaveTransaction[txInfo.size()] ) );
+                    connection.getLastCommitedTransactionId(), streaming, transactionLag,
+                    lagMillis, txInfo.toArray( new SlaveTransaction[txInfo.size()] ) );
         }
     }
 }
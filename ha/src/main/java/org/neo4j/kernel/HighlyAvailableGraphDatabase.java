@@ -39,9 +39,11 @@ import java.util.concurrent.TimeUnit;
 import org.neo4j.com.MasterUtil;
 import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
+import org.neo4j.com.StoreCopyProgress;
 import org.neo4j.com.ToFileStoreWriter;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
@@ -68,7 +70,9 @@ import org.neo4j.kernel.ha.ZooKeeperLastCommittedTxIdSetter;
 import org.neo4j.kernel.ha.zookeeper.Machine;
 import org.neo4j.kernel.ha.zookeeper.ZooKeeperBroker;
 import org.neo4j.kernel.ha.zookeeper.ZooKeeperException;
+import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
+import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.transaction.XaDataSourceManager;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.util.StringLogger;
@@ -83,7 +87,10 @@ public class HighlyAvailableGraphDatabase extends AbstractGraphDatabase
     private static final String CONFIG_DEFAULT_HA_CLUSTER_NAME = "neo4j.ha";
     private static final int CONFIG_DEFAULT_PORT = 6361;
     public static final String CONFIG_KEY_HA_PULL_INTERVAL = "ha.pull_interval";
+    public static final String CONFIG_KEY_HA_STREAM_UPDATES = "ha.stream_updates";
+    private static final int UPDATE_STREAM_MAX_WAIT_MILLIS = 5000;
     public static final String CONFIG_KEY_ALLOW_INIT_CLUSTER = "ha.allow_init_cluster";
+    public static final String CONFIG_KEY_HA_STORE_COPY_COMPRESSION = "ha.store_copy_compression";
 
     private final String storeDir;
     private final Map<String, String> config;
@@ -190,7 +197,7 @@ public class HighlyAvailableGraphDatabase extends AbstractGraphDatabase
     private synchronized void startUp( boolean allowInit )
     {
         StoreId storeId = null;
-        if ( !new File( storeDir, "neostore" ).exists() )
+        if ( !new File( storeDir, "neostore" ).exists() || StoreCopyProgress.isInProgress( storeDir ) )
         {
             long endTime = System.currentTimeMillis()+10000;
             Exception exception = null;
@@ -254,8 +261,14 @@ public class HighlyAvailableGraphDatabase extends AbstractGraphDatabase
     private void copyStoreFromMaster( Pair<Master, Machine> master ) throws Exception
     {
         msgLog.logMessage( "Copying store from master" );
+        ToFileStoreWriter writer = new ToFileStoreWriter( storeDir,
+                Boolean.parseBoolean( config.get( CONFIG_KEY_HA_STORE_COPY_COMPRESSION ) ) );
+        if ( writer.resumeContext() != null )
+        {
+            msgLog.logMessage( "Resuming interrupted store copy from " + writer.resumeContext() );
+        }
         Response<Void> response = master.first().copyStore( new SlaveContext( machineId, 0, new Pair[0] ),
-                new ToFileStoreWriter( storeDir ) );
+                writer );
         EmbeddedGraphDatabase tempDb = new EmbeddedGraphDatabase( storeDir );
         try
         {
@@ -265,6 +278,7 @@ public class HighlyAvailableGraphDatabase extends AbstractGraphDatabase
         {
             tempDb.shutdown();
         }
+        writer.copyCompleted();
         msgLog.logMessage( "Done copying store from master" );
     }
 
@@ -387,6 +401,71 @@ public class HighlyAvailableGraphDatabase extends AbstractGraphDatabase
         }
     }
 
+    /**
+     * Waits for the master to commit transactions which this slave doesn't
+     * have and applies them, or returns after a while if none were committed.
+     */
+    private void awaitUpdates()
+    {
+        try
+        {
+            if ( masterServer == null )
+            {
+                receive( broker.getMaster().first().awaitUpdates( getSlaveContext( -1 ),
+                        UPDATE_STREAM_MAX_WAIT_MILLIS ) );
+            }
+        }
+        catch ( ZooKeeperException e )
+        {
+            newMaster( null, e );
+            throw e;
+        }
+        catch ( HaCommunicationException e )
+        {
+            newMaster( null, e );
+            throw e;
+        }
+    }
+
+    /**
+     * Grabs write locks on all the given nodes and relationships for the
+     * current transaction up front. On a slave the master is asked for the
+     * locks in one request for the nodes and one for the relationships,
+     * instead of in one request per entity as they get modified later on
+     * in the transaction.
+     */
+    public void acquireWriteLocks( PropertyContainer... entities )
+    {
+        acquireLocks( LockType.WRITE, entities );
+    }
+
+    /**
+     * Grabs read locks on all the given nodes and relationships for the
+     * current transaction up front, see {@link #acquireWriteLocks(PropertyContainer...)}.
+     */
+    public void acquireReadLocks( PropertyContainer... entities )
+    {
+        acquireLocks( LockType.READ, entities );
+    }
+
+    private void acquireLocks( LockType lockType, PropertyContainer... entities )
+    {
+        Config config = getConfig();
+        if ( lockType == LockType.WRITE )
+        {
+            config.getLockManager().getWriteLocks( (Object[]) entities );
+        }
+        else
+        {
+            config.getLockManager().getReadLocks( (Object[]) entities );
+        }
+        LockReleaser lockReleaser = config.getLockReleaser();
+        for ( PropertyContainer entity : entities )
+        {
+            lockReleaser.addLockToTransaction( entity, lockType );
+        }
+    }
+
     private void updateTime()
     {
         this.updateTime = System.currentTimeMillis();
@@ -555,6 +634,37 @@ public class HighlyAvailableGraphDatabase extends AbstractGraphDatabase
 
     private void instantiateAutoUpdatePullerIfConfigSaysSo()
     {
+        if ( Boolean.parseBoolean( this.config.get( CONFIG_KEY_HA_STREAM_UPDATES ) ) )
+        {
+            // Asks the master for updates again as soon as the previous
+            // request returns, the master holds on to each request until
+            // there's something new so that updates are pushed to this slave
+            updatePuller = new ScheduledThreadPoolExecutor( 1 );
+            updatePuller.scheduleWithFixedDelay( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        awaitUpdates();
+                    }
+                    catch ( Exception e )
+                    {
+                        msgLog.logMessage( "Streaming updates failed", e );
+                        try
+                        {
+                            Thread.sleep( 1000 );
+                        }
+                        catch ( InterruptedException ie )
+                        {
+                            Thread.interrupted();
+                        }
+                    }
+                }
+            }, 0, 1, TimeUnit.MILLISECONDS );
+            return;
+        }
+
         String pullInterval = this.config.get( CONFIG_KEY_HA_PULL_INTERVAL );
         if ( pullInterval != null )
         {
@@ -50,6 +50,15 @@ public interface Master
 
     Response<Void> pullUpdates( SlaveContext context );
 
+    /**
+     * Like {@link #pullUpdates(SlaveContext)}, but if there are no new
+     * transactions for the slave the master waits for up to
+     * {@code maxWaitMillis} for some to be committed before responding.
+     * A slave calling this in a loop gets transactions pushed to it as soon
+     * as they have been committed on the master.
+     */
+    Response<Void> awaitUpdates( SlaveContext context, int maxWaitMillis );
+
     Response<Integer> getMasterIdForCommittedTx( long txId );
 
     Response<Void> copyStore( SlaveContext context, StoreWriter writer );
@@ -201,6 +201,17 @@ public class MasterClient extends Client<Master> implements Master
         return sendRequest( HaRequestType.PULL_UPDATES, context, EMPTY_SERIALIZER, VOID_DESERIALIZER );
     }
 
+    public Response<Void> awaitUpdates( SlaveContext context, final int maxWaitMillis )
+    {
+        return sendRequest( HaRequestType.AWAIT_UPDATES, context, new Serializer()
+        {
+            public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+            {
+                buffer.writeInt( maxWaitMillis );
+            }
+        }, VOID_DESERIALIZER );
+    }
+
     public Response<Integer> getMasterIdForCommittedTx( final long txId )
     {
         return sendRequest( HaRequestType.GET_MASTER_ID_FOR_TX, SlaveContext.EMPTY, new Serializer()
@@ -217,7 +228,8 @@ public class MasterClient extends Client<Master> implements Master
     {
         context = new SlaveContext( context.machineId(), context.getEventIdentifier(), new Pair[0] );
 
-        return sendRequest( HaRequestType.COPY_STORE, context, EMPTY_SERIALIZER, new Protocol.FileStreamsDeserializer( writer ) );
+        return sendRequest( HaRequestType.COPY_STORE, context,
+                new Protocol.StoreCopyRequestSerializer( writer ), new Protocol.FileStreamsDeserializer( writer ) );
     }
     
     public static enum HaRequestType implements RequestType<Master>
@@ -326,13 +338,21 @@ public class MasterClient extends Client<Master> implements Master
             public Response<Void> callMaster( Master master, SlaveContext context,
                     ChannelBuffer input, final ChannelBuffer target )
             {
-                return master.copyStore( context, new ToNetworkStoreWriter( target ) );
+                return master.copyStore( context, ToNetworkStoreWriter.forRequest( input, target ) );
             }
             
             byte id()
             {
                 return (byte) 255;
             }
+        }, VOID_SERIALIZER ),
+        AWAIT_UPDATES( new MasterCaller<Master, Void>()
+        {
+            public Response<Void> callMaster( Master master, SlaveContext context,
+                    ChannelBuffer input, ChannelBuffer target )
+            {
+                return master.awaitUpdates( context, input.readInt() );
+            }
         }, VOID_SERIALIZER );
 
         @SuppressWarnings( "rawtypes" )
@@ -55,6 +55,7 @@ import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
 import org.neo4j.kernel.impl.transaction.IllegalResourceException;
 import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.LockType;
+import org.neo4j.kernel.impl.transaction.xaframework.TxIdGenerator;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
 
@@ -72,11 +73,17 @@ public class MasterImpl implements Master
 
     private final Map<SlaveContext, Transaction> transactions = Collections
             .synchronizedMap( new HashMap<SlaveContext, Transaction>() );
+    private final TransactionFeed transactionFeed;
 
     public MasterImpl( GraphDatabaseService db )
     {
         this.graphDb = db;
         this.graphDbConfig = ((AbstractGraphDatabase) db).getConfig();
+        Object txIdGenerator = graphDbConfig.getParams().get( TxIdGenerator.class );
+        // Without a master tx id generator there's nothing telling the feed
+        // about commits, it will still work but only notice them when polling
+        this.transactionFeed = txIdGenerator instanceof MasterTxIdGenerator ?
+                ((MasterTxIdGenerator) txIdGenerator).getTransactionFeed() : new TransactionFeed();
     }
 
     public GraphDatabaseService getGraphDb()
@@ -119,7 +126,7 @@ public class MasterImpl implements Master
     
     private <T> Response<T> packResponse( SlaveContext context, T response, Predicate<Long> filter )
     {
-        return MasterUtil.packResponse( graphDb, context, response, filter );
+        return transactionFeed.share( MasterUtil.packResponse( graphDb, context, response, filter ) );
     }
 
     private Transaction getTx( SlaveContext txId )
@@ -329,6 +336,21 @@ public class MasterImpl implements Master
         return packResponse( context, null );
     }
 
+    public Response<Void> awaitUpdates( SlaveContext context, int maxWaitMillis )
+    {
+        try
+        {
+            transactionFeed.await( context, graphDbConfig.getTxModule().getXaDataSourceManager(),
+                    maxWaitMillis );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+            // Just respond with whatever there is
+        }
+        return packResponse( context, null );
+    }
+
     public Response<Integer> getMasterIdForCommittedTx( long txId )
     {
         try
@@ -448,6 +470,11 @@ public class MasterImpl implements Master
     // but exposed so that other tools can reach that information.
     // =====================================================================
 
+    public TransactionFeed getTransactionFeed()
+    {
+        return transactionFeed;
+    }
+
     public Map<Integer, Collection<SlaveContext>> getOngoingTransactions()
     {
         Map<Integer, Collection<SlaveContext>> result = new HashMap<Integer, Collection<SlaveContext>>();
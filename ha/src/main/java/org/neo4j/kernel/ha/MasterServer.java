@@ -58,20 +58,26 @@ public class MasterServer extends Server<Master, Void>
     @Override
     protected void responseWritten( RequestType<Master> type, Channel channel, SlaveContext context )
     {
-        if ( type == HaRequestType.FINISH || type == HaRequestType.PULL_UPDATES )
+        if ( type == HaRequestType.FINISH || type == HaRequestType.PULL_UPDATES ||
+                type == HaRequestType.AWAIT_UPDATES )
         {
             unmapSlave( channel, context );
         }
     }
 
+    public TransactionFeed getTransactionFeed()
+    {
+        return ((MasterImpl) getMaster()).getTransactionFeed();
+    }
+
     public Map<Integer, Collection<SlaveContext>> getSlaveInformation()
     {
         // Which slaves are connected a.t.m?
         Set<Integer> machineIds = new HashSet<Integer>();
-        Map<Channel, SlaveContext> channels = getConnectedSlaveChannels();
+        Map<SlaveContext, Channel> channels = getConnectedSlaveChannels();
         synchronized ( channels )
         {
-            for ( SlaveContext context : channels.values() )
+            for ( SlaveContext context : channels.keySet() )
             {
                 machineIds.add( context.machineId() );
             }
@@ -43,6 +43,7 @@ public class MasterTxIdGenerator implements TxIdGenerator
     }
     
     private final Broker broker;
+    private final TransactionFeed transactionFeed = new TransactionFeed();
 
     public MasterTxIdGenerator( Broker broker )
     {
@@ -58,4 +59,14 @@ public class MasterTxIdGenerator implements TxIdGenerator
     {
         return broker.getMyMachineId();
     }
+
+    public void committed( XaDataSource dataSource, int identifier, long txId )
+    {
+        transactionFeed.committed( dataSource.getName(), txId );
+    }
+
+    public TransactionFeed getTransactionFeed()
+    {
+        return transactionFeed;
+    }
 }
@@ -19,8 +19,12 @@
  */
 package org.neo4j.kernel.ha;
 
+import java.util.Arrays;
+
 import javax.transaction.TransactionManager;
 
+import org.neo4j.com.Response;
+import org.neo4j.com.SlaveContext;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.kernel.DeadlockDetectedException;
@@ -28,6 +32,7 @@ import org.neo4j.kernel.LockManagerFactory;
 import org.neo4j.kernel.ha.zookeeper.ZooKeeperException;
 import org.neo4j.kernel.impl.transaction.IllegalResourceException;
 import org.neo4j.kernel.impl.transaction.LockManager;
+import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.transaction.TxManager;
 import org.neo4j.kernel.impl.transaction.TxModule;
 
@@ -70,44 +75,76 @@ public class SlaveLockManager extends LockManager
     @Override
     public void getReadLock( Object resource ) throws DeadlockDetectedException,
             IllegalResourceException
+    {
+        getLocks( false, resource );
+    }
+
+    @Override
+    public void getWriteLock( Object resource ) throws DeadlockDetectedException,
+            IllegalResourceException
+    {
+        getLocks( true, resource );
+    }
+
+    /**
+     * Acquires read locks on all the resources, asking the master for the
+     * locks on nodes in one request and for the locks on relationships in
+     * another, instead of one request per resource.
+     */
+    @Override
+    public void getReadLocks( Object... resources ) throws DeadlockDetectedException,
+            IllegalResourceException
+    {
+        getLocks( false, resources );
+    }
+
+    /**
+     * Acquires write locks on all the resources, asking the master for the
+     * locks on nodes in one request and for the locks on relationships in
+     * another, instead of one request per resource.
+     */
+    @Override
+    public void getWriteLocks( Object... resources ) throws DeadlockDetectedException,
+            IllegalResourceException
+    {
+        getLocks( true, resources );
+    }
+
+    private void getLocks( boolean write, Object... resources )
     {
         try
         {
-            Node node = resource instanceof Node ? (Node) resource : null;
-            Relationship relationship = resource instanceof Relationship ?
-                    (Relationship) resource : null;
-            if ( node == null && relationship == null )
-            {
-                // This is a "fake" resource, only grab the lock locally
-                super.getReadLock( resource );
-                return;
-            }
-            
-//            if ( hasAlreadyGotLock() )
-//            {
-//                return;
-//            }
-            
-            LockResult result = null;
-            do
+            long[] nodes = new long[resources.length];
+            long[] relationships = new long[resources.length];
+            int nodeCount = 0;
+            int relationshipCount = 0;
+            LockType lockType = write ? LockType.WRITE : LockType.READ;
+            for ( Object resource : resources )
             {
-                int eventIdentifier = getLocalTxId();
-                result = node != null ?
-                        receiver.receive( broker.getMaster().first().acquireNodeReadLock(
-                                receiver.getSlaveContext( eventIdentifier ), node.getId() ) ) :
-                        receiver.receive( broker.getMaster().first().acquireRelationshipReadLock(
-                                receiver.getSlaveContext( eventIdentifier ), relationship.getId() ) );
-                            
-                switch ( result.getStatus() )
+                // The master keeps the locks until the transaction is
+                // finished, so there's no need to ask for them again
+                if ( isLockedByCurrentTransaction( resource, lockType ) )
                 {
-                case OK_LOCKED:
-                    super.getReadLock( resource );
-                    return;
-                case DEAD_LOCKED:
-                    throw new DeadlockDetectedException( result.getDeadlockMessage() );
+                    continue;
+                }
+                // Other resources are "fake" ones, only grab those locally
+                if ( resource instanceof Node )
+                {
+                    nodes[nodeCount++] = ((Node) resource).getId();
                 }
+                else if ( resource instanceof Relationship )
+                {
+                    relationships[relationshipCount++] = ((Relationship) resource).getId();
+                }
+            }
+            if ( nodeCount > 0 )
+            {
+                acquireOnMaster( write, true, Arrays.copyOf( nodes, nodeCount ) );
+            }
+            if ( relationshipCount > 0 )
+            {
+                acquireOnMaster( write, false, Arrays.copyOf( relationships, relationshipCount ) );
             }
-            while ( result.getStatus() == LockStatus.NOT_LOCKED );
         }
         catch ( ZooKeeperException e )
         {
@@ -119,61 +156,55 @@ public class SlaveLockManager extends LockManager
             receiver.newMaster( null, e );
             throw e;
         }
-    }
-
-    @Override
-    public void getWriteLock( Object resource ) throws DeadlockDetectedException,
-            IllegalResourceException
-    {
-        // Code copied from getReadLock. Fix!
+        int acquired = 0;
         try
         {
-            Node node = resource instanceof Node ? (Node) resource : null;
-            Relationship relationship = resource instanceof Relationship ?
-                    (Relationship) resource : null;
-            if ( node == null && relationship == null )
-            {
-                // This is a "fake" resource, only grab the lock locally
-                super.getWriteLock( resource );
-                return;
-            }
-            
-//          if ( hasAlreadyGotLock() )
-//          {
-//              return;
-//          }
-            
-            LockResult result = null;
-            do
+            for ( Object resource : resources )
             {
-                int eventIdentifier = getLocalTxId();
-                result = node != null ?
-                        receiver.receive( broker.getMaster().first().acquireNodeWriteLock(
-                                receiver.getSlaveContext( eventIdentifier ), node.getId() ) ) :
-                        receiver.receive( broker.getMaster().first().acquireRelationshipWriteLock(
-                                receiver.getSlaveContext( eventIdentifier ), relationship.getId() ) );
-                        
-                switch ( result.getStatus() )
+                if ( write )
                 {
-                case OK_LOCKED:
                     super.getWriteLock( resource );
-                    return;
-                case DEAD_LOCKED:
-                    throw new DeadlockDetectedException( result.getDeadlockMessage() );
                 }
+                else
+                {
+                    super.getReadLock( resource );
+                }
+                acquired++;
             }
-            while ( result.getStatus() == LockStatus.NOT_LOCKED );
         }
-        catch ( ZooKeeperException e )
+        finally
         {
-            receiver.newMaster( null, e );
-            throw e;
+            // Only the local ones, the ones on the master are released when
+            // the transaction finishes there
+            releaseLocks( write ? LockType.WRITE : LockType.READ, resources, acquired );
         }
-        catch ( HaCommunicationException e )
+    }
+
+    private void acquireOnMaster( boolean write, boolean nodes, long... ids )
+    {
+        LockResult result = null;
+        do
         {
-            receiver.newMaster( null, e );
-            throw e;
+            Master master = broker.getMaster().first();
+            SlaveContext context = receiver.getSlaveContext( getLocalTxId() );
+            Response<LockResult> response;
+            if ( nodes )
+            {
+                response = write ? master.acquireNodeWriteLock( context, ids ) :
+                        master.acquireNodeReadLock( context, ids );
+            }
+            else
+            {
+                response = write ? master.acquireRelationshipWriteLock( context, ids ) :
+                        master.acquireRelationshipReadLock( context, ids );
+            }
+            result = receiver.receive( response );
+            if ( result.getStatus() == LockStatus.DEAD_LOCKED )
+            {
+                throw new DeadlockDetectedException( result.getDeadlockMessage() );
+            }
         }
+        while ( result.getStatus() == LockStatus.NOT_LOCKED );
     }
     
     // Release lock is as usual, since when the master committs it will release
@@ -115,4 +115,9 @@ public class SlaveTxIdGenerator implements TxIdGenerator
     {
         return this.broker.getMaster().other().getMachineId();
     }
+
+    public void committed( XaDataSource dataSource, int identifier, long txId )
+    {
+        // Do nothing
+    }
 }
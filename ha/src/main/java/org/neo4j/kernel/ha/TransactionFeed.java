@@ -0,0 +1,388 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.com.Response;
+import org.neo4j.com.SlaveContext;
+import org.neo4j.com.TransactionStream;
+import org.neo4j.com.TxExtractor;
+import org.neo4j.helpers.Pair;
+import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.transaction.XaDataSourceManager;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+
+/**
+ * Keeps track of the transactions committed on the master so that slaves
+ * streaming updates can be woken up as soon as there's something new for
+ * them, see {@link Master#awaitUpdates(SlaveContext, int)}. Recently
+ * committed transactions are kept serialized so that a transaction going
+ * out to many slaves only is extracted from the logical log once.
+ *
+ * It also keeps one subscription per slave which streams updates, which
+ * is where the replication lag of each such slave can be read from.
+ */
+public class TransactionFeed
+{
+    private static final long MAX_CACHED_BYTES = 16*1024*1024;
+    private static final int MAX_CACHED_TRANSACTIONS = 10000;
+    private static final long MAX_WAIT_SLICE_MILLIS = 500;
+
+    private final Map<Pair<String, Long>, CommittedTransaction> cache =
+            new LinkedHashMap<Pair<String, Long>, CommittedTransaction>();
+    private long cachedBytes;
+    private final Map<String, Long> lastCommittedTxs = new HashMap<String, Long>();
+    private long version;
+    private final Map<Integer, Subscription> subscriptions =
+            new ConcurrentHashMap<Integer, Subscription>();
+
+    /**
+     * Called on the master when a transaction has been committed, by
+     * {@link MasterTxIdGenerator}.
+     */
+    public synchronized void committed( String resource, long txId )
+    {
+        cacheEntry( resource, txId ).commitTime = System.currentTimeMillis();
+        lastCommittedTxs.put( resource, txId );
+        version++;
+        notifyAll();
+    }
+
+    /**
+     * Waits until there are transactions on the master which the slave
+     * represented by {@code context} hasn't applied, or {@code maxWaitMillis}
+     * has passed.
+     *
+     * @return whether or not there are transactions for the slave to apply.
+     */
+    public boolean await( SlaveContext context, XaDataSourceManager dataSources,
+            long maxWaitMillis ) throws InterruptedException
+    {
+        Subscription subscription = subscribe( context );
+        long endTime = System.currentTimeMillis() + maxWaitMillis;
+        long seenVersion = currentVersion();
+        subscription.waiting = true;
+        try
+        {
+            // The last committed tx ids are read outside of the monitor of
+            // this feed since the data sources have monitors of their own.
+            while ( !hasUpdates( context, dataSources ) )
+            {
+                long remaining = endTime - System.currentTimeMillis();
+                if ( remaining <= 0 )
+                {
+                    return false;
+                }
+                synchronized ( this )
+                {
+                    if ( version == seenVersion )
+                    {
+                        wait( Math.min( remaining, MAX_WAIT_SLICE_MILLIS ) );
+                    }
+                    seenVersion = version;
+                }
+            }
+            return true;
+        }
+        finally
+        {
+            subscription.waiting = false;
+        }
+    }
+
+    private synchronized long currentVersion()
+    {
+        return version;
+    }
+
+    private boolean hasUpdates( SlaveContext context, XaDataSourceManager dataSources )
+    {
+        for ( Pair<String, Long> applied : context.lastAppliedTransactions() )
+        {
+            XaDataSource dataSource = dataSources.getXaDataSource( applied.first() );
+            if ( dataSource != null && dataSource.getLastCommittedTxId() > applied.other() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Subscription subscribe( SlaveContext context )
+    {
+        Subscription subscription = subscriptions.get( context.machineId() );
+        if ( subscription == null )
+        {
+            subscription = new Subscription( context.machineId() );
+            subscriptions.put( context.machineId(), subscription );
+        }
+        for ( Pair<String, Long> applied : context.lastAppliedTransactions() )
+        {
+            if ( applied.first().equals( Config.DEFAULT_DATA_SOURCE_NAME ) )
+            {
+                subscription.lastAppliedTxId = applied.other();
+            }
+        }
+        subscription.lastSeen = System.currentTimeMillis();
+        return subscription;
+    }
+
+    /**
+     * Returns a response which contains the same transactions as
+     * {@code response}, but where the data of each transaction is extracted
+     * from the logical log at most once for all responses it's part of
+     * (as long as it's still cached).
+     */
+    public <T> Response<T> share( Response<T> response )
+    {
+        final TransactionStream transactions = response.transactions();
+        TransactionStream shared = new TransactionStream( transactions.dataSourceNames() )
+        {
+            @Override
+            protected Triplet<String, Long, TxExtractor> fetchNextOrNull()
+            {
+                if ( !transactions.hasNext() )
+                {
+                    return null;
+                }
+                Triplet<String, Long, TxExtractor> tx = transactions.next();
+                return Triplet.of( tx.first(), tx.second(),
+                        sharedExtractor( tx.first(), tx.second(), tx.third() ) );
+            }
+        };
+        return new Response<T>( response.response(), response.getStoreId(), shared );
+    }
+
+    private TxExtractor sharedExtractor( String resource, long txId, final TxExtractor source )
+    {
+        final CommittedTransaction tx;
+        synchronized ( this )
+        {
+            tx = cacheEntry( resource, txId );
+        }
+        return new TxExtractor()
+        {
+            @Override
+            public ReadableByteChannel extract()
+            {
+                return Channels.newChannel( new ByteArrayInputStream( data( tx, source ) ) );
+            }
+
+            @Override
+            public void extract( LogBuffer buffer )
+            {
+                try
+                {
+                    buffer.put( data( tx, source ) );
+                }
+                catch ( IOException e )
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+        };
+    }
+
+    private byte[] data( CommittedTransaction tx, TxExtractor source )
+    {
+        byte[] data = tx.data( source );
+        synchronized ( this )
+        {
+            if ( !tx.accounted && !tx.evicted )
+            {
+                tx.accounted = true;
+                cachedBytes += data.length;
+                evict();
+            }
+        }
+        return data;
+    }
+
+    private CommittedTransaction cacheEntry( String resource, long txId )
+    {
+        Pair<String, Long> key = Pair.of( resource, txId );
+        CommittedTransaction tx = cache.get( key );
+        if ( tx == null )
+        {
+            tx = new CommittedTransaction();
+            cache.put( key, tx );
+            evict();
+        }
+        return tx;
+    }
+
+    private void evict()
+    {
+        Iterator<CommittedTransaction> iterator = cache.values().iterator();
+        while ( (cachedBytes > MAX_CACHED_BYTES || cache.size() > MAX_CACHED_TRANSACTIONS)
+                && iterator.hasNext() )
+        {
+            CommittedTransaction tx = iterator.next();
+            if ( tx.accounted )
+            {
+                cachedBytes -= tx.data.length;
+            }
+            tx.evicted = true;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the subscriptions of the slaves which stream updates, keyed
+     * by machine id.
+     */
+    public Collection<Subscription> getSubscriptions()
+    {
+        return subscriptions.values();
+    }
+
+    public Subscription getSubscription( int machineId )
+    {
+        return subscriptions.get( machineId );
+    }
+
+    private synchronized long lastCommittedTxId()
+    {
+        Long txId = lastCommittedTxs.get( Config.DEFAULT_DATA_SOURCE_NAME );
+        return txId != null ? txId : -1;
+    }
+
+    private synchronized long commitTime( long txId )
+    {
+        CommittedTransaction tx = cache.get( Pair.of( Config.DEFAULT_DATA_SOURCE_NAME, txId ) );
+        return tx != null ? tx.commitTime : 0;
+    }
+
+    /**
+     * A slave streaming updates from the master.
+     */
+    public class Subscription
+    {
+        private final int machineId;
+        private volatile long lastAppliedTxId = -1;
+        private volatile long lastSeen;
+        private volatile boolean waiting;
+
+        Subscription( int machineId )
+        {
+            this.machineId = machineId;
+        }
+
+        public int getMachineId()
+        {
+            return machineId;
+        }
+
+        /**
+         * @return whether or not the slave is currently waiting for updates,
+         * or asked for them recently.
+         */
+        public boolean isActive()
+        {
+            return waiting || System.currentTimeMillis() - lastSeen < 2*MAX_WAIT_SLICE_MILLIS;
+        }
+
+        /**
+         * @return the number of transactions committed on the master which
+         * the slave hadn't applied when it last asked for updates.
+         */
+        public long getTransactionLag()
+        {
+            return Math.max( 0, lastCommittedTxId() - lastAppliedTxId );
+        }
+
+        /**
+         * @return the time in milliseconds since the oldest transaction the
+         * slave hasn't applied was committed, 0 if it's up to date or -1 if
+         * that isn't known.
+         */
+        public long getLagMillis()
+        {
+            if ( getTransactionLag() == 0 )
+            {
+                return 0;
+            }
+            long commitTime = commitTime( lastAppliedTxId + 1 );
+            return commitTime == 0 ? -1 : System.currentTimeMillis() - commitTime;
+        }
+    }
+
+    private static class CommittedTransaction
+    {
+        private volatile long commitTime;
+        private byte[] data;
+        private boolean accounted;
+        private boolean evicted;
+
+        synchronized byte[] data( TxExtractor source )
+        {
+            if ( data == null )
+            {
+                data = read( source );
+            }
+            return data;
+        }
+
+        private static byte[] read( TxExtractor source )
+        {
+            ReadableByteChannel channel = source.extract();
+            try
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteBuffer buffer = ByteBuffer.allocate( 4096 );
+                while ( channel.read( buffer ) != -1 )
+                {
+                    out.write( buffer.array(), 0, buffer.position() );
+                    buffer.clear();
+                }
+                return out.toByteArray();
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( e );
+            }
+            finally
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch ( IOException e )
+                {
+                    // Nothing to do about it
+                }
+            }
+        }
+    }
+}
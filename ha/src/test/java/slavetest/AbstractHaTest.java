@@ -47,6 +47,7 @@ import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.Config;
+import org.neo4j.kernel.HighlyAvailableGraphDatabase;
 import org.neo4j.kernel.ha.Broker;
 import org.neo4j.kernel.ha.BrokerFactory;
 
@@ -455,6 +456,25 @@ public abstract class AbstractHaTest
         pullUpdates();
     }
 
+    @Test
+    public void testStreamUpdatesToSlave() throws Exception
+    {
+        if ( Config.osIsWindows() ) return;
+        setExpectedResults( 2, 1, 0, 1, 0, 0 );
+        initializeDbs( 1, MapUtil.stringMap(
+                HighlyAvailableGraphDatabase.CONFIG_KEY_HA_STREAM_UPDATES, "true" ) );
+
+        Long nodeId = executeJobOnMaster( new CommonJobs.CreateSubRefNodeJob(
+                CommonJobs.REL_TYPE.name(), null, null ) );
+        // The slave never pulls, the transaction should be pushed to it
+        long endTime = System.currentTimeMillis() + 10000;
+        while ( !executeJob( new CommonJobs.GetNodeByIdJob( nodeId.longValue() ), 0 ).booleanValue() )
+        {
+            assertTrue( "Update wasn't streamed to slave", System.currentTimeMillis() < endTime );
+            Thread.sleep( 50 );
+        }
+    }
+
     @Test
     public void testGetRelationships() throws Exception
     {
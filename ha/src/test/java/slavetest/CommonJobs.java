@@ -23,6 +23,7 @@ import java.io.Serializable;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.neo4j.graphdb.Direction;
@@ -37,6 +38,7 @@ import org.neo4j.graphdb.index.Index;
 import org.neo4j.ha.StandaloneDatabase;
 import org.neo4j.kernel.Config;
 import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.kernel.HighlyAvailableGraphDatabase;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.ha.LockableNode;
 import org.neo4j.kernel.impl.core.LockReleaser;
@@ -537,6 +539,72 @@ public abstract class CommonJobs
         }
     }
 
+    public static class PerformanceWriteLatencyJob extends AbstractJob<Void>
+    {
+        private final int numTx;
+        private final int numNodesInEach;
+        private final boolean lockAhead;
+
+        /**
+         * @param lockAhead if {@code true} the write locks on all nodes in a
+         * transaction are grabbed up front in one go, otherwise they are
+         * grabbed one by one as the nodes are modified.
+         */
+        public PerformanceWriteLatencyJob( int numTx, int numNodesInEach, boolean lockAhead )
+        {
+            this.numTx = numTx;
+            this.numNodesInEach = numNodesInEach;
+            this.lockAhead = lockAhead;
+        }
+
+        public Void execute( GraphDatabaseService db ) throws RemoteException
+        {
+            Node[] nodes = new Node[numNodesInEach];
+            Transaction tx = db.beginTx();
+            try
+            {
+                for ( int i = 0; i < nodes.length; i++ )
+                {
+                    nodes[i] = db.createNode();
+                }
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+
+            long[] latencies = new long[numTx];
+            for ( int i = 0; i < numTx; i++ )
+            {
+                long start = System.nanoTime();
+                tx = db.beginTx();
+                try
+                {
+                    if ( lockAhead && db instanceof HighlyAvailableGraphDatabase )
+                    {
+                        ((HighlyAvailableGraphDatabase) db).acquireWriteLocks( nodes );
+                    }
+                    for ( Node node : nodes )
+                    {
+                        node.setProperty( "tx", i );
+                    }
+                    tx.success();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort( latencies );
+            System.out.println( "Write latency (" + (lockAhead ? "locks ahead" : "locks one by one") +
+                    "): p50=" + latencies[numTx / 2] / 1000000.0 + "ms, p99=" +
+                    latencies[(int) (numTx * 0.99)] / 1000000.0 + "ms" );
+            return null;
+        }
+    }
+
     public static class PerformanceIdAllocationJob extends AbstractJob<Void>
     {
         private final int count;
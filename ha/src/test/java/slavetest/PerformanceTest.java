@@ -49,6 +49,18 @@ public class PerformanceTest
         testJob( new CommonJobs.PerformanceAcquireWriteLocksJob( 10000 ) );
     }
 
+    @Test
+    public void writeLatencyLockingOneByOne() throws Exception
+    {
+        testJob( new CommonJobs.PerformanceWriteLatencyJob( 100, 500, false ) );
+    }
+
+    @Test
+    public void writeLatencyLockingAhead() throws Exception
+    {
+        testJob( new CommonJobs.PerformanceWriteLatencyJob( 100, 500, true ) );
+    }
+
     public static void main( String[] args ) throws Exception
     {
         PerformanceTest perf = new PerformanceTest();
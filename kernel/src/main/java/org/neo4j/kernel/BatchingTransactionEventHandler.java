@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import java.util.List;
+
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+/**
+ * A {@link TransactionEventHandler} which can receive several committed
+ * transactions in one call. When transaction events are dispatched
+ * asynchronously (see {@link Config#TRANSACTION_EVENT_DISPATCH}) the
+ * transactions which have piled up since the last call are handed over
+ * together, up to {@link Config#TRANSACTION_EVENT_BATCH_SIZE} at a time,
+ * instead of one {@link #afterCommit(TransactionData, Object)} per
+ * transaction. When dispatching synchronously
+ * {@link #afterCommit(TransactionData, Object)} is called as usual.
+ *
+ * @param <T> The type of a state object that the transaction handler can use
+ * to pass information from {@link #beforeCommit(TransactionData)} to
+ * {@link #afterCommitBatch(List, List)}.
+ */
+public interface BatchingTransactionEventHandler<T> extends TransactionEventHandler<T>
+{
+    /**
+     * Invoked with the transactions that have been committed since the
+     * previous call, in the order they were committed.
+     *
+     * @param data the changes of each of the committed transactions.
+     * @param states the values returned from
+     * {@link #beforeCommit(TransactionData)} for each of the transactions,
+     * in the same order as {@code data}.
+     */
+    void afterCommitBatch( List<TransactionData> data, List<T> states );
+}
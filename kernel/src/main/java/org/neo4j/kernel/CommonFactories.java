@@ -28,6 +28,7 @@ import javax.transaction.TransactionManager;
 import org.neo4j.kernel.impl.core.DefaultRelationshipTypeCreator;
 import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
 import org.neo4j.kernel.impl.core.RelationshipTypeCreator;
+import org.neo4j.kernel.impl.nioneo.store.BatchingIdGenerator;
 import org.neo4j.kernel.impl.nioneo.store.IdGenerator;
 import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
@@ -53,11 +54,30 @@ public class CommonFactories
     public static class DefaultIdGeneratorFactory implements IdGeneratorFactory
     {
         private final Map<IdType, IdGenerator> generators = new HashMap<IdType, IdGenerator>();
+        private final int batchSize;
+        
+        public DefaultIdGeneratorFactory()
+        {
+            this( 0 );
+        }
+        
+        /**
+         * @param batchSize if positive the generators hand out ids from
+         * batches of this size per thread, see {@link BatchingIdGenerator}.
+         */
+        public DefaultIdGeneratorFactory( int batchSize )
+        {
+            this.batchSize = batchSize;
+        }
         
         public IdGenerator open( String fileName, int grabSize, IdType idType,
                 long highestIdInUse )
         {
             IdGenerator generator = new IdGeneratorImpl( fileName, grabSize );
+            if ( batchSize > 0 )
+            {
+                generator = new BatchingIdGenerator( generator, batchSize, grabSize );
+            }
             generators.put( idType, generator );
             return generator;
         }
@@ -83,6 +103,18 @@ public class CommonFactories
         return new DefaultIdGeneratorFactory();
     }
     
+    /**
+     * @return the default id generator factory, or one handing out ids from
+     * per thread batches if {@link Config#ID_BATCH_SIZE} is set in
+     * {@code params}.
+     */
+    public static IdGeneratorFactory defaultIdGeneratorFactory( Map<String, String> params )
+    {
+        String batchSize = params.get( Config.ID_BATCH_SIZE );
+        return new DefaultIdGeneratorFactory( batchSize != null ?
+                Integer.parseInt( batchSize ) : 0 );
+    }
+    
     public static RelationshipTypeCreator defaultRelationshipTypeCreator()
     {
         return new DefaultRelationshipTypeCreator();
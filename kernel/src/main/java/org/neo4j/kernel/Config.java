@@ -34,15 +34,20 @@ import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.RelationshipTypeCreator;
 import org.neo4j.kernel.impl.core.RelationshipTypeHolder;
+import org.neo4j.kernel.impl.core.TransactionEventDispatcher;
 import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
 import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
+import org.neo4j.kernel.impl.nioneo.store.DegreeStore;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
 import org.neo4j.kernel.impl.persistence.IdGenerator;
 import org.neo4j.kernel.impl.persistence.IdGeneratorModule;
 import org.neo4j.kernel.impl.persistence.PersistenceModule;
 import org.neo4j.kernel.impl.transaction.LockManager;
+import org.neo4j.kernel.impl.transaction.TxManager;
 import org.neo4j.kernel.impl.transaction.TxModule;
 import org.neo4j.kernel.impl.transaction.xaframework.TxIdGenerator;
+import org.neo4j.kernel.impl.util.KernelMetrics;
 
 /**
  * A non-standard configuration object.
@@ -58,6 +63,19 @@ public class Config
     public static final String USE_MEMORY_MAPPED_BUFFERS = "use_memory_mapped_buffers";
     public static final String DUMP_CONFIGURATION = "dump_configuration";
     public static final String KEEP_LOGICAL_LOGS = "keep_logical_logs";
+    public static final String TRACK_CHANGED_PAGES = "track_changed_pages";
+    public static final String DEFER_RELATIONSHIP_LINKING = "defer_relationship_linking";
+    public static final String COMPACT_LOGICAL_LOG = "compact_logical_log";
+    public static final String KERNEL_METRICS = "kernel_metrics";
+    public static final String LOCK_CONTENTION_SAMPLE_INTERVAL = "lock_contention_sample_interval";
+    public static final String TRANSACTION_EVENT_DISPATCH = "transaction_event_dispatch";
+    public static final String TRANSACTION_EVENT_QUEUE_SIZE = "transaction_event_queue_size";
+    public static final String TRANSACTION_EVENT_BATCH_SIZE = "transaction_event_batch_size";
+    public static final String DENSE_NODE_THRESHOLD = "dense_node_threshold";
+    public static final String ID_BATCH_SIZE = "id_batch_size";
+    public static final String FOLLOW_LOGICAL_LOG = "follow_logical_log";
+    public static final String LOGICAL_LOG_FOLLOW_INTERVAL = "logical_log_follow_interval";
+    public static final String SNAPSHOT_READS = "snapshot_reads";
     public static final String ENABLE_REMOTE_SHELL = "enable_remote_shell";
     public static final String ENABLE_ONLINE_BACKUP = "enable_online_backup";
 
@@ -99,6 +117,8 @@ public class Config
     private final boolean backupSlave;
     private final IdGeneratorFactory idGeneratorFactory;
     private final TxIdGenerator txIdGenerator;
+    private final KernelMetrics metrics;
+    private final TransactionEventDispatcher eventDispatcher;
 
     Config( GraphDatabaseService graphDb, String storeDir, StoreId storeId,
             Map<String, String> inputParams, KernelPanicEventGenerator kpe,
@@ -121,6 +141,22 @@ public class Config
         this.readOnly = Boolean.parseBoolean( (String) params.get( READ_ONLY ) );
         this.backupSlave = Boolean.parseBoolean( (String) params.get( BACKUP_SLAVE ) );
         this.syncHookFactory = txSyncHookFactory;
+        this.metrics = new KernelMetrics( !"false".equalsIgnoreCase(
+                inputParams.get( KERNEL_METRICS ) ) );
+        lockManager.setMetrics( metrics );
+        String sampleInterval = inputParams.get( LOCK_CONTENTION_SAMPLE_INTERVAL );
+        lockManager.getContentionProfiler().setSampleInterval( sampleInterval != null ?
+                Integer.parseInt( sampleInterval ) : metrics.isEnabled() ? 1 : 0 );
+        if ( txModule.getTxManager() instanceof TxManager )
+        {
+            ( (TxManager) txModule.getTxManager() ).setMetrics( metrics );
+        }
+        this.eventDispatcher = "async".equalsIgnoreCase(
+                inputParams.get( TRANSACTION_EVENT_DISPATCH ) ) ?
+                new TransactionEventDispatcher(
+                        intParam( inputParams, TRANSACTION_EVENT_QUEUE_SIZE, 1024 ),
+                        intParam( inputParams, TRANSACTION_EVENT_BATCH_SIZE, 64 ), metrics ) :
+                null;
         this.persistenceModule = new PersistenceModule();
         this.cacheManager = new AdaptiveCacheManager();
         graphDbModule = new GraphDbModule( graphDb, cacheManager, lockManager,
@@ -135,6 +171,15 @@ public class Config
         params.put( TransactionManager.class, txModule.getTxManager() );
         params.put( LastCommittedTxIdSetter.class, lastCommittedTxIdSetter );
         params.put( GraphDbModule.class, graphDbModule );
+        params.put( KernelMetrics.class, metrics );
+        params.put( CountsStore.class, new CountsStore() );
+        params.put( DegreeStore.class, new DegreeStore() );
+    }
+
+    private static int intParam( Map<String, String> inputParams, String key, int defaultValue )
+    {
+        String value = inputParams.get( key );
+        return value != null ? Integer.parseInt( value ) : defaultValue;
     }
 
     public static Map<Object, Object> getDefaultParams()
@@ -212,6 +257,20 @@ public class Config
         return lockReleaser;
     }
 
+    public KernelMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return the dispatcher of transaction events, or {@code null} if
+     * events are dispatched in the committing thread.
+     */
+    public TransactionEventDispatcher getTransactionEventDispatcher()
+    {
+        return eventDispatcher;
+    }
+
     public Map<Object, Object> getParams()
     {
         return this.params;
@@ -79,7 +79,7 @@ public final class EmbeddedGraphDatabase extends AbstractGraphDatabase implement
     {
         this.graphDbImpl = new EmbeddedGraphDbImpl( storeDir, null, params, this,
                 CommonFactories.defaultLockManagerFactory(),
-                CommonFactories.defaultIdGeneratorFactory(),
+                CommonFactories.defaultIdGeneratorFactory( params ),
                 CommonFactories.defaultRelationshipTypeCreator(),
                 CommonFactories.defaultTxIdGeneratorFactory(),
                 CommonFactories.defaultTxFinishHook(),
@@ -157,6 +157,50 @@ public final class EmbeddedGraphDatabase extends AbstractGraphDatabase implement
         return graphDbImpl.beginTx();
     }
 
+    /**
+     * Begins a transaction which reads a snapshot of the graph, as it was
+     * when the transaction began. It doesn't see what other transactions
+     * commit while it's running and doesn't take any locks, so it neither
+     * waits for writing transactions nor makes them wait. It can't make
+     * changes. Requires {@link Config#SNAPSHOT_READS} to be set to
+     * {@code true}, which makes writing transactions keep the committed
+     * state of what they change for as long as a snapshot transaction may
+     * need it.
+     * <p>
+     * Relationships, properties and whether nodes and relationships exist
+     * are read from the snapshot. Indexes and {@link #getAllNodes()} are
+     * not.
+     *
+     * @throws IllegalStateException if snapshot reads aren't enabled or a
+     * transaction is already running
+     */
+    public Transaction beginSnapshotTx()
+    {
+        return graphDbImpl.beginSnapshotTx();
+    }
+
+    /**
+     * Begins a transaction which doesn't lock the nodes and relationships
+     * it changes until it's finished. Instead it remembers what it has
+     * read and changed, and when it's finished successfully it locks all
+     * of it for the duration of the commit and checks that no other
+     * transaction has committed changes to any of it in the meantime. If
+     * one has, the transaction is rolled back and finishing it throws a
+     * {@link TransactionConflictException}, after which the whole
+     * transaction can be run again.
+     * <p>
+     * This suits transactions which seldom touch the same things but would
+     * otherwise hold write locks for a long time. The locks taken on
+     * neighbouring relationship records when relationships are created or
+     * deleted are still taken as usual.
+     *
+     * @throws IllegalStateException if a transaction is already running
+     */
+    public Transaction beginOptimisticTx()
+    {
+        return graphDbImpl.beginOptimisticTx();
+    }
+
     /**
      * Returns a non-standard configuration object. Will most likely be removed
      * in future releases.
@@ -28,7 +28,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -48,14 +47,17 @@ import org.neo4j.graphdb.event.KernelEventHandler;
 import org.neo4j.graphdb.event.TransactionEventHandler;
 import org.neo4j.graphdb.index.IndexManager;
 import org.neo4j.helpers.Service;
+import org.neo4j.helpers.collection.PrefetchingIterator;
 import org.neo4j.kernel.impl.core.KernelPanicEventGenerator;
 import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.NodeManager;
 import org.neo4j.kernel.impl.core.RelationshipTypeCreator;
+import org.neo4j.kernel.impl.core.TransactionEventDispatcher;
 import org.neo4j.kernel.impl.core.TransactionEventsSyncHook;
 import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
 import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
 import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.TxFinishHook;
@@ -103,6 +105,10 @@ class EmbeddedGraphDbImpl
         TxModule txModule = newTxModule( inputParams, finishHook );
         LockManager lockManager = lockManagerFactory.create( txModule );
         LockReleaser lockReleaser = new LockReleaser( lockManager, txModule.getTxManager() );
+        if ( Boolean.parseBoolean( inputParams.get( Config.SNAPSHOT_READS ) ) )
+        {
+            lockReleaser.enableSnapshotReads();
+        }
         final Config config = new Config( graphDbService, storeDir, storeId, inputParams,
                 kernelPanicEventGenerator, txModule, lockManager, lockReleaser, idGeneratorFactory,
                 new SyncHookFactory(), relTypeCreator, txIdFactory.create( txModule.getTxManager() ),
@@ -293,6 +299,12 @@ class EmbeddedGraphDbImpl
             {
                 try
                 {
+                    TransactionEventDispatcher dispatcher =
+                            getConfig().getTransactionEventDispatcher();
+                    if ( dispatcher != null )
+                    {
+                        dispatcher.shutdown();
+                    }
                     sendShutdownEvent();
                 }
                 finally
@@ -373,6 +385,66 @@ class EmbeddedGraphDbImpl
         return result;
     }
 
+    public Transaction beginSnapshotTx()
+    {
+        if ( graphDbInstance.transactionRunning() )
+        {
+            throw new IllegalStateException( 
+                "Snapshot transactions can't be nested" );
+        }
+        Transaction result = beginTx();
+        boolean success = false;
+        try
+        {
+            getConfig().getLockReleaser().beginSnapshot();
+            success = true;
+            return result;
+        }
+        finally
+        {
+            if ( !success )
+            {
+                result.finish();
+            }
+        }
+    }
+
+    public Transaction beginOptimisticTx()
+    {
+        if ( graphDbInstance.transactionRunning() )
+        {
+            throw new IllegalStateException( 
+                "Optimistic transactions can't be nested" );
+        }
+        TransactionManager txManager = graphDbInstance.getTransactionManager();
+        LockReleaser lockReleaser = getConfig().getLockReleaser();
+        Transaction result = null;
+        try
+        {
+            txManager.begin();
+            result = new OptimisticTransaction( txManager, lockReleaser );
+        }
+        catch ( Exception e )
+        {
+            throw new TransactionFailureException(
+                "Unable to begin transaction", e );
+        }
+        boolean success = false;
+        try
+        {
+            lockReleaser.beginOptimistic();
+            success = true;
+            return result;
+        }
+        finally
+        {
+            if ( !success )
+            {
+                result.finish();
+            }
+        }
+    }
+
     /**
      * Returns a non-standard configuration object. Will most likely be removed
      * in future releases.
@@ -403,55 +475,52 @@ class EmbeddedGraphDbImpl
             {
                 long highId =
                     (nodeManager.getHighestPossibleIdInUse( Node.class ) & 0xFFFFFFFFL);
-                return new AllNodesIterator( highId );
+                return new AllNodesIterator( highId + 1 );
             }
         };
     }
 
-    // TODO: temporary all nodes getter, fix this with better implementation
-    // (no NotFoundException to control flow)
-    private class AllNodesIterator implements Iterator<Node>
+    /**
+     * Goes through the node store for the nodes in use, without loading
+     * them. Nodes created in transactions not yet committed aren't in the
+     * store, but they are in the cache, so for the ids not in use in the
+     * store the cache is checked.
+     */
+    private class AllNodesIterator extends PrefetchingIterator<Node>
     {
         private final long highId;
-        private long currentNodeId = 0;
-        private Node currentNode = null;
+        private final Iterator<NodeRecord> records;
+        private NodeRecord nextRecord;
+        private long nextId = 0;
 
         AllNodesIterator( long highId )
         {
             this.highId = highId;
+            this.records = StoreScans.getNeoStore( getConfig() ).getNodeStore().scan(
+                    0, highId );
         }
 
-        public synchronized boolean hasNext()
+        @Override
+        protected Node fetchNextOrNull()
         {
-            while ( currentNode == null && currentNodeId <= highId )
+            while ( nextId < highId )
             {
-                try
+                if ( nextRecord == null && records.hasNext() )
                 {
-                    currentNode = getNodeById( currentNodeId++ );
+                    nextRecord = records.next();
                 }
-                catch ( NotFoundException e )
+                int id = (int) nextId++;
+                if ( nextRecord != null && nextRecord.getId() == id )
                 {
-                    // ok we try next
+                    nextRecord = null;
+                    return nodeManager.newNodeProxyById( id );
+                }
+                if ( nodeManager.getNodeIfCached( id ) != null )
+                {
+                    return nodeManager.newNodeProxyById( id );
                 }
             }
-            return currentNode != null;
-        }
-
-        public synchronized Node next()
-        {
-            if ( !hasNext() )
-            {
-                throw new NoSuchElementException();
-            }
-
-            Node nextNode = currentNode;
-            currentNode = null;
-            return nextNode;
-        }
-
-        public void remove()
-        {
-            throw new UnsupportedOperationException();
+            return null;
         }
     }
 
@@ -520,7 +589,8 @@ class EmbeddedGraphDbImpl
             return transactionEventHandlers.isEmpty() ? null :
                     new TransactionEventsSyncHook(
                             nodeManager, transactionEventHandlers,
-                            getConfig().getTxModule().getTxManager() );
+                            getConfig().getTxModule().getTxManager(),
+                            getConfig().getTransactionEventDispatcher() );
         }
     }
 
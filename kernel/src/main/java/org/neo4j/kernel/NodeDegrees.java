@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Gets the number of relationships of a node, its degree, without loading
+ * the relationships. The degrees of nodes with many relationships are kept
+ * by the kernel, so getting them doesn't depend on the number of
+ * relationships. For other nodes the relationship chain is walked in the
+ * store. Relationships created or deleted in the current transaction are
+ * taken into account.
+ *
+ * <pre>
+ * int friends = NodeDegrees.getDegree( node, KNOWS, Direction.OUTGOING );
+ * </pre>
+ */
+public class NodeDegrees
+{
+    private NodeDegrees()
+    {
+    }
+
+    /**
+     * @return the number of relationships of {@code node}.
+     */
+    public static int getDegree( Node node )
+    {
+        return getDegree( node, null, Direction.BOTH );
+    }
+
+    /**
+     * @return the number of relationships of {@code node} in
+     * {@code direction}.
+     */
+    public static int getDegree( Node node, Direction direction )
+    {
+        return getDegree( node, null, direction );
+    }
+
+    /**
+     * Returns the number of relationships of {@code node} of {@code type}
+     * in {@code direction}.
+     *
+     * @param type the relationship type, or {@code null} for any type.
+     */
+    public static int getDegree( Node node, RelationshipType type, Direction direction )
+    {
+        GraphDatabaseService graphDb = node.getGraphDatabase();
+        if ( graphDb instanceof AbstractGraphDatabase )
+        {
+            return ((AbstractGraphDatabase) graphDb).getConfig().getGraphDbModule()
+                    .getNodeManager().getDegree( node.getId(), type, direction );
+        }
+        int degree = 0;
+        for ( Relationship rel : type != null ? node.getRelationships( type, direction ) :
+                node.getRelationships( direction ) )
+        {
+            degree++;
+        }
+        return degree;
+    }
+}
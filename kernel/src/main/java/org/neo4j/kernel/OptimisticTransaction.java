@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import javax.transaction.TransactionManager;
+
+import org.neo4j.kernel.impl.core.LockReleaser;
+
+/**
+ * A transaction which takes its write locks when it's finished, instead of
+ * when it makes its changes, see {@link LockReleaser#beginOptimistic()}.
+ * Locking and validating happens here, before the transaction manager
+ * commits, since the resources are prepared while holding monitors that
+ * other committing transactions need.
+ */
+class OptimisticTransaction extends TopLevelTransaction
+{
+    private final LockReleaser lockReleaser;
+
+    OptimisticTransaction( TransactionManager transactionManager,
+        LockReleaser lockReleaser )
+    {
+        super( transactionManager );
+        this.lockReleaser = lockReleaser;
+    }
+
+    @Override
+    public void finish()
+    {
+        if ( isMarkedAsSuccessful() )
+        {
+            try
+            {
+                lockReleaser.validateOptimistic();
+            }
+            catch ( TransactionConflictException e )
+            {
+                failure();
+                super.finish();
+                throw e;
+            }
+        }
+        super.finish();
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.nioneo.store.IdRange;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
+
+/**
+ * Goes through the node and relationship records of a graph database in
+ * the store, for jobs looking at the whole graph. The records are read a
+ * chunk at a time, without loading the nodes and relationships into the
+ * caches. The ids can be split up into ranges to be scanned in parallel:
+ *
+ * <pre>
+ * for ( final IdRange range : StoreScans.partitionNodes( graphDb, threads ) )
+ * {
+ *     executor.submit( new Runnable()
+ *     {
+ *         public void run()
+ *         {
+ *             for ( NodeRecord node : StoreScans.nodes( graphDb, range ) )
+ *             {
+ *                 ...
+ *             }
+ *         }
+ *     } );
+ * }
+ * </pre>
+ *
+ * Only committed data is seen. Changes committed while a scan is running
+ * may or may not be seen by it.
+ */
+public class StoreScans
+{
+    private StoreScans()
+    {
+    }
+
+    /**
+     * Splits the node ids of {@code graphDb} into at most {@code count}
+     * ranges of about the same size.
+     */
+    public static List<IdRange> partitionNodes( GraphDatabaseService graphDb, int count )
+    {
+        return getNeoStore( graphDb ).getNodeStore().partitionIds( count );
+    }
+
+    /**
+     * Splits the relationship ids of {@code graphDb} into at most
+     * {@code count} ranges of about the same size.
+     */
+    public static List<IdRange> partitionRelationships( GraphDatabaseService graphDb,
+            int count )
+    {
+        return getNeoStore( graphDb ).getRelationshipStore().partitionIds( count );
+    }
+
+    /**
+     * @return the records of all the nodes in {@code graphDb}.
+     */
+    public static Iterable<NodeRecord> nodes( GraphDatabaseService graphDb )
+    {
+        return nodes( graphDb, 0, Long.MAX_VALUE );
+    }
+
+    /**
+     * @return the records of the nodes in {@code graphDb} with ids in
+     * {@code range}.
+     */
+    public static Iterable<NodeRecord> nodes( GraphDatabaseService graphDb, IdRange range )
+    {
+        return nodes( graphDb, range.getRangeStart(),
+                range.getRangeStart() + range.getRangeLength() );
+    }
+
+    private static Iterable<NodeRecord> nodes( GraphDatabaseService graphDb,
+            final long fromId, final long toId )
+    {
+        final NeoStore neoStore = getNeoStore( graphDb );
+        return new Iterable<NodeRecord>()
+        {
+            public Iterator<NodeRecord> iterator()
+            {
+                return neoStore.getNodeStore().scan( fromId, toId );
+            }
+        };
+    }
+
+    /**
+     * @return the records of all the relationships in {@code graphDb}.
+     */
+    public static Iterable<RelationshipRecord> relationships( GraphDatabaseService graphDb )
+    {
+        return relationships( graphDb, 0, Long.MAX_VALUE );
+    }
+
+    /**
+     * @return the records of the relationships in {@code graphDb} with ids
+     * in {@code range}.
+     */
+    public static Iterable<RelationshipRecord> relationships( GraphDatabaseService graphDb,
+            IdRange range )
+    {
+        return relationships( graphDb, range.getRangeStart(),
+                range.getRangeStart() + range.getRangeLength() );
+    }
+
+    private static Iterable<RelationshipRecord> relationships( GraphDatabaseService graphDb,
+            final long fromId, final long toId )
+    {
+        final NeoStore neoStore = getNeoStore( graphDb );
+        return new Iterable<RelationshipRecord>()
+        {
+            public Iterator<RelationshipRecord> iterator()
+            {
+                return neoStore.getRelationshipStore().scan( fromId, toId );
+            }
+        };
+    }
+
+    private static NeoStore getNeoStore( GraphDatabaseService graphDb )
+    {
+        if ( !(graphDb instanceof AbstractGraphDatabase) )
+        {
+            throw new IllegalArgumentException( "Can't scan the store of " + graphDb );
+        }
+        return getNeoStore( ((AbstractGraphDatabase) graphDb).getConfig() );
+    }
+
+    static NeoStore getNeoStore( Config config )
+    {
+        return ((NeoStoreXaDataSource) config.getTxModule().getXaDataSourceManager()
+                .getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME )).getNeoStore();
+    }
+}
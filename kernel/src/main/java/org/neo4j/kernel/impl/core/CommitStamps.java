@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stamps telling when nodes and relationships were last changed by a
+ * committed transaction, for optimistic transactions to check that nothing
+ * they read has been changed since. Ids are striped over a fixed number of
+ * stamps, so a change to one node or relationship also changes the stamp of
+ * others: that can make a transaction fail with a conflict it didn't have,
+ * but never miss one.
+ */
+class CommitStamps
+{
+    private static final int STRIPES = 1 << 14;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLongArray nodes = new AtomicLongArray( STRIPES );
+    private final AtomicLongArray relationships = new AtomicLongArray( STRIPES );
+
+    long get( boolean node, int id )
+    {
+        return (node ? nodes : relationships).get( id & (STRIPES - 1) );
+    }
+
+    /**
+     * Called once a change is in the store and the cache, so that whoever
+     * sees the new stamp also sees the change.
+     */
+    void changed( boolean node, int id )
+    {
+        (node ? nodes : relationships).set( id & (STRIPES - 1),
+            clock.incrementAndGet() );
+    }
+}
@@ -20,9 +20,14 @@
 package org.neo4j.kernel.impl.core;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.transaction.Status;
@@ -31,9 +36,14 @@ import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.NotInTransactionException;
 import org.neo4j.graphdb.TransactionFailureException;
 import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.kernel.TransactionConflictException;
+import org.neo4j.kernel.impl.core.SnapshotVersions.Version;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
@@ -49,10 +59,21 @@ public class LockReleaser
 {
     private static Logger log = Logger.getLogger( LockReleaser.class.getName() );
 
+    // stands for a property which didn't exist in snapshot remove maps
+    private static final PropertyData NO_PROPERTY = new PropertyData( -1, null );
+
     private final ArrayMap<Transaction,List<LockElement>> lockMap = 
         new ArrayMap<Transaction,List<LockElement>>( 5, true, true );
     private final ArrayMap<Transaction,PrimitiveElement> cowMap = 
         new ArrayMap<Transaction,PrimitiveElement>( 5, true, true );
+    private final ArrayMap<Transaction,Long> snapshotMap = 
+        new ArrayMap<Transaction,Long>( 5, true, true );
+    // null unless snapshot reads are enabled
+    private SnapshotVersions versions = null;
+    private final CommitStamps stamps = new CommitStamps();
+    private final ArrayMap<Transaction,OptimisticElement> optimisticMap = 
+        new ArrayMap<Transaction,OptimisticElement>( 5, true, true );
+    private final AtomicInteger optimisticCount = new AtomicInteger();
 
     private NodeManager nodeManager;
     private final LockManager lockManager;
@@ -69,6 +90,7 @@ public class LockReleaser
             new ArrayMap<Integer,CowNodeElement>();
         final ArrayMap<Integer,CowRelElement> relationships = 
             new ArrayMap<Integer,CowRelElement>();
+        long versionTxId = -1;
     }
 
     private static class CowNodeElement
@@ -79,11 +101,13 @@ public class LockReleaser
         }
 
         boolean deleted = false;
+        boolean created = false;
         
         ArrayMap<String,IntArray> relationshipAddMap = null;
         ArrayMap<String,IntArray> relationshipRemoveMap = null;
         ArrayMap<Integer,PropertyData> propertyAddMap = null;
         ArrayMap<Integer,PropertyData> propertyRemoveMap = null;
+        Map<Integer,PropertyData> propertiesBefore = null;
     }
 
     private static class CowRelElement
@@ -94,9 +118,21 @@ public class LockReleaser
         }
 
         boolean deleted = false;
+        boolean created = false;
+        RelationshipImpl deletedRelationship = null;
         
         ArrayMap<Integer,PropertyData> propertyAddMap = null;
         ArrayMap<Integer,PropertyData> propertyRemoveMap = null;
+        Map<Integer,PropertyData> propertiesBefore = null;
+    }
+
+    private static class OptimisticElement
+    {
+        // id -> commit stamp when first read, sorted for lock ordering
+        final Map<Integer,Long> nodesRead = new TreeMap<Integer,Long>();
+        final Map<Integer,Long> relationshipsRead = new TreeMap<Integer,Long>();
+        final Set<Integer> nodesWritten = new HashSet<Integer>();
+        final Set<Integer> relationshipsWritten = new HashSet<Integer>();
     }
 
     public LockReleaser( LockManager lockManager,
@@ -116,6 +152,20 @@ public class LockReleaser
         this.propertyIndexManager = propertyIndexManager;
     }
 
+    /**
+     * Starts keeping what committed transactions changed, so that snapshot
+     * transactions can be run, see {@link #beginSnapshot()}. Write
+     * transactions pay for it by keeping the committed value of everything
+     * they change.
+     */
+    public void enableSnapshotReads()
+    {
+        if ( versions == null )
+        {
+            versions = new SnapshotVersions();
+        }
+    }
+
     private static class LockElement
     {
         Object resource;
@@ -195,6 +245,22 @@ public class LockReleaser
         }
     }
 
+    public ArrayMap<String,IntArray> getCowRelationshipRemoveMap( NodeImpl node )
+    {
+        PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
+        if ( primitiveElement != null )
+        {
+            ArrayMap<Integer,CowNodeElement> cowElements = 
+                primitiveElement.nodes;
+            CowNodeElement element = cowElements.get( node.id );
+            if ( element != null )
+            {
+                return element.relationshipRemoveMap;
+            }
+        }
+        return null;
+    }
+
     public IntArray getCowRelationshipRemoveMap( NodeImpl node, String type )
     {
         PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
@@ -304,9 +370,14 @@ public class LockReleaser
     public void commit()
     {
         Transaction tx = getTransaction();
+        PrimitiveElement element = versions != null ? cowMap.get( tx ) : null;
         // propertyIndex
         propertyIndexManager.commit( tx );
         releaseCows( tx, Status.STATUS_COMMITTED );
+        if ( element != null && element.versionTxId != -1 )
+        {
+            versions.visible( element.versionTxId );
+        }
         releaseLocks( tx );
     }
     
@@ -366,6 +437,10 @@ public class LockReleaser
             cowNodeElements.entrySet();
         for ( Entry<Integer,CowNodeElement> entry : nodeEntrySet )
         {
+            if ( versions != null && entry.getValue().created )
+            {
+                versions.createFinished( true, entry.getKey() );
+            }
             NodeImpl node = nodeManager.getNodeIfCached( entry.getKey() );
             if ( node != null )
             {
@@ -383,12 +458,20 @@ public class LockReleaser
                         "Unknown transaction status: " + param );
                 }
             }
+            if ( param == Status.STATUS_COMMITTED )
+            {
+                stamps.changed( true, entry.getKey() );
+            }
         }
         ArrayMap<Integer,CowRelElement> cowRelElements = element.relationships;
         Set<Entry<Integer,CowRelElement>> relEntrySet = 
             cowRelElements.entrySet();
         for ( Entry<Integer,CowRelElement> entry : relEntrySet )
         {
+            if ( versions != null && entry.getValue().created )
+            {
+                versions.createFinished( false, entry.getKey() );
+            }
             RelationshipImpl rel = nodeManager.getRelIfCached( entry.getKey() );
             if ( rel != null )
             {
@@ -404,6 +487,10 @@ public class LockReleaser
                         "Unknown transaction status: " + param );
                 }
             }
+            if ( param == Status.STATUS_COMMITTED )
+            {
+                stamps.changed( false, entry.getKey() );
+            }
         }
         cowMap.remove( cowTxId );
     }
@@ -432,7 +519,16 @@ public class LockReleaser
     public ArrayMap<Integer,PropertyData> getCowPropertyRemoveMap(
         Primitive primitive )
     {
-        PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
+        Transaction tx = getTransaction();
+        PrimitiveElement primitiveElement = cowMap.get( tx );
+        if ( primitiveElement == null && versions != null )
+        {
+            Long snapshotTx = snapshotMap.get( tx );
+            if ( snapshotTx != null )
+            {
+                return getSnapshotProperties( primitive, snapshotTx, false );
+            }
+        }
         if ( primitiveElement != null && primitive instanceof NodeImpl )
         {
             ArrayMap<Integer,CowNodeElement> cowElements = 
@@ -470,7 +566,16 @@ public class LockReleaser
     public ArrayMap<Integer,PropertyData> getCowPropertyAddMap(
         Primitive primitive )
     {
-        PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
+        Transaction tx = getTransaction();
+        PrimitiveElement primitiveElement = cowMap.get( tx );
+        if ( primitiveElement == null && versions != null )
+        {
+            Long snapshotTx = snapshotMap.get( tx );
+            if ( snapshotTx != null )
+            {
+                return getSnapshotProperties( primitive, snapshotTx, true );
+            }
+        }
         if ( primitiveElement != null && primitive instanceof NodeImpl )
         {
             ArrayMap<Integer,CowNodeElement> cowElements = 
@@ -515,6 +620,11 @@ public class LockReleaser
         PrimitiveElement primitiveElement = cowMap.get( tx );
         if ( primitiveElement == null )
         {
+            if ( versions != null && snapshotMap.get( tx ) != null )
+            {
+                throw new IllegalStateException( 
+                    "Snapshot transactions can't make changes" );
+            }
             primitiveElement = new PrimitiveElement();
             cowMap.put( tx, primitiveElement );
         }
@@ -663,8 +773,548 @@ public class LockReleaser
                 cowElements.put( primitive.id, element );
             }
             element.deleted = true;
+            if ( versions != null )
+            {
+                element.deletedRelationship = (RelationshipImpl) primitive;
+            }
+        }
+    }
+
+    /**
+     * Called when {@code primitive} has been created in this transaction,
+     * so that snapshot transactions won't see it in the cache before it has
+     * been committed.
+     */
+    void primitiveCreated( Primitive primitive )
+    {
+        if ( versions == null )
+        {
+            return;
+        }
+        PrimitiveElement primitiveElement = getAndSetupPrimitiveElement();
+        if ( primitive instanceof NodeImpl )
+        {
+            CowNodeElement element = primitiveElement.nodes.get( primitive.id );
+            if ( element == null )
+            {
+                element = new CowNodeElement();
+                primitiveElement.nodes.put( primitive.id, element );
+            }
+            element.created = true;
+            versions.created( true, primitive.id );
+        }
+        else if ( primitive instanceof RelationshipImpl )
+        {
+            CowRelElement element = 
+                primitiveElement.relationships.get( primitive.id );
+            if ( element == null )
+            {
+                element = new CowRelElement();
+                primitiveElement.relationships.put( primitive.id, element );
+            }
+            element.created = true;
+            versions.created( false, primitive.id );
+        }
+    }
+
+    /**
+     * Returns true if the committed property with key id {@code keyId} of
+     * {@code primitive} should be kept for snapshot transactions before it
+     * is changed, which is the case if snapshot reads are enabled and this
+     * transaction hasn't created the primitive or changed the property
+     * already.
+     */
+    boolean shouldKeepPropertyBefore( Primitive primitive, int keyId )
+    {
+        if ( versions == null )
+        {
+            return false;
+        }
+        PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
+        if ( primitiveElement == null )
+        {
+            return true;
+        }
+        boolean created = false;
+        Map<Integer,PropertyData> propertiesBefore = null;
+        if ( primitive instanceof NodeImpl )
+        {
+            CowNodeElement element = primitiveElement.nodes.get( primitive.id );
+            if ( element != null )
+            {
+                created = element.created;
+                propertiesBefore = element.propertiesBefore;
+            }
+        }
+        else if ( primitive instanceof RelationshipImpl )
+        {
+            CowRelElement element = 
+                primitiveElement.relationships.get( primitive.id );
+            if ( element != null )
+            {
+                created = element.created;
+                propertiesBefore = element.propertiesBefore;
+            }
+        }
+        return !created && 
+            (propertiesBefore == null || !propertiesBefore.containsKey( keyId ));
+    }
+
+    /**
+     * Keeps {@code committed}, the property with key id {@code keyId} of
+     * {@code primitive} before this transaction changes it, or null if it
+     * doesn't exist, see {@link #shouldKeepPropertyBefore(Primitive, int)}.
+     */
+    void keepPropertyBefore( Primitive primitive, int keyId, 
+        PropertyData committed )
+    {
+        PrimitiveElement primitiveElement = getAndSetupPrimitiveElement();
+        Map<Integer,PropertyData> propertiesBefore = null;
+        if ( primitive instanceof NodeImpl )
+        {
+            CowNodeElement element = primitiveElement.nodes.get( primitive.id );
+            if ( element == null )
+            {
+                element = new CowNodeElement();
+                primitiveElement.nodes.put( primitive.id, element );
+            }
+            if ( element.propertiesBefore == null )
+            {
+                element.propertiesBefore = new HashMap<Integer,PropertyData>();
+            }
+            propertiesBefore = element.propertiesBefore;
+        }
+        else if ( primitive instanceof RelationshipImpl )
+        {
+            CowRelElement element = 
+                primitiveElement.relationships.get( primitive.id );
+            if ( element == null )
+            {
+                element = new CowRelElement();
+                primitiveElement.relationships.put( primitive.id, element );
+            }
+            if ( element.propertiesBefore == null )
+            {
+                element.propertiesBefore = new HashMap<Integer,PropertyData>();
+            }
+            propertiesBefore = element.propertiesBefore;
+        }
+        if ( propertiesBefore != null && !propertiesBefore.containsKey( keyId ) )
+        {
+            propertiesBefore.put( keyId, committed );
+        }
+    }
+
+    /**
+     * Hands what this transaction changed over to snapshot transactions,
+     * as the versions of transaction {@code txId}. Called before the
+     * changes are applied to the store, they become visible to new snapshot
+     * transactions once they have been applied to the cache too, on
+     * {@link #commit()}.
+     */
+    public void publishVersions( long txId )
+    {
+        if ( versions == null )
+        {
+            return;
+        }
+        PrimitiveElement element = cowMap.get( getTransaction() );
+        if ( element == null )
+        {
+            return;
+        }
+        element.versionTxId = txId;
+        for ( Entry<Integer,CowNodeElement> entry : element.nodes.entrySet() )
+        {
+            CowNodeElement nodeElement = entry.getValue();
+            if ( nodeElement.created && nodeElement.deleted )
+            {
+                continue;
+            }
+            Version version = new Version( txId, true, entry.getKey() );
+            version.created = nodeElement.created;
+            version.deleted = nodeElement.deleted;
+            if ( !nodeElement.created )
+            {
+                version.propertiesBefore = nodeElement.propertiesBefore;
+                version.relationshipsAdded = nodeElement.relationshipAddMap;
+                version.relationshipsRemoved = 
+                    nodeElement.relationshipRemoveMap;
+            }
+            if ( !version.isEmpty() )
+            {
+                versions.add( version );
+            }
+        }
+        for ( Entry<Integer,CowRelElement> entry : 
+            element.relationships.entrySet() )
+        {
+            CowRelElement relElement = entry.getValue();
+            if ( relElement.created && relElement.deleted )
+            {
+                continue;
+            }
+            Version version = new Version( txId, false, entry.getKey() );
+            version.created = relElement.created;
+            version.deleted = relElement.deleted;
+            if ( !relElement.created )
+            {
+                version.propertiesBefore = relElement.propertiesBefore;
+                version.relationship = relElement.deletedRelationship;
+            }
+            if ( !version.isEmpty() )
+            {
+                versions.add( version );
+            }
+        }
+    }
+
+    /**
+     * Makes the transaction running a snapshot transaction. It will see
+     * nodes and relationships as they were when it began, whatever other
+     * transactions commit meanwhile, without taking any locks. A snapshot
+     * transaction can't make changes. Requires snapshot reads to be
+     * enabled, see {@link #enableSnapshotReads()}.
+     * <p>
+     * What is seen through indexes and {@code getAllNodes} isn't part of
+     * the snapshot, and neither are transactions applied without going
+     * through this lock releaser, such as recovered ones.
+     */
+    public void beginSnapshot()
+    {
+        if ( versions == null )
+        {
+            throw new IllegalStateException( "Snapshot reads not enabled" );
+        }
+        Transaction tx = getTransaction();
+        if ( tx == null )
+        {
+            throw new NotInTransactionException();
+        }
+        if ( cowMap.get( tx ) != null || snapshotMap.get( tx ) != null )
+        {
+            throw new IllegalStateException( "Transaction " + tx + 
+                " has already made changes or is a snapshot transaction" );
+        }
+        long snapshotTx = versions.beginSnapshot();
+        snapshotMap.put( tx, snapshotTx );
+        try
+        {
+            tx.registerSynchronization( new SnapshotReleaser( tx ) );
+        }
+        catch ( Exception e )
+        {
+            endSnapshot( tx );
+            throw new TransactionFailureException( 
+                "Failed to register snapshot release synchronization hook", e );
         }
     }
+
+    private void endSnapshot( Transaction tx )
+    {
+        Long snapshotTx = snapshotMap.remove( tx );
+        if ( snapshotTx != null )
+        {
+            versions.endSnapshot( snapshotTx );
+        }
+    }
+
+    boolean keepsVersions()
+    {
+        return versions != null;
+    }
+
+    boolean inSnapshot()
+    {
+        return versions != null && snapshotMap.get( getTransaction() ) != null;
+    }
+
+    /**
+     * Makes the current transaction optimistic: it doesn't take write locks
+     * on the nodes and relationships it changes, but keeps track of what it
+     * reads and changes and has to be validated before it commits, see
+     * {@link #validateOptimistic()}.
+     */
+    public void beginOptimistic()
+    {
+        Transaction tx = getTransaction();
+        if ( tx == null )
+        {
+            throw new NotInTransactionException();
+        }
+        if ( cowMap.get( tx ) != null || optimisticMap.get( tx ) != null ||
+            (versions != null && snapshotMap.get( tx ) != null) )
+        {
+            throw new IllegalStateException( "Transaction " + tx + 
+                " has already made changes or is a snapshot transaction" );
+        }
+        optimisticMap.put( tx, new OptimisticElement() );
+        optimisticCount.incrementAndGet();
+        try
+        {
+            tx.registerSynchronization( new OptimisticReleaser( tx ) );
+        }
+        catch ( Exception e )
+        {
+            endOptimistic( tx );
+            throw new TransactionFailureException( 
+                "Failed to register optimistic release synchronization hook", 
+                e );
+        }
+    }
+
+    private void endOptimistic( Transaction tx )
+    {
+        if ( optimisticMap.remove( tx ) != null )
+        {
+            optimisticCount.decrementAndGet();
+        }
+    }
+
+    private OptimisticElement getOptimisticElement()
+    {
+        if ( optimisticCount.get() == 0 )
+        {
+            return null;
+        }
+        return optimisticMap.get( getTransaction() );
+    }
+
+    boolean isOptimistic()
+    {
+        return getOptimisticElement() != null;
+    }
+
+    /**
+     * Remembers when a node or relationship was first read by the current
+     * transaction, if it's optimistic.
+     */
+    void primitiveRead( boolean node, int id )
+    {
+        OptimisticElement element = getOptimisticElement();
+        if ( element != null )
+        {
+            primitiveRead( element, node, id );
+        }
+    }
+
+    private void primitiveRead( OptimisticElement element, boolean node, 
+        int id )
+    {
+        Map<Integer,Long> read = node ? element.nodesRead : 
+            element.relationshipsRead;
+        if ( !read.containsKey( id ) )
+        {
+            read.put( id, stamps.get( node, id ) );
+        }
+    }
+
+    /**
+     * Returns {@code true} if the current transaction is optimistic, in
+     * which case {@code primitive} is remembered as changed instead of
+     * being write locked.
+     */
+    boolean writeOptimistically( Primitive primitive )
+    {
+        OptimisticElement element = getOptimisticElement();
+        if ( element == null )
+        {
+            return false;
+        }
+        boolean node = primitive instanceof NodeImpl;
+        primitiveRead( element, node, primitive.id );
+        (node ? element.nodesWritten : element.relationshipsWritten).add( 
+            primitive.id );
+        return true;
+    }
+
+    /**
+     * Locks what the current optimistic transaction has changed and read,
+     * nodes before relationships and in id order, and checks that none of
+     * it has been changed by a committed transaction since it was first
+     * read. The locks are held until the transaction completes. Read only
+     * optimistic transactions aren't validated.
+     * 
+     * @throws TransactionConflictException if something has been changed,
+     * or if taking a lock would deadlock
+     */
+    public void validateOptimistic()
+    {
+        OptimisticElement element = getOptimisticElement();
+        if ( element == null || (element.nodesWritten.isEmpty() && 
+            element.relationshipsWritten.isEmpty()) )
+        {
+            return;
+        }
+        try
+        {
+            lockOptimistic( true, element.nodesRead, element.nodesWritten );
+            lockOptimistic( false, element.relationshipsRead, 
+                element.relationshipsWritten );
+        }
+        catch ( DeadlockDetectedException e )
+        {
+            throw new TransactionConflictException( 
+                "Deadlock while validating transaction", e );
+        }
+        validateOptimistic( true, element.nodesRead );
+        validateOptimistic( false, element.relationshipsRead );
+    }
+
+    private void lockOptimistic( boolean node, Map<Integer,Long> read, 
+        Set<Integer> written )
+    {
+        for ( int id : read.keySet() )
+        {
+            Object resource = node ? new NodeProxy( id, nodeManager ) : 
+                new RelationshipProxy( id, nodeManager );
+            if ( written.contains( id ) )
+            {
+                lockManager.getWriteLock( resource );
+                addLockToTransaction( resource, LockType.WRITE );
+            }
+            else
+            {
+                lockManager.getReadLock( resource );
+                addLockToTransaction( resource, LockType.READ );
+            }
+        }
+    }
+
+    private void validateOptimistic( boolean node, Map<Integer,Long> read )
+    {
+        for ( Map.Entry<Integer,Long> entry : read.entrySet() )
+        {
+            if ( stamps.get( node, entry.getKey() ) != entry.getValue() )
+            {
+                throw new TransactionConflictException( 
+                    (node ? "Node[" : "Relationship[") + entry.getKey() + 
+                    "] has been changed by another transaction since it " + 
+                    "was read" );
+            }
+        }
+    }
+
+    /**
+     * Tells optimistic transactions that the record of a node, or one of
+     * its property records, has been written by a committing transaction.
+     * Called before the transaction's locks are released, and for
+     * recovered or applied transactions once the node is out of the cache.
+     */
+    public void nodeCommitted( int nodeId )
+    {
+        stamps.changed( true, nodeId );
+    }
+
+    /**
+     * See {@link #nodeCommitted(int)}.
+     */
+    public void relationshipCommitted( int relId )
+    {
+        stamps.changed( false, relId );
+    }
+
+    // the properties primitive had when the snapshot was taken which have
+    // been changed since, the ones which existed if existed is true, else
+    // the ones which didn't, in the form of cow add and remove maps
+    private ArrayMap<Integer,PropertyData> getSnapshotProperties( 
+        Primitive primitive, long snapshotTx, boolean existed )
+    {
+        Map<Integer,PropertyData> before = versions.getPropertiesBefore( 
+            primitive instanceof NodeImpl, primitive.id, snapshotTx );
+        if ( before == null )
+        {
+            return null;
+        }
+        ArrayMap<Integer,PropertyData> result = 
+            new ArrayMap<Integer,PropertyData>();
+        for ( Map.Entry<Integer,PropertyData> entry : before.entrySet() )
+        {
+            PropertyData property = entry.getValue();
+            if ( existed && property != null )
+            {
+                result.put( entry.getKey(), property );
+            }
+            else if ( !existed && property == null )
+            {
+                result.put( entry.getKey(), NO_PROPERTY );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the relationships of {@code node} which have been added or
+     * removed since the snapshot of the snapshot transaction running was
+     * taken: first the ones the node had then, by type, and second all of
+     * them. Returns null if none have.
+     */
+    Pair<ArrayMap<String,IntArray>,Set<Integer>> getSnapshotRelationships(
+        NodeImpl node )
+    {
+        Long snapshotTx = versions != null ? 
+            snapshotMap.get( getTransaction() ) : null;
+        if ( snapshotTx == null )
+        {
+            return null;
+        }
+        return versions.getRelationshipsBefore( node.id, snapshotTx );
+    }
+
+    /**
+     * Returns the node with id {@code nodeId} as the snapshot transaction
+     * running sees it if the node has been deleted since the snapshot was
+     * taken, else null.
+     * 
+     * @throws NotFoundException if the node has been created since the
+     * snapshot was taken
+     */
+    NodeImpl getSnapshotNode( int nodeId )
+    {
+        Long snapshotTx = versions != null ? 
+            snapshotMap.get( getTransaction() ) : null;
+        if ( snapshotTx == null )
+        {
+            return null;
+        }
+        Version version = versions.getCreateOrDelete( true, nodeId, snapshotTx );
+        if ( version == null ? versions.isPending( true, nodeId ) : version.created )
+        {
+            throw new NotFoundException( "Node[" + nodeId + "] not found." );
+        }
+        return version != null ? new NodeImpl( nodeId, true ) : null;
+    }
+
+    /**
+     * Returns the relationship with id {@code relId} as the snapshot
+     * transaction running sees it if the relationship has been deleted
+     * since the snapshot was taken, else null.
+     * 
+     * @throws NotFoundException if the relationship has been created since
+     * the snapshot was taken
+     */
+    RelationshipImpl getSnapshotRelationship( int relId )
+    {
+        Long snapshotTx = versions != null ? 
+            snapshotMap.get( getTransaction() ) : null;
+        if ( snapshotTx == null )
+        {
+            return null;
+        }
+        Version version = versions.getCreateOrDelete( false, relId, snapshotTx );
+        if ( version == null ? versions.isPending( false, relId ) : version.created )
+        {
+            throw new NotFoundException( "Relationship[" + relId + 
+                "] not found." );
+        }
+        if ( version == null )
+        {
+            return null;
+        }
+        RelationshipImpl deleted = version.relationship;
+        return new RelationshipImpl( relId, deleted.getStartNodeId(), 
+            deleted.getEndNodeId(), deleted.getType(), true );
+    }
     
     public void removeNodeFromCache( int nodeId )
     {
@@ -706,6 +1356,44 @@ public class LockReleaser
         }
     }
     
+    private class SnapshotReleaser implements Synchronization 
+    {
+        private final Transaction tx;
+        
+        SnapshotReleaser( Transaction tx )
+        {
+            this.tx = tx;
+        }
+        
+        public void afterCompletion( int status )
+        {
+            endSnapshot( tx );
+        }
+
+        public void beforeCompletion()
+        {
+        }
+    }
+
+    private class OptimisticReleaser implements Synchronization 
+    {
+        private final Transaction tx;
+        
+        OptimisticReleaser( Transaction tx )
+        {
+            this.tx = tx;
+        }
+        
+        public void afterCompletion( int status )
+        {
+            endOptimistic( tx );
+        }
+
+        public void beforeCompletion()
+        {
+        }
+    }
+
     private class ReadOnlyTxReleaser implements Synchronization 
     {
         private final Transaction tx;
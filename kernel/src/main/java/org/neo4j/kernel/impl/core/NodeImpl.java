@@ -19,10 +19,13 @@
  */
 package org.neo4j.kernel.impl.core;
 
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
@@ -34,6 +37,7 @@ import org.neo4j.graphdb.StopEvaluator;
 import org.neo4j.graphdb.Traverser;
 import org.neo4j.graphdb.Traverser.Order;
 import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.impl.nioneo.store.DegreeStore.Degrees;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.Record;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipChainPosition;
@@ -47,6 +51,7 @@ class NodeImpl extends Primitive
     private volatile ArrayMap<String,IntArray> relationshipMap = null;
     // private RelationshipGrabber relationshipGrabber = null;
     private RelationshipChainPosition relChainPosition = null;
+    private volatile Degrees degrees = null;
 
     NodeImpl( int id )
     {
@@ -103,6 +108,10 @@ class NodeImpl extends Primitive
 
     List<RelTypeElementIterator> getAllRelationships( NodeManager nodeManager )
     {
+        if ( nodeManager.getLockReleaser().inSnapshot() )
+        {
+            return getSnapshotRelationships( nodeManager, null );
+        }
         ensureRelationshipMapNotNull( nodeManager );
         List<RelTypeElementIterator> relTypeList =
             new LinkedList<RelTypeElementIterator>();
@@ -149,6 +158,10 @@ class NodeImpl extends Primitive
     List<RelTypeElementIterator> getAllRelationshipsOfType( NodeManager nodeManager,
         RelationshipType... types)
     {
+        if ( nodeManager.getLockReleaser().inSnapshot() )
+        {
+            return getSnapshotRelationships( nodeManager, types );
+        }
         ensureRelationshipMapNotNull( nodeManager );
         List<RelTypeElementIterator> relTypeList =
             new LinkedList<RelTypeElementIterator>();
@@ -171,6 +184,69 @@ class NodeImpl extends Primitive
         return relTypeList;
     }
 
+    // the relationships of the given types, or of all types if types is
+    // null, as the snapshot transaction running sees them: the ones added
+    // since the snapshot was taken are left out and the ones removed since
+    // are put back
+    private List<RelTypeElementIterator> getSnapshotRelationships(
+        NodeManager nodeManager, RelationshipType[] types )
+    {
+        ensureRelationshipMapNotNull( nodeManager );
+        while ( getMoreRelationships( nodeManager ) )
+        {
+            // all of them are needed to know which ones to leave out
+        }
+        Pair<ArrayMap<String,IntArray>,Set<Integer>> changes =
+            nodeManager.getLockReleaser().getSnapshotRelationships( this );
+        Set<String> typeNames = new LinkedHashSet<String>();
+        if ( types == null )
+        {
+            for ( String type : relationshipMap.keySet() )
+            {
+                typeNames.add( type );
+            }
+            if ( changes != null )
+            {
+                for ( String type : changes.first().keySet() )
+                {
+                    typeNames.add( type );
+                }
+            }
+        }
+        else
+        {
+            for ( RelationshipType type : types )
+            {
+                typeNames.add( type.name() );
+            }
+        }
+        List<RelTypeElementIterator> relTypeList =
+            new LinkedList<RelTypeElementIterator>();
+        for ( String type : typeNames )
+        {
+            IntArray src = relationshipMap.get( type );
+            if ( changes != null )
+            {
+                IntArray snapshot = new IntArray();
+                for ( int i = 0; src != null && i < src.length(); i++ )
+                {
+                    if ( !changes.other().contains( src.get( i ) ) )
+                    {
+                        snapshot.add( src.get( i ) );
+                    }
+                }
+                IntArray had = changes.first().get( type );
+                if ( had != null )
+                {
+                    snapshot.addAll( had );
+                }
+                src = snapshot;
+            }
+            relTypeList.add( new FastRelTypeElement( type, this, src ) );
+        }
+        return relTypeList;
+    }
+
     public Iterable<Relationship> getRelationships( NodeManager nodeManager )
     {
         return new IntArrayIterator( getAllRelationships( nodeManager ), this,
@@ -233,6 +309,7 @@ class NodeImpl extends Primitive
         {
             ArrayMap<Integer,PropertyData> skipMap =
                 nodeManager.getCowPropertyRemoveMap( this, true );
+            keepPropertiesBefore( nodeManager );
             ArrayMap<Integer,PropertyData> removedProps =
                 nodeManager.deleteNode( this );
             if ( removedProps.size() > 0 )
@@ -285,6 +362,119 @@ class NodeImpl extends Primitive
         relationshipSet.add( relId );
     }
 
+    int getDegree( NodeManager nodeManager, RelationshipType type, Direction dir )
+    {
+        if ( nodeManager.getLockReleaser().inSnapshot() )
+        {
+            return getSnapshotDegree( nodeManager, type, dir );
+        }
+        Degrees committed = degrees;
+        if ( committed == null )
+        {
+            committed = nodeManager.loadDegrees( this );
+        }
+        boolean outgoing = dir != Direction.INCOMING;
+        boolean incoming = dir != Direction.OUTGOING;
+        int degree = 0;
+        if ( type == null )
+        {
+            degree = committed.get( -1, outgoing, incoming );
+        }
+        else
+        {
+            Integer typeId = nodeManager.getRelationshipTypeIdIfExists( type.name() );
+            if ( typeId != null )
+            {
+                degree = committed.get( typeId, outgoing, incoming );
+            }
+        }
+        if ( nodeManager.getLockReleaser().hasRelationshipModifications( this ) )
+        {
+            ArrayMap<String,IntArray> addMap =
+                nodeManager.getCowRelationshipAddMap( this );
+            ArrayMap<String,IntArray> removeMap =
+                nodeManager.getCowRelationshipRemoveMap( this );
+            degree += countChanges( nodeManager, addMap, removeMap, type,
+                outgoing, incoming );
+            degree -= countChanges( nodeManager, removeMap, addMap, type,
+                outgoing, incoming );
+        }
+        return degree;
+    }
+
+    // the kept degrees are those of the committed node, so snapshot
+    // transactions count the relationships they see instead
+    private int getSnapshotDegree( NodeManager nodeManager,
+        RelationshipType type, Direction dir )
+    {
+        List<RelTypeElementIterator> rels = getSnapshotRelationships(
+            nodeManager, type == null ? null : new RelationshipType[] { type } );
+        int degree = 0;
+        for ( RelTypeElementIterator itr : rels )
+        {
+            while ( itr.hasNext( nodeManager ) )
+            {
+                RelationshipImpl rel = nodeManager.getRelForProxy(
+                    itr.next( nodeManager ) );
+                if ( (dir != Direction.INCOMING && rel.getStartNodeId() == id) ||
+                    (dir != Direction.OUTGOING && rel.getEndNodeId() == id) )
+                {
+                    degree++;
+                }
+            }
+        }
+        return degree;
+    }
+
+    // counts the relationships in changes which aren't in undone, a
+    // relationship created and deleted in the same transaction is in both
+    private int countChanges( NodeManager nodeManager,
+        ArrayMap<String,IntArray> changes, ArrayMap<String,IntArray> undone,
+        RelationshipType type, boolean outgoing, boolean incoming )
+    {
+        if ( changes == null )
+        {
+            return 0;
+        }
+        int count = 0;
+        for ( String typeName : changes.keySet() )
+        {
+            if ( type != null && !type.name().equals( typeName ) )
+            {
+                continue;
+            }
+            Set<Integer> skip = new HashSet<Integer>();
+            IntArray undoneIds = undone != null ? undone.get( typeName ) : null;
+            if ( undoneIds != null )
+            {
+                for ( int i = 0; i < undoneIds.length(); i++ )
+                {
+                    skip.add( undoneIds.get( i ) );
+                }
+            }
+            IntArray ids = changes.get( typeName );
+            for ( int i = 0; i < ids.length(); i++ )
+            {
+                if ( skip.contains( ids.get( i ) ) )
+                {
+                    continue;
+                }
+                RelationshipImpl rel = nodeManager.getRelForProxy( ids.get( i ) );
+                if ( (outgoing && rel.getStartNodeId() == id) ||
+                    (incoming && rel.getEndNodeId() == id) )
+                {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    void setDegrees( Degrees degrees )
+    {
+        this.degrees = degrees;
+    }
+
     private void ensureRelationshipMapNotNull( NodeManager nodeManager )
     {
         if ( relationshipMap == null )
@@ -469,6 +659,7 @@ class NodeImpl extends Primitive
         ArrayMap<String,IntArray> cowRelationshipAddMap,
         ArrayMap<String,IntArray> cowRelationshipRemoveMap )
     {
+        degrees = null;
         if ( relationshipMap == null )
         {
             // we will load full in some other tx
@@ -27,6 +27,7 @@ import java.util.logging.Logger;
 
 import javax.transaction.TransactionManager;
 
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
@@ -35,6 +36,7 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.impl.cache.AdaptiveCacheManager;
 import org.neo4j.kernel.impl.cache.Cache;
 import org.neo4j.kernel.impl.cache.LruCache;
@@ -42,6 +44,10 @@ import org.neo4j.kernel.impl.cache.NoCache;
 import org.neo4j.kernel.impl.cache.SoftLruCache;
 import org.neo4j.kernel.impl.cache.StrongReferenceCache;
 import org.neo4j.kernel.impl.cache.WeakLruCache;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
+import org.neo4j.kernel.impl.nioneo.store.DegreeStore;
+import org.neo4j.kernel.impl.nioneo.store.DegreeStore.Degrees;
+import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipChainPosition;
@@ -54,6 +60,8 @@ import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.IntArray;
+import org.neo4j.kernel.impl.util.KernelMetrics;
+import org.neo4j.kernel.impl.util.KernelMetrics.Counter;
 
 public class NodeManager
 {
@@ -80,6 +88,10 @@ public class NodeManager
     private int minRelCacheSize = 0;
     private int maxNodeCacheSize = 1500;
     private int maxRelCacheSize = 3500;
+    private boolean deferRelationshipLinking = false;
+    private KernelMetrics metrics = KernelMetrics.DISABLED;
+    private CountsStore counts = new CountsStore();
+    private DegreeStore degrees;
 
     private static final int LOCK_STRIPE_COUNT = 32;
     private final ReentrantLock loadLocks[] =
@@ -126,6 +138,20 @@ public class NodeManager
 
     private void parseParams( Map<Object,Object> params )
     {
+        if ( params.containsKey( KernelMetrics.class ) )
+        {
+            metrics = (KernelMetrics) params.get( KernelMetrics.class );
+        }
+        if ( params.containsKey( CountsStore.class ) )
+        {
+            counts = (CountsStore) params.get( CountsStore.class );
+        }
+        if ( params.containsKey( DegreeStore.class ) )
+        {
+            degrees = (DegreeStore) params.get( DegreeStore.class );
+        }
+        deferRelationshipLinking = Boolean.parseBoolean(
+            (String) params.get( Config.DEFER_RELATIONSHIP_LINKING ) );
         if ( params.containsKey( "use_adaptive_cache" ) )
         {
             String value = (String) params.get( "use_adaptive_cache" );
@@ -250,6 +276,7 @@ public class NodeManager
         try
         {
             persistenceManager.nodeCreate( id );
+            lockReleaser.primitiveCreated( node );
             nodeCache.put( id, node );
             success = true;
             return new NodeProxy( id, this );
@@ -301,15 +328,21 @@ public class NodeManager
         boolean success = false;
         try
         {
-            acquireLock( firstNode, LockType.WRITE );
-            firstNodeTaken = true;
-            acquireLock( secondNode, LockType.WRITE );
-            secondNodeTaken = true;
+            if ( !deferRelationshipLinking )
+            {
+                acquireLock( firstNode, LockType.WRITE );
+                firstNodeTaken = true;
+                acquireLock( secondNode, LockType.WRITE );
+                secondNodeTaken = true;
+            }
+            // else the nodes are locked when the relationship is linked
+            // into their chains, at commit
             int typeId = getRelationshipTypeIdFor( type );
             persistenceManager.relationshipCreate( id, typeId, startNodeId,
                 endNodeId );
             firstNode.addRelationship( this, type, id );
             secondNode.addRelationship( this, type, id );
+            lockReleaser.primitiveCreated( rel );
             relCache.put( (int) rel.getId(), rel );
             success = true;
             return new RelationshipProxy( id, this );
@@ -371,9 +404,15 @@ public class NodeManager
 
     public Node getNodeById( int nodeId ) throws NotFoundException
     {
+        lockReleaser.primitiveRead( true, nodeId );
+        if ( lockReleaser.getSnapshotNode( nodeId ) != null )
+        {
+            return new NodeProxy( nodeId, this );
+        }
         NodeImpl node = nodeCache.get( nodeId );
         if ( node != null )
         {
+            metrics.increment( Counter.NODE_CACHE_HIT );
             return new NodeProxy( nodeId, this );
         }
         ReentrantLock loadLock = lockId( nodeId );
@@ -383,6 +422,7 @@ public class NodeManager
             {
                 return new NodeProxy( nodeId, this );
             }
+            metrics.increment( Counter.NODE_CACHE_MISS );
             if ( !persistenceManager.loadLightNode( nodeId ) )
             {
                 throw new NotFoundException( "Node[" + nodeId + "]" );
@@ -399,9 +439,11 @@ public class NodeManager
 
     NodeImpl getLightNode( int nodeId )
     {
+        lockReleaser.primitiveRead( true, nodeId );
         NodeImpl node = nodeCache.get( nodeId );
         if ( node != null )
         {
+            metrics.increment( Counter.NODE_CACHE_HIT );
             return node;
         }
         ReentrantLock loadLock = lockId( nodeId );
@@ -412,6 +454,7 @@ public class NodeManager
             {
                 return node;
             }
+            metrics.increment( Counter.NODE_CACHE_MISS );
             if ( !persistenceManager.loadLightNode( nodeId ) )
             {
                 return null;
@@ -428,9 +471,16 @@ public class NodeManager
 
     NodeImpl getNodeForProxy( int nodeId )
     {
-        NodeImpl node = nodeCache.get( nodeId );
+        lockReleaser.primitiveRead( true, nodeId );
+        NodeImpl node = lockReleaser.getSnapshotNode( nodeId );
+        if ( node != null )
+        {
+            return node;
+        }
+        node = nodeCache.get( nodeId );
         if ( node != null )
         {
+            metrics.increment( Counter.NODE_CACHE_HIT );
             return node;
         }
         ReentrantLock loadLock = lockId( nodeId );
@@ -441,6 +491,7 @@ public class NodeManager
             {
                 return node;
             }
+            metrics.increment( Counter.NODE_CACHE_MISS );
             if ( !persistenceManager.loadLightNode( nodeId ) )
             {
                 throw new NotFoundException( "Node[" + nodeId + "] not found." );
@@ -472,9 +523,15 @@ public class NodeManager
     public Relationship getRelationshipById( int relId )
         throws NotFoundException
     {
+        lockReleaser.primitiveRead( false, relId );
+        if ( lockReleaser.getSnapshotRelationship( relId ) != null )
+        {
+            return new RelationshipProxy( relId, this );
+        }
         RelationshipImpl relationship = relCache.get( relId );
         if ( relationship != null )
         {
+            metrics.increment( Counter.RELATIONSHIP_CACHE_HIT );
             return new RelationshipProxy( relId, this );
         }
         ReentrantLock loadLock = lockId( relId );
@@ -485,6 +542,7 @@ public class NodeManager
             {
                 return new RelationshipProxy( relId, this );
             }
+            metrics.increment( Counter.RELATIONSHIP_CACHE_MISS );
             RelationshipData data = persistenceManager.loadLightRelationship(
                 relId );
             if ( data == null )
@@ -518,9 +576,17 @@ public class NodeManager
 
     RelationshipImpl getRelForProxy( int relId )
     {
-        RelationshipImpl relationship = relCache.get( relId );
+        lockReleaser.primitiveRead( false, relId );
+        RelationshipImpl relationship = 
+            lockReleaser.getSnapshotRelationship( relId );
+        if ( relationship != null )
+        {
+            return relationship;
+        }
+        relationship = relCache.get( relId );
         if ( relationship != null )
         {
+            metrics.increment( Counter.RELATIONSHIP_CACHE_HIT );
             return relationship;
         }
         ReentrantLock loadLock = lockId( relId );
@@ -531,6 +597,7 @@ public class NodeManager
             {
                 return relationship;
             }
+            metrics.increment( Counter.RELATIONSHIP_CACHE_MISS );
             RelationshipData data = persistenceManager.loadLightRelationship(
                 relId );
             if ( data == null )
@@ -676,6 +743,12 @@ public class NodeManager
 
     void acquireLock( Primitive resource, LockType lockType )
     {
+        if ( lockType == LockType.WRITE && 
+            lockReleaser.writeOptimistically( resource ) )
+        {
+            // locked when the optimistic transaction is validated
+            return;
+        }
         PropertyContainer container;
         if ( resource instanceof NodeImpl )
         {
@@ -724,7 +797,10 @@ public class NodeManager
         }
         else if ( lockType == LockType.WRITE )
         {
-            lockReleaser.addLockToTransaction( container, lockType );
+            if ( !lockReleaser.isOptimistic() )
+            {
+                lockReleaser.addLockToTransaction( container, lockType );
+            }
         }
         else
         {
@@ -742,6 +818,83 @@ public class NodeManager
         return idGenerator.getNumberOfIdsInUse( clazz );
     }
 
+    /**
+     * @return the number of nodes in use, as of the last committed
+     * transaction. Unlike {@link #getNumberOfIdsInUse(Class)} deleted nodes
+     * aren't included.
+     */
+    public long getNumberOfNodes()
+    {
+        return counts.getNodeCount();
+    }
+
+    /**
+     * @return the number of relationships in use, as of the last committed
+     * transaction.
+     */
+    public long getNumberOfRelationships()
+    {
+        return counts.getRelationshipCount();
+    }
+
+    /**
+     * @return the number of relationships of {@code type} in use, as of the
+     * last committed transaction.
+     */
+    public long getNumberOfRelationships( RelationshipType type )
+    {
+        Integer typeId = relTypeHolder.getIdFor( type.name() );
+        return typeId != null ? counts.getRelationshipCount( typeId ) : 0;
+    }
+
+    /**
+     * Returns the number of relationships of a node of {@code type}, or of
+     * any type if {@code type} is {@code null}, in {@code direction}.
+     * Relationships created or deleted in the current transaction are
+     * taken into account. Unlike iterating over the relationships of the
+     * node this doesn't load them.
+     */
+    public int getDegree( long nodeId, RelationshipType type, Direction direction )
+    {
+        return getNodeForProxy( (int) nodeId ).getDegree( this, type, direction );
+    }
+
+    /**
+     * Gets the committed degrees of {@code node} and caches them in it. A
+     * read lock is held meanwhile so that no transaction changing the
+     * relationships of the node commits until they're cached, since the
+     * cached degrees are cleared when such a transaction commits.
+     */
+    Degrees loadDegrees( NodeImpl node )
+    {
+        acquireLock( node, LockType.READ );
+        try
+        {
+            Degrees result;
+            try
+            {
+                result = degrees != null ? degrees.getDegrees( node.id ) :
+                    new Degrees();
+            }
+            catch ( InvalidRecordException e )
+            {
+                // Created in this transaction
+                result = new Degrees();
+            }
+            node.setDegrees( result );
+            return result;
+        }
+        finally
+        {
+            releaseLock( node, LockType.READ );
+        }
+    }
+
+    Integer getRelationshipTypeIdIfExists( String name )
+    {
+        return relTypeHolder.getIdFor( name );
+    }
+
     public void removeRelationshipTypeFromCache( int id )
     {
         relTypeHolder.removeRelType( id );
@@ -866,6 +1019,11 @@ public class NodeManager
         return lockReleaser.getCowRelationshipRemoveMap( node, type, create );
     }
 
+    public ArrayMap<String,IntArray> getCowRelationshipRemoveMap( NodeImpl node )
+    {
+        return lockReleaser.getCowRelationshipRemoveMap( node );
+    }
+
     public ArrayMap<String,IntArray> getCowRelationshipAddMap( NodeImpl node )
     {
         return lockReleaser.getCowRelationshipAddMap( node );
@@ -882,6 +1040,15 @@ public class NodeManager
         return lockReleaser.getCowRelationshipAddMap( node, string, create );
     }
 
+    /**
+     * Returns a node without making sure that it exists or loading it, for
+     * ids known to be in use, such as those from a scan of the node store.
+     */
+    public Node newNodeProxyById( int nodeId )
+    {
+        return new NodeProxy( nodeId, this );
+    }
+
     public NodeImpl getNodeIfCached( int nodeId )
     {
         return nodeCache.get( nodeId );
@@ -401,6 +401,7 @@ abstract class Primitive
             {
                 index = nodeManager.createPropertyIndex( key );
             }
+            keepPropertyBefore( nodeManager, index.getKeyId(), property );
             if ( property != null && !foundInSkipMap )
             {
                 int propertyId = property.getId();
@@ -460,6 +461,8 @@ abstract class Primitive
                 property = propertyMap.get( cachedIndex.getKeyId() );
                 if ( property != null )
                 {
+                    keepPropertyBefore( nodeManager, cachedIndex.getKeyId(), 
+                        property );
                     removeMap.put( cachedIndex.getKeyId(), property );
                     break;
                 }
@@ -501,6 +504,8 @@ abstract class Primitive
                                         .getKeyId() );
                                     if ( property != null )
                                     {
+                                        keepPropertyBefore( nodeManager, 
+                                            indexToCheck.getKeyId(), property );
                                         removeMap.put( indexToCheck.getKeyId(),
                                             property );
                                         break;
@@ -530,6 +535,39 @@ abstract class Primitive
         }
     }
 
+    // keeps committed, the property with key id keyId before this
+    // transaction changes it, for snapshot transactions
+    private void keepPropertyBefore( NodeManager nodeManager, int keyId,
+        PropertyData committed )
+    {
+        LockReleaser lockReleaser = nodeManager.getLockReleaser();
+        if ( lockReleaser.shouldKeepPropertyBefore( this, keyId ) )
+        {
+            PropertyData before = null;
+            if ( committed != null )
+            {
+                before = new PropertyData( committed.getId(), 
+                    getPropertyValue( nodeManager, committed ) );
+            }
+            lockReleaser.keepPropertyBefore( this, keyId, before );
+        }
+    }
+
+    // keeps all committed properties for snapshot transactions, called
+    // before this primitive is deleted
+    protected void keepPropertiesBefore( NodeManager nodeManager )
+    {
+        if ( !nodeManager.getLockReleaser().keepsVersions() )
+        {
+            return;
+        }
+        ensureFullProperties( nodeManager );
+        for ( Map.Entry<Integer,PropertyData> entry : propertyMap.entrySet() )
+        {
+            keepPropertyBefore( nodeManager, entry.getKey(), entry.getValue() );
+        }
+    }
+
     private Object getPropertyValue( NodeManager nodeManager, PropertyData property )
     {
         Object value = property.getValue();
@@ -163,10 +163,12 @@ class RelationshipImpl extends Primitive
             nodeManager.acquireLock( this, LockType.WRITE );
             thisLocked = true;
             // no need to load full relationship, all properties will be
-            // deleted when relationship is deleted
+            // deleted when relationship is deleted, unless they have to be
+            // kept for snapshot transactions
 
             ArrayMap<Integer,PropertyData> skipMap = 
                 nodeManager.getCowPropertyRemoveMap( this, true );
+            keepPropertiesBefore( nodeManager );
             ArrayMap<Integer,PropertyData> removedProps = 
                 nodeManager.deleteRelationship( this );
             if ( removedProps.size() > 0 )
@@ -0,0 +1,316 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.IntArray;
+
+/**
+ * Keeps what nodes and relationships looked like before committed
+ * transactions changed them, for the snapshot transactions that started
+ * before those transactions were committed. A version is kept until no
+ * running snapshot transaction is older than the transaction that made it.
+ * <p>
+ * Versions are added in commit order, which is also transaction id order
+ * since commits are serialized by the resource manager.
+ */
+class SnapshotVersions
+{
+    static class Version
+    {
+        final long txId;
+        final boolean node;
+        final int id;
+
+        boolean created = false;
+        boolean deleted = false;
+        // committed properties from before the transaction changed them,
+        // key id -> property, null for properties which didn't exist
+        Map<Integer,PropertyData> propertiesBefore = null;
+        ArrayMap<String,IntArray> relationshipsAdded = null;
+        ArrayMap<String,IntArray> relationshipsRemoved = null;
+        // only for deleted relationships
+        RelationshipImpl relationship = null;
+
+        Version( long txId, boolean node, int id )
+        {
+            this.txId = txId;
+            this.node = node;
+            this.id = id;
+        }
+
+        boolean isEmpty()
+        {
+            return !created && !deleted && propertiesBefore == null &&
+                relationshipsAdded == null && relationshipsRemoved == null;
+        }
+    }
+
+    private final Map<Integer,List<Version>> nodes =
+        new ConcurrentHashMap<Integer,List<Version>>();
+    private final Map<Integer,List<Version>> relationships =
+        new ConcurrentHashMap<Integer,List<Version>>();
+    // created in transactions that haven't committed yet, those are put in
+    // the cache right away
+    private final Map<Integer,Boolean> pendingNodes =
+        new ConcurrentHashMap<Integer,Boolean>();
+    private final Map<Integer,Boolean> pendingRelationships =
+        new ConcurrentHashMap<Integer,Boolean>();
+
+    // all versions in the order they were added, oldest first
+    private final LinkedList<Version> versions = new LinkedList<Version>();
+    // snapshot tx id -> number of snapshot transactions running on it
+    private final TreeMap<Long,Integer> snapshots = new TreeMap<Long,Integer>();
+    private volatile long lastVisibleTx = -1;
+
+    synchronized long beginSnapshot()
+    {
+        long snapshotTx = lastVisibleTx;
+        Integer count = snapshots.get( snapshotTx );
+        snapshots.put( snapshotTx, count == null ? 1 : count + 1 );
+        return snapshotTx;
+    }
+
+    synchronized void endSnapshot( long snapshotTx )
+    {
+        Integer count = snapshots.remove( snapshotTx );
+        if ( count != null && count > 1 )
+        {
+            snapshots.put( snapshotTx, count - 1 );
+        }
+        prune();
+    }
+
+    synchronized void add( Version version )
+    {
+        Map<Integer,List<Version>> map = version.node ? nodes : relationships;
+        List<Version> list = map.get( version.id );
+        if ( list == null )
+        {
+            list = new CopyOnWriteArrayList<Version>();
+            map.put( version.id, list );
+        }
+        list.add( version );
+        versions.add( version );
+    }
+
+    /**
+     * Called when the changes of transaction {@code txId} can be seen in
+     * the cache, new snapshot transactions will see them from then on.
+     */
+    synchronized void visible( long txId )
+    {
+        lastVisibleTx = txId;
+        prune();
+    }
+
+    private void prune()
+    {
+        long horizon = snapshots.isEmpty() ? lastVisibleTx : snapshots.firstKey();
+        while ( !versions.isEmpty() && versions.getFirst().txId <= horizon )
+        {
+            Version version = versions.removeFirst();
+            Map<Integer,List<Version>> map = version.node ? nodes : relationships;
+            List<Version> list = map.get( version.id );
+            list.remove( version );
+            if ( list.isEmpty() )
+            {
+                map.remove( version.id );
+            }
+        }
+    }
+
+    void created( boolean node, int id )
+    {
+        (node ? pendingNodes : pendingRelationships).put( id, Boolean.TRUE );
+    }
+
+    void createFinished( boolean node, int id )
+    {
+        (node ? pendingNodes : pendingRelationships).remove( id );
+    }
+
+    /**
+     * Returns the first version after {@code snapshotTx} which created or
+     * deleted the node or relationship, or null if there is none.
+     */
+    Version getCreateOrDelete( boolean node, int id, long snapshotTx )
+    {
+        List<Version> list = (node ? nodes : relationships).get( id );
+        if ( list != null )
+        {
+            for ( Version version : list )
+            {
+                if ( version.txId > snapshotTx && (version.created || version.deleted) )
+                {
+                    return version;
+                }
+            }
+        }
+        return null;
+    }
+
+    boolean isPending( boolean node, int id )
+    {
+        return (node ? pendingNodes : pendingRelationships).containsKey( id );
+    }
+
+    /**
+     * Returns the properties which have been changed since
+     * {@code snapshotTx}, mapped to what they were then, null for the ones
+     * which didn't exist. Returns null if no property has been changed.
+     */
+    Map<Integer,PropertyData> getPropertiesBefore( boolean node, int id,
+        long snapshotTx )
+    {
+        List<Version> list = (node ? nodes : relationships).get( id );
+        if ( list == null )
+        {
+            return null;
+        }
+        Map<Integer,PropertyData> result = null;
+        for ( Version version : list )
+        {
+            if ( version.txId <= snapshotTx || version.propertiesBefore == null )
+            {
+                continue;
+            }
+            if ( result == null )
+            {
+                result = new HashMap<Integer,PropertyData>();
+            }
+            for ( Map.Entry<Integer,PropertyData> entry :
+                version.propertiesBefore.entrySet() )
+            {
+                if ( !result.containsKey( entry.getKey() ) )
+                {
+                    result.put( entry.getKey(), entry.getValue() );
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the relationships of a node which have been added or removed
+     * since {@code snapshotTx}, first the ones among them the node had then,
+     * by type, and second all of them. Returns null if the relationships of
+     * the node haven't been changed.
+     */
+    Pair<ArrayMap<String,IntArray>,Set<Integer>> getRelationshipsBefore(
+        int nodeId, long snapshotTx )
+    {
+        List<Version> list = nodes.get( nodeId );
+        if ( list == null )
+        {
+            return null;
+        }
+        // rel id -> whether the first change since the snapshot removed it
+        Map<Integer,Boolean> firstChange = new LinkedHashMap<Integer,Boolean>();
+        Map<Integer,String> types = new HashMap<Integer,String>();
+        for ( Version version : list )
+        {
+            if ( version.txId <= snapshotTx )
+            {
+                continue;
+            }
+            // a relationship both added and removed by the same
+            // transaction never existed outside of it
+            Set<Integer> added = toSet( version.relationshipsAdded );
+            Set<Integer> removed = toSet( version.relationshipsRemoved );
+            addChanges( version.relationshipsAdded, removed, false,
+                firstChange, types );
+            addChanges( version.relationshipsRemoved, added, true,
+                firstChange, types );
+        }
+        if ( firstChange.isEmpty() )
+        {
+            return null;
+        }
+        ArrayMap<String,IntArray> had = new ArrayMap<String,IntArray>();
+        for ( Map.Entry<Integer,Boolean> entry : firstChange.entrySet() )
+        {
+            if ( entry.getValue() )
+            {
+                String type = types.get( entry.getKey() );
+                IntArray ids = had.get( type );
+                if ( ids == null )
+                {
+                    ids = new IntArray();
+                    had.put( type, ids );
+                }
+                ids.add( entry.getKey() );
+            }
+        }
+        return Pair.of( had, firstChange.keySet() );
+    }
+
+    private static Set<Integer> toSet( ArrayMap<String,IntArray> relationships )
+    {
+        Set<Integer> result = new HashSet<Integer>();
+        if ( relationships != null )
+        {
+            for ( IntArray ids : relationships.values() )
+            {
+                for ( int i = 0; i < ids.length(); i++ )
+                {
+                    result.add( ids.get( i ) );
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void addChanges( ArrayMap<String,IntArray> changes,
+        Set<Integer> undone, boolean removed, Map<Integer,Boolean> firstChange,
+        Map<Integer,String> types )
+    {
+        if ( changes == null )
+        {
+            return;
+        }
+        for ( String type : changes.keySet() )
+        {
+            IntArray ids = changes.get( type );
+            for ( int i = 0; i < ids.length(); i++ )
+            {
+                int id = ids.get( i );
+                if ( !undone.contains( id ) && !firstChange.containsKey( id ) )
+                {
+                    firstChange.put( id, removed );
+                    types.put( id, type );
+                }
+            }
+        }
+    }
+}
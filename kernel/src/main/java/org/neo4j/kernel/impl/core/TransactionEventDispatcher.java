@@ -0,0 +1,290 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.BatchingTransactionEventHandler;
+import org.neo4j.kernel.impl.core.TransactionEventsSyncHook.HandlerAndState;
+import org.neo4j.kernel.impl.util.KernelMetrics;
+import org.neo4j.kernel.impl.util.KernelMetrics.Latency;
+
+/**
+ * Calls {@link org.neo4j.graphdb.event.TransactionEventHandler#afterCommit(TransactionData, Object)}
+ * from a background thread instead of from the committing thread, so that a
+ * slow handler doesn't add to the commit latency.
+ *
+ * Committed transactions are put in a bounded queue in the order they
+ * complete and a single dispatcher thread hands them to the handlers in that
+ * same order. Whatever has piled up in the queue is taken in one go, up to
+ * the batch size, and given to {@link BatchingTransactionEventHandler}s in
+ * a single call, other handlers get one call per transaction. When the queue is full the committing thread waits for
+ * room, so a handler that can't keep up slows down commits instead of
+ * making the queue grow without bounds. The time from commit to dispatch
+ * and the time spent waiting for room are recorded in {@link KernelMetrics}.
+ */
+public class TransactionEventDispatcher
+{
+    private static Logger log = Logger.getLogger(
+            TransactionEventDispatcher.class.getName() );
+
+    private final BlockingQueue<CommittedTransaction> queue;
+    private final int batchSize;
+    private final KernelMetrics metrics;
+    private final AtomicLong dispatched = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public TransactionEventDispatcher( int queueSize, int batchSize, KernelMetrics metrics )
+    {
+        if ( queueSize < 1 || batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Queue size " + queueSize +
+                    " and batch size " + batchSize + " must both be positive" );
+        }
+        this.queue = new ArrayBlockingQueue<CommittedTransaction>( queueSize );
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        this.thread = new Thread( "Transaction event dispatcher" )
+        {
+            @Override
+            public void run()
+            {
+                dispatchLoop();
+            }
+        };
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    void committed( TransactionData data, List<HandlerAndState> states )
+    {
+        CommittedTransaction tx = new CommittedTransaction( data, states );
+        if ( !running )
+        {
+            // Shut down, deliver in the committing thread as a last resort
+            dispatch( Collections.singletonList( tx ) );
+            return;
+        }
+        if ( queue.offer( tx ) )
+        {
+            return;
+        }
+
+        long startTime = metrics.startTimer();
+        boolean interrupted = false;
+        try
+        {
+            while ( true )
+            {
+                try
+                {
+                    queue.put( tx );
+                    break;
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        finally
+        {
+            metrics.record( Latency.EVENT_BACKPRESSURE, startTime );
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void dispatchLoop()
+    {
+        List<CommittedTransaction> batch = new ArrayList<CommittedTransaction>( batchSize );
+        while ( running || !queue.isEmpty() )
+        {
+            CommittedTransaction first;
+            try
+            {
+                first = queue.poll( 100, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                continue;
+            }
+            if ( first == null )
+            {
+                continue;
+            }
+            batch.add( first );
+            queue.drainTo( batch, batchSize - 1 );
+            dispatch( batch );
+            batch.clear();
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private void dispatch( List<CommittedTransaction> batch )
+    {
+        long now = System.nanoTime();
+        Map<TransactionEventHandler<?>, HandlerBatch> batches = null;
+        for ( CommittedTransaction tx : batch )
+        {
+            metrics.recordDuration( Latency.EVENT_DISPATCH_LAG, now - tx.committedAt );
+            for ( HandlerAndState state : tx.states )
+            {
+                if ( state.handler instanceof BatchingTransactionEventHandler )
+                {
+                    if ( batches == null )
+                    {
+                        batches = new IdentityHashMap<TransactionEventHandler<?>, HandlerBatch>();
+                    }
+                    HandlerBatch handlerBatch = batches.get( state.handler );
+                    if ( handlerBatch == null )
+                    {
+                        handlerBatch = new HandlerBatch( state.handler );
+                        batches.put( state.handler, handlerBatch );
+                    }
+                    handlerBatch.add( tx.data, state.state );
+                    continue;
+                }
+                try
+                {
+                    state.handler.afterCommit( tx.data, state.state );
+                }
+                catch ( Throwable t )
+                {
+                    log.log( Level.WARNING, "Transaction event handler " + state.handler +
+                            " failed in afterCommit", t );
+                }
+            }
+        }
+        if ( batches != null )
+        {
+            for ( HandlerBatch handlerBatch : batches.values() )
+            {
+                handlerBatch.dispatch();
+            }
+        }
+        dispatched.addAndGet( batch.size() );
+    }
+
+    /**
+     * @return the number of committed transactions waiting to be dispatched.
+     */
+    public int getPendingCount()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of committed transactions dispatched so far.
+     */
+    public long getDispatchedCount()
+    {
+        return dispatched.get();
+    }
+
+    /**
+     * Dispatches the transactions still in the queue and stops the
+     * dispatcher thread. Transactions committed after this are dispatched
+     * in the committing thread.
+     */
+    public void shutdown()
+    {
+        running = false;
+        try
+        {
+            thread.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        // Anything which slipped in while the dispatcher thread was stopping
+        List<CommittedTransaction> remaining = new ArrayList<CommittedTransaction>();
+        queue.drainTo( remaining );
+        if ( !remaining.isEmpty() )
+        {
+            dispatch( remaining );
+        }
+    }
+
+    private static class CommittedTransaction
+    {
+        private final TransactionData data;
+        private final List<HandlerAndState> states;
+        private final long committedAt = System.nanoTime();
+
+        CommittedTransaction( TransactionData data, List<HandlerAndState> states )
+        {
+            this.data = data;
+            this.states = states;
+        }
+    }
+
+    /**
+     * The transactions, and the states returned for them, to hand to a
+     * {@link BatchingTransactionEventHandler} in a single call.
+     */
+    private static class HandlerBatch
+    {
+        private final BatchingTransactionEventHandler<Object> handler;
+        private final List<TransactionData> data = new ArrayList<TransactionData>();
+        private final List<Object> states = new ArrayList<Object>();
+
+        @SuppressWarnings( "unchecked" )
+        HandlerBatch( TransactionEventHandler<?> handler )
+        {
+            this.handler = (BatchingTransactionEventHandler<Object>) handler;
+        }
+
+        void add( TransactionData txData, Object state )
+        {
+            data.add( txData );
+            states.add( state );
+        }
+
+        void dispatch()
+        {
+            try
+            {
+                handler.afterCommitBatch( data, states );
+            }
+            catch ( Throwable t )
+            {
+                log.log( Level.WARNING, "Transaction event handler " + handler +
+                        " failed in afterCommitBatch", t );
+            }
+        }
+    }
+}
@@ -43,15 +43,29 @@ public class TransactionEventsSyncHook implements Synchronization
     private List<HandlerAndState> states;
     private TransactionData transactionData;
     private final TransactionManager tm;
+    private final TransactionEventDispatcher dispatcher;
 
     public TransactionEventsSyncHook(
             NodeManager nodeManager,
             Collection<TransactionEventHandler<?>> transactionEventHandlers, 
             TransactionManager tm )
+    {
+        this( nodeManager, transactionEventHandlers, tm, null );
+    }
+
+    /**
+     * @param dispatcher if not {@code null} the afterCommit calls are handed
+     * to it instead of being made in the committing thread.
+     */
+    public TransactionEventsSyncHook(
+            NodeManager nodeManager,
+            Collection<TransactionEventHandler<?>> transactionEventHandlers,
+            TransactionManager tm, TransactionEventDispatcher dispatcher )
     {
         this.nodeManager = nodeManager;
         this.handlers = transactionEventHandlers;
         this.tm = tm;
+        this.dispatcher = dispatcher;
     }
 
     public void beforeCompletion()
@@ -102,6 +116,11 @@ public class TransactionEventsSyncHook implements Synchronization
     {
         if ( status == Status.STATUS_COMMITTED )
         {
+            if ( dispatcher != null )
+            {
+                dispatcher.committed( this.transactionData, this.states );
+                return;
+            }
             for ( HandlerAndState state : this.states )
             {
                 state.handler.afterCommit( this.transactionData, state.state );
@@ -126,13 +145,13 @@ public class TransactionEventsSyncHook implements Synchronization
         }
     }
 
-    private class HandlerAndState
+    static class HandlerAndState
     {
         @SuppressWarnings("unchecked")
-        private final TransactionEventHandler handler;
-        private final Object state;
+        final TransactionEventHandler handler;
+        final Object state;
 
-        public HandlerAndState( TransactionEventHandler<?> handler, Object state )
+        HandlerAndState( TransactionEventHandler<?> handler, Object state )
         {
             this.handler = handler;
             this.state = state;
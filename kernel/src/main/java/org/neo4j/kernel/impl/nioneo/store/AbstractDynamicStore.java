@@ -654,12 +654,10 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore
         openIdGenerator();
 //        nextBlockId(); // reserved first block containing blockSize
         setHighId( 1 );
-        FileChannel fileChannel = getFileChannel();
         int highId = 0;
         long defraggedCount = 0;
         try
         {
-            long fileSize = fileChannel.size();
             boolean fullRebuild = true;
             if ( getConfig() != null )
             {
@@ -671,32 +669,13 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore
                     highId = findHighIdBackwards();
                 }
             }
-            ByteBuffer byteBuffer = ByteBuffer.wrap( new byte[1] );
-            LinkedList<Integer> freeIdList = new LinkedList<Integer>();
             if ( fullRebuild )
             {
-                for ( long i = 1; i * getBlockSize() < fileSize; i++ )
-                {
-                    fileChannel.position( i * getBlockSize() );
-                    fileChannel.read( byteBuffer );
-                    byteBuffer.flip();
-                    byte inUse = byteBuffer.get();
-                    byteBuffer.flip();
-                    nextBlockId();
-                    if ( inUse == Record.NOT_IN_USE.byteValue() )
-                    {
-                        freeIdList.add( (int) i );
-                    }
-                    else
-                    {
-                        highId = (int) i;
-                        while ( !freeIdList.isEmpty() )
-                        {
-                            freeBlockId( freeIdList.removeFirst() );
-                            defraggedCount++;
-                        }
-                    }
-                }
+                defraggedCount = freeIdsNotInUse( getBlockSize(), 1 );
+            }
+            else
+            {
+                setHighId( highId + 1 );
             }
         }
         catch ( IOException e )
@@ -704,7 +683,6 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore
             throw new UnderlyingStorageException( 
                 "Unable to rebuild id generator " + getStorageFileName(), e );
         }
-        setHighId( highId + 1 );
         logger.fine( "[" + getStorageFileName() + "] high id=" + getHighId()
             + " (defragged=" + defraggedCount + ")" );
         if ( getConfig() != null )
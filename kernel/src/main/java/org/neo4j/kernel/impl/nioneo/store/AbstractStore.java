@@ -24,7 +24,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -261,9 +261,6 @@ public abstract class AbstractStore extends CommonAbstractStore
         {
             throw new ReadOnlyDbException();
         }
-        // TODO: fix this hardcoding
-        final byte RECORD_NOT_IN_USE = 0;
-
         logger.fine( "Rebuilding id generator for[" + getStorageFileName()
             + "] ..." );
         closeIdGenerator();
@@ -275,12 +272,10 @@ public abstract class AbstractStore extends CommonAbstractStore
         }
         createIdGenerator( getStorageFileName() + ".id" );
         openIdGenerator();
-        FileChannel fileChannel = getFileChannel();
         long highId = 1;
         long defraggedCount = 0;
         try
         {
-            long fileSize = fileChannel.size();
             int recordSize = getRecordSize();
             boolean fullRebuild = true;
             if ( getConfig() != null )
@@ -293,33 +288,13 @@ public abstract class AbstractStore extends CommonAbstractStore
                     highId = findHighIdBackwards();
                 }
             }
-            ByteBuffer byteBuffer = ByteBuffer.wrap( new byte[1] );
-            LinkedList<Integer> freeIdList = new LinkedList<Integer>();
-            if ( fullRebuild )
+            if ( fullRebuild && recordSize > 0 )
             {
-                for ( long i = 0; i * recordSize < fileSize && recordSize > 0; 
-                    i++ )
-                {
-                    fileChannel.position( i * recordSize );
-                    fileChannel.read( byteBuffer );
-                    byteBuffer.flip();
-                    byte inUse = byteBuffer.get();
-                    byteBuffer.flip();
-                    nextId();
-                    if ( inUse == RECORD_NOT_IN_USE )
-                    {
-                        freeIdList.add( (int) i );
-                    }
-                    else
-                    {
-                        highId = i;
-                        while ( !freeIdList.isEmpty() )
-                        {
-                            freeId( freeIdList.removeFirst() );
-                            defraggedCount++;
-                        }
-                    }
-                }
+                defraggedCount = freeIdsNotInUse( recordSize, 0 );
+            }
+            else
+            {
+                setHighId( highId + 1 );
             }
         }
         catch ( IOException e )
@@ -327,7 +302,6 @@ public abstract class AbstractStore extends CommonAbstractStore
             throw new UnderlyingStorageException( 
                 "Unable to rebuild id generator " + getStorageFileName(), e );
         }
-        setHighId( highId + 1 );
         if ( getConfig() != null )
         {
             String storeDir = (String) getConfig().get( "store_dir" );
@@ -340,6 +314,95 @@ public abstract class AbstractStore extends CommonAbstractStore
         closeIdGenerator();
         openIdGenerator();
     }
-    
+
+    /**
+     * Splits the ids of this store, up to the current high id, into at most
+     * {@code count} ranges of about the same size. The records in each of
+     * them can then be scanned by a thread of its own.
+     *
+     * @param count the number of ranges to split the ids into.
+     * @return the ranges, in id order.
+     */
+    public List<IdRange> partitionIds( int count )
+    {
+        if ( count < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal count: " + count );
+        }
+        long highId = getHighId();
+        long size = Math.max( (highId + count - 1) / count, 1 );
+        List<IdRange> ranges = new ArrayList<IdRange>( count );
+        for ( long start = 0; start < highId; start += size )
+        {
+            ranges.add( new IdRange( new long[0], start,
+                (int) Math.min( size, highId - start ) ) );
+        }
+        return ranges;
+    }
+
+    /**
+     * Reads all the records straight from the file, without going through
+     * the windows, handing each of them to {@code visitor}. The buffer is
+     * positioned at the start of the record.
+     */
+    protected void scanRecords( RecordVisitor visitor )
+    {
+        int recordSize = getRecordSize();
+        try
+        {
+            long end = getFileChannel().size();
+            if ( isReadOnly() && !isBackupSlave() )
+            {
+                // Read only stores aren't truncated on open
+                end -= getTypeAndVersionDescriptor().getBytes().length;
+            }
+            readRecords( recordSize, 0, end / recordSize,
+                ByteBuffer.allocate( recordSize * 1024 ), visitor );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to scan records of " + getStorageFileName(), e );
+        }
+    }
+
+    /**
+     * Reads the first {@code length} bytes of the record {@code id} as it
+     * is before being written to through {@code window}. A row acquired for
+     * writing isn't read from the file, since the whole record is going to
+     * be overwritten, so for a row the bytes are read from the file instead.
+     */
+    protected ByteBuffer readFromWindowOrFile( int id, PersistenceWindow window, int length )
+    {
+        ByteBuffer bytes = ByteBuffer.allocate( length );
+        if ( window instanceof PersistenceRow )
+        {
+            try
+            {
+                long position = (id & 0xFFFFFFFFL) * getRecordSize();
+                while ( bytes.hasRemaining() )
+                {
+                    // Past the end of the file it's all zeros, not in use
+                    if ( getFileChannel().read( bytes,
+                        position + bytes.position() ) < 0 )
+                    {
+                        break;
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new UnderlyingStorageException( "Unable to read record["
+                    + id + "] of " + getStorageFileName(), e );
+            }
+        }
+        else
+        {
+            window.getOffsettedBuffer( id ).get( bytes.array() );
+        }
+        bytes.clear();
+        return bytes;
+    }
+
     public abstract List<WindowPoolStats> getAllWindowPoolStats();
 }
\ No newline at end of file
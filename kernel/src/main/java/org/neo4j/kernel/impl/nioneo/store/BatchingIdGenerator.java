@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link IdGenerator} which keeps threads allocating ids from contending
+ * on the generator it wraps. Each thread takes ids from a batch of its own,
+ * an {@link IdRange} grabbed from the wrapped generator when the previous
+ * one runs out, the same way an HA slave gets its ids from the master.
+ * Freed ids go to a lock-free queue and, once as many as the grab size have
+ * been freed, are passed on to the wrapped generator from a background
+ * thread. They're handed out again only by way of the wrapped generator,
+ * after a round trip through its file, and not right after being freed,
+ * since the freeing transaction may not yet have evicted the node or
+ * relationship with that id from the cache.
+ * <p>
+ * The ids left in the batches of the threads are freed when the generator
+ * is closed. Since the high id includes the batches handed out it may be
+ * somewhat higher than the highest id in use.
+ */
+public class BatchingIdGenerator implements IdGenerator
+{
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(
+            new ThreadFactory()
+            {
+                public Thread newThread( Runnable task )
+                {
+                    Thread thread = new Thread( task, "Id generator writer" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+
+    private final IdGenerator delegate;
+    private final int batchSize;
+    private final int grabSize;
+    private final Queue<Long> freedIds = new ConcurrentLinkedQueue<Long>();
+    private final AtomicInteger freedCount = new AtomicInteger();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final Queue<Batch> batches = new ConcurrentLinkedQueue<Batch>();
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<Batch>();
+    private volatile int generation;
+    private volatile boolean closed;
+
+    public BatchingIdGenerator( IdGenerator delegate, int batchSize, int grabSize )
+    {
+        if ( batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal batchSize: " + batchSize );
+        }
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.grabSize = grabSize;
+    }
+
+    public long nextId()
+    {
+        if ( closed )
+        {
+            throw new IllegalStateException( "Closed id generator " + delegate );
+        }
+        Batch batch = currentBatch.get();
+        if ( batch != null && batch.generation == generation )
+        {
+            long id = batch.next();
+            if ( id != -1 )
+            {
+                return id;
+            }
+        }
+        if ( batch != null )
+        {
+            batches.remove( batch );
+        }
+        synchronized ( delegate )
+        {
+            batch = new Batch( delegate.nextIdBatch( batchSize ), generation );
+        }
+        batches.add( batch );
+        currentBatch.set( batch );
+        return batch.next();
+    }
+
+    public IdRange nextIdBatch( int size )
+    {
+        synchronized ( delegate )
+        {
+            return delegate.nextIdBatch( size );
+        }
+    }
+
+    /**
+     * Sets the high id of the wrapped generator. The ids left in the batches
+     * handed out to threads are taken back, those below the new high id are
+     * freed and the others are handed out again by the wrapped generator.
+     */
+    public void setHighId( long id )
+    {
+        synchronized ( delegate )
+        {
+            generation++;
+            passOnFreedIds();
+            delegate.setHighId( id );
+            for ( Batch batch : batches )
+            {
+                if ( batch.generation != generation )
+                {
+                    for ( long unused = batch.next(); unused != -1; unused = batch.next() )
+                    {
+                        if ( unused < id )
+                        {
+                            delegate.freeId( unused );
+                        }
+                    }
+                    batches.remove( batch );
+                }
+            }
+        }
+    }
+
+    public long getHighId()
+    {
+        return delegate.getHighId();
+    }
+
+    public void freeId( long id )
+    {
+        if ( id < 0 || id >= delegate.getHighId() )
+        {
+            throw new IllegalArgumentException( "Illegal id[" + id + "]" );
+        }
+        freedIds.add( id );
+        if ( freedCount.incrementAndGet() >= grabSize &&
+                writing.compareAndSet( false, true ) )
+        {
+            writer.execute( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        synchronized ( delegate )
+                        {
+                            if ( !closed )
+                            {
+                                passOnFreedIds();
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        writing.set( false );
+                    }
+                }
+            } );
+        }
+    }
+
+    // caller holds the lock on delegate
+    private void passOnFreedIds()
+    {
+        for ( Long id = freedIds.poll(); id != null; id = freedIds.poll() )
+        {
+            freedCount.decrementAndGet();
+            delegate.freeId( id );
+        }
+    }
+
+    public void close()
+    {
+        synchronized ( delegate )
+        {
+            if ( closed )
+            {
+                return;
+            }
+            closed = true;
+            passOnFreedIds();
+            for ( Batch batch : batches )
+            {
+                for ( long id = batch.next(); id != -1; id = batch.next() )
+                {
+                    delegate.freeId( id );
+                }
+            }
+            batches.clear();
+            delegate.close();
+        }
+    }
+
+    public long getNumberOfIdsInUse()
+    {
+        long unused = freedCount.get();
+        for ( Batch batch : batches )
+        {
+            unused += batch.remaining();
+        }
+        return delegate.getNumberOfIdsInUse() - unused;
+    }
+
+    public long getDefragCount()
+    {
+        return delegate.getDefragCount() + freedCount.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BatchingIdGenerator[" + delegate + ", batch size " + batchSize + "]";
+    }
+
+    /**
+     * The ids of an {@link IdRange}, handed out by the thread it was grabbed
+     * for. The position is atomic since {@link BatchingIdGenerator#close()}
+     * takes the ids left from another thread.
+     */
+    private static class Batch
+    {
+        private final long[] defragIds;
+        private final long rangeStart;
+        private final int size;
+        private final int generation;
+        private final AtomicInteger position = new AtomicInteger();
+
+        Batch( IdRange range, int generation )
+        {
+            this.defragIds = range.getDefragIds();
+            this.rangeStart = range.getRangeStart();
+            this.size = defragIds.length + range.getRangeLength();
+            this.generation = generation;
+        }
+
+        long next()
+        {
+            int index = position.getAndIncrement();
+            if ( index >= size )
+            {
+                return -1;
+            }
+            return index < defragIds.length ? defragIds[index] :
+                    rangeStart + index - defragIds.length;
+        }
+
+        int remaining()
+        {
+            return Math.max( 0, size - position.get() );
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of which pages of a store file have been written to since a
+ * checkpoint, so that an incremental backup can copy only those pages instead
+ * of replaying transactions from the logical logs. Pages are
+ * {@link #PAGE_SIZE} bytes of the file, kept as bits in segments which are
+ * never replaced, so that marking a page as changed doesn't have to lock
+ * anything.
+ * <p>
+ * The bitmap is persisted next to the store file when the store is closed.
+ * Since the store might have been written to after that without the bitmap
+ * being saved again (a crash), the persisted bitmap is only trusted if it was
+ * marked as clean, otherwise the store has no checkpoint and the next backup
+ * must copy everything.
+ */
+public class ChangedPages
+{
+    public static final String FILE_SUFFIX = ".changes";
+    public static final long NO_CHECKPOINT = -1;
+    public static final int PAGE_SIZE = 8*1024;
+
+    private static final int SEGMENT_SHIFT = 10;
+    private static final int SEGMENT_LENGTH = 1 << SEGMENT_SHIFT;
+    private static final int HEADER_SIZE = 13;
+    private static final int CLEAN_OFFSET = 8;
+
+    private final File file;
+    private volatile AtomicLongArray[] segments = new AtomicLongArray[0];
+    private volatile long checkpoint = NO_CHECKPOINT;
+
+    private ChangedPages( File file )
+    {
+        this.file = file;
+    }
+
+    /**
+     * Loads the changed pages persisted in {@code file} and marks it as not
+     * clean until {@link #close()} is called.
+     */
+    public static ChangedPages open( File file )
+    {
+        ChangedPages pages = new ChangedPages( file );
+        if ( file.exists() )
+        {
+            pages.load();
+        }
+        pages.save( false );
+        return pages;
+    }
+
+    public void markChanged( long fromByte, long toByte )
+    {
+        for ( long page = fromByte / PAGE_SIZE, last = (toByte - 1) / PAGE_SIZE; page <= last; page++ )
+        {
+            long word = page >>> 6;
+            AtomicLongArray segment = segment( (int) (word >>> SEGMENT_SHIFT) );
+            int index = (int) (word & (SEGMENT_LENGTH - 1));
+            long bit = 1L << (page & 63);
+            long value;
+            while ( ((value = segment.get( index )) & bit) == 0 )
+            {
+                if ( segment.compareAndSet( index, value, value | bit ) )
+                {
+                    break;
+                }
+            }
+        }
+    }
+
+    private AtomicLongArray segment( int index )
+    {
+        AtomicLongArray[] current = segments;
+        if ( index < current.length )
+        {
+            return current[index];
+        }
+        synchronized ( this )
+        {
+            current = segments;
+            if ( index >= current.length )
+            {
+                AtomicLongArray[] grown = Arrays.copyOf( current, index + 1 );
+                for ( int i = current.length; i < grown.length; i++ )
+                {
+                    grown[i] = new AtomicLongArray( SEGMENT_LENGTH );
+                }
+                segments = current = grown;
+            }
+            return current[index];
+        }
+    }
+
+    public boolean isChanged( long page )
+    {
+        long word = page >>> 6;
+        int segmentIndex = (int) (word >>> SEGMENT_SHIFT);
+        AtomicLongArray[] current = segments;
+        return segmentIndex < current.length && (current[segmentIndex].get(
+                (int) (word & (SEGMENT_LENGTH - 1) ) ) & (1L << (page & 63))) != 0;
+    }
+
+    /**
+     * @return the checkpoint the changes are tracked from, or
+     * {@link #NO_CHECKPOINT} if it isn't known which pages have changed.
+     */
+    public long getCheckpoint()
+    {
+        return checkpoint;
+    }
+
+    /**
+     * Starts tracking changes from {@code newCheckpoint}, handing over the
+     * pages changed since the previous checkpoint. Pages changed while this
+     * is done end up in either, or both.
+     */
+    public synchronized Snapshot checkpoint( long newCheckpoint )
+    {
+        AtomicLongArray[] current = segments;
+        long[] words = new long[current.length * SEGMENT_LENGTH];
+        for ( int s = 0; s < current.length; s++ )
+        {
+            for ( int i = 0; i < SEGMENT_LENGTH; i++ )
+            {
+                words[s * SEGMENT_LENGTH + i] = current[s].getAndSet( i, 0 );
+            }
+        }
+        Snapshot snapshot = new Snapshot( checkpoint, words );
+        checkpoint = newCheckpoint;
+        return snapshot;
+    }
+
+    /**
+     * Puts back the changes of a checkpoint which didn't make it into a
+     * backup, so that they aren't lost for the previous checkpoint.
+     */
+    public synchronized void revert( Snapshot snapshot, long newCheckpoint )
+    {
+        for ( int i = 0; i < snapshot.words.length; i++ )
+        {
+            long word = snapshot.words[i];
+            for ( int bit = 0; word != 0; bit++, word >>>= 1 )
+            {
+                if ( (word & 1) != 0 )
+                {
+                    long page = ((long) i << 6) + bit;
+                    markChanged( page * PAGE_SIZE, page * PAGE_SIZE + 1 );
+                }
+            }
+        }
+        if ( checkpoint == newCheckpoint )
+        {
+            checkpoint = snapshot.getCheckpoint();
+        }
+    }
+
+    public synchronized void close()
+    {
+        save( true );
+    }
+
+    private void load()
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+            try
+            {
+                long storedCheckpoint = in.readLong();
+                if ( !CleanFlag.isClean( in ) )
+                {
+                    return;
+                }
+                int wordCount = in.readInt();
+                for ( int i = 0; i < wordCount; i++ )
+                {
+                    long word = in.readLong();
+                    if ( word != 0 )
+                    {
+                        segment( i >>> SEGMENT_SHIFT ).set( i & (SEGMENT_LENGTH - 1), word );
+                    }
+                }
+                checkpoint = storedCheckpoint;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // Broken, so nothing is known about which pages have changed
+            segments = new AtomicLongArray[0];
+            checkpoint = NO_CHECKPOINT;
+        }
+    }
+
+    private void save( boolean clean )
+    {
+        try
+        {
+            AtomicLongArray[] current = segments;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    HEADER_SIZE + current.length * SEGMENT_LENGTH * 8 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeLong( checkpoint );
+            CleanFlag.writeNotClean( out );
+            out.writeInt( current.length * SEGMENT_LENGTH );
+            for ( AtomicLongArray segment : current )
+            {
+                for ( int i = 0; i < SEGMENT_LENGTH; i++ )
+                {
+                    out.writeLong( segment.get( i ) );
+                }
+            }
+            out.close();
+            CleanFlag.write( file, bytes.toByteArray(), CLEAN_OFFSET, clean );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to write changed pages " + file, e );
+        }
+    }
+
+    /**
+     * The pages changed since a checkpoint, taken by
+     * {@link ChangedPages#checkpoint(long)}.
+     */
+    public static class Snapshot
+    {
+        private final long checkpoint;
+        private final long[] words;
+
+        Snapshot( long checkpoint, long[] words )
+        {
+            this.checkpoint = checkpoint;
+            this.words = words;
+        }
+
+        /**
+         * @return the checkpoint the changes are from.
+         */
+        public long getCheckpoint()
+        {
+            return checkpoint;
+        }
+
+        public boolean isChanged( long page )
+        {
+            int word = (int) (page >>> 6);
+            return word < words.length && (words[word] & (1L << (page & 63))) != 0;
+        }
+
+        /**
+         * @return the first changed page at or after {@code page}, or -1 if
+         * there's none.
+         */
+        public long nextChanged( long page )
+        {
+            for ( int word = (int) (page >>> 6); word < words.length; word++ )
+            {
+                long bits = words[word];
+                if ( word == (int) (page >>> 6) )
+                {
+                    bits &= -1L << (page & 63);
+                }
+                if ( bits != 0 )
+                {
+                    return ((long) word << 6) + Long.numberOfTrailingZeros( bits );
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A flag in a file persisted next to a store, telling whether the file was
+ * written when the store was closed. The file is marked as not clean while
+ * the store is open, so after a crash its contents aren't trusted.
+ */
+final class CleanFlag
+{
+    private static final byte NOT_CLEAN = 0;
+    private static final byte CLEAN = 1;
+
+    private CleanFlag()
+    {
+    }
+
+    /**
+     * Writes the flag as not clean, it's set by {@link #write} if the file
+     * is clean.
+     */
+    static void writeNotClean( DataOutput out ) throws IOException
+    {
+        out.writeByte( NOT_CLEAN );
+    }
+
+    /**
+     * @return {@code false} if the file wasn't cleanly closed, changes may
+     * then have been missed.
+     */
+    static boolean isClean( DataInput in ) throws IOException
+    {
+        return in.readByte() == CLEAN;
+    }
+
+    /**
+     * Replaces the contents of {@code file} with {@code contents}, which have
+     * the flag written by {@link #writeNotClean} at {@code flagOffset}, and
+     * forces them to disk.
+     */
+    static void write( File file, byte[] contents, int flagOffset, boolean clean )
+            throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            raf.setLength( 0 );
+            raf.write( contents );
+            if ( clean )
+            {
+                // Only mark it as clean when everything else is on disk
+                raf.getChannel().force( false );
+                raf.seek( flagOffset );
+                raf.writeByte( CLEAN );
+            }
+            raf.getChannel().force( false );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
@@ -33,6 +33,8 @@ import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.core.ReadOnlyDbException;
+import org.neo4j.kernel.impl.util.IntArray;
+import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
  * Contains common implementation for {@link AbstractStore} and
@@ -106,12 +108,14 @@ public abstract class CommonAbstractStore
 
     // default node store id generator grab size
     protected static final int DEFAULT_ID_GRAB_SIZE = 1024;
+    private static final int REBUILD_BUFFER_SIZE = 1024 * 1024;
 
     private final String storageFileName;
     private final IdGeneratorFactory idGeneratorFactory;
     private IdGenerator idGenerator = null;
     private FileChannel fileChannel = null;
     private PersistenceWindowPool windowPool;
+    private ChangedPages changedPages;
     private boolean storeOk = true;
     private FileLock fileLock;
     private boolean grabFileLock = true;
@@ -324,6 +328,37 @@ public abstract class CommonAbstractStore
     protected void setWindowPool( PersistenceWindowPool pool )
     {
         this.windowPool = pool;
+        if ( pool != null && (!readOnly || backupSlave) && getIfTrackChangedPages() )
+        {
+            if ( changedPages == null )
+            {
+                changedPages = ChangedPages.open( new File( storageFileName
+                    + ChangedPages.FILE_SUFFIX ) );
+            }
+            pool.trackChanges( changedPages );
+        }
+    }
+
+    /**
+     * @return the pages of this store which have been changed since the last
+     * backup checkpoint, or <CODE>null</CODE> if changes aren't tracked for
+     * this store.
+     */
+    public ChangedPages getChangedPages()
+    {
+        return changedPages;
+    }
+
+    /**
+     * Adds the {@link ChangedPages} of this store, and of any stores it
+     * contains, to <CODE>target</CODE> keyed by store file name.
+     */
+    void collectChangedPages( Map<String,ChangedPages> target )
+    {
+        if ( changedPages != null )
+        {
+            target.put( storageFileName, changedPages );
+        }
     }
 
     /**
@@ -393,6 +428,13 @@ public abstract class CommonAbstractStore
         return configValue != null ? Boolean.parseBoolean( configValue ) : true;
     }
 
+    protected boolean getIfTrackChangedPages()
+    {
+        String configValue = getConfig() != null ?
+                (String) getConfig().get( Config.TRACK_CHANGED_PAGES ) : null;
+        return configValue != null ? Boolean.parseBoolean( configValue ) : true;
+    }
+
     /**
      * Returns memory assigned for
      * {@link MappedPersistenceWindow memory mapped windows} in bytes. The
@@ -471,6 +513,250 @@ public abstract class CommonAbstractStore
         rebuildIdGenerator();
     }
 
+    /**
+     * Calls {@link #rebuildIdGenerators()} if {@code rebuild} or else
+     * {@link #makeStoreOk()} on each of {@code stores}. The id generators of
+     * the stores are rebuilt in parallel, since each rebuild is a scan of a
+     * file of its own.
+     */
+    protected static void makeStoresOk( final boolean rebuild,
+        CommonAbstractStore... stores )
+    {
+        boolean allOk = true;
+        for ( CommonAbstractStore store : stores )
+        {
+            allOk &= store.getStoreOk();
+        }
+        if ( allOk && !rebuild )
+        {
+            // Not much to do, apart from sub stores which may not be ok
+            for ( CommonAbstractStore store : stores )
+            {
+                store.makeStoreOk();
+            }
+            return;
+        }
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[stores.length];
+        for ( int i = 0; i < stores.length; i++ )
+        {
+            final CommonAbstractStore store = stores[i];
+            threads[i] = new Thread( "Rebuild id generator " +
+                new File( store.getStorageFileName() ).getName() )
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        if ( rebuild )
+                        {
+                            store.rebuildIdGenerators();
+                        }
+                        else
+                        {
+                            store.makeStoreOk();
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        synchronized ( failure )
+                        {
+                            if ( failure[0] == null )
+                            {
+                                failure[0] = e;
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        try
+        {
+            for ( Thread thread : threads )
+            {
+                thread.join();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new UnderlyingStorageException(
+                "Interrupted while rebuilding id generators", e );
+        }
+        if ( failure[0] instanceof RuntimeException )
+        {
+            throw (RuntimeException) failure[0];
+        }
+        if ( failure[0] instanceof Error )
+        {
+            throw (Error) failure[0];
+        }
+        if ( failure[0] != null )
+        {
+            throw new UnderlyingStorageException( failure[0] );
+        }
+    }
+
+    /**
+     * Frees the ids of the records not in use which are below the highest
+     * id in use and sets the high id to the one after that. The first byte
+     * of each record from {@code firstId} is checked, where a record not
+     * in use has a zero. The file is read sequentially in large chunks and
+     * the free ids are kept in an {@link IntArray} until the high id is
+     * known, so that this is bound by disk throughput. Progress is written
+     * to the messages log for large stores.
+     *
+     * @return the number of ids freed.
+     */
+    protected long freeIdsNotInUse( int recordSize, int firstId )
+        throws IOException
+    {
+        long fileSize = getFileChannel().size();
+        // A trailing partial record is checked too
+        long recordCount = (fileSize + recordSize - 1) / recordSize;
+        ByteBuffer buffer = ByteBuffer.allocateDirect( Math.max( recordSize,
+            REBUILD_BUFFER_SIZE / recordSize * recordSize ) );
+        StringLogger msgLog = fileSize > REBUILD_BUFFER_SIZE * 16L ?
+            getMessageLog() : null;
+        FreeIdCollector freeIds = new FreeIdCollector( firstId - 1 );
+        long id = firstId;
+        int nextProgress = 10;
+        while ( id < recordCount )
+        {
+            long readUntil = readRecords( recordSize, id, Math.min(
+                recordCount, id + buffer.capacity() / recordSize ), buffer,
+                freeIds );
+            if ( readUntil == id )
+            {
+                break;
+            }
+            id = readUntil;
+            int progress = (int) (id * 100 / recordCount);
+            if ( msgLog != null && progress >= nextProgress )
+            {
+                msgLog.logMessage( getStorageFileName() +
+                    " rebuild id generator " + progress + "%", true );
+                nextProgress = progress / 10 * 10 + 10;
+            }
+        }
+        setHighId( freeIds.highId + 1 );
+        for ( int i = 0; i < freeIds.belowHighId; i++ )
+        {
+            freeId( freeIds.ids.get( i ) );
+        }
+        return freeIds.belowHighId;
+    }
+
+    private static class FreeIdCollector implements RecordVisitor
+    {
+        private final IntArray ids = new IntArray();
+        private long highId;
+        private int belowHighId;
+
+        FreeIdCollector( long highId )
+        {
+            this.highId = highId;
+        }
+
+        public void visit( int id, ByteBuffer record )
+        {
+            if ( record.get( record.position() ) ==
+                Record.NOT_IN_USE.byteValue() )
+            {
+                ids.add( id );
+            }
+            else
+            {
+                highId = id;
+                belowHighId = ids.length();
+            }
+        }
+    }
+
+    /**
+     * Reads the records of {@code recordSize} bytes with ids from
+     * {@code fromId}, inclusive, to {@code toId}, exclusive, straight from
+     * the file. They are read sequentially, as many at a time as fit in
+     * {@code buffer}, and handed to {@code visitor} with the buffer
+     * positioned at the start of each. A partial record at the end of the
+     * file is padded with zeros.
+     *
+     * @return the id after the last record read, which is less than
+     * {@code toId} if the file ends before that.
+     */
+    protected long readRecords( int recordSize, long fromId, long toId,
+        ByteBuffer buffer, RecordVisitor visitor ) throws IOException
+    {
+        FileChannel fileChannel = getFileChannel();
+        int recordsPerRead = buffer.capacity() / recordSize;
+        long id = fromId;
+        while ( id < toId )
+        {
+            long position = id * recordSize;
+            buffer.clear();
+            int length = (int) Math.min( recordsPerRead, toId - id ) *
+                recordSize;
+            buffer.limit( length );
+            while ( buffer.hasRemaining() )
+            {
+                if ( fileChannel.read( buffer,
+                    position + buffer.position() ) < 0 )
+                {
+                    break;
+                }
+            }
+            int bytesRead = buffer.position();
+            int records = (bytesRead + recordSize - 1) / recordSize;
+            buffer.flip();
+            buffer.limit( records * recordSize );
+            for ( int i = bytesRead; i < buffer.limit(); i++ )
+            {
+                buffer.put( i, (byte) 0 );
+            }
+            for ( int i = 0; i < records; i++ )
+            {
+                buffer.position( i * recordSize );
+                visitor.visit( (int) id++, buffer );
+            }
+            if ( bytesRead < length )
+            {
+                // End of the file
+                break;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Handed each record read by
+     * {@link CommonAbstractStore#readRecords(int, long, long, ByteBuffer, RecordVisitor)}.
+     */
+    protected interface RecordVisitor
+    {
+        void visit( int id, ByteBuffer record );
+    }
+
+    /**
+     * @return where the ids from {@code id}, up to {@code toId}, stop being
+     * outside of the memory mapped parts of the store, see
+     * {@link PersistenceWindowPool#unmappedUntil(long, long)}.
+     */
+    long unmappedUntil( long id, long toId )
+    {
+        return windowPool.unmappedUntil( id, toId );
+    }
+
+    private StringLogger getMessageLog()
+    {
+        if ( getConfig() == null )
+        {
+            return null;
+        }
+        return StringLogger.getLogger( (String) getConfig().get( "store_dir" ) );
+    }
+
     /**
      * Returns the configuration map if set in constructor.
      *
@@ -593,6 +879,29 @@ public abstract class CommonAbstractStore
         }
     }
 
+    /**
+     * Re-reads the high id of a read only store from the current size of its
+     * file, making records appended by another instance writing to the same
+     * store visible. Does nothing if this store isn't read only.
+     */
+    protected void refreshHighId()
+    {
+        if ( !(idGenerator instanceof ReadOnlyIdGenerator) )
+        {
+            return;
+        }
+        int recordSize = -1;
+        if ( this instanceof AbstractDynamicStore )
+        {
+            recordSize = ((AbstractDynamicStore) this).getBlockSize();
+        }
+        else if ( this instanceof AbstractStore )
+        {
+            recordSize = ((AbstractStore) this).getRecordSize();
+        }
+        openReadOnlyIdGenerator( recordSize );
+    }
+
     /**
      * Closed the {@link IdGenerator} used by this store
      *
@@ -698,6 +1007,11 @@ public abstract class CommonAbstractStore
             throw new UnderlyingStorageException( "Unable to close store "
                 + getStorageFileName(), storedIoe );
         }
+        if ( changedPages != null )
+        {
+            changedPages.close();
+            changedPages = null;
+        }
     }
 
     /**
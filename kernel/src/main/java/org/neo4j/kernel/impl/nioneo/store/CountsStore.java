@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The number of nodes and relationships in use, and the number of
+ * relationships of each type. The counts are changed by the node and
+ * relationship stores when a record goes in or out of use, which happens
+ * when a transaction is committed as well as when it's replayed during
+ * recovery or applied on an HA slave. The store compares against the
+ * record already on disk, so replaying a transaction which already made it
+ * to disk leaves the counts as they are.
+ * <p>
+ * The counts are persisted next to the store when it's closed. The file is
+ * marked as not clean while the store is open, so after a crash the counts
+ * are rebuilt by scanning the node and relationship stores.
+ */
+public class CountsStore
+{
+    public static final String FILE_SUFFIX = ".counts";
+
+    private static final int CLEAN_OFFSET = 0;
+
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicLong relationships = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicLong> relationshipsByType =
+            new ConcurrentHashMap<Integer, AtomicLong>();
+    private File file;
+    private boolean readOnly;
+
+    /**
+     * Loads the counts persisted in {@code file} and, unless
+     * {@code readOnly}, marks it as not clean until {@link #close()} is
+     * called.
+     *
+     * @return {@code true} if the counts were loaded, {@code false} if they
+     * have to be rebuilt from the store.
+     */
+    public synchronized boolean open( File file, boolean readOnly )
+    {
+        this.file = file;
+        this.readOnly = readOnly;
+        clear();
+        boolean loaded = file.exists() && load();
+        if ( !loaded )
+        {
+            clear();
+        }
+        if ( !readOnly )
+        {
+            save( false );
+        }
+        return loaded;
+    }
+
+    public long getNodeCount()
+    {
+        return nodes.get();
+    }
+
+    public long getRelationshipCount()
+    {
+        return relationships.get();
+    }
+
+    public long getRelationshipCount( int typeId )
+    {
+        AtomicLong count = relationshipsByType.get( typeId );
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * @return the number of relationships of each type, keyed by type id.
+     */
+    public Map<Integer, Long> getRelationshipCountsByType()
+    {
+        Map<Integer, Long> result = new HashMap<Integer, Long>();
+        for ( Map.Entry<Integer, AtomicLong> entry : relationshipsByType.entrySet() )
+        {
+            result.put( entry.getKey(), entry.getValue().get() );
+        }
+        return result;
+    }
+
+    void nodeCountChanged( int delta )
+    {
+        nodes.addAndGet( delta );
+    }
+
+    void relationshipCountChanged( int typeId, int delta )
+    {
+        relationships.addAndGet( delta );
+        AtomicLong count = relationshipsByType.get( typeId );
+        if ( count == null )
+        {
+            AtomicLong newCount = new AtomicLong();
+            count = relationshipsByType.putIfAbsent( typeId, newCount );
+            if ( count == null )
+            {
+                count = newCount;
+            }
+        }
+        count.addAndGet( delta );
+    }
+
+    synchronized void clear()
+    {
+        nodes.set( 0 );
+        relationships.set( 0 );
+        relationshipsByType.clear();
+    }
+
+    public synchronized void close()
+    {
+        if ( file != null && !readOnly )
+        {
+            save( true );
+        }
+        file = null;
+    }
+
+    private boolean load()
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+            try
+            {
+                if ( !CleanFlag.isClean( in ) )
+                {
+                    return false;
+                }
+                nodes.set( in.readLong() );
+                relationships.set( in.readLong() );
+                int typeCount = in.readInt();
+                for ( int i = 0; i < typeCount; i++ )
+                {
+                    relationshipsByType.put( in.readInt(), new AtomicLong( in.readLong() ) );
+                }
+                return true;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // Broken, rebuild it
+            return false;
+        }
+    }
+
+    private void save( boolean clean )
+    {
+        try
+        {
+            Map<Integer, Long> byType = getRelationshipCountsByType();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 21 + byType.size() * 12 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            CleanFlag.writeNotClean( out );
+            out.writeLong( nodes.get() );
+            out.writeLong( relationships.get() );
+            out.writeInt( byType.size() );
+            for ( Map.Entry<Integer, Long> entry : byType.entrySet() )
+            {
+                out.writeInt( entry.getKey() );
+                out.writeLong( entry.getValue() );
+            }
+            out.close();
+            CleanFlag.write( file, bytes.toByteArray(), CLEAN_OFFSET, clean );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to write counts " + file, e );
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The degrees of nodes, in total as well as per relationship type and
+ * direction. The degrees of a node are counted by walking its relationship
+ * chain in the store, which doesn't load any relationships into the cache.
+ * Nodes with at least {@link #getDenseThreshold()} relationships are dense
+ * and their degrees are kept here once counted. Those are changed by the
+ * relationship store when a record goes in or out of use, the same way as
+ * the {@link CountsStore} is, so they stay correct through commits, recovery
+ * and transactions applied on an HA slave.
+ * <p>
+ * The degrees of dense nodes are persisted next to the store when it's
+ * closed. If it wasn't closed cleanly they're dropped and counted again
+ * when first asked for.
+ */
+public class DegreeStore
+{
+    public static final String FILE_SUFFIX = ".degrees";
+    public static final int DEFAULT_DENSE_THRESHOLD = 50;
+
+    private static final int CLEAN_OFFSET = 0;
+    private static final int STRIPES = 64;
+
+    private final ConcurrentMap<Integer, Degrees> dense =
+            new ConcurrentHashMap<Integer, Degrees>();
+    private final int[] versions = new int[STRIPES];
+    private final Object[] stripes = new Object[STRIPES];
+    private int denseThreshold = DEFAULT_DENSE_THRESHOLD;
+    private NodeStore nodeStore;
+    private RelationshipStore relStore;
+    private File file;
+    private boolean readOnly;
+
+    public DegreeStore()
+    {
+        for ( int i = 0; i < STRIPES; i++ )
+        {
+            stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * Loads the degrees persisted in {@code file} and, unless
+     * {@code readOnly}, marks it as not clean until {@link #close()} is
+     * called. Degrees which aren't kept are counted from {@code nodeStore}
+     * and {@code relStore}.
+     */
+    public synchronized void open( File file, boolean readOnly, NodeStore nodeStore,
+            RelationshipStore relStore, int denseThreshold )
+    {
+        this.file = file;
+        this.readOnly = readOnly;
+        this.nodeStore = nodeStore;
+        this.relStore = relStore;
+        this.denseThreshold = denseThreshold;
+        dense.clear();
+        if ( file.exists() && !load() )
+        {
+            dense.clear();
+        }
+        if ( !readOnly )
+        {
+            save( false );
+        }
+    }
+
+    public int getDenseThreshold()
+    {
+        return denseThreshold;
+    }
+
+    /**
+     * @return the number of nodes which have their degrees kept.
+     */
+    public int getDenseNodeCount()
+    {
+        return dense.size();
+    }
+
+    /**
+     * Returns the committed degrees of a node. Unless the node is dense they
+     * are counted from the store, so the caller must make sure that no
+     * transaction changing the relationships of the node is committed
+     * meanwhile, by holding a read lock on it.
+     *
+     * @return a copy of the degrees of the node.
+     * @throws InvalidRecordException if the node isn't in use.
+     */
+    public Degrees getDegrees( int nodeId )
+    {
+        Degrees degrees = dense.get( nodeId );
+        if ( degrees != null )
+        {
+            return degrees.copy();
+        }
+        Object stripe = stripe( nodeId );
+        int version;
+        synchronized ( stripe )
+        {
+            version = versions[nodeId & (STRIPES - 1)];
+        }
+        degrees = count( nodeId );
+        if ( degrees.getTotal() >= denseThreshold )
+        {
+            synchronized ( stripe )
+            {
+                // Changed while counting, someone else will count it again
+                if ( versions[nodeId & (STRIPES - 1)] == version )
+                {
+                    dense.putIfAbsent( nodeId, degrees.copy() );
+                }
+            }
+        }
+        return degrees;
+    }
+
+    private Degrees count( int nodeId )
+    {
+        Degrees degrees = new Degrees();
+        int nextRel = nodeStore.getRecord( nodeId ).getNextRel();
+        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord rel = relStore.getChainRecord( nextRel );
+            if ( rel == null || !rel.inUse() )
+            {
+                break;
+            }
+            // Both are true for a loop, which is linked into the chain
+            // once and has the same next relationship for both its ends
+            boolean outgoing = rel.getFirstNode() == nodeId;
+            boolean incoming = rel.getSecondNode() == nodeId;
+            degrees.add( rel.getType(), outgoing, incoming, 1 );
+            nextRel = outgoing ? rel.getFirstNextRel() : rel.getSecondNextRel();
+        }
+        return degrees;
+    }
+
+    void relationshipChanged( int firstNode, int secondNode, int typeId, int delta )
+    {
+        if ( firstNode == secondNode )
+        {
+            nodeChanged( firstNode, typeId, true, true, delta );
+            return;
+        }
+        nodeChanged( firstNode, typeId, true, false, delta );
+        nodeChanged( secondNode, typeId, false, true, delta );
+    }
+
+    private void nodeChanged( int nodeId, int typeId, boolean outgoing, boolean incoming, int delta )
+    {
+        synchronized ( stripe( nodeId ) )
+        {
+            versions[nodeId & (STRIPES - 1)]++;
+            Degrees degrees = dense.get( nodeId );
+            if ( degrees != null )
+            {
+                degrees.add( typeId, outgoing, incoming, delta );
+                if ( degrees.getTotal() < denseThreshold / 2 )
+                {
+                    // Not dense anymore, or deleted
+                    dense.remove( nodeId );
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the kept degrees of a node, if any, so that they're counted from
+     * the store again the next time they're asked for. Used by read only
+     * instances, which see relationships change without committing them.
+     */
+    public void forget( int nodeId )
+    {
+        synchronized ( stripe( nodeId ) )
+        {
+            versions[nodeId & (STRIPES - 1)]++;
+            dense.remove( nodeId );
+        }
+    }
+
+    private Object stripe( int nodeId )
+    {
+        return stripes[nodeId & (STRIPES - 1)];
+    }
+
+    public synchronized void close()
+    {
+        if ( file != null && !readOnly )
+        {
+            save( true );
+        }
+        file = null;
+        nodeStore = null;
+        relStore = null;
+    }
+
+    private boolean load()
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+            try
+            {
+                if ( !CleanFlag.isClean( in ) )
+                {
+                    return false;
+                }
+                int nodeCount = in.readInt();
+                for ( int i = 0; i < nodeCount; i++ )
+                {
+                    int nodeId = in.readInt();
+                    Degrees degrees = new Degrees();
+                    int typeCount = in.readInt();
+                    for ( int j = 0; j < typeCount; j++ )
+                    {
+                        degrees.counts.put( in.readInt(), new int[] {
+                                in.readInt(), in.readInt(), in.readInt() } );
+                    }
+                    dense.put( nodeId, degrees );
+                }
+                return true;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // Broken, count them again
+            return false;
+        }
+    }
+
+    private void save( boolean clean )
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( bytes );
+            CleanFlag.writeNotClean( out );
+            Map<Integer, Degrees> snapshot = new HashMap<Integer, Degrees>();
+            for ( Map.Entry<Integer, Degrees> entry : dense.entrySet() )
+            {
+                snapshot.put( entry.getKey(), entry.getValue().copy() );
+            }
+            out.writeInt( snapshot.size() );
+            for ( Map.Entry<Integer, Degrees> entry : snapshot.entrySet() )
+            {
+                out.writeInt( entry.getKey() );
+                Map<Integer, int[]> counts = entry.getValue().counts;
+                out.writeInt( counts.size() );
+                for ( Map.Entry<Integer, int[]> type : counts.entrySet() )
+                {
+                    out.writeInt( type.getKey() );
+                    for ( int count : type.getValue() )
+                    {
+                        out.writeInt( count );
+                    }
+                }
+            }
+            out.close();
+            CleanFlag.write( file, bytes.toByteArray(), CLEAN_OFFSET, clean );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to write degrees " + file, e );
+        }
+    }
+
+    /**
+     * The number of relationships of a node per type, split up in outgoing,
+     * incoming and loops. A loop is both outgoing and incoming, but counts
+     * once when asked for both directions, like it's iterated once.
+     */
+    public static class Degrees
+    {
+        private static final int OUT = 0;
+        private static final int IN = 1;
+        private static final int LOOP = 2;
+
+        private final Map<Integer, int[]> counts = new HashMap<Integer, int[]>();
+
+        public synchronized void add( int typeId, boolean outgoing, boolean incoming, int delta )
+        {
+            int[] count = counts.get( typeId );
+            if ( count == null )
+            {
+                count = new int[3];
+                counts.put( typeId, count );
+            }
+            count[outgoing && incoming ? LOOP : outgoing ? OUT : IN] += delta;
+        }
+
+        /**
+         * Returns the number of relationships of a type, or of any type if
+         * {@code typeId} is -1.
+         */
+        public synchronized int get( int typeId, boolean outgoing, boolean incoming )
+        {
+            if ( typeId != -1 )
+            {
+                return get( counts.get( typeId ), outgoing, incoming );
+            }
+            int total = 0;
+            for ( int[] count : counts.values() )
+            {
+                total += get( count, outgoing, incoming );
+            }
+            return total;
+        }
+
+        private static int get( int[] count, boolean outgoing, boolean incoming )
+        {
+            if ( count == null )
+            {
+                return 0;
+            }
+            return (outgoing ? count[OUT] : 0) + (incoming ? count[IN] : 0) +
+                    (outgoing || incoming ? count[LOOP] : 0);
+        }
+
+        public int getTotal()
+        {
+            return get( -1, true, true );
+        }
+
+        public synchronized Degrees copy()
+        {
+            Degrees copy = new Degrees();
+            for ( Map.Entry<Integer, int[]> entry : counts.entrySet() )
+            {
+                copy.counts.put( entry.getKey(), entry.getValue().clone() );
+            }
+            return copy;
+        }
+    }
+}
@@ -19,13 +19,17 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
@@ -50,6 +54,8 @@ public class NeoStore extends AbstractStore
     private PropertyStore propStore;
     private RelationshipStore relStore;
     private RelationshipTypeStore relTypeStore;
+    private CountsStore counts;
+    private DegreeStore degrees;
     private final LastCommittedTxIdSetter lastCommittedTxIdSetter;
     private final IdGeneratorFactory idGeneratorFactory;
     private boolean isStarted;
@@ -95,6 +101,26 @@ public class NeoStore extends AbstractStore
             + ".relationshipstore.db", getConfig() );
         nodeStore = new NodeStore( getStorageFileName() + ".nodestore.db",
             getConfig() );
+        counts = (CountsStore) getConfig().get( CountsStore.class );
+        if ( counts == null )
+        {
+            counts = new CountsStore();
+        }
+        boolean rebuildCounts = !counts.open( new File( getStorageFileName() +
+            CountsStore.FILE_SUFFIX ), isReadOnly() && !isBackupSlave() );
+        nodeStore.setCounts( counts, rebuildCounts );
+        relStore.setCounts( counts, rebuildCounts );
+        degrees = (DegreeStore) getConfig().get( DegreeStore.class );
+        if ( degrees == null )
+        {
+            degrees = new DegreeStore();
+        }
+        String threshold = (String) getConfig().get( Config.DENSE_NODE_THRESHOLD );
+        degrees.open( new File( getStorageFileName() + DegreeStore.FILE_SUFFIX ),
+            isReadOnly() && !isBackupSlave(), nodeStore, relStore,
+            threshold != null ? Integer.parseInt( threshold ) :
+                DegreeStore.DEFAULT_DENSE_THRESHOLD );
+        relStore.setDegrees( degrees );
     }
 
     /**
@@ -103,6 +129,24 @@ public class NeoStore extends AbstractStore
     @Override
     protected void closeStorage()
     {
+        if ( counts != null )
+        {
+            // Left as not clean if the store itself isn't, so that they get
+            // rebuilt once it's been recovered
+            if ( isStoreOk() )
+            {
+                counts.close();
+            }
+            counts = null;
+        }
+        if ( degrees != null )
+        {
+            if ( isStoreOk() )
+            {
+                degrees.close();
+            }
+            degrees = null;
+        }
         if ( relTypeStore != null )
         {
             relTypeStore.close();
@@ -125,6 +169,32 @@ public class NeoStore extends AbstractStore
         }
     }
 
+    /**
+     * @return the {@link ChangedPages} of all the stores, keyed by store
+     * file name.
+     */
+    public Map<String,ChangedPages> getAllChangedPages()
+    {
+        Map<String,ChangedPages> result = new HashMap<String,ChangedPages>();
+        collectChangedPages( result );
+        return result;
+    }
+
+    @Override
+    void collectChangedPages( Map<String,ChangedPages> target )
+    {
+        super.collectChangedPages( target );
+        if ( relTypeStore == null || propStore == null || relStore == null ||
+                nodeStore == null )
+        {
+            return;
+        }
+        relTypeStore.collectChangedPages( target );
+        propStore.collectChangedPages( target );
+        relStore.collectChangedPages( target );
+        nodeStore.collectChangedPages( target );
+    }
+
     @Override
     public void flushAll()
     {
@@ -199,6 +269,39 @@ public class NeoStore extends AbstractStore
         return new StoreId( getCreationTime(), getRandomNumber() );
     }
 
+    /**
+     * Reads the store id straight from the neostore file {@code fileName},
+     * without opening the store. Useful for stores which can't be opened,
+     * f.ex. one that is in the middle of being copied.
+     */
+    public static StoreId readStoreId( String fileName ) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( fileName, "r" );
+        try
+        {
+            // created time | random long, each record is in use byte + long
+            ByteBuffer buffer = ByteBuffer.allocate( RECORD_SIZE * 2 );
+            FileChannel channel = file.getChannel();
+            while ( buffer.hasRemaining() )
+            {
+                if ( channel.read( buffer, buffer.position() ) == -1 )
+                {
+                    throw new IOException( "Unable to read store id from " + fileName );
+                }
+            }
+            buffer.flip();
+            buffer.get();
+            long creationTime = buffer.getLong();
+            buffer.get();
+            long randomNumber = buffer.getLong();
+            return new StoreId( creationTime, randomNumber );
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
     public long getCreationTime()
     {
         return getRecord( 0 );
@@ -339,6 +442,22 @@ public class NeoStore extends AbstractStore
         return relStore;
     }
 
+    /**
+     * @return the counts of nodes and relationships in use.
+     */
+    public CountsStore getCounts()
+    {
+        return counts;
+    }
+
+    /**
+     * @return the degrees of nodes.
+     */
+    public DegreeStore getDegrees()
+    {
+        return degrees;
+    }
+
     /**
      * Returns the relationship type store.
      *
@@ -362,10 +481,7 @@ public class NeoStore extends AbstractStore
     @Override
     public void makeStoreOk()
     {
-        relTypeStore.makeStoreOk();
-        propStore.makeStoreOk();
-        relStore.makeStoreOk();
-        nodeStore.makeStoreOk();
+        makeStoresOk( false, relTypeStore, propStore, relStore, nodeStore );
         super.makeStoreOk();
         isStarted = true;
     }
@@ -373,10 +489,7 @@ public class NeoStore extends AbstractStore
     @Override
     public void rebuildIdGenerators()
     {
-        relTypeStore.rebuildIdGenerators();
-        propStore.rebuildIdGenerators();
-        relStore.rebuildIdGenerators();
-        nodeStore.rebuildIdGenerators();
+        makeStoresOk( true, relTypeStore, propStore, relStore, nodeStore );
         super.rebuildIdGenerators();
     }
 
@@ -389,6 +502,23 @@ public class NeoStore extends AbstractStore
         nodeStore.updateHighId();
     }
 
+    /**
+     * Re-reads high ids and the last committed transaction id of a read only
+     * store that another instance is writing to.
+     *
+     * @return the last committed transaction id as found in the store file.
+     */
+    public synchronized long refreshReadOnly()
+    {
+        this.refreshHighId();
+        relTypeStore.refreshHighIds();
+        propStore.refreshHighIds();
+        relStore.refreshHighId();
+        nodeStore.refreshHighId();
+        lastCommittedTx = getRecord( 3 );
+        return lastCommittedTx;
+    }
+
     @Override
     protected boolean versionFound( String version )
     {
@@ -19,7 +19,9 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -38,6 +40,8 @@ public class NodeStore extends AbstractStore implements Store
     // in_use(byte)+next_rel_id(int)+next_prop_id(int)
     private static final int RECORD_SIZE = 9;
 
+    private CountsStore counts;
+
     /**
      * See {@link AbstractStore#AbstractStore(String, Map)}
      */
@@ -129,6 +133,63 @@ public class NodeStore extends AbstractStore implements Store
         }
     }
 
+    /**
+     * Counts the nodes in use into {@code counts} and keeps it up to date
+     * from then on.
+     */
+    void setCounts( final CountsStore counts, boolean rebuild )
+    {
+        if ( rebuild )
+        {
+            scanRecords( new RecordVisitor()
+            {
+                public void visit( int id, ByteBuffer record )
+                {
+                    if ( record.get() == Record.IN_USE.byteValue() )
+                    {
+                        counts.nodeCountChanged( 1 );
+                    }
+                }
+            } );
+        }
+        this.counts = counts;
+    }
+
+    /**
+     * Returns the nodes in use with ids from {@code fromId}, inclusive, to
+     * {@code toId}, exclusive, in id order. See {@link RecordScan} for how
+     * they are read.
+     */
+    public Iterator<NodeRecord> scan( long fromId, long toId )
+    {
+        return new RecordScan<NodeRecord>( this, fromId, toId )
+        {
+            @Override
+            protected NodeRecord getRecord( int id, ByteBuffer buffer )
+            {
+                if ( buffer.get() != Record.IN_USE.byteValue() )
+                {
+                    return null;
+                }
+                NodeRecord record = new NodeRecord( id );
+                record.setInUse( true );
+                record.setNextRel( buffer.getInt() );
+                record.setNextProp( buffer.getInt() );
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Returns the nodes in use with ids in {@code range}, see
+     * {@link #partitionIds(int)}.
+     */
+    public Iterator<NodeRecord> scan( IdRange range )
+    {
+        return scan( range.getRangeStart(),
+            range.getRangeStart() + range.getRangeLength() );
+    }
+
     public boolean loadLightNode( int id )
     {
         PersistenceWindow window = null;
@@ -180,6 +241,15 @@ public class NodeStore extends AbstractStore implements Store
     private void updateRecord( NodeRecord record, PersistenceWindow window )
     {
         int id = record.getId();
+        if ( counts != null )
+        {
+            boolean wasInUse = readFromWindowOrFile( id, window, 1 ).get() ==
+                Record.IN_USE.byteValue();
+            if ( wasInUse != record.inUse() )
+            {
+                counts.nodeCountChanged( record.inUse() ? 1 : -1 );
+            }
+        }
         Buffer buffer = window.getOffsettedBuffer( id );
         if ( record.inUse() )
         {
@@ -65,6 +65,7 @@ class PersistenceWindowPool
     private boolean useMemoryMapped = true;
 
     private final boolean readOnly;
+    private ChangedPages changedPages;
     
     /**
      * Create new pool for a store.
@@ -116,6 +117,10 @@ class PersistenceWindowPool
      */
     PersistenceWindow acquire( long position, OperationType operationType )
     {
+        if ( operationType == OperationType.WRITE && changedPages != null )
+        {
+            changedPages.markChanged( position * blockSize, (position + 1) * blockSize );
+        }
         LockableWindow window = null;
         boolean readPos = false;
 //        synchronized ( activeRowWindows )
@@ -184,6 +189,45 @@ class PersistenceWindowPool
         return window;
     }
 
+    /**
+     * Returns where the positions from {@code position}, up to
+     * {@code toPosition}, stop being outside of mapped bricks. Those
+     * positions are only ever read and written a row at a time, which is
+     * written out to the file when released, so they can be read straight
+     * from the file in bulk without affecting the hit counts of the bricks.
+     *
+     * @return {@code position} if it's in a mapped brick.
+     */
+    synchronized long unmappedUntil( long position, long toPosition )
+    {
+        if ( brickSize <= 0 )
+        {
+            return toPosition;
+        }
+        for ( int brick = (int) (position * blockSize / brickSize); brick < brickArray.length; brick++ )
+        {
+            long brickStart = (long) brick * brickSize / blockSize;
+            if ( brickStart >= toPosition )
+            {
+                break;
+            }
+            if ( brickArray[brick].getWindow() != null )
+            {
+                return Math.max( position, brickStart );
+            }
+        }
+        return toPosition;
+    }
+
+    /**
+     * Makes every window acquired for writing mark the page(s) of its
+     * record as changed in {@code changedPages}.
+     */
+    void trackChanges( ChangedPages changedPages )
+    {
+        this.changedPages = changedPages;
+    }
+
     void dumpStatistics()
     {
         log.finest( storeName + " hit=" + hit + " miss=" + miss + " switches="
@@ -104,6 +104,12 @@ public class PropertyIndexStore extends AbstractStore implements Store
         keyPropertyStore.updateHighId();
         this.updateHighId();
     }
+
+    public void refreshHighIds()
+    {
+        keyPropertyStore.refreshHighId();
+        this.refreshHighId();
+    }
     
     public void freeBlockId( int id )
     {
@@ -117,6 +123,13 @@ public class PropertyIndexStore extends AbstractStore implements Store
         keyPropertyStore = null;
     }
 
+    @Override
+    void collectChangedPages( Map<String,ChangedPages> target )
+    {
+        super.collectChangedPages( target );
+        keyPropertyStore.collectChangedPages( target );
+    }
+
     @Override
     public void flushAll()
     {
@@ -105,6 +105,15 @@ public class PropertyStore extends AbstractStore implements Store
         arrayPropertyStore = null;
     }
 
+    @Override
+    void collectChangedPages( Map<String,ChangedPages> target )
+    {
+        super.collectChangedPages( target );
+        stringPropertyStore.collectChangedPages( target );
+        propertyIndexStore.collectChangedPages( target );
+        arrayPropertyStore.collectChangedPages( target );
+    }
+
     @Override
     public void flushAll()
     {
@@ -383,18 +392,16 @@ public class PropertyStore extends AbstractStore implements Store
     @Override
     public void makeStoreOk()
     {
-        propertyIndexStore.makeStoreOk();
-        stringPropertyStore.makeStoreOk();
-        arrayPropertyStore.makeStoreOk();
+        makeStoresOk( false, propertyIndexStore, stringPropertyStore,
+            arrayPropertyStore );
         super.makeStoreOk();
     }
 
     @Override
     public void rebuildIdGenerators()
     {
-        propertyIndexStore.rebuildIdGenerators();
-        stringPropertyStore.rebuildIdGenerators();
-        arrayPropertyStore.rebuildIdGenerators();
+        makeStoresOk( true, propertyIndexStore, stringPropertyStore,
+            arrayPropertyStore );
         super.rebuildIdGenerators();
     }
     
@@ -405,6 +412,14 @@ public class PropertyStore extends AbstractStore implements Store
         arrayPropertyStore.updateHighId();
         this.updateHighId();
     }    
+
+    public void refreshHighIds()
+    {
+        propertyIndexStore.refreshHighIds();
+        stringPropertyStore.refreshHighId();
+        arrayPropertyStore.refreshHighId();
+        this.refreshHighId();
+    }
     
     private Collection<DynamicRecord> allocateStringRecords( int valueBlockId,
         char[] chars )
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+/**
+ * Goes through the records in use in a range of ids of a store, a chunk at
+ * a time. Records in memory mapped parts of the store are read from the
+ * window covering them, as many as it holds, while holding a read lock on
+ * it. Other records are read straight from the file, many at a time, like
+ * {@link CommonAbstractStore#readRecords(int, long, long, ByteBuffer,
+ * CommonAbstractStore.RecordVisitor)} does, instead of through a row per
+ * record. Nodes and relationships aren't loaded into the caches and records
+ * not in use are just skipped.
+ * <p>
+ * Records written after the scan started may or may not be seen, depending
+ * on whether or not the scan has passed them.
+ */
+abstract class RecordScan<T> extends PrefetchingIterator<T>
+{
+    static final int MAX_CHUNK_SIZE = 4096;
+
+    private final AbstractStore store;
+    private final long toId;
+    private long nextId;
+    private final LinkedList<T> chunk = new LinkedList<T>();
+    private ByteBuffer fileBuffer;
+
+    RecordScan( AbstractStore store, long fromId, long toId )
+    {
+        this.store = store;
+        this.nextId = Math.max( 0, fromId );
+        this.toId = Math.min( toId, store.getHighId() );
+    }
+
+    @Override
+    protected T fetchNextOrNull()
+    {
+        while ( chunk.isEmpty() && nextId < toId )
+        {
+            long end = Math.min( toId, nextId + MAX_CHUNK_SIZE );
+            long unmappedEnd = store.unmappedUntil( nextId, end );
+            if ( unmappedEnd > nextId )
+            {
+                readChunkFromFile( unmappedEnd );
+            }
+            else
+            {
+                readChunkFromWindow( end );
+            }
+        }
+        return chunk.poll();
+    }
+
+    private void readChunkFromWindow( long end )
+    {
+        PersistenceWindow window = store.acquireWindow( (int) nextId, OperationType.READ );
+        try
+        {
+            end = Math.min( end, window.position() + window.size() );
+            do
+            {
+                addRecord( (int) nextId, window.getOffsettedBuffer( (int) nextId ).getBuffer() );
+                nextId++;
+            }
+            while ( nextId < end );
+        }
+        finally
+        {
+            store.releaseWindow( window );
+        }
+    }
+
+    private void readChunkFromFile( long end )
+    {
+        if ( fileBuffer == null )
+        {
+            fileBuffer = ByteBuffer.allocate( MAX_CHUNK_SIZE * store.getRecordSize() );
+        }
+        try
+        {
+            store.readRecords( store.getRecordSize(), nextId, end, fileBuffer,
+                    new CommonAbstractStore.RecordVisitor()
+            {
+                public void visit( int id, ByteBuffer record )
+                {
+                    addRecord( id, record );
+                }
+            } );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to scan records of "
+                    + store.getStorageFileName(), e );
+        }
+        // Past the end of the file nothing is in use
+        nextId = end;
+    }
+
+    private void addRecord( int id, ByteBuffer buffer )
+    {
+        T record = getRecord( id, buffer );
+        if ( record != null )
+        {
+            chunk.add( record );
+        }
+    }
+
+    /**
+     * @return the record {@code id} read from {@code buffer}, positioned at
+     * the start of it, or {@code null} if it isn't in use.
+     */
+    protected abstract T getRecord( int id, ByteBuffer buffer );
+}
@@ -19,7 +19,9 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -41,6 +43,9 @@ public class RelationshipStore extends AbstractStore implements Store
     // second_next_rel_id+next_prop_id(int)
     private static final int RECORD_SIZE = 33;
 
+    private CountsStore counts;
+    private DegreeStore degrees;
+
     /**
      * See {@link AbstractStore#AbstractStore(String, Map)}
      */
@@ -102,6 +107,78 @@ public class RelationshipStore extends AbstractStore implements Store
         }
     }
 
+    /**
+     * Counts the relationships in use into {@code counts} and keeps it up
+     * to date from then on.
+     */
+    void setCounts( final CountsStore counts, boolean rebuild )
+    {
+        if ( rebuild )
+        {
+            scanRecords( new RecordVisitor()
+            {
+                public void visit( int id, ByteBuffer record )
+                {
+                    byte inUse = record.get();
+                    if ( (inUse & Record.IN_USE.byteValue()) == Record.IN_USE.byteValue() )
+                    {
+                        record.getInt();
+                        record.getInt();
+                        counts.relationshipCountChanged( record.getInt(), 1 );
+                    }
+                }
+            } );
+        }
+        this.counts = counts;
+    }
+
+    /**
+     * Keeps the degrees of dense nodes in {@code degrees} up to date.
+     */
+    void setDegrees( DegreeStore degrees )
+    {
+        this.degrees = degrees;
+    }
+
+    /**
+     * Returns the relationships in use with ids from {@code fromId}, inclusive, to
+     * {@code toId}, exclusive, in id order. See {@link RecordScan} for how
+     * they are read.
+     */
+    public Iterator<RelationshipRecord> scan( long fromId, long toId )
+    {
+        return new RecordScan<RelationshipRecord>( this, fromId, toId )
+        {
+            @Override
+            protected RelationshipRecord getRecord( int id, ByteBuffer buffer )
+            {
+                if ( (buffer.get() & Record.IN_USE.byteValue()) != Record.IN_USE.byteValue() )
+                {
+                    return null;
+                }
+                RelationshipRecord record = new RelationshipRecord( id,
+                    buffer.getInt(), buffer.getInt(), buffer.getInt() );
+                record.setInUse( true );
+                record.setFirstPrevRel( buffer.getInt() );
+                record.setFirstNextRel( buffer.getInt() );
+                record.setSecondPrevRel( buffer.getInt() );
+                record.setSecondNextRel( buffer.getInt() );
+                record.setNextProp( buffer.getInt() );
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Returns the relationships in use with ids in {@code range}, see
+     * {@link #partitionIds(int)}.
+     */
+    public Iterator<RelationshipRecord> scan( IdRange range )
+    {
+        return scan( range.getRangeStart(),
+            range.getRangeStart() + range.getRangeLength() );
+    }
+
     public RelationshipRecord getLightRel( int id )
     {
         PersistenceWindow window = null;
@@ -158,6 +235,30 @@ public class RelationshipStore extends AbstractStore implements Store
         PersistenceWindow window )
     {
         int id = record.getId();
+        if ( counts != null || degrees != null )
+        {
+            ByteBuffer previous = readFromWindowOrFile( id, window, 13 );
+            boolean wasInUse = (previous.get() & Record.IN_USE.byteValue()) ==
+                Record.IN_USE.byteValue();
+            if ( wasInUse != record.inUse() )
+            {
+                // A deleted record doesn't carry its nodes and type, take
+                // them from disk
+                int delta = record.inUse() ? 1 : -1;
+                int type = record.inUse() ? record.getType() : previous.getInt( 9 );
+                if ( counts != null )
+                {
+                    counts.relationshipCountChanged( type, delta );
+                }
+                if ( degrees != null )
+                {
+                    degrees.relationshipChanged(
+                        record.inUse() ? record.getFirstNode() : previous.getInt( 1 ),
+                        record.inUse() ? record.getSecondNode() : previous.getInt( 5 ),
+                        type, delta );
+                }
+            }
+        }
         Buffer buffer = window.getOffsettedBuffer( id );
         if ( record.inUse() )
         {
@@ -94,6 +94,13 @@ public class RelationshipTypeStore extends AbstractStore implements Store
         typeNameStore = null;
     }
 
+    @Override
+    void collectChangedPages( Map<String,ChangedPages> target )
+    {
+        super.collectChangedPages( target );
+        typeNameStore.collectChangedPages( target );
+    }
+
     public void flushAll()
     {
         typeNameStore.flushAll();
@@ -429,6 +436,12 @@ public class RelationshipTypeStore extends AbstractStore implements Store
         this.updateHighId();
     }
 
+    public void refreshHighIds()
+    {
+        typeNameStore.refreshHighId();
+        this.refreshHighId();
+    }
+
     @Override
     protected boolean versionFound( String version )
     {
@@ -170,12 +170,14 @@ abstract class Command extends XaCommand
     {
         private final NodeRecord record;
         private final NodeStore store;
+        private final boolean compact;
 
-        NodeCommand( NodeStore store, NodeRecord record )
+        NodeCommand( NodeStore store, NodeRecord record, boolean compact )
         {
             super( record.getId() );
             this.record = record;
             this.store = store;
+            this.compact = compact;
         }
 
         @Override
@@ -200,6 +202,11 @@ abstract class Command extends XaCommand
         @Override
         public void writeToFile( LogBuffer buffer ) throws IOException
         {
+            if ( compact )
+            {
+                CompactRecordFormat.writeNode( buffer, record );
+                return;
+            }
             byte inUse = record.inUse() ? Record.IN_USE.byteValue()
                 : Record.NOT_IN_USE.byteValue();
             buffer.put( NODE_COMMAND );
@@ -248,7 +255,7 @@ abstract class Command extends XaCommand
                 record.setNextRel( buffer.getInt() );
                 record.setNextProp( buffer.getInt() );
             }
-            return new NodeCommand( neoStore.getNodeStore(), record );
+            return new NodeCommand( neoStore.getNodeStore(), record, false );
         }
 
         public boolean equals( Object o )
@@ -265,12 +272,15 @@ abstract class Command extends XaCommand
     {
         private final RelationshipRecord record;
         private final RelationshipStore store;
+        private final boolean compact;
 
-        RelationshipCommand( RelationshipStore store, RelationshipRecord record )
+        RelationshipCommand( RelationshipStore store, RelationshipRecord record,
+            boolean compact )
         {
             super( record.getId() );
             this.record = record;
             this.store = store;
+            this.compact = compact;
         }
 
         @Override
@@ -287,6 +297,16 @@ abstract class Command extends XaCommand
             }
         }
 
+        public int getFirstNode()
+        {
+            return record.getFirstNode();
+        }
+
+        public int getSecondNode()
+        {
+            return record.getSecondNode();
+        }
+
         @Override
         public String toString()
         {
@@ -296,6 +316,11 @@ abstract class Command extends XaCommand
         @Override
         public void writeToFile( LogBuffer buffer ) throws IOException
         {
+            if ( compact )
+            {
+                CompactRecordFormat.writeRelationship( buffer, record );
+                return;
+            }
             byte inUse = record.inUse() ? Record.IN_USE.byteValue()
                 : Record.NOT_IN_USE.byteValue();
             buffer.put( REL_COMMAND );
@@ -362,7 +387,7 @@ abstract class Command extends XaCommand
                 record.setInUse( false );
             }
             return new RelationshipCommand( neoStore.getRelationshipStore(),
-                record );
+                record, false );
         }
 
         @Override
@@ -491,12 +516,14 @@ abstract class Command extends XaCommand
     {
         private final PropertyRecord record;
         private final PropertyStore store;
+        private final boolean compact;
 
-        PropertyCommand( PropertyStore store, PropertyRecord record )
+        PropertyCommand( PropertyStore store, PropertyRecord record, boolean compact )
         {
             super( record.getId() );
             this.record = record;
             this.store = store;
+            this.compact = compact;
         }
 
         @Override
@@ -532,6 +559,11 @@ abstract class Command extends XaCommand
         @Override
         public void writeToFile( LogBuffer buffer ) throws IOException
         {
+            if ( compact )
+            {
+                CompactRecordFormat.writeProperty( buffer, record );
+                return;
+            }
             // id+in_use(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
             // prev_prop_id(int)+next_prop_id(int)+nr_value_records(int)
             byte inUse = record.inUse() ? Record.IN_USE.byteValue()
@@ -657,7 +689,7 @@ abstract class Command extends XaCommand
                 }
                 record.addValueRecord( dr );
             }
-            return new PropertyCommand( neoStore.getPropertyStore(), record );
+            return new PropertyCommand( neoStore.getPropertyStore(), record, false );
         }
 
         private static PropertyType getType( int type )
@@ -806,6 +838,20 @@ abstract class Command extends XaCommand
             case REL_TYPE_COMMAND:
                 return RelationshipTypeCommand.readCommand( neoStore,
                     byteChannel, buffer );
+            case CompactRecordFormat.NODE_COMMAND:
+                NodeRecord node = CompactRecordFormat.readNode( byteChannel, buffer );
+                return node != null ? new NodeCommand( neoStore.getNodeStore(), node, true )
+                    : null;
+            case CompactRecordFormat.REL_COMMAND:
+                RelationshipRecord rel = CompactRecordFormat.readRelationship( byteChannel,
+                    buffer );
+                return rel != null ? new RelationshipCommand(
+                    neoStore.getRelationshipStore(), rel, true ) : null;
+            case CompactRecordFormat.PROP_COMMAND:
+                PropertyRecord property = CompactRecordFormat.readProperty( byteChannel,
+                    buffer );
+                return property != null ? new PropertyCommand(
+                    neoStore.getPropertyStore(), property, true ) : null;
             case NONE: return null;
             default:
                 throw new IOException( "Unknown command type[" + commandType
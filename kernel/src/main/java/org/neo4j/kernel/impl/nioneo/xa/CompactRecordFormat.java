@@ -0,0 +1,547 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+
+import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyType;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
+
+/**
+ * The compact format for node, relationship and property commands in the
+ * logical log. Each command is written as its command type, the length of
+ * the rest of the command and then the id and contents of the record, where:
+ * <ul>
+ * <li>numbers are written as variable length integers, using one byte for
+ * every seven bits that are in use</li>
+ * <li>references to other records are written as the difference to the id
+ * of the record itself, since related records are often created together
+ * and so get ids close to each other</li>
+ * <li>string blocks of property values are written in UTF-8 instead of as
+ * two bytes per character</li>
+ * </ul>
+ * Commands in this format have their own command types, so logs can contain
+ * commands in both formats and the format can be turned on and off with
+ * {@link org.neo4j.kernel.Config#COMPACT_LOGICAL_LOG} at any time.
+ */
+public class CompactRecordFormat
+{
+    public static final byte NODE_COMMAND = (byte) 6;
+    public static final byte REL_COMMAND = (byte) 7;
+    public static final byte PROP_COMMAND = (byte) 8;
+
+    private static final int IN_USE = 1;
+    private static final int REL_PROPERTY = 2;
+    private static final int HAS_PRIMITIVE = 4;
+    private static final int CHAR_DATA = 2;
+    private static final int LIGHT = 4;
+
+    private CompactRecordFormat()
+    {
+    }
+
+    public static void writeNode( LogBuffer buffer, NodeRecord record ) throws IOException
+    {
+        Encoder out = new Encoder( record.getId() );
+        out.putVarLong( record.inUse() ? IN_USE : 0 );
+        if ( record.inUse() )
+        {
+            out.putReference( record.getId(), record.getNextRel() );
+            out.putReference( record.getId(), record.getNextProp() );
+        }
+        out.writeTo( buffer, NODE_COMMAND );
+    }
+
+    public static NodeRecord readNode( ReadableByteChannel channel, ByteBuffer buffer )
+            throws IOException
+    {
+        Decoder in = Decoder.read( channel, buffer );
+        if ( in == null )
+        {
+            return null;
+        }
+        NodeRecord record = new NodeRecord( in.id );
+        boolean inUse = ( in.getVarLong() & IN_USE ) != 0;
+        record.setInUse( inUse );
+        if ( inUse )
+        {
+            record.setNextRel( in.getReference( in.id ) );
+            record.setNextProp( in.getReference( in.id ) );
+        }
+        return record;
+    }
+
+    public static void writeRelationship( LogBuffer buffer, RelationshipRecord record )
+            throws IOException
+    {
+        int id = record.getId();
+        Encoder out = new Encoder( id );
+        out.putVarLong( record.inUse() ? IN_USE : 0 );
+        if ( record.inUse() )
+        {
+            out.putReference( id, record.getFirstNode() );
+            out.putReference( record.getFirstNode(), record.getSecondNode() );
+            out.putVarLong( record.getType() );
+            out.putReference( id, record.getFirstPrevRel() );
+            out.putReference( id, record.getFirstNextRel() );
+            out.putReference( id, record.getSecondPrevRel() );
+            out.putReference( id, record.getSecondNextRel() );
+            out.putReference( id, record.getNextProp() );
+        }
+        out.writeTo( buffer, REL_COMMAND );
+    }
+
+    public static RelationshipRecord readRelationship( ReadableByteChannel channel,
+            ByteBuffer buffer ) throws IOException
+    {
+        Decoder in = Decoder.read( channel, buffer );
+        if ( in == null )
+        {
+            return null;
+        }
+        int id = in.id;
+        RelationshipRecord record;
+        if ( ( in.getVarLong() & IN_USE ) != 0 )
+        {
+            int firstNode = in.getReference( id );
+            int secondNode = in.getReference( firstNode );
+            record = new RelationshipRecord( id, firstNode, secondNode, (int) in.getVarLong() );
+            record.setInUse( true );
+            record.setFirstPrevRel( in.getReference( id ) );
+            record.setFirstNextRel( in.getReference( id ) );
+            record.setSecondPrevRel( in.getReference( id ) );
+            record.setSecondNextRel( in.getReference( id ) );
+            record.setNextProp( in.getReference( id ) );
+        }
+        else
+        {
+            record = new RelationshipRecord( id, -1, -1, -1 );
+            record.setInUse( false );
+        }
+        return record;
+    }
+
+    public static void writeProperty( LogBuffer buffer, PropertyRecord record )
+            throws IOException
+    {
+        int id = record.getId();
+        Encoder out = new Encoder( id );
+        int flags = record.inUse() ? IN_USE : 0;
+        int primitiveId = record.getNodeId();
+        if ( record.getRelId() != -1 )
+        {
+            flags |= REL_PROPERTY;
+            primitiveId = record.getRelId();
+        }
+        if ( primitiveId != -1 )
+        {
+            // -1 means this records value has not changed, only its place
+            // in the property chain
+            flags |= HAS_PRIMITIVE;
+        }
+        out.putVarLong( flags );
+        if ( primitiveId != -1 )
+        {
+            out.putVarLong( primitiveId );
+        }
+        if ( record.inUse() )
+        {
+            out.putVarLong( record.getType().intValue() );
+            out.putVarLong( record.getKeyIndexId() );
+            out.putSigned( record.getPropBlock() );
+            out.putReference( id, record.getPrevProp() );
+            out.putReference( id, record.getNextProp() );
+        }
+        if ( record.isLight() )
+        {
+            out.putVarLong( 0 );
+        }
+        else
+        {
+            Collection<DynamicRecord> valueRecords = record.getValueRecords();
+            out.putVarLong( valueRecords.size() );
+            int previousId = id;
+            for ( DynamicRecord valueRecord : valueRecords )
+            {
+                out.putReference( previousId, valueRecord.getId() );
+                writeDynamicRecord( out, valueRecord );
+                previousId = valueRecord.getId();
+            }
+        }
+        out.writeTo( buffer, PROP_COMMAND );
+    }
+
+    private static void writeDynamicRecord( Encoder out, DynamicRecord record )
+    {
+        int flags = record.inUse() ? IN_USE : 0;
+        if ( record.inUse() && record.isLight() )
+        {
+            flags |= LIGHT;
+        }
+        else if ( record.inUse() && record.isCharData() )
+        {
+            flags |= CHAR_DATA;
+        }
+        out.putVarLong( flags );
+        out.putVarLong( record.getType() );
+        if ( record.inUse() )
+        {
+            int id = record.getId();
+            out.putReference( id, record.getPrevBlock() );
+            out.putReference( id, record.getNextBlock() );
+            out.putVarLong( record.getLength() );
+            if ( ( flags & CHAR_DATA ) != 0 )
+            {
+                out.putChars( record.getDataAsChar() );
+            }
+            else if ( ( flags & LIGHT ) == 0 )
+            {
+                out.putBytes( record.getData() );
+            }
+        }
+    }
+
+    public static PropertyRecord readProperty( ReadableByteChannel channel, ByteBuffer buffer )
+            throws IOException
+    {
+        Decoder in = Decoder.read( channel, buffer );
+        if ( in == null )
+        {
+            return null;
+        }
+        int id = in.id;
+        PropertyRecord record = new PropertyRecord( id );
+        int flags = (int) in.getVarLong();
+        if ( ( flags & HAS_PRIMITIVE ) != 0 )
+        {
+            int primitiveId = (int) in.getVarLong();
+            if ( ( flags & REL_PROPERTY ) != 0 )
+            {
+                record.setRelId( primitiveId );
+            }
+            else
+            {
+                record.setNodeId( primitiveId );
+            }
+        }
+        if ( ( flags & IN_USE ) != 0 )
+        {
+            PropertyType type = PropertyType.getPropertyType( (int) in.getVarLong(), false );
+            if ( type == null )
+            {
+                return null;
+            }
+            record.setType( type );
+            record.setInUse( true );
+            record.setKeyIndexId( (int) in.getVarLong() );
+            record.setPropBlock( in.getSigned() );
+            record.setPrevProp( in.getReference( id ) );
+            record.setNextProp( in.getReference( id ) );
+        }
+        int nrValueRecords = (int) in.getVarLong();
+        int previousId = id;
+        for ( int i = 0; i < nrValueRecords; i++ )
+        {
+            DynamicRecord valueRecord = readDynamicRecord( in, in.getReference( previousId ) );
+            record.addValueRecord( valueRecord );
+            previousId = valueRecord.getId();
+        }
+        return record;
+    }
+
+    private static DynamicRecord readDynamicRecord( Decoder in, int id ) throws IOException
+    {
+        DynamicRecord record = new DynamicRecord( id );
+        int flags = (int) in.getVarLong();
+        boolean inUse = ( flags & IN_USE ) != 0;
+        record.setInUse( inUse, (int) in.getVarLong() );
+        if ( inUse )
+        {
+            record.setPrevBlock( in.getReference( id ) );
+            record.setNextBlock( in.getReference( id ) );
+            int length = (int) in.getVarLong();
+            if ( ( flags & CHAR_DATA ) != 0 )
+            {
+                record.setData( in.getChars( length / 2 ) );
+            }
+            else if ( ( flags & LIGHT ) == 0 )
+            {
+                record.setData( in.getBytes( length ) );
+            }
+            else
+            {
+                record.setLength( length );
+            }
+        }
+        return record;
+    }
+
+    private static class Encoder
+    {
+        private byte[] bytes = new byte[64];
+        private int length;
+
+        Encoder( int id )
+        {
+            putVarLong( id & 0xFFFFFFFFL );
+        }
+
+        private void ensureCapacity( int extra )
+        {
+            if ( length + extra > bytes.length )
+            {
+                byte[] grown = new byte[Math.max( bytes.length * 2, length + extra )];
+                System.arraycopy( bytes, 0, grown, 0, length );
+                bytes = grown;
+            }
+        }
+
+        void putVarLong( long value )
+        {
+            ensureCapacity( 10 );
+            while ( ( value & ~0x7FL ) != 0 )
+            {
+                bytes[length++] = (byte) ( ( value & 0x7F ) | 0x80 );
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void putSigned( long value )
+        {
+            putVarLong( ( value << 1 ) ^ ( value >> 63 ) );
+        }
+
+        /**
+         * Writes a reference to another record relative to {@code base},
+         * where -1 (no record) is written as a single zero byte.
+         */
+        void putReference( int base, int reference )
+        {
+            if ( reference == -1 )
+            {
+                putVarLong( 0 );
+            }
+            else
+            {
+                long delta = (long) reference - base;
+                putVarLong( ( ( delta << 1 ) ^ ( delta >> 63 ) ) + 1 );
+            }
+        }
+
+        void putBytes( byte[] data )
+        {
+            ensureCapacity( data.length );
+            System.arraycopy( data, 0, bytes, length, data.length );
+            length += data.length;
+        }
+
+        /**
+         * UTF-8, except that every char is encoded by itself, so that
+         * surrogate pairs split between two blocks survive.
+         */
+        void putChars( char[] chars )
+        {
+            ensureCapacity( chars.length * 3 );
+            for ( char c : chars )
+            {
+                if ( c != 0 && c < 0x80 )
+                {
+                    bytes[length++] = (byte) c;
+                }
+                else if ( c < 0x800 )
+                {
+                    bytes[length++] = (byte) ( 0xC0 | ( c >> 6 ) );
+                    bytes[length++] = (byte) ( 0x80 | ( c & 0x3F ) );
+                }
+                else
+                {
+                    bytes[length++] = (byte) ( 0xE0 | ( c >> 12 ) );
+                    bytes[length++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                    bytes[length++] = (byte) ( 0x80 | ( c & 0x3F ) );
+                }
+            }
+        }
+
+        void writeTo( LogBuffer buffer, byte commandType ) throws IOException
+        {
+            buffer.put( commandType );
+            long value = length;
+            while ( ( value & ~0x7FL ) != 0 )
+            {
+                buffer.put( (byte) ( ( value & 0x7F ) | 0x80 ) );
+                value >>>= 7;
+            }
+            buffer.put( (byte) value );
+            if ( length == bytes.length )
+            {
+                buffer.put( bytes );
+            }
+            else
+            {
+                byte[] exact = new byte[length];
+                System.arraycopy( bytes, 0, exact, 0, length );
+                buffer.put( exact );
+            }
+        }
+    }
+
+    private static class Decoder
+    {
+        final int id;
+        private final ByteBuffer data;
+
+        private Decoder( ByteBuffer data ) throws IOException
+        {
+            this.data = data;
+            this.id = (int) getVarLong();
+        }
+
+        /**
+         * Reads the rest of a command, after its command type.
+         *
+         * @return the command, or {@code null} if the log ends before the
+         * whole command could be read.
+         */
+        static Decoder read( ReadableByteChannel channel, ByteBuffer buffer ) throws IOException
+        {
+            long length = 0;
+            for ( int shift = 0;; shift += 7 )
+            {
+                buffer.clear();
+                buffer.limit( 1 );
+                if ( channel.read( buffer ) != 1 )
+                {
+                    return null;
+                }
+                byte b = buffer.get( 0 );
+                length |= (long) ( b & 0x7F ) << shift;
+                if ( ( b & 0x80 ) == 0 )
+                {
+                    break;
+                }
+                if ( shift > 28 )
+                {
+                    throw new IOException( "Illegal command length" );
+                }
+            }
+            ByteBuffer data = length <= buffer.capacity() ? buffer
+                    : ByteBuffer.allocate( (int) length );
+            data.clear();
+            data.limit( (int) length );
+            while ( data.hasRemaining() )
+            {
+                if ( channel.read( data ) <= 0 )
+                {
+                    return null;
+                }
+            }
+            data.flip();
+            return new Decoder( data );
+        }
+
+        long getVarLong() throws IOException
+        {
+            long value = 0;
+            for ( int shift = 0; shift < 64; shift += 7 )
+            {
+                byte b = get();
+                value |= (long) ( b & 0x7F ) << shift;
+                if ( ( b & 0x80 ) == 0 )
+                {
+                    return value;
+                }
+            }
+            throw new IOException( "Illegal variable length number" );
+        }
+
+        long getSigned() throws IOException
+        {
+            long value = getVarLong();
+            return ( value >>> 1 ) ^ -( value & 1 );
+        }
+
+        int getReference( int base ) throws IOException
+        {
+            long value = getVarLong();
+            if ( value == 0 )
+            {
+                return -1;
+            }
+            value--;
+            return (int) ( base + ( ( value >>> 1 ) ^ -( value & 1 ) ) );
+        }
+
+        byte[] getBytes( int count ) throws IOException
+        {
+            if ( count > data.remaining() )
+            {
+                throw new IOException( "Command ends in the middle of a record" );
+            }
+            byte[] bytes = new byte[count];
+            data.get( bytes );
+            return bytes;
+        }
+
+        /**
+         * @return the chars as they are stored, two bytes per char.
+         */
+        byte[] getChars( int count ) throws IOException
+        {
+            char[] chars = new char[count];
+            for ( int i = 0; i < count; i++ )
+            {
+                int b = get() & 0xFF;
+                if ( b < 0x80 )
+                {
+                    chars[i] = (char) b;
+                }
+                else if ( b < 0xE0 )
+                {
+                    chars[i] = (char) ( ( ( b & 0x1F ) << 6 ) | ( get() & 0x3F ) );
+                }
+                else
+                {
+                    chars[i] = (char) ( ( ( b & 0x0F ) << 12 ) | ( ( get() & 0x3F ) << 6 )
+                            | ( get() & 0x3F ) );
+                }
+            }
+            byte[] bytes = new byte[count * 2];
+            ByteBuffer.wrap( bytes ).asCharBuffer().put( chars );
+            return bytes;
+        }
+
+        private byte get() throws IOException
+        {
+            if ( !data.hasRemaining() )
+            {
+                throw new IOException( "Command ends in the middle of a record" );
+            }
+            return data.get();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.transaction.xa.Xid;
+
+import org.neo4j.kernel.impl.core.LockReleaser;
+import org.neo4j.kernel.impl.nioneo.store.DegreeStore;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+
+/**
+ * Keeps a read only instance up to date with another instance writing to
+ * the same store, by tailing the logical log of the writing instance.
+ * <p>
+ * The store files are shared. As long as they're memory mapped the read
+ * only instance sees what's written to them right away, so the only thing
+ * to do when a transaction has been committed is to make the new records
+ * visible and to evict what it changed from the caches. For each poll the
+ * last committed transaction id is read from the store, the log is read up
+ * to the commit entry of that transaction and the nodes, relationships,
+ * relationship types and property indexes touched by the transactions
+ * committed since the last poll are evicted, or added in the case of
+ * relationship types and property indexes. The writing instance forces the
+ * commit entry of a transaction to the log before applying it to the store,
+ * so everything up to that entry has been written completely.
+ * <p>
+ * If a committed transaction can't be found in the log, e.g. because the
+ * log was rotated twice between two polls without keeping the old logs,
+ * all the caches are cleared instead. The node and relationship counts
+ * aren't followed and stay as they were when the store was opened.
+ */
+class LogFollower extends Thread
+{
+    private static final char CLEAN = 'C';
+
+    private static Logger log = Logger.getLogger( LogFollower.class.getName() );
+
+    private final String fileName;
+    private final NeoStore neoStore;
+    private final LockReleaser lockReleaser;
+    private final XaCommandFactory commandFactory;
+    private final int interval;
+    private final ByteBuffer buffer = ByteBuffer.allocate( 9 + Xid.MAXGTRIDSIZE
+            + Xid.MAXBQUALSIZE * 10 );
+
+    private final Map<Integer,List<Command>> openTxs =
+        new HashMap<Integer,List<Command>>();
+    private final SortedMap<Long,List<Command>> committedTxs =
+        new TreeMap<Long,List<Command>>();
+
+    private FileChannel channel;
+    private long version = -1;
+    private long lastSeenTx;
+    private long lastAppliedTx;
+    private boolean done = false;
+
+    LogFollower( String fileName, NeoStore neoStore, LockReleaser lockReleaser,
+        XaCommandFactory commandFactory, int interval )
+    {
+        super( "LogFollower[" + fileName + "]" );
+        setDaemon( true );
+        this.fileName = fileName;
+        this.neoStore = neoStore;
+        this.lockReleaser = lockReleaser;
+        this.commandFactory = commandFactory;
+        this.interval = interval;
+        this.lastAppliedTx = neoStore.getLastCommittedTx();
+        this.lastSeenTx = lastAppliedTx;
+    }
+
+    @Override
+    public synchronized void run()
+    {
+        while ( !done )
+        {
+            try
+            {
+                poll();
+                this.wait( interval );
+            }
+            catch ( InterruptedException e )
+            {
+                // Interrupted means stop following, keep the flag for whoever
+                // interrupted it
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch ( IOException e )
+            {
+                log.log( Level.WARNING, "Unable to follow " + fileName, e );
+                closeLog();
+            }
+            catch ( RuntimeException e )
+            {
+                log.log( Level.WARNING, "Unable to follow " + fileName, e );
+                closeLog();
+            }
+        }
+        closeLog();
+    }
+
+    synchronized void markDone()
+    {
+        done = true;
+        this.notify();
+    }
+
+    /**
+     * Makes the transactions committed to the store since the last poll
+     * visible to this instance.
+     *
+     * @return the id of the last transaction made visible.
+     */
+    synchronized long poll() throws IOException
+    {
+        long storeTx = neoStore.refreshReadOnly();
+        if ( storeTx <= lastAppliedTx )
+        {
+            return lastAppliedTx;
+        }
+        while ( lastSeenTx < storeTx && readNextEntry() )
+        {
+        }
+        while ( !committedTxs.isEmpty() && committedTxs.firstKey() <= storeTx )
+        {
+            long txId = committedTxs.firstKey();
+            List<Command> commands = committedTxs.remove( txId );
+            if ( commands != null && txId == lastAppliedTx + 1 )
+            {
+                apply( commands );
+            }
+            else
+            {
+                lockReleaser.clearCache();
+            }
+            lastAppliedTx = txId;
+        }
+        if ( lastAppliedTx < storeTx )
+        {
+            log.fine( "Transactions " + (lastAppliedTx + 1) + "-" + storeTx +
+                " not found in " + fileName + ", clearing caches" );
+            lockReleaser.clearCache();
+            lastAppliedTx = storeTx;
+        }
+        return lastAppliedTx;
+    }
+
+    private boolean readNextEntry() throws IOException
+    {
+        if ( channel == null && !openLog( -1 ) )
+        {
+            return false;
+        }
+        long position = channel.position();
+        LogEntry entry = LogIoUtils.readEntry( buffer, channel, commandFactory );
+        if ( entry == null )
+        {
+            channel.position( position );
+            return openLog( version + 1 );
+        }
+        int identifier = entry.getIdentifier();
+        if ( entry instanceof LogEntry.Start )
+        {
+            openTxs.put( identifier, new ArrayList<Command>() );
+        }
+        else if ( entry instanceof LogEntry.Command )
+        {
+            List<Command> commands = openTxs.get( identifier );
+            if ( commands != null )
+            {
+                commands.add( (Command) ((LogEntry.Command) entry).getXaCommand() );
+            }
+        }
+        else if ( entry instanceof LogEntry.Commit )
+        {
+            long txId = ((LogEntry.Commit) entry).getTxId();
+            lastSeenTx = Math.max( lastSeenTx, txId );
+            List<Command> commands = openTxs.remove( identifier );
+            if ( txId > lastAppliedTx )
+            {
+                // null commands means we didn't see the start of it
+                committedTxs.put( txId, commands );
+            }
+        }
+        else if ( entry instanceof LogEntry.Done )
+        {
+            openTxs.remove( identifier );
+        }
+        return true;
+    }
+
+    private void apply( List<Command> commands )
+    {
+        DegreeStore degrees = neoStore.getDegrees();
+        for ( Command command : commands )
+        {
+            int id = command.getKey();
+            if ( command instanceof Command.NodeCommand )
+            {
+                lockReleaser.removeNodeFromCache( id );
+                degrees.forget( id );
+            }
+            else if ( command instanceof Command.RelationshipCommand )
+            {
+                Command.RelationshipCommand relCommand =
+                    (Command.RelationshipCommand) command;
+                lockReleaser.removeRelationshipFromCache( id );
+                // the relationship chains of the nodes have changed
+                removeNodeFromCache( relCommand.getFirstNode(), degrees );
+                removeNodeFromCache( relCommand.getSecondNode(), degrees );
+            }
+            else if ( command instanceof Command.PropertyCommand )
+            {
+                Command.PropertyCommand propCommand =
+                    (Command.PropertyCommand) command;
+                if ( propCommand.getNodeId() != -1 )
+                {
+                    lockReleaser.removeNodeFromCache( propCommand.getNodeId() );
+                }
+                else if ( propCommand.getRelId() != -1 )
+                {
+                    lockReleaser.removeRelationshipFromCache(
+                        propCommand.getRelId() );
+                }
+            }
+            else if ( command instanceof Command.RelationshipTypeCommand )
+            {
+                lockReleaser.addRelationshipType(
+                    neoStore.getRelationshipTypeStore().getRelationshipType( id ) );
+            }
+            else if ( command instanceof Command.PropertyIndexCommand )
+            {
+                lockReleaser.addPropertyIndex( neoStore.getPropertyStore()
+                    .getIndexStore().getPropertyIndex( id ) );
+            }
+        }
+    }
+
+    private void removeNodeFromCache( int nodeId, DegreeStore degrees )
+    {
+        if ( nodeId != -1 )
+        {
+            lockReleaser.removeNodeFromCache( nodeId );
+            degrees.forget( nodeId );
+        }
+    }
+
+    /**
+     * Switches to the log with the given version, or to whatever log is
+     * active if {@code wantedVersion} is -1. If the active log is newer than
+     * the wanted one and the wanted one wasn't kept it's switched to anyway,
+     * the transactions in between will be found missing.
+     *
+     * @return {@code true} if another log was opened.
+     */
+    private boolean openLog( long wantedVersion ) throws IOException
+    {
+        FileChannel next = null;
+        long nextVersion = -1;
+        String activeFileName = getActiveLogFileName();
+        if ( activeFileName != null )
+        {
+            next = openChannel( activeFileName );
+            nextVersion = next != null ? readVersion( next ) : -1;
+            if ( nextVersion == -1 || nextVersion < wantedVersion )
+            {
+                closeChannel( next );
+                return false;
+            }
+        }
+        if ( wantedVersion != -1 && nextVersion != wantedVersion )
+        {
+            FileChannel kept = openChannel( fileName + ".v" + wantedVersion );
+            if ( kept != null && readVersion( kept ) == wantedVersion )
+            {
+                closeChannel( next );
+                next = kept;
+                nextVersion = wantedVersion;
+            }
+            else
+            {
+                closeChannel( kept );
+            }
+        }
+        if ( next == null || nextVersion == -1 )
+        {
+            closeChannel( next );
+            return false;
+        }
+        closeLog();
+        channel = next;
+        version = nextVersion;
+        return true;
+    }
+
+    private String getActiveLogFileName() throws IOException
+    {
+        FileChannel activeChannel = openChannel( fileName + ".active" );
+        if ( activeChannel == null )
+        {
+            return null;
+        }
+        try
+        {
+            ByteBuffer buf = ByteBuffer.allocate( 4 );
+            if ( activeChannel.read( buf ) != 4 )
+            {
+                return null;
+            }
+            buf.flip();
+            char c = buf.asCharBuffer().get();
+            return c == CLEAN ? null : fileName + "." + c;
+        }
+        finally
+        {
+            activeChannel.close();
+        }
+    }
+
+    private long readVersion( FileChannel logChannel ) throws IOException
+    {
+        long[] header = LogIoUtils.readLogHeader( buffer, logChannel, false );
+        return header != null ? header[0] : -1;
+    }
+
+    private FileChannel openChannel( String name ) throws IOException
+    {
+        if ( !new File( name ).exists() )
+        {
+            return null;
+        }
+        try
+        {
+            return new RandomAccessFile( name, "r" ).getChannel();
+        }
+        catch ( IOException e )
+        {
+            // rotated away in between
+            return null;
+        }
+    }
+
+    private void closeChannel( FileChannel logChannel ) throws IOException
+    {
+        if ( logChannel != null )
+        {
+            logChannel.close();
+        }
+    }
+
+    private void closeLog()
+    {
+        openTxs.clear();
+        if ( channel != null )
+        {
+            try
+            {
+                channel.close();
+            }
+            catch ( IOException e )
+            {
+                log.log( Level.FINE, "Unable to close " + fileName, e );
+            }
+            channel = null;
+        }
+    }
+}
@@ -39,6 +39,9 @@ import org.neo4j.kernel.Config;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.nioneo.store.ChangedPages;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
+import org.neo4j.kernel.impl.nioneo.store.DegreeStore;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Store;
@@ -81,8 +84,11 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
     private final LockReleaser lockReleaser;
     private final String storeDir;
     private final boolean readOnly;
+    private final boolean deferRelationshipLinking;
+    private final boolean compactLog;
 
     private boolean logApplied = false;
+    private LogFollower logFollower;
     
     private final StringLogger msgLog;
 
@@ -111,6 +117,19 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
     {
         super( config );
         readOnly = Boolean.parseBoolean( (String) config.get( Config.READ_ONLY ) );
+        deferRelationshipLinking = Boolean.parseBoolean(
+                (String) config.get( Config.DEFER_RELATIONSHIP_LINKING ) );
+        compactLog = !"false".equalsIgnoreCase(
+                (String) config.get( Config.COMPACT_LOGICAL_LOG ) );
+        boolean followLog = readOnly && Boolean.parseBoolean(
+                (String) config.get( Config.FOLLOW_LOGICAL_LOG ) );
+        if ( followLog && "false".equalsIgnoreCase(
+                (String) config.get( Config.USE_MEMORY_MAPPED_BUFFERS ) ) )
+        {
+            throw new IllegalArgumentException( "Following the logical log " +
+                "requires " + Config.USE_MEMORY_MAPPED_BUFFERS + "=true, " +
+                "changes to the store wouldn't be seen otherwise" );
+        }
         this.lockManager = (LockManager) config.get( LockManager.class );
         this.lockReleaser = (LockReleaser) config.get( LockReleaser.class );
         storeDir = (String) config.get( "store_dir" );
@@ -167,6 +186,21 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         xaContainer.getLogicalLog().setKeepLogs(
                 shouldKeepLog( (String) config.get( Config.KEEP_LOGICAL_LOGS ), "nioneodb" ) );
         setLogicalLogAtCreationTime( xaContainer.getLogicalLog() );
+        if ( followLog )
+        {
+            startLogFollower( config );
+        }
+    }
+
+    private void startLogFollower( Map<Object,Object> config )
+    {
+        String interval = (String) config.get( Config.LOGICAL_LOG_FOLLOW_INTERVAL );
+        logFollower = new LogFollower( (String) config.get( Config.LOGICAL_LOG ),
+            neoStore, lockReleaser, new CommandFactory( neoStore ),
+            interval != null ? Integer.parseInt( interval ) : 100 );
+        logFollower.start();
+        msgLog.logMessage( "Following logical log " +
+            config.get( Config.LOGICAL_LOG ), true );
     }
 
     private void autoCreatePath( String store ) throws IOException
@@ -233,7 +267,7 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
 //            neoStore.getPropertyStore().getIndexStore() );
 //    }
 
-    NeoStore getNeoStore()
+    public NeoStore getNeoStore()
     {
         return neoStore;
     }
@@ -241,6 +275,19 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
     @Override
     public void close()
     {
+        if ( logFollower != null )
+        {
+            logFollower.markDone();
+            try
+            {
+                logFollower.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            logFollower = null;
+        }
         if ( !readOnly )
         {
             neoStore.flushAll();
@@ -301,7 +348,7 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         public XaTransaction create( int identifier )
         {
             return new WriteTransaction( identifier, getLogicalLog(), neoStore,
-                lockReleaser, lockManager );
+                lockReleaser, lockManager, deferRelationshipLinking, compactLog );
         }
 
         @Override
@@ -477,7 +524,9 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
             String name = neostoreFile.getName();
             // To filter for "neostore" is quite future proof, but the "index.db" file
             // maybe should be 
-            if ( neostoreFile.isFile() && (name.startsWith( "neostore" ) || name.equals( IndexStore.INDEX_DB_FILE_NAME )) && !name.endsWith( ".id" ) )
+            // The counts and degrees are derived from the store and rebuilt if missing
+            if ( neostoreFile.isFile() && (name.startsWith( "neostore" ) || name.equals( IndexStore.INDEX_DB_FILE_NAME )) && !name.endsWith( ".id" ) && !name.endsWith( ChangedPages.FILE_SUFFIX )
+                    && !name.endsWith( CountsStore.FILE_SUFFIX ) && !name.endsWith( DegreeStore.FILE_SUFFIX ) )
             {
                 files.add( neostoreFile );
             }
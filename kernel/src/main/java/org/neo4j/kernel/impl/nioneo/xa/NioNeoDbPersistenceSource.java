@@ -129,6 +129,13 @@ public class NioNeoDbPersistenceSource implements PersistenceSource
                 "this method should never be invoked" );
         }
 
+        public void beforeCommit()
+        {
+            throw new IllegalStateException( 
+                "This is a read only transaction, " + 
+                "this method should never be invoked" );
+        }
+
         public ArrayMap<Integer,PropertyData> nodeDelete( int nodeId )
         {
             throw new IllegalStateException( 
@@ -336,6 +343,11 @@ public class NioNeoDbPersistenceSource implements PersistenceSource
             propIndexConsumer = null;
         }
 
+        public void beforeCommit()
+        {
+            xaCon.getWriteTransaction().lockNodesForLinking();
+        }
+
         public ArrayMap<Integer,PropertyData> nodeDelete( int nodeId )
         {
             return nodeConsumer.deleteNode( nodeId );
@@ -24,15 +24,24 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import javax.transaction.xa.XAException;
 
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ReturnableEvaluator;
+import org.neo4j.graphdb.StopEvaluator;
+import org.neo4j.graphdb.Traverser;
+import org.neo4j.graphdb.Traverser.Order;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
@@ -98,14 +107,37 @@ class WriteTransaction extends XaTransaction
 
     private final LockReleaser lockReleaser;
     private final LockManager lockManager;
+    private final boolean deferRelationshipLinking;
+    private final boolean compactLog;
+    // created relationships not yet linked into the chains of their nodes
+    private final List<RelationshipRecord> unlinkedRelRecords =
+        new ArrayList<RelationshipRecord>();
+    private final Set<Integer> nodesLockedForLinking = new HashSet<Integer>();
 
     WriteTransaction( int identifier, XaLogicalLog log, NeoStore neoStore,
         LockReleaser lockReleaser, LockManager lockManager )
+    {
+        this( identifier, log, neoStore, lockReleaser, lockManager, false, false );
+    }
+
+    /**
+     * @param deferRelationshipLinking if {@code true} created relationships
+     * are linked into the relationship chains of their nodes when the
+     * transaction is prepared, see {@link #lockNodesForLinking()}.
+     * @param compactLog if {@code true} node, relationship and property
+     * commands are written to the logical log in the
+     * {@link CompactRecordFormat compact format}.
+     */
+    WriteTransaction( int identifier, XaLogicalLog log, NeoStore neoStore,
+        LockReleaser lockReleaser, LockManager lockManager,
+        boolean deferRelationshipLinking, boolean compactLog )
     {
         super( identifier, log );
         this.neoStore = neoStore;
         this.lockReleaser = lockReleaser;
         this.lockManager = lockManager;
+        this.deferRelationshipLinking = deferRelationshipLinking;
+        this.compactLog = compactLog;
     }
 
     public boolean isReadOnly()
@@ -147,6 +179,7 @@ class WriteTransaction extends XaTransaction
             throw new XAException( "Cannot prepare prepared transaction["
                 + getIdentifier() + "]" );
         }
+        linkDeferredRelationships();
         // generate records then write to logical log via addCommand method
         prepared = true;
         for ( RelationshipTypeRecord record : relTypeRecords.values() )
@@ -166,7 +199,7 @@ class WriteTransaction extends XaTransaction
                     + " still has relationships" );
             }
             Command.NodeCommand command = new Command.NodeCommand( 
-                neoStore.getNodeStore(), record );
+                neoStore.getNodeStore(), record, compactLog );
             nodeCommands.add( command );
             if ( !record.inUse() )
             {
@@ -178,7 +211,7 @@ class WriteTransaction extends XaTransaction
         {
             Command.RelationshipCommand command = 
                 new Command.RelationshipCommand( 
-                    neoStore.getRelationshipStore(), record );
+                    neoStore.getRelationshipStore(), record, compactLog );
             relCommands.add( command );
             if ( !record.inUse() )
             {
@@ -197,7 +230,7 @@ class WriteTransaction extends XaTransaction
         for ( PropertyRecord record : propertyRecords.values() )
         {
             Command.PropertyCommand command = new Command.PropertyCommand(
-                neoStore.getPropertyStore(), record );
+                neoStore.getPropertyStore(), record, compactLog );
             propCommands.add( command );
             addCommand( command );
         }
@@ -419,6 +452,9 @@ class WriteTransaction extends XaTransaction
         try
         {
             committed = true;
+            // snapshot transactions must know what to undo before the
+            // changes reach the store
+            lockReleaser.publishVersions( getCommitTxId() );
             CommandSorter sorter = new CommandSorter();
             // reltypes
             java.util.Collections.sort( relTypeCommands, sorter );
@@ -451,6 +487,7 @@ class WriteTransaction extends XaTransaction
             }
             
             neoStore.setLastCommittedTx( getCommitTxId() );
+            stampChangedRecords();
             if ( !isRecovered() )
             {
                 lockReleaser.commit();
@@ -472,6 +509,34 @@ class WriteTransaction extends XaTransaction
         }
     }
 
+    // lets optimistic transactions know about every record this transaction
+    // has written, before its locks are released. That includes records it
+    // changed without changing the node or relationship itself, such as the
+    // neighbours in relationship chains. What is also changed in the cache
+    // is stamped again by the lock releaser once the cache has it.
+    private void stampChangedRecords()
+    {
+        for ( Command.NodeCommand command : nodeCommands )
+        {
+            lockReleaser.nodeCommitted( command.getKey() );
+        }
+        for ( Command.RelationshipCommand command : relCommands )
+        {
+            lockReleaser.relationshipCommitted( command.getKey() );
+        }
+        for ( Command.PropertyCommand command : propCommands )
+        {
+            if ( command.getNodeId() != -1 )
+            {
+                lockReleaser.nodeCommitted( command.getNodeId() );
+            }
+            else if ( command.getRelId() != -1 )
+            {
+                lockReleaser.relationshipCommitted( command.getRelId() );
+            }
+        }
+    }
+
     private void commitRecovered()
     {
         try
@@ -513,6 +578,7 @@ class WriteTransaction extends XaTransaction
                 command.execute();
                 removeNodeFromCache( command.getKey() );
             }
+            stampChangedRecords();
             neoStore.setRecoveredStatus( true );
             try
             {
@@ -729,8 +795,11 @@ class WriteTransaction extends XaTransaction
                 valueRecord.setInUse( false );
             }
         }
-        disconnectRelationship( record );
-        updateNodes( record );
+        if ( !unlinkedRelRecords.remove( record ) )
+        {
+            disconnectRelationship( record );
+            updateNodes( record );
+        }
         record.setInUse( false );
         return propertyMap;
     }
@@ -851,10 +920,10 @@ class WriteTransaction extends XaTransaction
         }
     }
 
-    private void getWriteLock( Relationship lockableRel )
+    private void getWriteLock( Object lockable )
     {
-        lockManager.getWriteLock( lockableRel );
-        lockReleaser.addLockToTransaction( lockableRel, LockType.WRITE );
+        lockManager.getWriteLock( lockable );
+        lockReleaser.addLockToTransaction( lockable, LockType.WRITE );
     }
 
     public RelationshipChainPosition getRelationshipChainPosition( int nodeId )
@@ -1359,6 +1428,16 @@ class WriteTransaction extends XaTransaction
     void relationshipCreate( int id, int firstNodeId, int secondNodeId, 
         int type )
     {
+        if ( deferRelationshipLinking )
+        {
+            RelationshipRecord record = new RelationshipRecord( id, 
+                firstNodeId, secondNodeId, type );
+            record.setInUse( true );
+            record.setCreated();
+            addRelationshipRecord( record );
+            unlinkedRelRecords.add( record );
+            return;
+        }
         NodeRecord firstNode = getNodeRecord( firstNodeId );
         if ( firstNode == null )
         {
@@ -1389,6 +1468,95 @@ class WriteTransaction extends XaTransaction
         connectRelationship( firstNode, secondNode, record );
     }
 
+    /**
+     * Write locks the nodes of the relationships created with deferred
+     * linking, in id order, and the first relationships of their chains,
+     * since that's what linking them changes. Since the locks are held
+     * only until the transaction has committed, instead of from when the
+     * relationships were created, many transactions can add relationships
+     * to the same node concurrently and only serialize on committing them.
+     * <p>
+     * This is called before the transaction is prepared, see
+     * {@link org.neo4j.kernel.impl.persistence.ResourceConnection#beforeCommit()}.
+     * Waiting for the locks while preparing could deadlock with
+     * transactions holding them, which need to commit to release them.
+     */
+    void lockNodesForLinking()
+    {
+        SortedSet<Integer> nodeIds = new TreeSet<Integer>();
+        for ( RelationshipRecord rel : unlinkedRelRecords )
+        {
+            nodeIds.add( rel.getFirstNode() );
+            nodeIds.add( rel.getSecondNode() );
+        }
+        nodeIds.removeAll( nodesLockedForLinking );
+        if ( nodeIds.isEmpty() )
+        {
+            return;
+        }
+        Object[] lockableNodes = new Object[nodeIds.size()];
+        int i = 0;
+        for ( int nodeId : nodeIds )
+        {
+            lockableNodes[i++] = new LockableNode( nodeId );
+        }
+        // Takes all or none of them, so they're either all handed over to the
+        // lock releaser below or there's nothing to release
+        lockManager.getWriteLocks( lockableNodes );
+        for ( Object lockableNode : lockableNodes )
+        {
+            lockReleaser.addLockToTransaction( lockableNode, LockType.WRITE );
+        }
+        nodesLockedForLinking.addAll( nodeIds );
+        for ( int nodeId : nodeIds )
+        {
+            // Read the node records now that they're locked, they may have
+            // been changed by other transactions since the relationships
+            // were created
+            NodeRecord node = getNodeRecordForLinking( nodeId );
+            if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                getWriteLock( new LockableRelationship( node.getNextRel() ) );
+            }
+        }
+    }
+
+    /**
+     * Links the relationships created with deferred linking into the chains
+     * of their nodes, which have been locked by {@link #lockNodesForLinking()}.
+     */
+    private void linkDeferredRelationships()
+    {
+        for ( RelationshipRecord rel : unlinkedRelRecords )
+        {
+            NodeRecord firstNode = getNodeRecordForLinking( rel.getFirstNode() );
+            NodeRecord secondNode = getNodeRecordForLinking( rel.getSecondNode() );
+            connectRelationship( firstNode, secondNode, rel );
+        }
+        unlinkedRelRecords.clear();
+    }
+
+    private NodeRecord getNodeRecordForLinking( int nodeId )
+    {
+        if ( !nodesLockedForLinking.contains( nodeId ) )
+        {
+            throw new IllegalStateException( "Node[" + nodeId + 
+                "] hasn't been locked for linking relationships to it" );
+        }
+        NodeRecord node = getNodeRecord( nodeId );
+        if ( node == null )
+        {
+            node = getNodeStore().getRecord( nodeId );
+            addNodeRecord( node );
+        }
+        if ( !node.inUse() )
+        {
+            throw new IllegalStateException( "Node[" + nodeId + 
+                "] is deleted and cannot be used to create a relationship" );
+        }
+        return node;
+    }
+
     private void connectRelationship( NodeRecord firstNode, 
         NodeRecord secondNode, RelationshipRecord rel )
     {
@@ -1591,6 +1759,163 @@ class WriteTransaction extends XaTransaction
         return propIndexRecords.get( id );
     }
 
+    private static class LockableNode implements Node
+    {
+        private final int id;
+
+        LockableNode( int id )
+        {
+            this.id = id;
+        }
+
+        public void delete()
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public long getId()
+        {
+            return this.id;
+        }
+
+        public GraphDatabaseService getGraphDatabase()
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Object getProperty( String key )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Object getProperty( String key, Object defaultValue )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Iterable<String> getPropertyKeys()
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Iterable<Object> getPropertyValues()
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public boolean hasProperty( String key )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Object removeProperty( String key )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public void setProperty( String key, Object value )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public boolean equals( Object o )
+        {
+            if ( !(o instanceof Node) )
+            {
+                return false;
+            }
+            return this.getId() == ((Node) o).getId();
+        }
+
+        public int hashCode()
+        {
+            return id;
+        }
+
+        public String toString()
+        {
+            return "Lockable node #" + this.getId();
+        }
+
+        public Relationship createRelationshipTo( Node otherNode,
+                RelationshipType type )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Iterable<Relationship> getRelationships()
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Iterable<Relationship> getRelationships( RelationshipType... types )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Iterable<Relationship> getRelationships( Direction dir )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Iterable<Relationship> getRelationships( RelationshipType type,
+                Direction dir )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Relationship getSingleRelationship( RelationshipType type,
+                Direction dir )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public boolean hasRelationship()
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public boolean hasRelationship( RelationshipType... types )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public boolean hasRelationship( Direction dir )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public boolean hasRelationship( RelationshipType type, Direction dir )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Traverser traverse( Order traversalOrder,
+                StopEvaluator stopEvaluator,
+                ReturnableEvaluator returnableEvaluator,
+                RelationshipType relationshipType, Direction direction )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Traverser traverse( Order traversalOrder,
+                StopEvaluator stopEvaluator,
+                ReturnableEvaluator returnableEvaluator,
+                RelationshipType firstRelationshipType, Direction firstDirection,
+                RelationshipType secondRelationshipType, Direction secondDirection )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+
+        public Traverser traverse( Order traversalOrder,
+                StopEvaluator stopEvaluator,
+                ReturnableEvaluator returnableEvaluator,
+                Object... relationshipTypesAndDirections )
+        {
+            throw new UnsupportedOperationException( "Lockable node" );
+        }
+    }
+
     private static class LockableRelationship implements Relationship
     {
         private final int id;
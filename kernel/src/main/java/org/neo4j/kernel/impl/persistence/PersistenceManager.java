@@ -23,6 +23,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.transaction.RollbackException;
+import javax.transaction.Status;
 import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
@@ -287,6 +288,19 @@ public class PersistenceManager
 
         public void beforeCompletion()
         {
+            try
+            {
+                if ( tx.getStatus() == Status.STATUS_ACTIVE )
+                {
+                    // Registered now so that it runs after the other hooks,
+                    // transaction event handlers may still change things
+                    tx.registerSynchronization( new BeforeCommitHook( tx ) );
+                }
+            }
+            catch ( Throwable t )
+            {
+                rollbackOnly( tx, t );
+            }
             try
             {
                 delistResourcesForTransaction();
@@ -312,6 +326,54 @@ public class PersistenceManager
         }
     }
 
+    private class BeforeCommitHook implements Synchronization
+    {
+        private final Transaction tx;
+
+        BeforeCommitHook( Transaction tx )
+        {
+            this.tx = tx;
+        }
+
+        public void beforeCompletion()
+        {
+            try
+            {
+                if ( tx.getStatus() == Status.STATUS_ACTIVE )
+                {
+                    ResourceConnection con = txConnectionMap.get( tx );
+                    if ( con != null )
+                    {
+                        con.beforeCommit();
+                    }
+                }
+            }
+            catch ( Throwable t )
+            {
+                rollbackOnly( tx, t );
+            }
+        }
+
+        public void afterCompletion( int param )
+        {
+        }
+    }
+
+    private void rollbackOnly( Transaction tx, Throwable cause )
+    {
+        log.log( Level.WARNING, 
+            "Unable to commit " + tx + ", rolling back", cause );
+        try
+        {
+            tx.setRollbackOnly();
+        }
+        catch ( Throwable t )
+        {
+            log.log( Level.SEVERE, 
+                "Unable to mark " + tx + " as rollback only", t );
+        }
+    }
+
     void delistResourcesForTransaction() throws NotInTransactionException
     {
         Transaction tx = this.getCurrentTransaction();
@@ -47,6 +47,14 @@ public interface ResourceConnection
 
     public void destroy();
 
+    /**
+     * Called when the transaction is about to commit, before its resources
+     * are prepared. Locks needed to complete the changes can be waited for
+     * here, since the commit itself may run while holding monitors that
+     * other committing transactions need.
+     */
+    public void beforeCommit();
+
     public ArrayMap<Integer,PropertyData> nodeDelete( int nodeId );
 
     public int nodeAddProperty( int nodeId, PropertyIndex index, Object value );
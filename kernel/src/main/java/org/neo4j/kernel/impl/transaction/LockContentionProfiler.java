@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of which resources transactions have to wait for locks on,
+ * for how long and which transactions held the locks at the time. Only waits
+ * are recorded, never uncontended lock acquisitions, and only every
+ * {@link #setSampleInterval(int) n:th} of them, so it's cheap enough to
+ * always have on. The number of resources tracked is bounded, when full the
+ * least contended half of them are dropped.
+ */
+public class LockContentionProfiler
+{
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private static final Comparator<Contention> MOST_WAITED_FIRST = new Comparator<Contention>()
+    {
+        public int compare( Contention o1, Contention o2 )
+        {
+            long diff = o2.getTotalWaitNanos() - o1.getTotalWaitNanos();
+            return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+        }
+    };
+
+    private final ConcurrentMap<String, Contention> resources =
+            new ConcurrentHashMap<String, Contention>();
+    private final int capacity;
+    private final AtomicLong waits = new AtomicLong();
+    private volatile int sampleInterval = 1;
+
+    public LockContentionProfiler()
+    {
+        this( DEFAULT_CAPACITY );
+    }
+
+    public LockContentionProfiler( int capacity )
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param interval record every {@code interval}:th wait, or nothing at
+     * all if 0.
+     */
+    public void setSampleInterval( int interval )
+    {
+        if ( interval < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid sample interval " + interval );
+        }
+        this.sampleInterval = interval;
+    }
+
+    /**
+     * Called when a transaction is about to wait for a lock.
+     *
+     * @return whether or not this wait should be recorded.
+     */
+    boolean sample()
+    {
+        int interval = sampleInterval;
+        return interval != 0 && waits.incrementAndGet() % interval == 0;
+    }
+
+    void waited( Object resource, LockType type, long waitNanos, String holders )
+    {
+        String key = resource.toString();
+        Contention contention = resources.get( key );
+        if ( contention == null )
+        {
+            if ( resources.size() >= capacity )
+            {
+                prune();
+            }
+            Contention created = new Contention( key );
+            contention = resources.putIfAbsent( key, created );
+            if ( contention == null )
+            {
+                contention = created;
+            }
+        }
+        contention.waited( type, waitNanos, holders );
+    }
+
+    private synchronized void prune()
+    {
+        if ( resources.size() < capacity )
+        {
+            return;
+        }
+        List<Contention> all = sorted();
+        for ( Contention contention : all.subList( capacity / 2, all.size() ) )
+        {
+            resources.remove( contention.getResource() );
+        }
+    }
+
+    private List<Contention> sorted()
+    {
+        // Sort copies, since the originals may change while sorting
+        List<Contention> all = new ArrayList<Contention>();
+        for ( Contention contention : resources.values() )
+        {
+            all.add( contention.copy() );
+        }
+        Collections.sort( all, MOST_WAITED_FIRST );
+        return all;
+    }
+
+    /**
+     * @return the {@code max} resources transactions have spent the most
+     * time in total waiting for locks on, most contended first.
+     */
+    public List<Contention> getMostContended( int max )
+    {
+        List<Contention> all = sorted();
+        return all.size() > max ? new ArrayList<Contention>( all.subList( 0, max ) ) : all;
+    }
+
+    public void reset()
+    {
+        resources.clear();
+    }
+
+    /**
+     * The waits recorded for a single resource.
+     */
+    public static class Contention
+    {
+        private final String resource;
+        private long readWaits;
+        private long writeWaits;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+        private String lastHolders;
+
+        Contention( String resource )
+        {
+            this.resource = resource;
+        }
+
+        synchronized void waited( LockType type, long waitNanos, String holders )
+        {
+            if ( type == LockType.READ )
+            {
+                readWaits++;
+            }
+            else
+            {
+                writeWaits++;
+            }
+            totalWaitNanos += waitNanos;
+            maxWaitNanos = Math.max( maxWaitNanos, waitNanos );
+            lastHolders = holders;
+        }
+
+        synchronized Contention copy()
+        {
+            Contention copy = new Contention( resource );
+            copy.readWaits = readWaits;
+            copy.writeWaits = writeWaits;
+            copy.totalWaitNanos = totalWaitNanos;
+            copy.maxWaitNanos = maxWaitNanos;
+            copy.lastHolders = lastHolders;
+            return copy;
+        }
+
+        public String getResource()
+        {
+            return resource;
+        }
+
+        public synchronized long getReadWaits()
+        {
+            return readWaits;
+        }
+
+        public synchronized long getWriteWaits()
+        {
+            return writeWaits;
+        }
+
+        public synchronized long getTotalWaitNanos()
+        {
+            return totalWaitNanos;
+        }
+
+        public synchronized long getMaxWaitNanos()
+        {
+            return maxWaitNanos;
+        }
+
+        /**
+         * @return the transactions holding the lock when a transaction
+         * most recently had to wait for it.
+         */
+        public synchronized String getLastHolders()
+        {
+            return lastHolders;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return resource + ": " + ( readWaits + writeWaits ) + " waits (" + readWaits + "r,"
+                   + writeWaits + "w), total " + totalWaitNanos / 1000000 + "ms, max "
+                   + maxWaitNanos / 1000000 + "ms, held by " + lastHolders;
+        }
+    }
+}
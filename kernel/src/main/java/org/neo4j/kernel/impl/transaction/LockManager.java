@@ -27,6 +27,7 @@ import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 
 import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.kernel.impl.util.KernelMetrics;
 
 /**
  * The LockManager can lock resources for reading or writing. By doing this one
@@ -51,17 +52,41 @@ public class LockManager
         new HashMap<Object,RWLock>();
 
     private final RagManager ragManager;
+    private KernelMetrics metrics = KernelMetrics.DISABLED;
+    private final LockContentionProfiler contentionProfiler = new LockContentionProfiler();
 
     public LockManager( TransactionManager tm )
     {
         ragManager = new RagManager( tm );
     }
 
+    public void setMetrics( KernelMetrics metrics )
+    {
+        this.metrics = metrics;
+    }
+
     public long getDetectedDeadlockCount()
     {
         return ragManager.getDeadlockCount();
     }
 
+    public LockContentionProfiler getContentionProfiler()
+    {
+        return contentionProfiler;
+    }
+
+    /**
+     * Returns a description of the transactions currently waiting for locks,
+     * which resources they wait for and which transactions hold locks on
+     * those resources.
+     *
+     * @return the current wait graph.
+     */
+    public String getWaitGraph()
+    {
+        return ragManager.describeWaitGraph();
+    }
+
     /**
      * Tries to acquire read lock on <CODE>resource</CODE> for the current
      * transaction. If read lock can't be acquired the transaction will wait for
@@ -88,7 +113,7 @@ public class LockManager
             lock = resourceLockMap.get( resource );
             if ( lock == null )
             {
-                lock = new RWLock( resource, ragManager );
+                lock = new RWLock( resource, ragManager, metrics, contentionProfiler );
                 resourceLockMap.put( resource, lock );
             }
             lock.mark();
@@ -122,7 +147,7 @@ public class LockManager
             lock = resourceLockMap.get( resource );
             if ( lock == null )
             {
-                lock = new RWLock( resource, ragManager );
+                lock = new RWLock( resource, ragManager, metrics, contentionProfiler );
                 resourceLockMap.put( resource, lock );
             }
             lock.mark();
@@ -130,6 +155,109 @@ public class LockManager
         lock.acquireWriteLock();
     }
 
+    /**
+     * Acquires read locks on all the <CODE>resources</CODE> for the current
+     * transaction, in the given order. This is the same as calling
+     * {@link #getReadLock(Object)} for each one of them, but lets lock
+     * managers which have to ask someone else for the locks ask for them all
+     * at once. If one of them can't be acquired the ones acquired by this
+     * call are released again before the exception is thrown.
+     *
+     * @param resources
+     *            The resources
+     * @throws DeadlockDetectedException
+     *             If a deadlock is detected
+     * @throws IllegalResourceException
+     */
+    public void getReadLocks( Object... resources )
+        throws DeadlockDetectedException, IllegalResourceException
+    {
+        int acquired = 0;
+        try
+        {
+            for ( Object resource : resources )
+            {
+                getReadLock( resource );
+                acquired++;
+            }
+        }
+        finally
+        {
+            releaseLocks( LockType.READ, resources, acquired );
+        }
+    }
+
+    /**
+     * Acquires write locks on all the <CODE>resources</CODE> for the current
+     * transaction, in the given order. This is the same as calling
+     * {@link #getWriteLock(Object)} for each one of them, but lets lock
+     * managers which have to ask someone else for the locks ask for them all
+     * at once. If one of them can't be acquired the ones acquired by this
+     * call are released again before the exception is thrown.
+     *
+     * @param resources
+     *            The resources
+     * @throws DeadlockDetectedException
+     *             If a deadlock is detected
+     * @throws IllegalResourceException
+     */
+    public void getWriteLocks( Object... resources )
+        throws DeadlockDetectedException, IllegalResourceException
+    {
+        int acquired = 0;
+        try
+        {
+            for ( Object resource : resources )
+            {
+                getWriteLock( resource );
+                acquired++;
+            }
+        }
+        finally
+        {
+            releaseLocks( LockType.WRITE, resources, acquired );
+        }
+    }
+
+    /**
+     * Releases the locks on the first {@code acquired} of {@code resources}
+     * if not all of them were acquired, so that a failure to acquire one of
+     * them doesn't leave the others locked without the caller knowing which.
+     */
+    protected void releaseLocks( LockType lockType, Object[] resources, int acquired )
+    {
+        if ( acquired == resources.length )
+        {
+            return;
+        }
+        for ( int i = 0; i < acquired; i++ )
+        {
+            if ( lockType == LockType.WRITE )
+            {
+                releaseWriteLock( resources[i], null );
+            }
+            else
+            {
+                releaseReadLock( resources[i], null );
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the current transaction already holds a lock
+     * of the given type on <CODE>resource</CODE>. A write lock counts as a
+     * read lock too.
+     */
+    protected boolean isLockedByCurrentTransaction( Object resource, LockType lockType )
+    {
+        RWLock lock = null;
+        synchronized ( resourceLockMap )
+        {
+            lock = resourceLockMap.get( resource );
+        }
+        return lock != null && lock.isHeldByCurrentTransaction( lockType );
+    }
+
     /**
      * Releases a read lock held by the current transaction on <CODE>resource</CODE>.
      * If current transaction don't have read lock a
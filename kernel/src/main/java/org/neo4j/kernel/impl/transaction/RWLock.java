@@ -27,6 +27,8 @@ import javax.transaction.xa.XAResource;
 
 import org.neo4j.kernel.DeadlockDetectedException;
 import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.KernelMetrics;
+import org.neo4j.kernel.impl.util.KernelMetrics.Latency;
 
 /**
  * A read/write lock is a lock that will allow many transactions to acquire read
@@ -69,11 +71,16 @@ class RWLock
         new ArrayMap<Transaction,TxLockElement>( 5, false, true );
 
     private final RagManager ragManager;
+    private final KernelMetrics metrics;
+    private final LockContentionProfiler profiler;
 
-    RWLock( Object resource, RagManager ragManager )
+    RWLock( Object resource, RagManager ragManager, KernelMetrics metrics,
+        LockContentionProfiler profiler )
     {
         this.resource = resource;
         this.ragManager = ragManager;
+        this.metrics = metrics;
+        this.profiler = profiler;
     }
 
     // keeps track of a transactions read and write lock count on this RWLock
@@ -139,11 +146,23 @@ class RWLock
             tle = new TxLockElement( tx );
         }
 
+        long waitStart = 0;
+        boolean waited = false;
+        String holders = null;
         try
         {
             while ( writeCount > tle.writeCount )
             {
                 ragManager.checkWaitOn( this, tx );
+                if ( !waited )
+                {
+                    waited = true;
+                    waitStart = System.nanoTime();
+                    if ( profiler.sample() )
+                    {
+                        holders = describeHolders( tle );
+                    }
+                }
                 waitingThreadList.addFirst( new WaitElement( tle,
                     LockType.READ, Thread.currentThread() ) );
                 try
@@ -156,6 +175,10 @@ class RWLock
                 }
                 ragManager.stopWaitOn( this, tx );
             }
+            if ( waited )
+            {
+                waitEnded( LockType.READ, waitStart, holders );
+            }
 
             if ( tle.readCount == 0 && tle.writeCount == 0 )
             {
@@ -296,11 +319,23 @@ class RWLock
             tle = new TxLockElement( tx );
         }
 
+        long waitStart = 0;
+        boolean waited = false;
+        String holders = null;
         try
         {
             while ( writeCount > tle.writeCount || readCount > tle.readCount )
             {
                 ragManager.checkWaitOn( this, tx );
+                if ( !waited )
+                {
+                    waited = true;
+                    waitStart = System.nanoTime();
+                    if ( profiler.sample() )
+                    {
+                        holders = describeHolders( tle );
+                    }
+                }
                 waitingThreadList.addFirst( new WaitElement( tle,
                     LockType.WRITE, Thread.currentThread() ) );
                 try
@@ -313,6 +348,10 @@ class RWLock
                 }
                 ragManager.stopWaitOn( this, tx );
             }
+            if ( waited )
+            {
+                waitEnded( LockType.WRITE, waitStart, holders );
+            }
 
             if ( tle.readCount == 0 && tle.writeCount == 0 )
             {
@@ -400,6 +439,68 @@ class RWLock
         return readCount;
     }
 
+    /**
+     * @return {@code true} if the current transaction holds a lock of the
+     * given type, or a write lock if asked for a read lock.
+     */
+    synchronized boolean isHeldByCurrentTransaction( LockType lockType )
+    {
+        Transaction tx = ragManager.getCurrentTransaction();
+        if ( tx == null )
+        {
+            tx = new PlaceboTransaction();
+        }
+        TxLockElement tle = txLockElementMap.get( tx );
+        if ( tle == null )
+        {
+            return false;
+        }
+        return tle.writeCount > 0 || (lockType == LockType.READ && tle.readCount > 0);
+    }
+
+    private String describeHolders( TxLockElement waiting )
+    {
+        StringBuilder holders = new StringBuilder();
+        for ( TxLockElement tle : txLockElementMap.values() )
+        {
+            if ( tle != waiting && ( tle.readCount > 0 || tle.writeCount > 0 ) )
+            {
+                if ( holders.length() > 0 )
+                {
+                    holders.append( "," );
+                }
+                holders.append( describe( tle.tx ) ).append( "(" ).append(
+                    tle.readCount ).append( "r," ).append( tle.writeCount ).append(
+                    "w)" );
+            }
+        }
+        return holders.toString();
+    }
+
+    // not tx.toString(), since that synchronizes on the transaction, which
+    // is held while it commits and may be waiting for the monitor of this
+    // lock or its manager
+    static String describe( Transaction tx )
+    {
+        if ( tx instanceof TransactionImpl )
+        {
+            return "Transaction(" + 
+                ((TransactionImpl) tx).getEventIdentifier() + ")";
+        }
+        return tx.getClass().getSimpleName() + "@" + 
+            Integer.toHexString( System.identityHashCode( tx ) );
+    }
+
+    private void waitEnded( LockType lockType, long waitStart, String holders )
+    {
+        long waitNanos = System.nanoTime() - waitStart;
+        metrics.recordDuration( Latency.LOCK_WAIT, waitNanos );
+        if ( holders != null )
+        {
+            profiler.waited( resource, lockType, waitNanos, holders );
+        }
+    }
+
     synchronized int getWaitingThreadsCount()
     {
         return waitingThreadList.size();
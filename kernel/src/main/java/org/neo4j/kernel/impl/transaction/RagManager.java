@@ -254,6 +254,59 @@ class RagManager
         }
     }
 
+    String describeWaitGraph()
+    {
+        // Copied under the monitor but described outside of it, since
+        // describing a resource or transaction mustn't wait for anything
+        // that might wait for this monitor
+        List<Wait> waits = new LinkedList<Wait>();
+        synchronized ( this )
+        {
+            for ( Transaction tx : waitingTxMap.keySet() )
+            {
+                Object resource = waitingTxMap.get( tx );
+                List<Transaction> lockingTxs = resourceMap.get( resource );
+                waits.add( new Wait( tx, resource, lockingTxs != null ?
+                    new LinkedList<Transaction>( lockingTxs ) :
+                    new LinkedList<Transaction>() ) );
+            }
+        }
+        if ( waits.isEmpty() )
+        {
+            return "No transactions waiting on resources";
+        }
+        StringBuilder graph = new StringBuilder();
+        for ( Wait wait : waits )
+        {
+            graph.append( RWLock.describe( wait.tx ) ).append( " -> " ).append(
+                wait.resource ).append( " -> [" );
+            for ( Iterator<Transaction> itr = wait.lockingTxs.iterator(); itr.hasNext(); )
+            {
+                graph.append( RWLock.describe( itr.next() ) );
+                if ( itr.hasNext() )
+                {
+                    graph.append( ", " );
+                }
+            }
+            graph.append( "]\n" );
+        }
+        return graph.toString();
+    }
+
+    private static class Wait
+    {
+        private final Transaction tx;
+        private final Object resource;
+        private final List<Transaction> lockingTxs;
+
+        Wait( Transaction tx, Object resource, List<Transaction> lockingTxs )
+        {
+            this.tx = tx;
+            this.resource = resource;
+            this.lockingTxs = lockingTxs;
+        }
+    }
+
     synchronized void dumpStack()
     {
         System.out.print( "Waiting list: " );
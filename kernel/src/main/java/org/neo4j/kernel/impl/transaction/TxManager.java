@@ -51,6 +51,8 @@ import org.neo4j.graphdb.TransactionFailureException;
 import org.neo4j.kernel.impl.core.KernelPanicEventGenerator;
 import org.neo4j.kernel.impl.transaction.xaframework.XaResource;
 import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.KernelMetrics;
+import org.neo4j.kernel.impl.util.KernelMetrics.Latency;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
@@ -84,6 +86,7 @@ public class TxManager extends AbstractTransactionManager
     private int peakConcurrentTransactions = 0;
     
     private final StringLogger msgLog;
+    private KernelMetrics metrics = KernelMetrics.DISABLED;
 
     final TxFinishHook finishHook;
 
@@ -95,6 +98,11 @@ public class TxManager extends AbstractTransactionManager
         this.finishHook = finishHook;
     }
 
+    public void setMetrics( KernelMetrics metrics )
+    {
+        this.metrics = metrics;
+    }
+
     synchronized int getNextEventIdentifier()
     {
         return eventIdentifierCounter++;
@@ -580,7 +588,9 @@ public class TxManager extends AbstractTransactionManager
             if ( tx.getStatus() == Status.STATUS_ACTIVE )
             {
                 comittedTxCount.incrementAndGet();
+                long startTime = metrics.startTimer();
                 commit( thread, tx );
+                metrics.record( Latency.COMMIT, startTime );
             }
             else if ( tx.getStatus() == Status.STATUS_MARKED_ROLLBACK )
             {
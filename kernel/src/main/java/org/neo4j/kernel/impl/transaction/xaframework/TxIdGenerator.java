@@ -32,9 +32,21 @@ public interface TxIdGenerator
         {
             return XaLogicalLog.MASTER_ID_REPRESENTING_NO_MASTER;
         }
+
+        public void committed( XaDataSource dataSource, int identifier, long txId )
+        {
+            // Do nothing
+        }
     };
     
     long generate( XaDataSource dataSource, int identifier );
     
     int getCurrentMasterId();
+
+    /**
+     * Called when a transaction, which got its id from {@link #generate},
+     * has been written to the logical log of {@code dataSource} and applied
+     * to its store.
+     */
+    void committed( XaDataSource dataSource, int identifier, long txId );
 }
@@ -39,6 +39,8 @@ import org.neo4j.kernel.Config;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.kernel.impl.util.KernelMetrics;
+import org.neo4j.kernel.impl.util.KernelMetrics.Latency;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
@@ -93,6 +95,7 @@ public class XaLogicalLog
     private boolean backupSlave = false;
 //    private boolean slave = false;
     private boolean useMemoryMapped = true;
+    private final KernelMetrics metrics;
     private final String storeDir;
 
     private final StringLogger msgLog;
@@ -109,6 +112,7 @@ public class XaLogicalLog
         this.cf = cf;
         this.xaTf = xaTf;
         this.useMemoryMapped = getMemoryMapped( config );
+        this.metrics = getMetrics( config );
         log = Logger.getLogger( this.getClass().getName() + File.separator + fileName );
         buffer = ByteBuffer.allocateDirect( 9 + Xid.MAXGTRIDSIZE
             + Xid.MAXBQUALSIZE * 10 );
@@ -123,6 +127,13 @@ public class XaLogicalLog
         return configValue != null ? Boolean.parseBoolean( configValue ) : true;
     }
 
+    private KernelMetrics getMetrics( Map<Object,Object> config )
+    {
+        KernelMetrics metrics = config != null ?
+                (KernelMetrics) config.get( KernelMetrics.class ) : null;
+        return metrics != null ? metrics : KernelMetrics.DISABLED;
+    }
+
     synchronized void open() throws IOException
     {
         String activeFileName = fileName + ".active";
@@ -348,7 +359,9 @@ public class XaLogicalLog
         try
         {
             LogIoUtils.writeCommit( false, writeBuffer, identifier, txId, masterId );
+            long startTime = metrics.startTimer();
             writeBuffer.force();
+            metrics.record( Latency.LOG_FORCE, startTime );
             cacheTxStartPosition( txId, masterId, startEntry );
         }
         catch ( IOException e )
@@ -412,7 +425,9 @@ public class XaLogicalLog
         try
         {
             LogIoUtils.writeCommit( true, writeBuffer, identifier, txId, masterId );
+            long startTime = metrics.startTimer();
             writeBuffer.force();
+            metrics.record( Latency.LOG_FORCE, startTime );
             cacheTxStartPosition( txId, masterId, startEntry );
         }
         catch ( IOException e )
@@ -444,6 +444,11 @@ public class XaResourceManager
                 xaTransaction.setCommitTxId( dataSource.getLastCommittedTxId() + 1 );
             }
             xaTransaction.commit();
+            if ( !xaTransaction.isRecovered() )
+            {
+                txIdGenerator.committed( dataSource, xaTransaction.getIdentifier(),
+                        xaTransaction.getCommitTxId() );
+            }
         }
         if ( !xaTransaction.isRecovered() )
         {
@@ -700,6 +705,7 @@ public class XaResourceManager
         long txId = TxIdGenerator.DEFAULT.generate( dataSource, 0 );
         int masterId = txIdGenerator.getCurrentMasterId();
         log.applyTransactionWithoutTxId( transaction, txId, masterId );
+        txIdGenerator.committed( dataSource, 0, txId );
         return txId;
     }
     
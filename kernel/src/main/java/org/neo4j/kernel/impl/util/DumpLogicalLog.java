@@ -40,6 +40,7 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
+import org.neo4j.kernel.impl.nioneo.xa.CompactRecordFormat;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
 import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
 import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
@@ -466,6 +467,12 @@ public class DumpLogicalLog
                 return readRelationshipCommand( byteChannel, buffer );
             case REL_TYPE_COMMAND:
                 return readRelationshipTypeCommand( byteChannel, buffer );
+            case CompactRecordFormat.NODE_COMMAND:
+                return command( CompactRecordFormat.readNode( byteChannel, buffer ) );
+            case CompactRecordFormat.REL_COMMAND:
+                return command( CompactRecordFormat.readRelationship( byteChannel, buffer ) );
+            case CompactRecordFormat.PROP_COMMAND:
+                return command( CompactRecordFormat.readProperty( byteChannel, buffer ) );
             case NONE: return null;
             default:
                 throw new IOException( "Unknown command type[" + commandType
@@ -473,6 +480,11 @@ public class DumpLogicalLog
         }
     }
 
+    private static XaCommand command( AbstractRecord record )
+    {
+        return record != null ? new Command( record ) : null;
+    }
+
     private static class Command extends XaCommand
     {
         private final AbstractRecord record;
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+/**
+ * Latencies and counters of operations on the critical paths of the kernel,
+ * such as committing transactions, forcing the logical log to disk, waiting
+ * for locks and looking up nodes and relationships in the cache. They are
+ * meant to be cheap enough to always be on and are exposed through the
+ * management beans. Recording can be turned off with
+ * {@link org.neo4j.kernel.Config#KERNEL_METRICS}, in which case every method
+ * here returns right away.
+ */
+public class KernelMetrics
+{
+    public static final KernelMetrics DISABLED = new KernelMetrics( false );
+
+    public enum Latency
+    {
+        COMMIT,
+        LOG_FORCE,
+        LOCK_WAIT,
+        EVENT_DISPATCH_LAG,
+        EVENT_BACKPRESSURE
+    }
+
+    public enum Counter
+    {
+        NODE_CACHE_HIT,
+        NODE_CACHE_MISS,
+        RELATIONSHIP_CACHE_HIT,
+        RELATIONSHIP_CACHE_MISS
+    }
+
+    private final boolean enabled;
+    private final LatencyHistogram[] latencies;
+    private final StripedCounter[] counters;
+
+    public KernelMetrics( boolean enabled )
+    {
+        this.enabled = enabled;
+        this.latencies = new LatencyHistogram[Latency.values().length];
+        this.counters = new StripedCounter[Counter.values().length];
+        if ( enabled )
+        {
+            for ( int i = 0; i < latencies.length; i++ )
+            {
+                latencies[i] = new LatencyHistogram();
+            }
+            for ( int i = 0; i < counters.length; i++ )
+            {
+                counters[i] = new StripedCounter();
+            }
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * @return the time to pass in to {@link #record(Latency, long)} when
+     * the operation is done.
+     */
+    public long startTimer()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void record( Latency latency, long startTime )
+    {
+        if ( enabled )
+        {
+            latencies[latency.ordinal()].record( System.nanoTime() - startTime );
+        }
+    }
+
+    public void recordDuration( Latency latency, long nanos )
+    {
+        if ( enabled )
+        {
+            latencies[latency.ordinal()].record( nanos );
+        }
+    }
+
+    public void increment( Counter counter )
+    {
+        if ( enabled )
+        {
+            counters[counter.ordinal()].increment();
+        }
+    }
+
+    /**
+     * @return the histogram for {@code latency}, or {@code null} if metrics
+     * are disabled.
+     */
+    public LatencyHistogram getLatency( Latency latency )
+    {
+        return latencies[latency.ordinal()];
+    }
+
+    public long getCount( Counter counter )
+    {
+        return enabled ? counters[counter.ordinal()].get() : 0;
+    }
+
+    public void reset()
+    {
+        if ( enabled )
+        {
+            for ( LatencyHistogram histogram : latencies )
+            {
+                histogram.reset();
+            }
+            for ( StripedCounter counter : counters )
+            {
+                counter.reset();
+            }
+        }
+    }
+}
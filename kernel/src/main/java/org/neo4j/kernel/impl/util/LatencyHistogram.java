@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, in nanoseconds, with a bounded relative error.
+ * Values below 128 have a bucket each, above that every power of two range
+ * is split up into 64 buckets of equal width. That makes the error of a
+ * reported percentile less than 1/64 of its value, using a fixed amount
+ * of memory regardless of the range of recorded values.
+ *
+ * Recording is lock free and safe to do from many threads. Reading
+ * percentiles while values are being recorded gives approximate results.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+    private static final int BUCKET_COUNT =
+            LINEAR_BUCKETS + ( 63 - SUB_BUCKET_BITS - 1 ) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_COUNT );
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter total = new StripedCounter();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record( long value )
+    {
+        if ( value < 0 )
+        {
+            value = 0;
+        }
+        buckets.incrementAndGet( bucketFor( value ) );
+        count.increment();
+        total.add( value );
+        long currentMax;
+        while ( value > ( currentMax = max.get() ) )
+        {
+            if ( max.compareAndSet( currentMax, value ) )
+            {
+                break;
+            }
+        }
+    }
+
+    static int bucketFor( long value )
+    {
+        if ( value < LINEAR_BUCKETS )
+        {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS;
+        return LINEAR_BUCKETS + ( exponent - 1 ) * SUB_BUCKETS
+               + (int) ( value >>> exponent ) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the highest value that falls into the given bucket.
+     */
+    static long highestValueIn( int bucket )
+    {
+        if ( bucket < LINEAR_BUCKETS )
+        {
+            return bucket;
+        }
+        int exponent = ( bucket - LINEAR_BUCKETS ) / SUB_BUCKETS + 1;
+        long subBucket = ( bucket - LINEAR_BUCKETS ) % SUB_BUCKETS + SUB_BUCKETS;
+        return ( ( subBucket + 1 ) << exponent ) - 1;
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public double getMean()
+    {
+        long count = getCount();
+        return count == 0 ? 0 : (double) total.get() / count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded
+     * values fall, rounded up to the upper bound of the bucket it's in.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the value at the given percentile, or 0 if nothing has been
+     * recorded.
+     */
+    public long getPercentile( double percentile )
+    {
+        if ( percentile < 0 || percentile > 100 )
+        {
+            throw new IllegalArgumentException( "Invalid percentile " + percentile );
+        }
+        long recorded = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            recorded += buckets.get( i );
+        }
+        if ( recorded == 0 )
+        {
+            return 0;
+        }
+        long target = Math.max( 1, (long) Math.ceil( recorded * percentile / 100 ) );
+        long seen = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            seen += buckets.get( i );
+            if ( seen >= target )
+            {
+                return Math.min( highestValueIn( i ), getMax() );
+            }
+        }
+        return getMax();
+    }
+
+    public void reset()
+    {
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            buckets.set( i, 0 );
+        }
+        count.reset();
+        total.reset();
+        max.set( 0 );
+    }
+}
@@ -59,7 +59,7 @@ public class StringLogger
     private static final Map<String,StringLogger> loggers = 
         new HashMap<String, StringLogger>();
     
-    public static StringLogger getLogger( String storeDir )
+    public synchronized static StringLogger getLogger( String storeDir )
     {
         if ( storeDir == null )
         {
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment concurrently without contending
+ * on the same memory location. Each thread adds to one of a number of
+ * stripes, chosen from the id of the thread, and reading the value sums up
+ * all the stripes. Reads are therefore more expensive than writes and the
+ * value returned isn't an atomic snapshot if there are concurrent writers.
+ */
+public class StripedCounter
+{
+    // Stripes are spread out so that each one is on its own cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray stripes;
+    private final int mask;
+
+    public StripedCounter()
+    {
+        this( Runtime.getRuntime().availableProcessors() * 2 );
+    }
+
+    public StripedCounter( int concurrency )
+    {
+        int count = 1;
+        while ( count < concurrency )
+        {
+            count <<= 1;
+        }
+        this.mask = count - 1;
+        this.stripes = new AtomicLongArray( count * PADDING );
+    }
+
+    public void increment()
+    {
+        add( 1 );
+    }
+
+    public void add( long delta )
+    {
+        stripes.addAndGet( stripe(), delta );
+    }
+
+    private int stripe()
+    {
+        long id = Thread.currentThread().getId();
+        return ( (int) ( id ^ ( id >>> 32 ) ) & mask ) * PADDING;
+    }
+
+    public long get()
+    {
+        long sum = 0;
+        for ( int i = 0; i < stripes.length(); i += PADDING )
+        {
+            sum += stripes.get( i );
+        }
+        return sum;
+    }
+
+    public void reset()
+    {
+        for ( int i = 0; i < stripes.length(); i += PADDING )
+        {
+            stripes.set( i, 0 );
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.nioneo.store.DegreeStore;
+import org.neo4j.kernel.impl.nioneo.store.DegreeStore.Degrees;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+
+public class TestNodeDegrees
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+
+    private final String path = AbstractNeo4jTestCase.getStorePath( "degrees" );
+    private AbstractGraphDatabase graphDb;
+
+    @Before
+    public void startDb()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        startDb( path );
+    }
+
+    private void startDb( String path )
+    {
+        graphDb = new EmbeddedGraphDatabase( path,
+                stringMap( Config.DENSE_NODE_THRESHOLD, "10" ) );
+    }
+
+    @After
+    public void stopDb()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void degreesByTypeAndDirection()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        Node other = graphDb.createNode();
+        node.createRelationshipTo( other, KNOWS );
+        node.createRelationshipTo( other, KNOWS );
+        other.createRelationshipTo( node, KNOWS );
+        other.createRelationshipTo( node, LIKES );
+        node.createRelationshipTo( graphDb.createNode(), LIKES );
+        assertDegrees( node, 2, 1, 1, 1 );
+        tx.success();
+        tx.finish();
+        assertDegrees( node, 2, 1, 1, 1 );
+        assertDegrees( other, 1, 2, 1, 0 );
+        assertEquals( 5, NodeDegrees.getDegree( node ) );
+        assertEquals( 2, NodeDegrees.getDegree( node, Direction.INCOMING ) );
+
+        tx = graphDb.beginTx();
+        Node created = graphDb.createNode();
+        assertEquals( 0, NodeDegrees.getDegree( created ) );
+        created.createRelationshipTo( node, KNOWS );
+        assertEquals( 1, NodeDegrees.getDegree( created ) );
+        assertEquals( 2, NodeDegrees.getDegree( node, KNOWS, Direction.INCOMING ) );
+        tx.finish();
+    }
+
+    @Test
+    public void degreesIncludeChangesOfCurrentTransaction()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        Relationship knows = node.createRelationshipTo( graphDb.createNode(), KNOWS );
+        node.createRelationshipTo( graphDb.createNode(), KNOWS );
+        tx.success();
+        tx.finish();
+        assertEquals( 2, NodeDegrees.getDegree( node, KNOWS, Direction.OUTGOING ) );
+
+        tx = graphDb.beginTx();
+        knows.delete();
+        graphDb.createNode().createRelationshipTo( node, KNOWS );
+        Relationship undone = node.createRelationshipTo( graphDb.createNode(), KNOWS );
+        undone.delete();
+        assertEquals( 1, NodeDegrees.getDegree( node, KNOWS, Direction.OUTGOING ) );
+        assertEquals( 1, NodeDegrees.getDegree( node, KNOWS, Direction.INCOMING ) );
+        tx.failure();
+        tx.finish();
+        assertEquals( 2, NodeDegrees.getDegree( node, KNOWS, Direction.OUTGOING ) );
+        assertEquals( 0, NodeDegrees.getDegree( node, KNOWS, Direction.INCOMING ) );
+
+        tx = graphDb.beginTx();
+        knows.delete();
+        tx.success();
+        tx.finish();
+        assertEquals( 1, NodeDegrees.getDegree( node, KNOWS, Direction.OUTGOING ) );
+    }
+
+    @Test
+    public void denseNodeDegreesAreKeptAndSurviveRestart()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        for ( int i = 0; i < 20; i++ )
+        {
+            node.createRelationshipTo( graphDb.createNode(), i % 2 == 0 ? KNOWS : LIKES );
+        }
+        tx.success();
+        tx.finish();
+        assertEquals( 20, NodeDegrees.getDegree( node ) );
+        assertEquals( 1, degreeStore().getDenseNodeCount() );
+
+        tx = graphDb.beginTx();
+        for ( Relationship rel : node.getRelationships( LIKES ) )
+        {
+            rel.delete();
+            break;
+        }
+        graphDb.createNode().createRelationshipTo( node, KNOWS );
+        tx.success();
+        tx.finish();
+
+        graphDb.shutdown();
+        startDb( path );
+        assertEquals( 1, degreeStore().getDenseNodeCount() );
+        node = graphDb.getNodeById( node.getId() );
+        assertEquals( 11, NodeDegrees.getDegree( node, KNOWS, Direction.BOTH ) );
+        assertEquals( 10, NodeDegrees.getDegree( node, KNOWS, Direction.OUTGOING ) );
+        assertEquals( 9, NodeDegrees.getDegree( node, LIKES, Direction.OUTGOING ) );
+        assertEquals( 20, NodeDegrees.getDegree( node ) );
+    }
+
+    @Test
+    public void loopsCountInBothDirections()
+    {
+        // Loops can't be created through the API, but the store handles them
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        Relationship rel = node.createRelationshipTo( graphDb.createNode(), KNOWS );
+        tx.success();
+        tx.finish();
+        int nodeId = (int) node.getId();
+        int knows = neoStore().getRelationshipStore().getRecord( (int) rel.getId() ).getType();
+        createLoop( nodeId, knows );
+        assertDegrees( nodeId, knows, 2, 1 );
+
+        tx = graphDb.beginTx();
+        for ( int i = 0; i < 9; i++ )
+        {
+            node.createRelationshipTo( graphDb.createNode(), KNOWS );
+        }
+        tx.success();
+        tx.finish();
+        assertDegrees( nodeId, knows, 11, 1 );
+        assertEquals( 1, degreeStore().getDenseNodeCount() );
+
+        // Changes the kept degrees, which must match counting them again
+        createLoop( nodeId, knows );
+        assertDegrees( nodeId, knows, 12, 2 );
+        degreeStore().forget( nodeId );
+        assertDegrees( nodeId, knows, 12, 2 );
+
+        graphDb.shutdown();
+        startDb( path );
+        assertEquals( 1, degreeStore().getDenseNodeCount() );
+        assertDegrees( nodeId, knows, 12, 2 );
+    }
+
+    // all relationships of the node are outgoing, so a loop is counted
+    // once in both directions
+    private void assertDegrees( int nodeId, int typeId, int out, int in )
+    {
+        Degrees degrees = degreeStore().getDegrees( nodeId );
+        assertEquals( out, degrees.get( typeId, true, false ) );
+        assertEquals( in, degrees.get( typeId, false, true ) );
+        assertEquals( out, degrees.get( typeId, true, true ) );
+    }
+
+    private void createLoop( int nodeId, int typeId )
+    {
+        NodeStore nodeStore = neoStore().getNodeStore();
+        RelationshipStore relStore = neoStore().getRelationshipStore();
+        NodeRecord nodeRecord = nodeStore.getRecord( nodeId );
+        int firstRel = nodeRecord.getNextRel();
+        RelationshipRecord loop = new RelationshipRecord( relStore.nextId(), nodeId, nodeId, typeId );
+        loop.setInUse( true );
+        loop.setFirstNextRel( firstRel );
+        loop.setSecondNextRel( firstRel );
+        if ( firstRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord next = relStore.getRecord( firstRel );
+            if ( next.getFirstNode() == nodeId )
+            {
+                next.setFirstPrevRel( loop.getId() );
+            }
+            if ( next.getSecondNode() == nodeId )
+            {
+                next.setSecondPrevRel( loop.getId() );
+            }
+            relStore.updateRecord( next );
+        }
+        relStore.updateRecord( loop );
+        nodeRecord.setNextRel( loop.getId() );
+        nodeStore.updateRecord( nodeRecord );
+    }
+
+    private NeoStore neoStore()
+    {
+        return StoreScans.getNeoStore( graphDb.getConfig() );
+    }
+
+    private DegreeStore degreeStore()
+    {
+        return (DegreeStore) graphDb.getConfig().getParams().get( DegreeStore.class );
+    }
+
+    private void assertDegrees( Node node, int knowsOut, int knowsIn, int likesOut, int likesIn )
+    {
+        assertEquals( knowsOut, NodeDegrees.getDegree( node, KNOWS, Direction.OUTGOING ) );
+        assertEquals( knowsIn, NodeDegrees.getDegree( node, KNOWS, Direction.INCOMING ) );
+        assertEquals( likesOut, NodeDegrees.getDegree( node, LIKES, Direction.OUTGOING ) );
+        assertEquals( likesIn, NodeDegrees.getDegree( node, LIKES, Direction.INCOMING ) );
+        assertEquals( count( node.getRelationships( KNOWS, Direction.BOTH ) ),
+                NodeDegrees.getDegree( node, KNOWS, Direction.BOTH ) );
+        assertEquals( count( node.getRelationships( LIKES, Direction.BOTH ) ),
+                NodeDegrees.getDegree( node, LIKES, Direction.BOTH ) );
+    }
+
+    private int count( Iterable<Relationship> relationships )
+    {
+        int count = 0;
+        for ( Relationship rel : relationships )
+        {
+            count++;
+        }
+        return count;
+    }
+}
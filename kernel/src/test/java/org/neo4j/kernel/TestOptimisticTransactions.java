@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestOptimisticTransactions
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+
+    private final String path = AbstractNeo4jTestCase.getStorePath( "optimistic" );
+    private EmbeddedGraphDatabase graphDb;
+
+    @Before
+    public void startDb()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        graphDb = new EmbeddedGraphDatabase( path );
+    }
+
+    @After
+    public void stopDb()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void concurrentChangesToSameNodeConflict() throws Exception
+    {
+        final Node node = createNode();
+
+        Transaction tx = graphDb.beginOptimisticTx();
+        node.setProperty( "name", "first" );
+        inOtherThread( new Runnable()
+        {
+            public void run()
+            {
+                // doesn't block, nothing is locked until the other finishes
+                Transaction tx = graphDb.beginOptimisticTx();
+                node.setProperty( "name", "second" );
+                tx.success();
+                tx.finish();
+            }
+        } );
+        tx.success();
+        try
+        {
+            tx.finish();
+            fail( "Should conflict with the other transaction" );
+        }
+        catch ( TransactionConflictException e )
+        {   // good
+        }
+        assertEquals( "second", getName( node ) );
+
+        tx = graphDb.beginOptimisticTx();
+        node.setProperty( "name", "first" );
+        tx.success();
+        tx.finish();
+        assertEquals( "first", getName( node ) );
+    }
+
+    @Test
+    public void changesToWhatWasReadConflict() throws Exception
+    {
+        final Node read = createNode();
+        Node written = createNode();
+
+        Transaction tx = graphDb.beginOptimisticTx();
+        written.setProperty( "name", read.getProperty( "name" ) + "!" );
+        inOtherThread( new Runnable()
+        {
+            public void run()
+            {
+                Transaction tx = graphDb.beginTx();
+                read.setProperty( "name", "changed" );
+                tx.success();
+                tx.finish();
+            }
+        } );
+        tx.success();
+        try
+        {
+            tx.finish();
+            fail( "Should conflict with the other transaction" );
+        }
+        catch ( TransactionConflictException e )
+        {   // good
+        }
+        assertEquals( "node", getName( written ) );
+    }
+
+    @Test
+    public void changesToNeighbouringRelationshipRecordsConflict() throws Exception
+    {
+        final Node hub = createNode();
+        Transaction tx = graphDb.beginTx();
+        Relationship first = hub.createRelationshipTo( graphDb.createNode(), KNOWS );
+        tx.success();
+        tx.finish();
+
+        // reads the record of first, which is rewritten by the other
+        // transaction when it links a new relationship in front of it
+        tx = graphDb.beginOptimisticTx();
+        first.setProperty( "name", "first" );
+        inOtherThread( new Runnable()
+        {
+            public void run()
+            {
+                Transaction tx = graphDb.beginTx();
+                hub.createRelationshipTo( graphDb.createNode(), KNOWS );
+                tx.success();
+                tx.finish();
+            }
+        } );
+        tx.success();
+        try
+        {
+            tx.finish();
+            fail( "Should conflict with the other transaction" );
+        }
+        catch ( TransactionConflictException e )
+        {   // good
+        }
+
+        graphDb.shutdown();
+        graphDb = new EmbeddedGraphDatabase( path );
+        tx = graphDb.beginTx();
+        assertEquals( 2, IteratorUtil.count( graphDb.getNodeById(
+            hub.getId() ).getRelationships( Direction.OUTGOING ) ) );
+        tx.finish();
+    }
+
+    @Test
+    public void unrelatedChangesDontConflict() throws Exception
+    {
+        Node node = createNode();
+        final Node other = createNode();
+
+        Transaction tx = graphDb.beginOptimisticTx();
+        node.setProperty( "name", "first" );
+        inOtherThread( new Runnable()
+        {
+            public void run()
+            {
+                Transaction tx = graphDb.beginOptimisticTx();
+                other.setProperty( "name", "second" );
+                tx.success();
+                tx.finish();
+            }
+        } );
+        tx.success();
+        tx.finish();
+        assertEquals( "first", getName( node ) );
+        assertEquals( "second", getName( other ) );
+    }
+
+    @Test
+    public void readOnlyTransactionsArentValidated() throws Exception
+    {
+        final Node node = createNode();
+
+        Transaction tx = graphDb.beginOptimisticTx();
+        assertEquals( "node", node.getProperty( "name" ) );
+        inOtherThread( new Runnable()
+        {
+            public void run()
+            {
+                Transaction tx = graphDb.beginTx();
+                node.setProperty( "name", "changed" );
+                tx.success();
+                tx.finish();
+            }
+        } );
+        tx.success();
+        tx.finish();
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void optimisticTransactionsCantBeNested()
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            graphDb.beginOptimisticTx();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private Node createNode()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        node.setProperty( "name", "node" );
+        tx.success();
+        tx.finish();
+        return node;
+    }
+
+    private String getName( Node node )
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            return (String) node.getProperty( "name" );
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void inOtherThread( Runnable runnable ) throws InterruptedException
+    {
+        Thread thread = new Thread( runnable );
+        thread.start();
+        thread.join();
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestSnapshotReads
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+
+    private final String path = AbstractNeo4jTestCase.getStorePath( "snapshot" );
+    private EmbeddedGraphDatabase graphDb;
+
+    @Before
+    public void startDb()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        graphDb = new EmbeddedGraphDatabase( path,
+                stringMap( Config.SNAPSHOT_READS, "true" ) );
+    }
+
+    @After
+    public void stopDb()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void snapshotDoesntSeeChangesCommittedAfterItBegan() throws Exception
+    {
+        Transaction tx = graphDb.beginTx();
+        final Node node = graphDb.createNode();
+        node.setProperty( "name", "old" );
+        final Node other = graphDb.createNode();
+        final Relationship kept = node.createRelationshipTo( other, KNOWS );
+        kept.setProperty( "since", 2001 );
+        final Relationship deleted = other.createRelationshipTo( node, KNOWS );
+        deleted.setProperty( "since", 2002 );
+        tx.success();
+        tx.finish();
+
+        Transaction snapshot = graphDb.beginSnapshotTx();
+        try
+        {
+            assertEquals( "old", node.getProperty( "name" ) );
+            final Node[] created = new Node[1];
+            inOtherThread( new Runnable()
+            {
+                public void run()
+                {
+                    Transaction tx = graphDb.beginTx();
+                    node.setProperty( "name", "new" );
+                    node.setProperty( "added", true );
+                    kept.removeProperty( "since" );
+                    deleted.delete();
+                    created[0] = graphDb.createNode();
+                    node.createRelationshipTo( created[0], KNOWS );
+                    tx.success();
+                    tx.finish();
+                }
+            } );
+
+            assertEquals( "old", node.getProperty( "name" ) );
+            assertFalse( node.hasProperty( "added" ) );
+            assertEquals( 2001, kept.getProperty( "since" ) );
+            assertEquals( 2002, graphDb.getRelationshipById(
+                deleted.getId() ).getProperty( "since" ) );
+            assertEquals( 2, IteratorUtil.count( node.getRelationships() ) );
+            assertEquals( 1, IteratorUtil.count( node.getRelationships(
+                KNOWS, Direction.INCOMING ) ) );
+            assertEquals( 2, NodeDegrees.getDegree( node ) );
+            assertNotFound( created[0].getId() );
+        }
+        finally
+        {
+            snapshot.finish();
+        }
+
+        tx = graphDb.beginTx();
+        assertEquals( "new", node.getProperty( "name" ) );
+        assertFalse( kept.hasProperty( "since" ) );
+        assertEquals( 2, IteratorUtil.count( node.getRelationships() ) );
+        assertEquals( 0, IteratorUtil.count( node.getRelationships(
+            Direction.INCOMING ) ) );
+        tx.finish();
+    }
+
+    @Test
+    public void snapshotSeesNodesDeletedAfterItBegan() throws Exception
+    {
+        Transaction tx = graphDb.beginTx();
+        final Node node = graphDb.createNode();
+        node.setProperty( "name", "deleted" );
+        Node other = graphDb.createNode();
+        final Relationship rel = node.createRelationshipTo( other, KNOWS );
+        tx.success();
+        tx.finish();
+
+        Transaction snapshot = graphDb.beginSnapshotTx();
+        try
+        {
+            inOtherThread( new Runnable()
+            {
+                public void run()
+                {
+                    Transaction tx = graphDb.beginTx();
+                    rel.delete();
+                    node.delete();
+                    tx.success();
+                    tx.finish();
+                }
+            } );
+
+            Node seen = graphDb.getNodeById( node.getId() );
+            assertEquals( "deleted", seen.getProperty( "name" ) );
+            assertEquals( rel, seen.getSingleRelationship( KNOWS,
+                Direction.OUTGOING ) );
+            assertEquals( other, rel.getEndNode() );
+            assertEquals( 1, IteratorUtil.count( other.getRelationships() ) );
+        }
+        finally
+        {
+            snapshot.finish();
+        }
+
+        tx = graphDb.beginTx();
+        try
+        {
+            graphDb.getNodeById( node.getId() );
+            fail( "Node should have been deleted" );
+        }
+        catch ( NotFoundException e )
+        {   // good
+        }
+        tx.finish();
+    }
+
+    @Test
+    public void snapshotDoesntSeeNodesCreatedInTransactionsStillRunning()
+        throws Exception
+    {
+        final CountDownLatch created = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        final long[] id = new long[1];
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Transaction tx = graphDb.beginTx();
+                try
+                {
+                    id[0] = graphDb.createNode().getId();
+                    created.countDown();
+                    done.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+            }
+        };
+        writer.start();
+        created.await();
+        Transaction snapshot = graphDb.beginSnapshotTx();
+        try
+        {
+            assertNotFound( id[0] );
+        }
+        finally
+        {
+            snapshot.finish();
+            done.countDown();
+            writer.join();
+        }
+    }
+
+    @Test
+    public void snapshotTransactionsCantMakeChanges()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        tx.success();
+        tx.finish();
+
+        Transaction snapshot = graphDb.beginSnapshotTx();
+        try
+        {
+            node.setProperty( "name", "value" );
+            fail( "Snapshot transactions are read only" );
+        }
+        catch ( IllegalStateException e )
+        {   // good
+        }
+        finally
+        {
+            snapshot.finish();
+        }
+        tx = graphDb.beginTx();
+        assertFalse( node.hasProperty( "name" ) );
+        tx.finish();
+    }
+
+    @Test
+    public void snapshotTransactionsCantBeNested()
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            graphDb.beginSnapshotTx();
+            fail( "A transaction is already running" );
+        }
+        catch ( IllegalStateException e )
+        {   // good
+        }
+        finally
+        {
+            tx.finish();
+        }
+        Transaction snapshot = graphDb.beginSnapshotTx();
+        assertTrue( graphDb.getReferenceNode() != null );
+        snapshot.finish();
+    }
+
+    private void assertNotFound( long nodeId )
+    {
+        try
+        {
+            graphDb.getNodeById( nodeId );
+            fail( "Node[" + nodeId + "] shouldn't be seen" );
+        }
+        catch ( NotFoundException e )
+        {   // good
+        }
+    }
+
+    private void inOtherThread( Runnable runnable ) throws InterruptedException
+    {
+        Thread thread = new Thread( runnable );
+        thread.start();
+        thread.join();
+    }
+}
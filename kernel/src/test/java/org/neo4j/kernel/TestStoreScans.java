@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.kernel.impl.nioneo.store.IdRange;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+
+public class TestStoreScans
+{
+    private static final RelationshipType NEXT = DynamicRelationshipType.withName( "NEXT" );
+
+    private final String path = AbstractNeo4jTestCase.getStorePath( "store-scans" );
+    private AbstractGraphDatabase graphDb;
+
+    @Before
+    public void startDb()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        graphDb = new EmbeddedGraphDatabase( path );
+    }
+
+    @After
+    public void stopDb()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void partitionsCoverRecordsInUse()
+    {
+        Set<Long> nodes = new HashSet<Long>();
+        Set<Long> relationships = new HashSet<Long>();
+        nodes.add( graphDb.getReferenceNode().getId() );
+        Transaction tx = graphDb.beginTx();
+        Node previous = graphDb.createNode();
+        nodes.add( previous.getId() );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            Node node = graphDb.createNode();
+            nodes.add( node.getId() );
+            relationships.add( previous.createRelationshipTo( node, NEXT ).getId() );
+            previous = node;
+        }
+        tx.success();
+        tx.finish();
+        tx = graphDb.beginTx();
+        for ( long id = 10; id < 1000; id += 7 )
+        {
+            Node node = graphDb.getNodeById( id );
+            for ( Relationship rel : node.getRelationships() )
+            {
+                relationships.remove( rel.getId() );
+                rel.delete();
+            }
+            node.delete();
+            nodes.remove( id );
+        }
+        tx.success();
+        tx.finish();
+
+        List<IdRange> ranges = StoreScans.partitionNodes( graphDb, 4 );
+        assertEquals( 4, ranges.size() );
+        Set<Long> scannedNodes = new HashSet<Long>();
+        long lastId = -1;
+        for ( IdRange range : ranges )
+        {
+            for ( NodeRecord record : StoreScans.nodes( graphDb, range ) )
+            {
+                assertTrue( record.getId() > lastId );
+                lastId = record.getId();
+                assertTrue( scannedNodes.add( (long) record.getId() ) );
+            }
+        }
+        assertEquals( nodes, scannedNodes );
+
+        Set<Long> scannedRelationships = new HashSet<Long>();
+        for ( IdRange range : StoreScans.partitionRelationships( graphDb, 3 ) )
+        {
+            for ( RelationshipRecord record : StoreScans.relationships( graphDb, range ) )
+            {
+                assertTrue( scannedRelationships.add( (long) record.getId() ) );
+                Relationship rel = graphDb.getRelationshipById( record.getId() );
+                assertEquals( rel.getStartNode().getId(), record.getFirstNode() );
+                assertEquals( rel.getEndNode().getId(), record.getSecondNode() );
+            }
+        }
+        assertEquals( relationships, scannedRelationships );
+    }
+
+    @Test
+    public void unmappedRecordsAreReadFromTheFileInBulk()
+    {
+        Transaction tx = graphDb.beginTx();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            graphDb.createNode();
+        }
+        tx.success();
+        tx.finish();
+        graphDb.shutdown();
+        graphDb = new EmbeddedGraphDatabase( path, stringMap( Config.NODE_STORE_MMAP_SIZE, "0M" ) );
+
+        NodeStore nodeStore = StoreScans.getNeoStore( graphDb.getConfig() ).getNodeStore();
+        int misses = nodeStore.getAllWindowPoolStats().get( 0 ).getMissCount();
+        int count = 0;
+        for ( NodeRecord record : StoreScans.nodes( graphDb, StoreScans.partitionNodes( graphDb, 1 ).get( 0 ) ) )
+        {
+            count++;
+        }
+        assertEquals( 1001, count );
+        // Not a row per record, which would also count as brick hits
+        assertEquals( misses, nodeStore.getAllWindowPoolStats().get( 0 ).getMissCount() );
+    }
+
+    @Test
+    public void allNodesDoesntLoadNodes()
+    {
+        Transaction tx = graphDb.beginTx();
+        for ( int i = 0; i < 100; i++ )
+        {
+            graphDb.createNode();
+        }
+        tx.success();
+        tx.finish();
+        NodeManager nodeManager = graphDb.getConfig().getGraphDbModule().getNodeManager();
+        nodeManager.clearCache();
+
+        int count = 0;
+        for ( Node node : graphDb.getAllNodes() )
+        {
+            count++;
+        }
+        assertEquals( 101, count );
+        assertEquals( 0, nodeManager.getNodeCacheSize() );
+    }
+
+    @Test
+    public void allNodesSeesChangesOfCurrentTransaction()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        Set<Node> allNodes = new HashSet<Node>();
+        for ( Node other : graphDb.getAllNodes() )
+        {
+            allNodes.add( other );
+        }
+        assertTrue( allNodes.contains( node ) );
+        tx.failure();
+        tx.finish();
+
+        for ( Node other : graphDb.getAllNodes() )
+        {
+            assertFalse( other.equals( node ) );
+        }
+    }
+}
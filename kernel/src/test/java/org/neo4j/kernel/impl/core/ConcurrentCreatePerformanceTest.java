@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+/**
+ * Many threads creating nodes and relationships of their own, where the
+ * only thing contended on is the id generators. Compares the default id
+ * generators with ones handing out ids from per thread batches, see
+ * {@link Config#ID_BATCH_SIZE}.
+ */
+@Ignore
+public class ConcurrentCreatePerformanceTest
+{
+    private static final RelationshipType TYPE = DynamicRelationshipType.withName( "TYPE" );
+
+    @Test
+    public void defaultIdGenerators() throws Exception
+    {
+        run( 0, 8, 200, 10 );
+    }
+
+    @Test
+    public void batchingIdGenerators() throws Exception
+    {
+        run( 64, 8, 200, 10 );
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt( args[0] ) : 8;
+        int transactions = args.length > 1 ? Integer.parseInt( args[1] ) : 200;
+        int nodesPerTx = args.length > 2 ? Integer.parseInt( args[2] ) : 10;
+        run( 0, threads, transactions, nodesPerTx );
+        run( 64, threads, transactions, nodesPerTx );
+    }
+
+    private static void run( int batchSize, int threads, final int transactions,
+            final int nodesPerTx ) throws Exception
+    {
+        String path = AbstractNeo4jTestCase.getStorePath( "concurrent-create" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        Map<String, String> config = batchSize > 0 ?
+                stringMap( Config.ID_BATCH_SIZE, "" + batchSize ) : stringMap();
+        final GraphDatabaseService graphDb = new EmbeddedGraphDatabase( path, config );
+        try
+        {
+            List<Thread> workers = new ArrayList<Thread>();
+            long start = System.currentTimeMillis();
+            for ( int t = 0; t < threads; t++ )
+            {
+                Thread worker = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for ( int i = 0; i < transactions; i++ )
+                        {
+                            Transaction tx = graphDb.beginTx();
+                            try
+                            {
+                                Node previous = graphDb.createNode();
+                                for ( int n = 1; n < nodesPerTx; n++ )
+                                {
+                                    Node node = graphDb.createNode();
+                                    node.setProperty( "name", "node" + n );
+                                    previous.createRelationshipTo( node, TYPE );
+                                    previous = node;
+                                }
+                                tx.success();
+                            }
+                            finally
+                            {
+                                tx.finish();
+                            }
+                        }
+                    }
+                };
+                workers.add( worker );
+                worker.start();
+            }
+            for ( Thread worker : workers )
+            {
+                worker.join();
+            }
+            long time = System.currentTimeMillis() - start;
+            long nodes = (long) threads * transactions * nodesPerTx;
+            System.out.println( (batchSize > 0 ? "Batches of " + batchSize : "Default") +
+                    ": " + nodes + " nodes by " + threads + " threads in " + time + "ms (" +
+                    (nodes * 1000 / Math.max( time, 1 )) + "/s)" );
+        }
+        finally
+        {
+            graphDb.shutdown();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+/**
+ * Many threads adding relationships to the same node, each in transactions
+ * which also create some other nodes. Compares locking the node for the
+ * whole transaction with {@link Config#DEFER_RELATIONSHIP_LINKING}.
+ */
+@Ignore
+public class SupernodeInsertPerformanceTest
+{
+    private static final RelationshipType TYPE = DynamicRelationshipType.withName( "TYPE" );
+
+    @Test
+    public void lockingNodeForWholeTransaction() throws Exception
+    {
+        run( false, 8, 200, 10 );
+    }
+
+    @Test
+    public void deferredRelationshipLinking() throws Exception
+    {
+        run( true, 8, 200, 10 );
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt( args[0] ) : 8;
+        int transactions = args.length > 1 ? Integer.parseInt( args[1] ) : 200;
+        int relsPerTx = args.length > 2 ? Integer.parseInt( args[2] ) : 10;
+        run( false, threads, transactions, relsPerTx );
+        run( true, threads, transactions, relsPerTx );
+    }
+
+    private static void run( boolean defer, int threads, final int transactions,
+            final int relsPerTx ) throws Exception
+    {
+        String path = AbstractNeo4jTestCase.getStorePath( "supernode-insert" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        final GraphDatabaseService graphDb = new EmbeddedGraphDatabase( path,
+                stringMap( Config.DEFER_RELATIONSHIP_LINKING, "" + defer ) );
+        try
+        {
+            Transaction tx = graphDb.beginTx();
+            final Node hub = graphDb.createNode();
+            tx.success();
+            tx.finish();
+
+            List<Thread> workers = new ArrayList<Thread>();
+            long start = System.currentTimeMillis();
+            for ( int t = 0; t < threads; t++ )
+            {
+                Thread worker = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for ( int i = 0; i < transactions; i++ )
+                        {
+                            Transaction tx = graphDb.beginTx();
+                            try
+                            {
+                                for ( int r = 0; r < relsPerTx; r++ )
+                                {
+                                    Node node = graphDb.createNode();
+                                    node.setProperty( "name", "node" + r );
+                                    hub.createRelationshipTo( node, TYPE );
+                                }
+                                tx.success();
+                            }
+                            finally
+                            {
+                                tx.finish();
+                            }
+                        }
+                    }
+                };
+                workers.add( worker );
+                worker.start();
+            }
+            for ( Thread worker : workers )
+            {
+                worker.join();
+            }
+            long time = System.currentTimeMillis() - start;
+            long relationships = (long) threads * transactions * relsPerTx;
+            System.out.println( (defer ? "Deferred linking" : "Node locked") + ": " +
+                    relationships + " relationships by " + threads + " threads in " +
+                    time + "ms (" + (relationships * 1000 / Math.max( time, 1 )) + "/s)" );
+        }
+        finally
+        {
+            graphDb.shutdown();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
+
+public class TestCounts
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+
+    private final String path = AbstractNeo4jTestCase.getStorePath( "counts" );
+    private AbstractGraphDatabase graphDb;
+
+    @Before
+    public void startDb()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        graphDb = new EmbeddedGraphDatabase( path );
+    }
+
+    @After
+    public void stopDb()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void countsFollowCommittedTransactions()
+    {
+        // The reference node is there from the start
+        assertCounts( 1, 0, 0, 0 );
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        Relationship knows = graphDb.getReferenceNode().createRelationshipTo( node, KNOWS );
+        graphDb.getReferenceNode().createRelationshipTo( node, KNOWS );
+        node.createRelationshipTo( graphDb.getReferenceNode(), LIKES );
+        // Not counted until committed
+        assertCounts( 1, 0, 0, 0 );
+        tx.success();
+        tx.finish();
+        assertCounts( 2, 3, 2, 1 );
+
+        tx = graphDb.beginTx();
+        knows.delete();
+        tx.success();
+        tx.finish();
+        assertCounts( 2, 2, 1, 1 );
+
+        tx = graphDb.beginTx();
+        graphDb.createNode();
+        tx.failure();
+        tx.finish();
+        assertCounts( 2, 2, 1, 1 );
+    }
+
+    @Test
+    public void countsSurviveRestart()
+    {
+        createData();
+        graphDb.shutdown();
+        graphDb = new EmbeddedGraphDatabase( path );
+        assertCounts( 11, 10, 10, 0 );
+    }
+
+    @Test
+    public void countsAreRebuiltIfNotCleanlyClosed() throws Exception
+    {
+        createData();
+        graphDb.shutdown();
+        RandomAccessFile file = new RandomAccessFile( new File( path,
+                "neostore" + CountsStore.FILE_SUFFIX ), "rw" );
+        try
+        {
+            // Wrong counts, marked as not clean
+            file.writeByte( 0 );
+            file.writeLong( 1000 );
+        }
+        finally
+        {
+            file.close();
+        }
+        graphDb = new EmbeddedGraphDatabase( path );
+        assertCounts( 11, 10, 10, 0 );
+    }
+
+    private void createData()
+    {
+        Transaction tx = graphDb.beginTx();
+        for ( int i = 0; i < 10; i++ )
+        {
+            graphDb.getReferenceNode().createRelationshipTo( graphDb.createNode(), KNOWS );
+        }
+        tx.success();
+        tx.finish();
+    }
+
+    private void assertCounts( long nodes, long relationships, long knows, long likes )
+    {
+        NodeManager nodeManager = graphDb.getConfig().getGraphDbModule().getNodeManager();
+        assertEquals( nodes, nodeManager.getNumberOfNodes() );
+        assertEquals( relationships, nodeManager.getNumberOfRelationships() );
+        assertEquals( knows, nodeManager.getNumberOfRelationships( KNOWS ) );
+        assertEquals( likes, nodeManager.getNumberOfRelationships( LIKES ) );
+    }
+}
@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestDeferredRelationshipLinking
+{
+    private static final RelationshipType TYPE = DynamicRelationshipType.withName( "TYPE" );
+
+    private final String path = AbstractNeo4jTestCase.getStorePath( "deferred-linking" );
+    private GraphDatabaseService graphDb;
+
+    @Before
+    public void startDb()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        graphDb = newGraphDb();
+    }
+
+    @After
+    public void shutdownDb()
+    {
+        graphDb.shutdown();
+    }
+
+    private GraphDatabaseService newGraphDb()
+    {
+        return new EmbeddedGraphDatabase( path, stringMap(
+                Config.DEFER_RELATIONSHIP_LINKING, "true" ) );
+    }
+
+    private void restartDb()
+    {
+        graphDb.shutdown();
+        graphDb = newGraphDb();
+    }
+
+    @Test
+    public void concurrentTransactionsCanAddRelationshipsToSameNode() throws Exception
+    {
+        final Node hub = createNode();
+        final int threads = 4;
+        final int relsPerThread = 50;
+        final CountDownLatch allCreated = new CountDownLatch( threads );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for ( int t = 0; t < threads; t++ )
+        {
+            Thread worker = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Transaction tx = graphDb.beginTx();
+                    try
+                    {
+                        for ( int i = 0; i < relsPerThread; i++ )
+                        {
+                            hub.createRelationshipTo( graphDb.createNode(), TYPE );
+                        }
+                        // All transactions have added their relationships
+                        // before any of them commits, which would deadlock
+                        // if the hub was locked when creating them
+                        allCreated.countDown();
+                        allCreated.await();
+                        tx.success();
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.set( e );
+                    }
+                    finally
+                    {
+                        tx.finish();
+                    }
+                }
+            };
+            workers.add( worker );
+            worker.start();
+        }
+        for ( Thread worker : workers )
+        {
+            worker.join();
+        }
+        if ( failure.get() != null )
+        {
+            throw new RuntimeException( failure.get() );
+        }
+        assertEquals( threads * relsPerThread, countRelationships( hub ) );
+
+        restartDb();
+        assertEquals( threads * relsPerThread,
+                countRelationships( graphDb.getNodeById( hub.getId() ) ) );
+    }
+
+    @Test
+    public void relationshipCreatedAndDeletedInSameTransaction()
+    {
+        Node hub = createNode();
+        Transaction tx = graphDb.beginTx();
+        Relationship kept = hub.createRelationshipTo( graphDb.createNode(), TYPE );
+        Relationship deleted = hub.createRelationshipTo( graphDb.createNode(), TYPE );
+        deleted.delete();
+        tx.success();
+        tx.finish();
+
+        restartDb();
+        Set<Long> ids = new HashSet<Long>();
+        for ( Relationship rel : graphDb.getNodeById( hub.getId() ).getRelationships() )
+        {
+            ids.add( rel.getId() );
+        }
+        assertEquals( 1, ids.size() );
+        assertFalse( ids.contains( deleted.getId() ) );
+        assertEquals( kept.getId(), (long) ids.iterator().next() );
+    }
+
+    @Test
+    public void relationshipCreatedByEventHandlerIsLinked()
+    {
+        final Node hub = createNode();
+        TransactionEventHandler<Object> handler = new TransactionEventHandler<Object>()
+        {
+            public Object beforeCommit( TransactionData data ) throws Exception
+            {
+                for ( Node node : data.createdNodes() )
+                {
+                    hub.createRelationshipTo( node, TYPE );
+                }
+                return null;
+            }
+
+            public void afterCommit( TransactionData data, Object state )
+            {
+            }
+
+            public void afterRollback( TransactionData data, Object state )
+            {
+            }
+        };
+        graphDb.registerTransactionEventHandler( handler );
+        try
+        {
+            createNode();
+        }
+        finally
+        {
+            graphDb.unregisterTransactionEventHandler( handler );
+        }
+
+        restartDb();
+        assertEquals( 1, countRelationships( graphDb.getNodeById( hub.getId() ) ) );
+    }
+
+    @Test
+    public void cantLinkToNodeDeletedByConcurrentTransaction() throws Exception
+    {
+        final Node hub = createNode();
+        final Node other = createNode();
+        Transaction tx = graphDb.beginTx();
+        hub.createRelationshipTo( other, TYPE );
+
+        Thread deleter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Transaction tx = graphDb.beginTx();
+                other.delete();
+                tx.success();
+                tx.finish();
+            }
+        };
+        deleter.start();
+        deleter.join();
+
+        tx.success();
+        try
+        {
+            tx.finish();
+            fail( "Shouldn't be able to link a relationship to a deleted node" );
+        }
+        catch ( Exception e )
+        { // Good
+        }
+        assertEquals( 0, countRelationships( hub ) );
+    }
+
+    @Test
+    public void commitWaitsForNodeLockedByOtherTransaction() throws Exception
+    {
+        Node hub = createNode();
+        commitWhileLockedByOtherTransaction( hub, hub );
+        assertEquals( 1, countRelationships( hub ) );
+    }
+
+    @Test
+    public void commitWaitsForFirstRelationshipLockedByOtherTransaction()
+        throws Exception
+    {
+        Node hub = createNode();
+        Transaction tx = graphDb.beginTx();
+        Relationship first = hub.createRelationshipTo( graphDb.createNode(), TYPE );
+        tx.success();
+        tx.finish();
+
+        commitWhileLockedByOtherTransaction( hub, first );
+        assertEquals( 2, countRelationships( hub ) );
+    }
+
+    /**
+     * Commits a relationship from {@code hub} while another transaction
+     * holds a write lock on {@code locked}, from setting a property on it,
+     * and commits after the first has started committing.
+     */
+    private void commitWhileLockedByOtherTransaction( final Node hub,
+        final PropertyContainer locked ) throws Exception
+    {
+        final CountDownLatch lockTaken = new CountDownLatch( 1 );
+        final CountDownLatch commitStarted = new CountDownLatch( 1 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread holder = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Transaction tx = graphDb.beginTx();
+                try
+                {
+                    locked.setProperty( "name", "locked" );
+                    lockTaken.countDown();
+                    commitStarted.await();
+                    // let the other transaction get to waiting for the lock
+                    Thread.sleep( 200 );
+                    tx.success();
+                }
+                catch ( Throwable e )
+                {
+                    failure.set( e );
+                }
+                finally
+                {
+                    tx.finish();
+                }
+            }
+        };
+        Thread committer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    lockTaken.await();
+                    Transaction tx = graphDb.beginTx();
+                    try
+                    {
+                        hub.createRelationshipTo( graphDb.createNode(), TYPE );
+                        tx.success();
+                        commitStarted.countDown();
+                    }
+                    finally
+                    {
+                        tx.finish();
+                    }
+                }
+                catch ( Throwable e )
+                {
+                    failure.set( e );
+                }
+            }
+        };
+        holder.setDaemon( true );
+        committer.setDaemon( true );
+        holder.start();
+        committer.start();
+        holder.join( 10000 );
+        committer.join( 10000 );
+        assertFalse( "Transactions deadlocked", 
+            holder.isAlive() || committer.isAlive() );
+        if ( failure.get() != null )
+        {
+            throw new RuntimeException( failure.get() );
+        }
+        Transaction tx = graphDb.beginTx();
+        assertEquals( "locked", locked.getProperty( "name" ) );
+        tx.finish();
+    }
+
+    private Node createNode()
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            Node node = graphDb.createNode();
+            tx.success();
+            return node;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private int countRelationships( Node node )
+    {
+        int count = 0;
+        for ( Relationship rel : node.getRelationships() )
+        {
+            count++;
+        }
+        return count;
+    }
+}
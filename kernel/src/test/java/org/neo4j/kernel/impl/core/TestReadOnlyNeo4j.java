@@ -20,10 +20,15 @@
 package org.neo4j.kernel.impl.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
 import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.getStorePath;
 
+import java.io.File;
+
 import org.junit.Test;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicRelationshipType;
@@ -33,6 +38,7 @@ import org.neo4j.graphdb.NotInTransactionException;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.EmbeddedReadOnlyGraphDatabase;
 import org.neo4j.test.DbRepresentation;
@@ -146,4 +152,71 @@ public class TestReadOnlyNeo4j
         assertEquals( rel, loadedRel );
         assertEquals( "value1", loadedRel.getProperty( "key1" ) );
     }
+
+    @Test
+    public void readOnlyInstanceCanFollowWritingInstance() throws Exception
+    {
+        String path = getStorePath( "read-only-follow" );
+        deleteFileOrDirectory( new File( path ) );
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        Node node1 = db.createNode();
+        node1.setProperty( "name", "first" );
+        tx.success();
+        tx.finish();
+
+        GraphDatabaseService readDb = new EmbeddedReadOnlyGraphDatabase( path,
+                stringMap( Config.FOLLOW_LOGICAL_LOG, "true",
+                        Config.LOGICAL_LOG_FOLLOW_INTERVAL, "10" ) );
+        try
+        {
+            Node readNode1 = readDb.getNodeById( node1.getId() );
+            assertEquals( "first", readNode1.getProperty( "name" ) );
+
+            tx = db.beginTx();
+            node1.setProperty( "name", "second" );
+            Node node2 = db.createNode();
+            node2.setProperty( "name", "other" );
+            node1.createRelationshipTo( node2, withName( "FOLLOWS" ) );
+            tx.success();
+            tx.finish();
+
+            awaitProperty( readDb, node1.getId(), "second" );
+            Node readNode2 = readDb.getNodeById( node2.getId() );
+            assertEquals( "other", readNode2.getProperty( "name" ) );
+            Relationship readRel = readDb.getNodeById( node1.getId() ).getSingleRelationship(
+                    withName( "FOLLOWS" ), Direction.OUTGOING );
+            assertEquals( readNode2, readRel.getEndNode() );
+
+            tx = db.beginTx();
+            node1.getSingleRelationship( withName( "FOLLOWS" ),
+                    Direction.OUTGOING ).delete();
+            node1.setProperty( "name", "third" );
+            tx.success();
+            tx.finish();
+
+            awaitProperty( readDb, node1.getId(), "third" );
+            assertFalse( readDb.getNodeById( node1.getId() ).hasRelationship() );
+            assertFalse( readDb.getNodeById( node2.getId() ).hasRelationship() );
+        }
+        finally
+        {
+            readDb.shutdown();
+            db.shutdown();
+        }
+    }
+
+    private void awaitProperty( GraphDatabaseService db, long nodeId, Object value )
+            throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 10000;
+        while ( !value.equals( db.getNodeById( nodeId ).getProperty( "name" ) ) )
+        {
+            if ( System.currentTimeMillis() > end )
+            {
+                fail( "Read only instance didn't see " + value );
+            }
+            Thread.sleep( 10 );
+        }
+    }
 }
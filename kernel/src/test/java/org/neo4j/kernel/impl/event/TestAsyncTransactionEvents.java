@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.BatchingTransactionEventHandler;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestAsyncTransactionEvents
+{
+    private final String path = AbstractNeo4jTestCase.getStorePath( "async-tx-events" );
+    private GraphDatabaseService graphDb;
+
+    @Before
+    public void startDb()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        graphDb = new EmbeddedGraphDatabase( path, stringMap(
+                Config.TRANSACTION_EVENT_DISPATCH, "async",
+                Config.TRANSACTION_EVENT_QUEUE_SIZE, "100" ) );
+    }
+
+    @After
+    public void stopDb()
+    {
+        if ( graphDb != null )
+        {
+            graphDb.shutdown();
+        }
+    }
+
+    @Test
+    public void afterCommitIsCalledInCommitOrderFromAnotherThread() throws Exception
+    {
+        final List<Long> committedNodes = Collections.synchronizedList( new ArrayList<Long>() );
+        final List<Thread> threads = Collections.synchronizedList( new ArrayList<Thread>() );
+        graphDb.registerTransactionEventHandler( new AfterCommitHandler()
+        {
+            @Override
+            public void afterCommit( TransactionData data, Object state )
+            {
+                threads.add( Thread.currentThread() );
+                for ( Node node : data.createdNodes() )
+                {
+                    committedNodes.add( node.getId() );
+                }
+            }
+        } );
+
+        List<Long> createdNodes = new ArrayList<Long>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            createdNodes.add( createNode() );
+        }
+        graphDb.shutdown();
+        graphDb = null;
+
+        assertEquals( createdNodes, committedNodes );
+        assertFalse( threads.contains( Thread.currentThread() ) );
+    }
+
+    @Test
+    public void slowHandlerDoesNotHoldUpCommits() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch called = new CountDownLatch( 5 );
+        graphDb.registerTransactionEventHandler( new AfterCommitHandler()
+        {
+            @Override
+            public void afterCommit( TransactionData data, Object state )
+            {
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                called.countDown();
+            }
+        } );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            createNode();
+        }
+        assertEquals( 5, called.getCount() );
+        release.countDown();
+        called.await();
+    }
+
+    @Test
+    public void batchingHandlerGetsTheBacklogInOneCall() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final List<Integer> batchSizes = Collections.synchronizedList( new ArrayList<Integer>() );
+        graphDb.registerTransactionEventHandler( new BatchingHandler()
+        {
+            public void afterCommitBatch( List<TransactionData> data, List<Object> states )
+            {
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                assertEquals( data.size(), states.size() );
+                batchSizes.add( data.size() );
+            }
+        } );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            createNode();
+        }
+        release.countDown();
+        graphDb.shutdown();
+        graphDb = null;
+
+        int total = 0;
+        for ( int size : batchSizes )
+        {
+            total += size;
+        }
+        assertEquals( 10, total );
+        assertTrue( batchSizes.size() < 10 );
+    }
+
+    private long createNode()
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            Node node = graphDb.createNode();
+            tx.success();
+            return node.getId();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private static class AfterCommitHandler implements TransactionEventHandler<Object>
+    {
+        public Object beforeCommit( TransactionData data ) throws Exception
+        {
+            return null;
+        }
+
+        public void afterCommit( TransactionData data, Object state )
+        {
+        }
+
+        public void afterRollback( TransactionData data, Object state )
+        {
+        }
+    }
+
+    private static abstract class BatchingHandler extends AfterCommitHandler
+            implements BatchingTransactionEventHandler<Object>
+    {
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestBatchingIdGenerator
+{
+    private String idGeneratorFile()
+    {
+        String path = AbstractNeo4jTestCase.getStorePath( "xatest" );
+        new File( path ).mkdirs();
+        return path + File.separator + "testBatchingIdGenerator.id";
+    }
+
+    @Before
+    public void createGenerator()
+    {
+        new File( idGeneratorFile() ).delete();
+        IdGeneratorImpl.createGenerator( idGeneratorFile() );
+    }
+
+    private IdGenerator open()
+    {
+        return new BatchingIdGenerator( new IdGeneratorImpl( idGeneratorFile(), 10 ), 16, 10 );
+    }
+
+    @Test
+    public void threadsGetUniqueIds() throws Exception
+    {
+        final IdGenerator idGenerator = open();
+        final List<Long> ids = Collections.synchronizedList( new ArrayList<Long>() );
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < 1000; i++ )
+                    {
+                        long id = idGenerator.nextId();
+                        ids.add( id );
+                        if ( i % 10 == 0 )
+                        {
+                            idGenerator.freeId( id );
+                            ids.remove( id );
+                        }
+                    }
+                }
+            };
+            threads.add( thread );
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( ids.size(), new HashSet<Long>( ids ).size() );
+        assertEquals( ids.size(), idGenerator.getNumberOfIdsInUse() );
+        idGenerator.close();
+    }
+
+    @Test
+    public void freedAndUnusedIdsAreKeptOverClose()
+    {
+        IdGenerator idGenerator = open();
+        Set<Long> used = new HashSet<Long>();
+        for ( int i = 0; i < 100; i++ )
+        {
+            long id = idGenerator.nextId();
+            assertTrue( used.add( id ) );
+            if ( i % 3 == 0 )
+            {
+                idGenerator.freeId( id );
+                used.remove( id );
+            }
+        }
+        long highId = idGenerator.getHighId();
+        assertEquals( used.size(), idGenerator.getNumberOfIdsInUse() );
+        idGenerator.close();
+
+        // All ids not in use, freed or left in a batch, are handed out
+        // again before any new ones
+        idGenerator = new IdGeneratorImpl( idGeneratorFile(), 10 );
+        assertEquals( highId, idGenerator.getHighId() );
+        Set<Long> defragged = new HashSet<Long>();
+        for ( long i = 0; i < highId - used.size(); i++ )
+        {
+            long id = idGenerator.nextId();
+            assertFalse( used.contains( id ) );
+            assertTrue( defragged.add( id ) );
+        }
+        assertEquals( highId, idGenerator.nextId() );
+        idGenerator.close();
+    }
+
+    @Test
+    public void freedIdsArentHandedOutRightAway()
+    {
+        IdGenerator idGenerator = open();
+        long freed = idGenerator.nextId();
+        idGenerator.freeId( freed );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertFalse( freed == idGenerator.nextId() );
+        }
+        idGenerator.close();
+    }
+
+    @Test
+    public void unusedIdsAreKeptWhenSettingHighId()
+    {
+        IdGenerator idGenerator = open();
+        long used = idGenerator.nextId();
+        long highId = idGenerator.getHighId() + 10;
+        idGenerator.setHighId( highId );
+        idGenerator.close();
+
+        // The rest of the batch is handed out again before any new ids
+        idGenerator = new IdGeneratorImpl( idGeneratorFile(), 10 );
+        assertEquals( highId, idGenerator.getHighId() );
+        Set<Long> defragged = new HashSet<Long>();
+        for ( int i = 0; i < 15; i++ )
+        {
+            long id = idGenerator.nextId();
+            assertTrue( id != used && id < highId - 10 );
+            assertTrue( defragged.add( id ) );
+        }
+        assertEquals( highId, idGenerator.nextId() );
+        idGenerator.close();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestChangedPages
+{
+    private File file;
+
+    @Before
+    public void deleteFile()
+    {
+        File path = new File( AbstractNeo4jTestCase.getStorePath( "changedpages" ) );
+        path.mkdirs();
+        file = new File( path, "test" + ChangedPages.FILE_SUFFIX );
+        file.delete();
+    }
+
+    @Test
+    public void marksAllPagesInRange()
+    {
+        ChangedPages pages = ChangedPages.open( file );
+        pages.markChanged( ChangedPages.PAGE_SIZE - 1, ChangedPages.PAGE_SIZE + 1 );
+        pages.markChanged( 100L * ChangedPages.PAGE_SIZE * 1024, 100L * ChangedPages.PAGE_SIZE * 1024 + 1 );
+        assertFalse( pages.isChanged( 2 ) );
+        assertTrue( pages.isChanged( 0 ) );
+        assertTrue( pages.isChanged( 1 ) );
+        assertTrue( pages.isChanged( 100 * 1024 ) );
+        pages.close();
+    }
+
+    @Test
+    public void checkpointHandsOverChangesAndStartsOver()
+    {
+        ChangedPages pages = ChangedPages.open( file );
+        assertEquals( ChangedPages.NO_CHECKPOINT, pages.getCheckpoint() );
+        pages.markChanged( 3 * ChangedPages.PAGE_SIZE, 4 * ChangedPages.PAGE_SIZE );
+        pages.markChanged( 70 * ChangedPages.PAGE_SIZE, 70 * ChangedPages.PAGE_SIZE + 1 );
+        ChangedPages.Snapshot snapshot = pages.checkpoint( 10 );
+        assertEquals( ChangedPages.NO_CHECKPOINT, snapshot.getCheckpoint() );
+        assertEquals( 10, pages.getCheckpoint() );
+        assertFalse( pages.isChanged( 3 ) );
+        assertEquals( 3, snapshot.nextChanged( 0 ) );
+        assertEquals( 70, snapshot.nextChanged( 4 ) );
+        assertEquals( -1, snapshot.nextChanged( 71 ) );
+
+        pages.revert( snapshot, 10 );
+        assertEquals( ChangedPages.NO_CHECKPOINT, pages.getCheckpoint() );
+        assertTrue( pages.isChanged( 3 ) );
+        assertTrue( pages.isChanged( 70 ) );
+        pages.close();
+    }
+
+    @Test
+    public void changesSurviveCleanCloseOnly()
+    {
+        ChangedPages pages = ChangedPages.open( file );
+        pages.checkpoint( 5 );
+        pages.markChanged( 0, 1 );
+        pages.close();
+
+        pages = ChangedPages.open( file );
+        assertEquals( 5, pages.getCheckpoint() );
+        assertTrue( pages.isChanged( 0 ) );
+        // Not closed, like after a crash
+
+        pages = ChangedPages.open( file );
+        assertEquals( ChangedPages.NO_CHECKPOINT, pages.getCheckpoint() );
+        assertFalse( pages.isChanged( 0 ) );
+        pages.close();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.CommonFactories;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestRebuildIdGenerators
+{
+    private final String path = AbstractNeo4jTestCase.getStorePath( "rebuild-ids" );
+
+    @Before
+    public void deleteDb()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+    }
+
+    @Test
+    public void freeIdsAreFoundByFullRebuild()
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Set<Long> deleted = new HashSet<Long>();
+        Transaction tx = db.beginTx();
+        Node[] nodes = new Node[3000];
+        for ( int i = 0; i < nodes.length; i++ )
+        {
+            nodes[i] = db.createNode();
+            nodes[i].setProperty( "name", "a string which is long enough to be dynamic " + i );
+        }
+        tx.success();
+        tx.finish();
+        tx = db.beginTx();
+        // Every third, but not the last ones, so they aren't past the high id
+        for ( int i = 0; i < nodes.length - 10; i += 3 )
+        {
+            nodes[i].removeProperty( "name" );
+            nodes[i].delete();
+            deleted.add( nodes[i].getId() );
+        }
+        tx.success();
+        tx.finish();
+        long highId = nodes[nodes.length - 1].getId() + 1;
+        db.shutdown();
+
+        Map<Object, Object> config = new HashMap<Object, Object>();
+        config.put( "neo_store", new File( path, "neostore" ).getPath() );
+        config.put( Config.REBUILD_IDGENERATORS_FAST, "false" );
+        config.put( IdGeneratorFactory.class, CommonFactories.defaultIdGeneratorFactory() );
+        NeoStore neoStore = new NeoStore( config );
+        try
+        {
+            neoStore.rebuildIdGenerators();
+            NodeStore nodeStore = neoStore.getNodeStore();
+            assertEquals( highId, nodeStore.getHighId() );
+            Set<Long> reused = new HashSet<Long>();
+            for ( int i = 0; i < deleted.size(); i++ )
+            {
+                reused.add( (long) nodeStore.nextId() );
+            }
+            assertEquals( deleted, reused );
+            assertEquals( highId, nodeStore.nextId() );
+        }
+        finally
+        {
+            neoStore.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyType;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
+
+public class TestCompactRecordFormat
+{
+    private final InMemoryLogBuffer log = new InMemoryLogBuffer();
+    private final ByteBuffer buffer = ByteBuffer.allocate( 100 );
+
+    @Test
+    public void nodeRecordsSurviveTheRoundTrip() throws Exception
+    {
+        NodeRecord node = new NodeRecord( 1000000 );
+        node.setInUse( true );
+        node.setNextRel( 999990 );
+        node.setNextProp( -1 );
+        CompactRecordFormat.writeNode( log, node );
+        NodeRecord deleted = new NodeRecord( 5 );
+        deleted.setInUse( false );
+        CompactRecordFormat.writeNode( log, deleted );
+
+        assertEquals( CompactRecordFormat.NODE_COMMAND, readCommandType() );
+        NodeRecord read = CompactRecordFormat.readNode( log, buffer );
+        assertEquals( 1000000, read.getId() );
+        assertTrue( read.inUse() );
+        assertEquals( 999990, read.getNextRel() );
+        assertEquals( -1, read.getNextProp() );
+        assertEquals( CompactRecordFormat.NODE_COMMAND, readCommandType() );
+        read = CompactRecordFormat.readNode( log, buffer );
+        assertEquals( 5, read.getId() );
+        assertFalse( read.inUse() );
+    }
+
+    @Test
+    public void relationshipRecordsAreSmallerThanInTheFullFormat() throws Exception
+    {
+        RelationshipRecord rel = new RelationshipRecord( 2000, 1000, 1001, 3 );
+        rel.setInUse( true );
+        rel.setFirstPrevRel( -1 );
+        rel.setFirstNextRel( 1999 );
+        rel.setSecondPrevRel( -1 );
+        rel.setSecondNextRel( Integer.MAX_VALUE - 1 );
+        rel.setNextProp( 4000 );
+        InMemoryLogBuffer full = new InMemoryLogBuffer();
+        new Command.RelationshipCommand( null, rel, false ).writeToFile( full );
+        InMemoryLogBuffer compact = new InMemoryLogBuffer();
+        new Command.RelationshipCommand( null, rel, true ).writeToFile( compact );
+        assertTrue( readAll( compact ).length * 3 < readAll( full ).length * 2 );
+
+        new Command.RelationshipCommand( null, rel, true ).writeToFile( log );
+        assertEquals( CompactRecordFormat.REL_COMMAND, readCommandType() );
+        RelationshipRecord read = CompactRecordFormat.readRelationship( log, buffer );
+        assertEquals( 0, readAll( log ).length );
+        assertEquals( rel.toString(), read.toString() );
+        assertEquals( Integer.MAX_VALUE - 1, read.getSecondNextRel() );
+    }
+
+    @Test
+    public void propertyRecordsWithStringBlocksSurviveTheRoundTrip() throws Exception
+    {
+        PropertyRecord property = new PropertyRecord( 10 );
+        property.setInUse( true );
+        property.setRelId( 7 );
+        property.setType( PropertyType.STRING );
+        property.setKeyIndexId( 2 );
+        property.setPropBlock( 20 );
+        property.setNextProp( 9 );
+        // a surrogate pair split between two blocks
+        char[] first = "abcå中\ud834".toCharArray();
+        char[] second = "\udd1e\u0000".toCharArray();
+        property.addValueRecord( charRecord( 20, -1, 21, first ) );
+        property.addValueRecord( charRecord( 21, 20, -1, second ) );
+        DynamicRecord removed = new DynamicRecord( 15 );
+        removed.setInUse( false, PropertyType.STRING.intValue() );
+        property.addValueRecord( removed );
+        CompactRecordFormat.writeProperty( log, property );
+
+        assertEquals( CompactRecordFormat.PROP_COMMAND, readCommandType() );
+        PropertyRecord read = CompactRecordFormat.readProperty( log, buffer );
+        assertTrue( read.inUse() );
+        assertEquals( PropertyType.STRING, read.getType() );
+        assertEquals( 2, read.getKeyIndexId() );
+        assertEquals( 20, read.getPropBlock() );
+        assertEquals( -1, read.getPrevProp() );
+        assertEquals( 9, read.getNextProp() );
+        assertEquals( 7, read.getRelId() );
+        assertEquals( -1, read.getNodeId() );
+        Iterator<DynamicRecord> records = read.getValueRecords().iterator();
+        assertArrayEquals( bytes( first ), records.next().getData() );
+        DynamicRecord secondRead = records.next();
+        assertEquals( 20, secondRead.getPrevBlock() );
+        assertArrayEquals( bytes( second ), secondRead.getData() );
+        DynamicRecord removedRead = records.next();
+        assertEquals( 15, removedRead.getId() );
+        assertFalse( removedRead.inUse() );
+        assertFalse( records.hasNext() );
+    }
+
+    @Test
+    public void returnsNullForTruncatedCommand() throws Exception
+    {
+        PropertyRecord property = new PropertyRecord( 10 );
+        property.setInUse( true );
+        property.setNodeId( 7 );
+        property.setType( PropertyType.INT );
+        property.setPropBlock( -5 );
+        CompactRecordFormat.writeProperty( log, property );
+        readCommandType();
+        byte[] all = readAll( log );
+        byte[] allButLast = new byte[all.length - 1];
+        System.arraycopy( all, 0, allButLast, 0, allButLast.length );
+        InMemoryLogBuffer truncated = new InMemoryLogBuffer();
+        truncated.put( allButLast );
+        assertEquals( null, CompactRecordFormat.readProperty( truncated, buffer ) );
+    }
+
+    private DynamicRecord charRecord( int id, int prev, int next, char[] chars )
+    {
+        DynamicRecord record = new DynamicRecord( id );
+        record.setInUse( true, PropertyType.STRING.intValue() );
+        record.setPrevBlock( prev );
+        record.setNextBlock( next );
+        record.setCharData( chars );
+        return record;
+    }
+
+    private byte[] bytes( char[] chars )
+    {
+        byte[] bytes = new byte[chars.length * 2];
+        ByteBuffer.wrap( bytes ).asCharBuffer().put( chars );
+        return bytes;
+    }
+
+    private byte readCommandType() throws IOException
+    {
+        buffer.clear();
+        buffer.limit( 1 );
+        log.read( buffer );
+        return buffer.get( 0 );
+    }
+
+    private byte[] readAll( InMemoryLogBuffer source ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        buffer.clear();
+        for ( int read; ( read = source.read( buffer ) ) > 0; buffer.clear() )
+        {
+            bytes.write( buffer.array(), 0, read );
+        }
+        return bytes.toByteArray();
+    }
+}
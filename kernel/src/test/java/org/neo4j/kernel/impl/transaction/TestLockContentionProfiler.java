@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.kernel.impl.transaction.LockContentionProfiler.Contention;
+
+public class TestLockContentionProfiler
+{
+    @Test
+    public void recordsWaitsForContendedLocks() throws Exception
+    {
+        final LockManager lm = new LockManager( new PlaceboTm() );
+        final Object resource = new Object()
+        {
+            @Override
+            public String toString()
+            {
+                return "contended";
+            }
+        };
+        lm.getWriteLock( resource );
+        Thread waiter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                lm.getWriteLock( resource );
+                lm.releaseWriteLock( resource, null );
+            }
+        };
+        waiter.start();
+        while ( !lm.getWaitGraph().contains( "contended" ) )
+        {
+            Thread.sleep( 10 );
+        }
+        Thread.sleep( 100 );
+        lm.releaseWriteLock( resource, null );
+        waiter.join();
+
+        List<Contention> contended = lm.getContentionProfiler().getMostContended( 10 );
+        assertEquals( 1, contended.size() );
+        Contention contention = contended.get( 0 );
+        assertEquals( "contended", contention.getResource() );
+        assertEquals( 0, contention.getReadWaits() );
+        assertEquals( 1, contention.getWriteWaits() );
+        assertTrue( contention.getTotalWaitNanos() >= 100000000 );
+        assertTrue( contention.getLastHolders().length() > 0 );
+
+        lm.getContentionProfiler().reset();
+        assertEquals( 0, lm.getContentionProfiler().getMostContended( 10 ).size() );
+    }
+
+    @Test
+    public void keepsTheMostContendedWhenFull()
+    {
+        LockContentionProfiler profiler = new LockContentionProfiler( 10 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            profiler.waited( "resource" + i, LockType.READ, i, "" );
+        }
+        List<Contention> contended = profiler.getMostContended( 100 );
+        assertTrue( contended.size() <= 10 );
+        assertEquals( "resource99", contended.get( 0 ).getResource() );
+        assertEquals( 99, contended.get( 0 ).getMaxWaitNanos() );
+    }
+
+    @Test
+    public void samplesEveryNthWait()
+    {
+        LockContentionProfiler profiler = new LockContentionProfiler();
+        profiler.setSampleInterval( 3 );
+        int sampled = 0;
+        for ( int i = 0; i < 30; i++ )
+        {
+            if ( profiler.sample() )
+            {
+                sampled++;
+            }
+        }
+        assertEquals( 10, sampled );
+        profiler.setSampleInterval( 0 );
+        assertFalse( profiler.sample() );
+    }
+}
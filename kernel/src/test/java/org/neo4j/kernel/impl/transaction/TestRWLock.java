@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.transaction;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -31,6 +32,46 @@ public class TestRWLock
 {
     private LockManager lm = new LockManager( new PlaceboTm() );
 
+    @Test
+    public void testMultipleLocksAtOnce() throws Exception
+    {
+        Object first = new Object();
+        Object second = new Object();
+        assertFalse( lm.isLockedByCurrentTransaction( first, LockType.READ ) );
+        lm.getReadLocks( first );
+        assertTrue( lm.isLockedByCurrentTransaction( first, LockType.READ ) );
+        assertFalse( lm.isLockedByCurrentTransaction( first, LockType.WRITE ) );
+        lm.getWriteLocks( first, second );
+        assertTrue( lm.isLockedByCurrentTransaction( first, LockType.WRITE ) );
+        assertTrue( lm.isLockedByCurrentTransaction( second, LockType.READ ) );
+        lm.releaseWriteLock( first, null );
+        lm.releaseWriteLock( second, null );
+        lm.releaseReadLock( first, null );
+        assertFalse( lm.isLockedByCurrentTransaction( first, LockType.READ ) );
+        assertFalse( lm.isLockedByCurrentTransaction( second, LockType.READ ) );
+    }
+
+    @Test
+    public void testMultipleLocksAtOnceReleasedIfOneFails() throws Exception
+    {
+        Object first = new Object();
+        Object held = new Object();
+        lm.getWriteLock( held );
+        try
+        {
+            lm.getWriteLocks( first, held, null );
+            fail( "Null parameter should throw exception" );
+        }
+        catch ( IllegalResourceException e )
+        {
+            // good
+        }
+        assertFalse( lm.isLockedByCurrentTransaction( first, LockType.READ ) );
+        assertTrue( lm.isLockedByCurrentTransaction( held, LockType.WRITE ) );
+        lm.releaseWriteLock( held, null );
+        assertFalse( lm.isLockedByCurrentTransaction( held, LockType.READ ) );
+    }
+
     @Test
     public void testSingleThread() throws Exception
     {
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram
+{
+    @Test
+    public void bucketsCoverAllValuesInOrder()
+    {
+        int previous = -1;
+        for ( long value = 0; value < 100000; value++ )
+        {
+            int bucket = LatencyHistogram.bucketFor( value );
+            assertTrue( bucket == previous || bucket == previous + 1 );
+            assertTrue( value <= LatencyHistogram.highestValueIn( bucket ) );
+            previous = bucket;
+        }
+        int bucket = LatencyHistogram.bucketFor( Long.MAX_VALUE );
+        assertEquals( Long.MAX_VALUE, LatencyHistogram.highestValueIn( bucket ) );
+    }
+
+    @Test
+    public void percentilesAreWithinRelativeError()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for ( long value = 1; value <= 10000; value++ )
+        {
+            histogram.record( value * 1000 );
+        }
+        assertEquals( 10000, histogram.getCount() );
+        assertEquals( 10000000, histogram.getMax() );
+        assertEquals( 5000500, histogram.getMean(), 1 );
+        assertWithinError( 5000000, histogram.getPercentile( 50 ) );
+        assertWithinError( 9900000, histogram.getPercentile( 99 ) );
+        assertEquals( 10000000, histogram.getPercentile( 100 ) );
+
+        histogram.reset();
+        assertEquals( 0, histogram.getCount() );
+        assertEquals( 0, histogram.getPercentile( 50 ) );
+    }
+
+    private void assertWithinError( long expected, long actual )
+    {
+        assertTrue( "Expected " + expected + ", but was " + actual,
+                actual >= expected && actual <= expected + expected / 64 );
+    }
+
+    @Test
+    public void stripedCounterSumsUpAllThreads() throws Exception
+    {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < 10000; i++ )
+                    {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( 80000, counter.get() );
+        counter.reset();
+        assertEquals( 0, counter.get() );
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing()
+    {
+        KernelMetrics metrics = new KernelMetrics( false );
+        metrics.record( KernelMetrics.Latency.COMMIT, metrics.startTimer() );
+        metrics.increment( KernelMetrics.Counter.NODE_CACHE_HIT );
+        assertEquals( 0, metrics.getCount( KernelMetrics.Counter.NODE_CACHE_HIT ) );
+
+        metrics = new KernelMetrics( true );
+        metrics.record( KernelMetrics.Latency.COMMIT, metrics.startTimer() );
+        metrics.increment( KernelMetrics.Counter.NODE_CACHE_HIT );
+        assertEquals( 1, metrics.getCount( KernelMetrics.Counter.NODE_CACHE_HIT ) );
+        assertEquals( 1, metrics.getLatency( KernelMetrics.Latency.COMMIT ).getCount() );
+    }
+}
@@ -33,12 +33,23 @@ public abstract class IdToEntityIterator<T extends PropertyContainer>
         extends CatchingIteratorWrapper<T, Long> implements IndexHits<T>
 {
     private final IndexHits<Long> ids;
-    private final Set<Long> alreadyReturned = new HashSet<Long>();
+    private final Set<Long> alreadyReturned;
     
     public IdToEntityIterator( IndexHits<Long> ids )
+    {
+        this( ids, true );
+    }
+    
+    /**
+     * @param removeDuplicates whether or not to remember the returned ids
+     * so that each entity is returned only once. Not needed if the ids are
+     * known to be unique.
+     */
+    public IdToEntityIterator( IndexHits<Long> ids, boolean removeDuplicates )
     {
         super( ids );
         this.ids = ids;
+        this.alreadyReturned = removeDuplicates ? new HashSet<Long>() : null;
     }
     
     @Override
@@ -53,7 +64,7 @@ public abstract class IdToEntityIterator<T extends PropertyContainer>
         while ( source.hasNext() )
         {
             Long id = source.next();
-            if ( alreadyReturned.add( id ) )
+            if ( alreadyReturned == null || alreadyReturned.add( id ) )
             {
                 return id;
             }
@@ -19,8 +19,12 @@
  */
 package org.neo4j.index.impl.lucene;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,8 +47,16 @@ import org.apache.lucene.util.Version;
 
 abstract class IndexType
 {
-    private static final IndexType EXACT = new IndexType( LuceneDataSource.KEYWORD_ANALYZER, false )
+    private static final List<String[]> NO_COMPOSITE_KEYS = Collections.emptyList();
+    private static final IndexType EXACT = new ExactType( NO_COMPOSITE_KEYS );
+    
+    private static class ExactType extends IndexType
     {
+        ExactType( List<String[]> compositeKeys )
+        {
+            super( LuceneDataSource.KEYWORD_ANALYZER, false, compositeKeys );
+        }
+        
         @Override
         public Query deletionQuery( long entityId, String key, Object value )
         {
@@ -94,15 +106,16 @@ abstract class IndexType
         {
             return "EXACT";
         }
-    };
+    }
     
     private static class CustomType extends IndexType
     {
         private final Similarity similarity;
         
-        CustomType( Analyzer analyzer, boolean toLowerCase, Similarity similarity )
+        CustomType( Analyzer analyzer, boolean toLowerCase, Similarity similarity,
+                List<String[]> compositeKeys )
         {
-            super( analyzer, toLowerCase );
+            super( analyzer, toLowerCase, compositeKeys );
             this.similarity = similarity;
         }
         
@@ -173,11 +186,13 @@ abstract class IndexType
     
     final Analyzer analyzer;
     private final boolean toLowerCase;
+    private final List<String[]> compositeKeys;
     
-    private IndexType( Analyzer analyzer, boolean toLowerCase )
+    private IndexType( Analyzer analyzer, boolean toLowerCase, List<String[]> compositeKeys )
     {
         this.analyzer = analyzer;
         this.toLowerCase = toLowerCase;
+        this.compositeKeys = compositeKeys;
     }
     
     static IndexType getIndexType( IndexIdentifier identifier, Map<String, String> config )
@@ -187,12 +202,14 @@ abstract class IndexType
         Similarity similarity = getCustomSimilarity( config );
         boolean toLowerCase = parseBoolean( config.get( LuceneIndexImplementation.KEY_TO_LOWER_CASE ), true );
         Analyzer customAnalyzer = getCustomAnalyzer( config );
+        List<String[]> compositeKeys = parseCompositeKeys(
+                config.get( LuceneIndexImplementation.KEY_COMPOSITE_KEYS ) );
         if ( type != null )
         {
             // Use the built in alternatives... "exact" or "fulltext"
             if ( type.equals( "exact" ) )
             {
-                result = EXACT;
+                result = compositeKeys.isEmpty() ? EXACT : new ExactType( compositeKeys );
             }
             else if ( type.equals( "fulltext" ) )
             {
@@ -202,7 +219,7 @@ abstract class IndexType
                     analyzer = toLowerCase ? LuceneDataSource.LOWER_CASE_WHITESPACE_ANALYZER :
                             LuceneDataSource.WHITESPACE_ANALYZER;
                 }
-                result = new CustomType( analyzer, toLowerCase, similarity );
+                result = new CustomType( analyzer, toLowerCase, similarity, compositeKeys );
             }
         }
         else
@@ -215,11 +232,94 @@ abstract class IndexType
                 		" and no 'analyzer' was given either (which can point out a custom " +
                 		Analyzer.class.getName() + " to use)" );
             }
-            result = new CustomType( customAnalyzer, toLowerCase, similarity );
+            result = new CustomType( customAnalyzer, toLowerCase, similarity, compositeKeys );
         }
         return result;
     }
 
+    /**
+     * Parses composite keys on the form {@code "key1,key2;key3,key4,key5"},
+     * i.e. composite keys separated by semicolon, each with its keys
+     * separated by comma.
+     */
+    private static List<String[]> parseCompositeKeys( String string )
+    {
+        if ( string == null || string.trim().length() == 0 )
+        {
+            return NO_COMPOSITE_KEYS;
+        }
+        List<String[]> result = new ArrayList<String[]>();
+        for ( String composite : string.split( ";" ) )
+        {
+            String[] keys = composite.split( "," );
+            for ( int i = 0; i < keys.length; i++ )
+            {
+                keys[i] = keys[i].trim();
+            }
+            if ( keys.length < 2 || new HashSet<String>( Arrays.asList( keys ) ).size() < keys.length )
+            {
+                throw new IllegalArgumentException( "A composite key needs two or more " +
+                        "distinct keys, not '" + composite + "'" );
+            }
+            result.add( keys );
+        }
+        return result;
+    }
+    
+    /**
+     * @return the composite key made up of exactly {@code keys}, in the
+     * order they were configured.
+     * @throws IllegalArgumentException if there's no such composite key.
+     */
+    String[] getCompositeKey( Collection<String> keys )
+    {
+        for ( String[] compositeKey : compositeKeys )
+        {
+            if ( compositeKey.length == keys.size() && keys.containsAll( Arrays.asList( compositeKey ) ) )
+            {
+                return compositeKey;
+            }
+        }
+        throw new IllegalArgumentException( "No composite key " + keys + " configured for this index" );
+    }
+    
+    /**
+     * The key/value pairs of a composite key are indexed as a single term,
+     * where the key is the keys joined by comma and the value is the values
+     * in the same order, each prefixed with its length to make them
+     * unambiguous.
+     */
+    static String compositeKeyName( String[] compositeKey )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( String key : compositeKey )
+        {
+            builder.append( builder.length() > 0 ? "," : "" ).append( key );
+        }
+        return builder.toString();
+    }
+    
+    static String compositeValue( String[] compositeKey, Map<String, Object> values )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( String key : compositeKey )
+        {
+            Object value = values.get( key );
+            if ( value instanceof ValueContext )
+            {
+                value = ((ValueContext) value).getValue();
+            }
+            if ( value == null || value.getClass().isArray() )
+            {
+                throw new IllegalArgumentException( "Composite key values must be single values, not "
+                        + value + " for '" + key + "'" );
+            }
+            String string = value.toString();
+            builder.append( string.length() ).append( ':' ).append( string );
+        }
+        return builder.toString();
+    }
+    
     private static boolean parseBoolean( String string, boolean valueIfNull )
     {
         return string == null ? valueIfNull : Boolean.parseBoolean( string );
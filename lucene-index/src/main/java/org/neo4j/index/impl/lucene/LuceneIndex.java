@@ -23,7 +23,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.apache.lucene.document.Document;
@@ -42,6 +44,7 @@ import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.core.ReadOnlyDbException;
+import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
 
 public abstract class LuceneIndex<T extends PropertyContainer> implements Index<T>
@@ -174,6 +177,120 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
     {
         return query( type.get( key, value ), key, value, null );
     }
+    
+    /**
+     * Adds the combination of the key/value pairs in {@code values} to
+     * {@code entity} in this index, as a single term. The keys must be one
+     * of the composite keys configured for this index with the
+     * {@code composite_keys} config, f.ex. {@code "tenant,externalId"}.
+     * The entity can then be found by all those values at once with
+     * {@link #get(Map)}, in a single seek. The individual key/value pairs
+     * aren't added, use {@link #add(PropertyContainer, String, Object)}
+     * for that.
+     * 
+     * @param entity the entity to associate the values with.
+     * @param values the value for each key in the composite key.
+     * @throws IllegalArgumentException if there's no composite key for
+     * the keys in {@code values}.
+     */
+    public void add( T entity, Map<String, Object> values )
+    {
+        String[] compositeKey = type.getCompositeKey( values.keySet() );
+        add( entity, IndexType.compositeKeyName( compositeKey ),
+                IndexType.compositeValue( compositeKey, values ) );
+    }
+    
+    /**
+     * Removes the combination of the key/value pairs in {@code values} from
+     * {@code entity} in this index, see {@link #add(PropertyContainer, Map)}.
+     */
+    public void remove( T entity, Map<String, Object> values )
+    {
+        String[] compositeKey = type.getCompositeKey( values.keySet() );
+        remove( entity, IndexType.compositeKeyName( compositeKey ),
+                IndexType.compositeValue( compositeKey, values ) );
+    }
+    
+    /**
+     * Returns the entities which have been added with exactly the key/value
+     * pairs in {@code values}, see {@link #add(PropertyContainer, Map)}.
+     */
+    public IndexHits<T> get( Map<String, Object> values )
+    {
+        String[] compositeKey = type.getCompositeKey( values.keySet() );
+        return get( IndexType.compositeKeyName( compositeKey ),
+                IndexType.compositeValue( compositeKey, values ) );
+    }
+    
+    /**
+     * Adds key/value to {@code entity} unless there already is an entity
+     * with that key/value in this index. Concurrent transactions calling this
+     * method for the same key/value are serialized by a lock which is held
+     * until the transaction finishes, so that only one of them adds it.
+     * <p>
+     * That lock is only taken in the database instance the transaction runs
+     * in. In an HA cluster slaves ask the master for locks on nodes and
+     * relationships only, so transactions on different instances aren't
+     * serialized and may both add the same key/value. It's only guaranteed to
+     * add a key/value once when all calls for it are made on the same
+     * instance, f.ex. the master.
+     * 
+     * @param entity the entity to associate the key/value pair with.
+     * @param key the key in the key/value pair.
+     * @param value the value in the key/value pair.
+     * @return the entity which already has the key/value in this index,
+     * or {@code null} if {@code entity} was added.
+     */
+    public T putIfAbsent( T entity, String key, Object value )
+    {
+        T existing = firstOrNull( get( key, value ) );
+        if ( existing != null )
+        {
+            return existing;
+        }
+        
+        Object lock = new UniquenessLock( identifier, key, value.toString() );
+        service.lockManager().getWriteLock( lock );
+        try
+        {
+            // Someone may have added it while we were waiting for the lock
+            existing = firstOrNull( get( key, value ) );
+            if ( existing != null )
+            {
+                return existing;
+            }
+            add( entity, key, value );
+            return null;
+        }
+        finally
+        {
+            service.lockReleaser().addLockToTransaction( lock, LockType.WRITE );
+        }
+    }
+    
+    /**
+     * Like {@link #putIfAbsent(PropertyContainer, String, Object)}, but for
+     * the combination of the key/value pairs in {@code values}, see
+     * {@link #add(PropertyContainer, Map)}.
+     */
+    public T putIfAbsent( T entity, Map<String, Object> values )
+    {
+        String[] compositeKey = type.getCompositeKey( values.keySet() );
+        return putIfAbsent( entity, IndexType.compositeKeyName( compositeKey ),
+                IndexType.compositeValue( compositeKey, values ) );
+    }
+    
+    private T firstOrNull( IndexHits<T> hits )
+    {
+        try
+        {
+            return hits.hasNext() ? hits.next() : null;
+        }
+        finally
+        {
+            hits.close();
+        }
+    }
 
     /**
      * {@inheritDoc}
@@ -206,8 +323,65 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
         return query( null, queryOrQueryObject );
     }
     
+    /**
+     * Like {@link #get(String, Object)}, but returns the ids of the entities
+     * instead of the entities themselves, so that no entities are loaded.
+     * The ids aren't checked against the graph, so ids of entities which
+     * have been deleted without being removed from the index may be returned.
+     */
+    public IndexHits<Long> getIds( String key, Object value )
+    {
+        return queryIds( type.get( key, value ), key, value, null );
+    }
+    
+    /**
+     * Like {@link #query(String, Object)}, but returns the ids of the entities
+     * instead of the entities themselves, see {@link #getIds(String, Object)}.
+     * Combined with {@link QueryContext#streaming()} this is the cheapest way
+     * to go through, or count, the hits of a query with many hits.
+     */
+    public IndexHits<Long> queryIds( String key, Object queryOrQueryObject )
+    {
+        QueryContext context = queryOrQueryObject instanceof QueryContext ?
+                (QueryContext) queryOrQueryObject : null;
+        return queryIds( type.query( key, context != null ?
+                context.queryOrQueryObject : queryOrQueryObject, context ), null, null, context );
+    }
+    
+    /**
+     * @see #queryIds(String, Object)
+     */
+    public IndexHits<Long> queryIds( Object queryOrQueryObject )
+    {
+        return queryIds( null, queryOrQueryObject );
+    }
+    
     protected IndexHits<T> query( Query query, String keyForDirectLookup,
             Object valueForDirectLookup, QueryContext additionalParametersOrNull )
+    {
+        IndexHits<Long> idIterator = queryIds( query, keyForDirectLookup,
+                valueForDirectLookup, additionalParametersOrNull );
+        // Streamed ids are unique already, and remembering them all to
+        // remove duplicates would defeat the purpose of streaming them
+        boolean streaming = additionalParametersOrNull != null &&
+                additionalParametersOrNull.isStreaming();
+        return new IdToEntityIterator<T>( idIterator, !streaming )
+        {
+            @Override
+            protected T underlyingObjectToObject( Long id )
+            {
+                return getById( id );
+            }
+            
+            protected void itemDodged( Long item )
+            {
+                abandonedIds.add( item );
+            }
+        };
+    }
+    
+    private IndexHits<Long> queryIds( Query query, String keyForDirectLookup,
+            Object valueForDirectLookup, QueryContext additionalParametersOrNull )
     {
         List<Long> ids = new ArrayList<Long>();
         LuceneXaConnection con = getReadOnlyConnection();
@@ -246,7 +420,12 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
                             keyForDirectLookup, valueForDirectLookup.toString(), removedIds );
                 }
                 
-                if ( !foundInCache )
+                if ( !foundInCache && additionalParametersOrNull != null &&
+                        additionalParametersOrNull.isStreaming() )
+                {
+                    idIterator = streamingSearch( searcher, query, additionsSearcher, removedIds );
+                }
+                else if ( !foundInCache )
                 {
                     DocToIdIterator searchedIds = new DocToIdIterator( search( searcher,
                             query, additionalParametersOrNull, additionsSearcher, removedIds ), removedIds, searcher );
@@ -267,24 +446,29 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
         finally
         {
             // The DocToIdIterator closes the IndexSearchRef instance anyways,
-            // or the LazyIterator if it's a lazy one. So no need here.
+            // or the StreamingHits if it's a streaming one. So no need here.
             service.dataSource().releaseReadLock();
         }
 
-        idIterator = idIterator == null ? new ConstantScoreIterator<Long>( ids, 0 ) : idIterator;
-        return new IdToEntityIterator<T>( idIterator )
+        return idIterator == null ? new ConstantScoreIterator<Long>( ids, 0 ) : idIterator;
+    }
+    
+    private IndexHits<Long> streamingSearch( IndexSearcherRef searcherRef, Query query,
+            Searcher additionsSearcher, Collection<Long> removed )
+    {
+        try
         {
-            @Override
-            protected T underlyingObjectToObject( Long id )
-            {
-                return getById( id );
-            }
-            
-            protected void itemDodged( Long item )
-            {
-                abandonedIds.add( item );
-            }
-        };
+            // The transaction state is small, so it's searched up front
+            Collection<Long> additions = additionsSearcher != null ?
+                    idsOf( additionsSearcher, query ) : Collections.<Long>emptySet();
+            return new StreamingHits( query, searcherRef, additions, removed );
+        }
+        catch ( IOException e )
+        {
+            searcherRef.closeStrict();
+            throw new RuntimeException( "Unable to query " + this + " with "
+                                        + query, e );
+        }
     }
     
     private boolean fillFromCache(
@@ -350,13 +534,20 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
     private void letThroughAdditions( Searcher additionsSearcher, Query query, Collection<Long> removed )
             throws IOException
     {
-        Hits hits = new Hits( additionsSearcher, query, null );
+        removed.removeAll( idsOf( additionsSearcher, query ) );
+    }
+    
+    private static Collection<Long> idsOf( Searcher searcher, Query query ) throws IOException
+    {
+        Collection<Long> ids = new HashSet<Long>();
+        Hits hits = new Hits( searcher, query, null );
         HitsIterator iterator = new HitsIterator( hits );
         while ( iterator.hasNext() )
         {
             String idString = iterator.next().getField( KEY_DOC_ID ).stringValue();
-            removed.remove( Long.parseLong( idString ) );
+            ids.add( Long.parseLong( idString ) );
         }
+        return ids;
     }
 
     public void setCacheCapacity( String key, int capacity )
@@ -384,6 +575,48 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
         return this.identifier;
     }
 
+    /**
+     * The resource locked by {@link LuceneIndex#putIfAbsent(PropertyContainer,
+     * String, Object)} for a key/value in an index.
+     */
+    private static class UniquenessLock
+    {
+        private final IndexIdentifier identifier;
+        private final String key;
+        private final String value;
+        
+        UniquenessLock( IndexIdentifier identifier, String key, String value )
+        {
+            this.identifier = identifier;
+            this.key = key;
+            this.value = value;
+        }
+        
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !(o instanceof UniquenessLock) )
+            {
+                return false;
+            }
+            UniquenessLock other = (UniquenessLock) o;
+            return identifier.equals( other.identifier ) && key.equals( other.key ) &&
+                    value.equals( other.value );
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * identifier.hashCode() + key.hashCode()) + value.hashCode();
+        }
+        
+        @Override
+        public String toString()
+        {
+            return "UniquenessLock[" + identifier + "," + key + "=" + value + "]";
+        }
+    }
+    
     static class NodeIndex extends LuceneIndex<Node>
     {
         NodeIndex( LuceneIndexImplementation service,
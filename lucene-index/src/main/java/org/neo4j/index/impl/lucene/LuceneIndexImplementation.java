@@ -30,8 +30,10 @@ import org.neo4j.graphdb.index.IndexImplementation;
 import org.neo4j.graphdb.index.RelationshipIndex;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.index.IndexConnectionBroker;
 import org.neo4j.kernel.impl.index.ReadOnlyIndexConnectionBroker;
+import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.TxModule;
 
 public class LuceneIndexImplementation extends IndexImplementation
@@ -41,6 +43,7 @@ public class LuceneIndexImplementation extends IndexImplementation
     static final String KEY_ANALYZER = "analyzer";
     static final String KEY_TO_LOWER_CASE = "to_lower_case";
     static final String KEY_SIMILARITY = "similarity";
+    static final String KEY_COMPOSITE_KEYS = "composite_keys";
     public static final String SERVICE_NAME = "lucene";
 
     public static final Map<String, String> EXACT_CONFIG =
@@ -58,12 +61,16 @@ public class LuceneIndexImplementation extends IndexImplementation
     private final IndexConnectionBroker<LuceneXaConnection> broker;
     private final LuceneDataSource dataSource;
     private final GraphDatabaseService graphDb;
+    private final LockManager lockManager;
+    private final LockReleaser lockReleaser;
     final int lazynessThreshold;
 
 
     LuceneIndexImplementation( GraphDatabaseService db, Config config )
     {
         this.graphDb = db;
+        this.lockManager = config.getLockManager();
+        this.lockReleaser = config.getLockReleaser();
         this.lazynessThreshold = DEFAULT_LAZY_THRESHOLD;
         TxModule txModule = config.getTxModule();
         boolean isReadOnly = config.isReadOnly();
@@ -90,6 +97,16 @@ public class LuceneIndexImplementation extends IndexImplementation
         return this.graphDb;
     }
 
+    LockManager lockManager()
+    {
+        return this.lockManager;
+    }
+
+    LockReleaser lockReleaser()
+    {
+        return this.lockReleaser;
+    }
+
     @Override
     public Index<Node> nodeIndex( String indexName, Map<String, String> config )
     {
@@ -151,7 +168,8 @@ public class LuceneIndexImplementation extends IndexImplementation
         return  match( storedConfig, config, KEY_TYPE, null ) &&
                 match( storedConfig, config, KEY_TO_LOWER_CASE, "true" ) &&
                 match( storedConfig, config, KEY_ANALYZER, null ) &&
-                match( storedConfig, config, KEY_SIMILARITY, null );
+                match( storedConfig, config, KEY_SIMILARITY, null ) &&
+                match( storedConfig, config, KEY_COMPOSITE_KEYS, null );
     }
 
     private boolean match( Map<String, String> storedConfig, Map<String, String> config,
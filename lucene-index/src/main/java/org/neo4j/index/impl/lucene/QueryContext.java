@@ -40,6 +40,7 @@ public class QueryContext
     Operator defaultOperator;
     boolean tradeCorrectnessForSpeed;
     int topHits;
+    boolean streaming;
     
     public QueryContext( Object queryOrQueryObject )
     {
@@ -129,4 +130,27 @@ public class QueryContext
         this.topHits = numberOfTopHits;
         return this;
     }
+    
+    /**
+     * Streams the hits instead of collecting and scoring them up front, for
+     * queries with many hits. Matching documents are read lazily from the
+     * index, in index order, a page at a time. {@link IndexHits#size()} is
+     * counted in a separate pass over the matches when asked for and
+     * {@link IndexHits#currentScore()} is {@link Float#NaN}.
+     * 
+     * Sorting and {@link #top(int)} need all hits to be collected, so they
+     * take precedence over streaming if they are set as well.
+     * 
+     * @return A {@link QueryContext} which streams its hits.
+     */
+    public QueryContext streaming()
+    {
+        this.streaming = true;
+        return this;
+    }
+    
+    boolean isStreaming()
+    {
+        return streaming && sorting == null && topHits == 0;
+    }
 }
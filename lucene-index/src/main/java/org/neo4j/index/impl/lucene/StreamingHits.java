@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Streams the entity ids of the documents matching a query, see
+ * {@link QueryContext#streaming()}. Contrary to {@link Hits} nothing is
+ * collected up front and nothing is scored: the matching documents of one
+ * segment of the index at a time are walked in document order, a page of
+ * document ids at a time, and the entity id of a document is read from its
+ * stored id field only when it's about to be returned.
+ * 
+ * Ids added in the transaction, {@code additions}, are returned first.
+ * {@link #size()} counts the matches in a separate pass, which doesn't read
+ * any stored fields unless there is transaction state to consider, or uses
+ * the number of returned ids if the iteration has been completed already.
+ * The hits can't be counted after they have been closed before that.
+ */
+class StreamingHits extends AbstractIndexHits<Long>
+{
+    static final int PAGE_SIZE = 1024;
+    private static final FieldSelector ID_SELECTOR =
+            new MapFieldSelector( new String[] { LuceneIndex.KEY_DOC_ID } );
+    
+    private final Weight weight;
+    private final List<IndexReader> readers = new ArrayList<IndexReader>();
+    private final Collection<Long> additions;
+    private final Collection<Long> exclude;
+    private final Iterator<Long> additionsIterator;
+    private IndexSearcherRef searcherOrNull;
+    private int readerIndex = -1;
+    private DocIdSetIterator docs;
+    private final int[] page = new int[PAGE_SIZE];
+    private int pageLength;
+    private int pagePosition;
+    private int returned;
+    private int size = -1;
+    
+    StreamingHits( Query query, IndexSearcherRef searcher, Collection<Long> additions,
+            Collection<Long> exclude ) throws IOException
+    {
+        IndexSearcher indexSearcher = searcher.getSearcher();
+        this.weight = query.weight( indexSearcher );
+        ReaderUtil.gatherSubReaders( readers, indexSearcher.getIndexReader() );
+        this.searcherOrNull = searcher;
+        this.additions = additions;
+        this.exclude = exclude;
+        this.additionsIterator = additions.iterator();
+    }
+
+    @Override
+    protected Long fetchNextOrNull()
+    {
+        Long result = additionsIterator.hasNext() ? additionsIterator.next() : null;
+        try
+        {
+            while ( result == null )
+            {
+                if ( pagePosition == pageLength && !fillPage() )
+                {
+                    size = returned;
+                    close();
+                    return null;
+                }
+                IndexReader reader = readers.get( readerIndex );
+                long id = entityId( reader, page[pagePosition++] );
+                if ( accept( id ) )
+                {
+                    result = id;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        returned++;
+        return result;
+    }
+    
+    private boolean accept( long id )
+    {
+        return !exclude.contains( id ) && !additions.contains( id );
+    }
+    
+    private static long entityId( IndexReader reader, int doc ) throws IOException
+    {
+        return Long.parseLong( reader.document( doc, ID_SELECTOR ).get( LuceneIndex.KEY_DOC_ID ) );
+    }
+    
+    /**
+     * Reads the next page of matching document ids, moving on to the next
+     * segment if this one has been exhausted.
+     * @return {@code false} if there are no more matches.
+     */
+    private boolean fillPage() throws IOException
+    {
+        if ( searcherOrNull == null )
+        {
+            return false;
+        }
+        pageLength = 0;
+        pagePosition = 0;
+        while ( pageLength == 0 )
+        {
+            if ( docs == null )
+            {
+                if ( ++readerIndex >= readers.size() )
+                {
+                    return false;
+                }
+                docs = weight.scorer( readers.get( readerIndex ), true, false );
+                if ( docs == null )
+                {
+                    continue;
+                }
+            }
+            int doc;
+            while ( pageLength < PAGE_SIZE && (doc = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS )
+            {
+                page[pageLength++] = doc;
+            }
+            if ( pageLength < PAGE_SIZE )
+            {
+                docs = null;
+            }
+        }
+        return true;
+    }
+
+    public int size()
+    {
+        if ( size == -1 )
+        {
+            if ( searcherOrNull == null )
+            {
+                throw new IllegalStateException( "Can't count the hits after they have been closed" );
+            }
+            try
+            {
+                size = count();
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( e );
+            }
+        }
+        return size;
+    }
+    
+    private int count() throws IOException
+    {
+        boolean checkIds = !exclude.isEmpty() || !additions.isEmpty();
+        int count = additions.size();
+        for ( IndexReader reader : readers )
+        {
+            Scorer scorer = weight.scorer( reader, true, false );
+            if ( scorer == null )
+            {
+                continue;
+            }
+            int doc;
+            while ( (doc = scorer.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS )
+            {
+                if ( !checkIds || accept( entityId( reader, doc ) ) )
+                {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public float currentScore()
+    {
+        return Float.NaN;
+    }
+    
+    @Override
+    public void close()
+    {
+        if ( this.searcherOrNull != null )
+        {
+            this.searcherOrNull.closeStrict();
+            this.searcherOrNull = null;
+        }
+    }
+    
+    @Override
+    protected void finalize() throws Throwable
+    {
+        close();
+        super.finalize();
+    }
+}
@@ -52,6 +52,14 @@ public class ValueContext
         return this;
     }
     
+    /**
+     * @return the value, as it was given.
+     */
+    public Object getValue()
+    {
+        return this.value;
+    }
+    
     Object getCorrectValue()
     {
         return this.indexNumeric ? this.value : this.value.toString();
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+/**
+ * A value/entity id pair, the unit which is kept in sorted order in a
+ * {@link SortedStore}. Entries are ordered by value first and entity id
+ * second so that several entities can have the same value.
+ */
+final class Entry implements Comparable<Entry>
+{
+    final long value;
+    final long id;
+    
+    Entry( long value, long id )
+    {
+        this.value = value;
+        this.id = id;
+    }
+    
+    /**
+     * @return the lowest possible entry for {@code value}, to be used as
+     * a bound when searching.
+     */
+    static Entry lowest( long value )
+    {
+        return new Entry( value, Long.MIN_VALUE );
+    }
+
+    public int compareTo( Entry o )
+    {
+        if ( value != o.value )
+        {
+            return value < o.value ? -1 : 1;
+        }
+        return id < o.id ? -1 : (id == o.id ? 0 : 1);
+    }
+    
+    @Override
+    public boolean equals( Object o )
+    {
+        return o instanceof Entry && ((Entry) o).value == value && ((Entry) o).id == id;
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return (int) (value ^ (value >>> 32)) * 31 + (int) (id ^ (id >>> 32));
+    }
+    
+    @Override
+    public String toString()
+    {
+        return value + ":" + id;
+    }
+}
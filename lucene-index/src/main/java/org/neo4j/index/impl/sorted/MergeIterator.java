@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+/**
+ * Merges a number of sorted sources of {@link Entry entries} into one
+ * sorted stream, in ascending or descending order. If the same entry is
+ * found in more than one source the one with the highest rank, i.e. the
+ * newest source, decides whether it's added or removed. Entries from
+ * sources which aren't transactional are treated as removed if their
+ * entity id is in {@code hiddenIds}.
+ */
+class MergeIterator extends PrefetchingIterator<Map.Entry<Entry, Boolean>>
+{
+    private final PriorityQueue<Source> queue;
+    private final Set<Long> hiddenIds;
+    
+    MergeIterator( Collection<Source> sources, final boolean reversed, Set<Long> hiddenIds )
+    {
+        this.hiddenIds = hiddenIds;
+        this.queue = new PriorityQueue<Source>( Math.max( 1, sources.size() ),
+                new Comparator<Source>()
+        {
+            public int compare( Source o1, Source o2 )
+            {
+                int result = o1.current.compareTo( o2.current );
+                if ( result == 0 )
+                {
+                    return o2.rank - o1.rank;
+                }
+                return reversed ? -result : result;
+            }
+        } );
+        for ( Source source : sources )
+        {
+            if ( source.advance() )
+            {
+                queue.add( source );
+            }
+        }
+    }
+
+    @Override
+    protected Map.Entry<Entry, Boolean> fetchNextOrNull()
+    {
+        Source winner = queue.poll();
+        if ( winner == null )
+        {
+            return null;
+        }
+        Entry entry = winner.current;
+        boolean added = winner.added && (winner.transactional || hiddenIds == null ||
+                !hiddenIds.contains( entry.id ));
+        while ( !queue.isEmpty() && queue.peek().current.equals( entry ) )
+        {
+            advanceAndRequeue( queue.poll() );
+        }
+        advanceAndRequeue( winner );
+        return new SimpleImmutableEntry<Entry, Boolean>( entry, added );
+    }
+    
+    private void advanceAndRequeue( Source source )
+    {
+        if ( source.advance() )
+        {
+            queue.add( source );
+        }
+    }
+    
+    /**
+     * @return the entity ids of the added entries from {@code entries}.
+     */
+    static Iterator<Long> addedIds( final Iterator<Map.Entry<Entry, Boolean>> entries )
+    {
+        return new PrefetchingIterator<Long>()
+        {
+            @Override
+            protected Long fetchNextOrNull()
+            {
+                while ( entries.hasNext() )
+                {
+                    Map.Entry<Entry, Boolean> entry = entries.next();
+                    if ( entry.getValue() )
+                    {
+                        return entry.getKey().id;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+    
+    static abstract class Source
+    {
+        final int rank;
+        final boolean transactional;
+        Entry current;
+        boolean added;
+        
+        Source( int rank, boolean transactional )
+        {
+            this.rank = rank;
+            this.transactional = transactional;
+        }
+        
+        /**
+         * Moves to the next entry, setting {@link #current} and
+         * {@link #added}.
+         * @return {@code false} if this source is exhausted.
+         */
+        abstract boolean advance();
+    }
+    
+    static class MapSource extends Source
+    {
+        private final Iterator<Map.Entry<Entry, Boolean>> iterator;
+        
+        MapSource( int rank, boolean transactional, NavigableMap<Entry, Boolean> map,
+                Entry fromInclusiveOrNull, Entry toExclusiveOrNull, boolean reversed )
+        {
+            super( rank, transactional );
+            NavigableMap<Entry, Boolean> range = map;
+            if ( fromInclusiveOrNull != null )
+            {
+                range = range.tailMap( fromInclusiveOrNull, true );
+            }
+            if ( toExclusiveOrNull != null )
+            {
+                range = range.headMap( toExclusiveOrNull, false );
+            }
+            this.iterator = (reversed ? range.descendingMap() : range).entrySet().iterator();
+        }
+
+        @Override
+        boolean advance()
+        {
+            if ( !iterator.hasNext() )
+            {
+                return false;
+            }
+            Map.Entry<Entry, Boolean> entry = iterator.next();
+            current = entry.getKey();
+            added = entry.getValue();
+            return true;
+        }
+    }
+    
+    static class SegmentSource extends Source
+    {
+        private final Segment segment;
+        private final boolean reversed;
+        private final int low;
+        private final int high;
+        private int next;
+        
+        SegmentSource( int rank, Segment segment, Entry fromInclusiveOrNull,
+                Entry toExclusiveOrNull, boolean reversed )
+        {
+            super( rank, false );
+            this.segment = segment;
+            this.reversed = reversed;
+            this.low = fromInclusiveOrNull != null ? segment.lowerBound( fromInclusiveOrNull ) : 0;
+            this.high = toExclusiveOrNull != null ?
+                    segment.lowerBound( toExclusiveOrNull ) : segment.count();
+            this.next = reversed ? high - 1 : low;
+        }
+
+        @Override
+        boolean advance()
+        {
+            if ( next < low || next >= high )
+            {
+                return false;
+            }
+            current = segment.entry( next );
+            added = segment.added( next );
+            next += reversed ? -1 : 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+/**
+ * A query object for {@link SortedIndex#query(String, Object)}, asking for
+ * the entities which have values within a range. The bounds are inclusive
+ * and the entities are returned with the lowest value first, unless told
+ * otherwise:
+ * 
+ * <pre>
+ * index.query( "price", new Range( 10, 20 ).excludeTo().reversed() );
+ * </pre>
+ */
+public class Range
+{
+    final Number fromOrNull;
+    final Number toOrNull;
+    boolean fromInclusive = true;
+    boolean toInclusive = true;
+    boolean reversed;
+    
+    /**
+     * @param fromOrNull the lower bound of the range, or {@code null} for
+     * no lower bound.
+     * @param toOrNull the upper bound of the range, or {@code null} for
+     * no upper bound.
+     */
+    public Range( Number fromOrNull, Number toOrNull )
+    {
+        this.fromOrNull = fromOrNull;
+        this.toOrNull = toOrNull;
+    }
+    
+    /**
+     * Makes the lower bound exclusive.
+     * @return this range.
+     */
+    public Range excludeFrom()
+    {
+        this.fromInclusive = false;
+        return this;
+    }
+    
+    /**
+     * Makes the upper bound exclusive.
+     * @return this range.
+     */
+    public Range excludeTo()
+    {
+        this.toInclusive = false;
+        return this;
+    }
+    
+    /**
+     * Returns the entities with the highest value first.
+     * @return this range.
+     */
+    public Range reversed()
+    {
+        this.reversed = true;
+        return this;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return (fromInclusive ? "[" : "(") + (fromOrNull != null ? fromOrNull : "*") + "," +
+                (toOrNull != null ? toOrNull : "*") + (toInclusive ? "]" : ")") +
+                (reversed ? " reversed" : "");
+    }
+}
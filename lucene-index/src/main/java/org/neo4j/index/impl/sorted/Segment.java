@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * An immutable file of {@link Entry entries} in sorted order, each stored
+ * as a fixed size record so that it can be binary searched. A record is
+ * the value, the entity id and a byte which says whether the entry was
+ * added or removed, i.e. if it's a tombstone hiding the same entry in an
+ * older segment. The file is memory mapped read-only, reads use absolute
+ * positions and can be done concurrently.
+ */
+class Segment
+{
+    static final int RECORD_SIZE = 17;
+    private static final int WRITE_CHUNK = 4096;
+    
+    final long number;
+    final File file;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    
+    private Segment( long number, File file, MappedByteBuffer buffer )
+    {
+        this.number = number;
+        this.file = file;
+        this.buffer = buffer;
+        this.count = buffer.capacity() / RECORD_SIZE;
+    }
+    
+    static Segment open( long number, File file ) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            return new Segment( number, file, channel.map( MapMode.READ_ONLY, 0, channel.size() ) );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Writes the entries, which must come in sorted order, to {@code file}
+     * and forces it to disk. Entries mapped to {@code false} are written as
+     * tombstones, unless {@code dropTombstones} is set, which is the case
+     * when there are no older segments for them to hide anything in.
+     */
+    static void write( File file, Iterator<Map.Entry<Entry, Boolean>> entries,
+            boolean dropTombstones ) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            channel.truncate( 0 );
+            ByteBuffer chunk = ByteBuffer.allocate( RECORD_SIZE * WRITE_CHUNK );
+            while ( entries.hasNext() )
+            {
+                Map.Entry<Entry, Boolean> entry = entries.next();
+                if ( dropTombstones && !entry.getValue() )
+                {
+                    continue;
+                }
+                if ( !chunk.hasRemaining() )
+                {
+                    writeChunk( channel, chunk );
+                }
+                chunk.putLong( entry.getKey().value );
+                chunk.putLong( entry.getKey().id );
+                chunk.put( entry.getValue() ? (byte) 1 : (byte) 0 );
+            }
+            writeChunk( channel, chunk );
+            channel.force( false );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+    
+    private static void writeChunk( FileChannel channel, ByteBuffer chunk ) throws IOException
+    {
+        chunk.flip();
+        while ( chunk.hasRemaining() )
+        {
+            channel.write( chunk );
+        }
+        chunk.clear();
+    }
+    
+    int count()
+    {
+        return count;
+    }
+    
+    long value( int index )
+    {
+        return buffer.getLong( index * RECORD_SIZE );
+    }
+    
+    long id( int index )
+    {
+        return buffer.getLong( index * RECORD_SIZE + 8 );
+    }
+    
+    boolean added( int index )
+    {
+        return buffer.get( index * RECORD_SIZE + 16 ) != 0;
+    }
+    
+    Entry entry( int index )
+    {
+        return new Entry( value( index ), id( index ) );
+    }
+    
+    /**
+     * @return the index of the first record which is greater than or equal
+     * to {@code bound}, or {@link #count()} if there's no such record.
+     */
+    int lowerBound( Entry bound )
+    {
+        int low = 0;
+        int high = count;
+        while ( low < high )
+        {
+            int middle = (low + high) >>> 1;
+            long value = value( middle );
+            boolean less = value < bound.value || (value == bound.value && id( middle ) < bound.id);
+            if ( less )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "Segment[" + file.getName() + ", " + count + " entries]";
+    }
+}
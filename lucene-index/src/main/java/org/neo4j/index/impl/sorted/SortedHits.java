@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+
+import org.neo4j.helpers.Predicate;
+import org.neo4j.index.impl.lucene.AbstractIndexHits;
+
+/**
+ * The entity ids of a range of a {@link SortedStore}, in order. The ids are
+ * read lazily from a consistent view of the store, so that a large range
+ * can be streamed. {@link #size()} counts the range in a separate pass.
+ */
+class SortedHits extends AbstractIndexHits<Long>
+{
+    private final SortedStore.State state;
+    private final NavigableMap<Entry, Boolean> txChanges;
+    private final Entry from;
+    private final Entry to;
+    private final boolean reversed;
+    private final Set<Long> hiddenIds;
+    private final Predicate<Long> filter;
+    private final Iterator<Long> ids;
+    private int size = -1;
+    
+    SortedHits( SortedStore.State state, NavigableMap<Entry, Boolean> txChangesOrNull,
+            Entry fromInclusiveOrNull, Entry toExclusiveOrNull, boolean reversed,
+            Set<Long> hiddenIdsOrNull, Predicate<Long> filterOrNull )
+    {
+        this.state = state;
+        this.txChanges = txChangesOrNull;
+        this.from = fromInclusiveOrNull;
+        this.to = toExclusiveOrNull;
+        this.reversed = reversed;
+        this.hiddenIds = hiddenIdsOrNull;
+        this.filter = filterOrNull;
+        this.ids = newIterator();
+    }
+    
+    private Iterator<Long> newIterator()
+    {
+        Iterator<Map.Entry<Entry, Boolean>> entries =
+                state.entries( txChanges, from, to, reversed, hiddenIds );
+        return MergeIterator.addedIds( entries );
+    }
+
+    @Override
+    protected Long fetchNextOrNull()
+    {
+        while ( ids.hasNext() )
+        {
+            Long id = ids.next();
+            if ( filter == null || filter.accept( id ) )
+            {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    public int size()
+    {
+        if ( size == -1 )
+        {
+            int count = 0;
+            for ( Iterator<Long> iterator = newIterator(); iterator.hasNext(); )
+            {
+                Long id = iterator.next();
+                if ( filter == null || filter.accept( id ) )
+                {
+                    count++;
+                }
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    public float currentScore()
+    {
+        return Float.NaN;
+    }
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.util.NavigableMap;
+import java.util.Set;
+
+import org.apache.lucene.search.NumericRangeQuery;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.index.impl.lucene.IdToEntityIterator;
+import org.neo4j.index.impl.lucene.ValueContext;
+import org.neo4j.kernel.impl.core.ReadOnlyDbException;
+import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
+
+/**
+ * An {@link Index} which keeps the entities of each key ordered by value.
+ * Values are integral numbers, i.e. {@link Long}, {@link Integer},
+ * {@link Short} or {@link Byte}, or any numbers for an index created with
+ * {@link SortedIndexImplementation#DOUBLE_CONFIG}, or a {@link ValueContext}
+ * wrapping one. Apart from exact lookups it can return the entities which
+ * have values within a range, in ascending or descending order, see
+ * {@link #between(String, Number, boolean, Number, boolean, boolean)}. Such a
+ * range is streamed from disk and the first or last entity of a key is
+ * found in logarithmic time.
+ * 
+ * {@link #query(String, Object)} takes a {@link Range}, a
+ * {@link NumericRangeQuery} as used with lucene indexes or a single value.
+ * 
+ * Uncommitted changes are visible to the transaction making them.
+ */
+public abstract class SortedIndex<T extends PropertyContainer> implements Index<T>
+{
+    private static final SortedStore.State EMPTY = new SortedStore.State( new Segment[0] );
+    
+    final SortedIndexImplementation service;
+    private final IndexIdentifier identifier;
+    private final ValueType valueType;
+    private volatile boolean deleted;
+
+    SortedIndex( SortedIndexImplementation service, IndexIdentifier identifier,
+            ValueType valueType )
+    {
+        this.service = service;
+        this.identifier = identifier;
+        this.valueType = valueType;
+    }
+    
+    SortedIndexXaConnection getConnection()
+    {
+        assertNotDeleted();
+        if ( service.broker() == null )
+        {
+            throw new ReadOnlyDbException();
+        }
+        return service.broker().acquireResourceConnection();
+    }
+    
+    private void assertNotDeleted()
+    {
+        if ( deleted )
+        {
+            throw new IllegalStateException( "This index (" + identifier + ") has been deleted" );
+        }
+    }
+
+    SortedIndexXaConnection getReadOnlyConnection()
+    {
+        assertNotDeleted();
+        return service.broker() == null ? null :
+                service.broker().acquireReadOnlyResourceConnection();
+    }
+    
+    void markAsDeleted()
+    {
+        this.deleted = true;
+    }
+    
+    IndexIdentifier getIdentifier()
+    {
+        return this.identifier;
+    }
+    
+    public String getName()
+    {
+        return this.identifier.indexName;
+    }
+    
+    long toLong( Object value )
+    {
+        return valueType.encode( value );
+    }
+    
+    public void add( T entity, String key, Object value )
+    {
+        SortedIndexXaConnection connection = getConnection();
+        for ( Object oneValue : IoPrimitiveUtils.asArray( value ) )
+        {
+            connection.add( this, entity, key, toLong( oneValue ) );
+        }
+    }
+
+    public void remove( T entity, String key, Object value )
+    {
+        SortedIndexXaConnection connection = getConnection();
+        for ( Object oneValue : IoPrimitiveUtils.asArray( value ) )
+        {
+            connection.remove( this, entity, key, toLong( oneValue ) );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The values of the entity aren't known here, so this requires a scan
+     * of all entries for the key when the transaction is committed.
+     */
+    public void remove( T entity, String key )
+    {
+        getConnection().remove( this, entity, key );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The keys and values of the entity aren't known here, so this requires
+     * a scan of all entries in the index when the transaction is committed.
+     */
+    public void remove( T entity )
+    {
+        getConnection().remove( this, entity );
+    }
+    
+    public void delete()
+    {
+        getConnection().deleteIndex( this );
+    }
+    
+    public IndexHits<T> get( String key, Object value )
+    {
+        return between( key, value, true, value, true, false, null );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @param queryOrQueryObject a {@link Range}, a {@link NumericRangeQuery}
+     * or a value to get the entities with exactly that value for.
+     */
+    public IndexHits<T> query( String key, Object queryOrQueryObject )
+    {
+        return query( key, queryOrQueryObject, null );
+    }
+    
+    IndexHits<T> query( String key, Object queryOrQueryObject, Predicate<Long> filterOrNull )
+    {
+        if ( queryOrQueryObject instanceof NumericRangeQuery )
+        {
+            NumericRangeQuery<?> query = (NumericRangeQuery<?>) queryOrQueryObject;
+            if ( key != null && !key.equals( query.getField() ) )
+            {
+                throw new IllegalArgumentException( "Key '" + key +
+                        "' doesn't match the field of " + query );
+            }
+            return between( query.getField(), query.getMin(), query.includesMin(),
+                    query.getMax(), query.includesMax(), false, filterOrNull );
+        }
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "A sorted index needs a key to be queried, " +
+                    "unless it's queried with a NumericRangeQuery" );
+        }
+        if ( queryOrQueryObject instanceof Range )
+        {
+            Range range = (Range) queryOrQueryObject;
+            return between( key, range.fromOrNull, range.fromInclusive, range.toOrNull,
+                    range.toInclusive, range.reversed, filterOrNull );
+        }
+        return between( key, queryOrQueryObject, true, queryOrQueryObject, true, false,
+                filterOrNull );
+    }
+
+    public IndexHits<T> query( Object queryOrQueryObject )
+    {
+        return query( null, queryOrQueryObject );
+    }
+    
+    /**
+     * Returns the entities which have a value for {@code key} within a range,
+     * ordered by value and then by entity id.
+     * 
+     * @param key the key to get the entities for.
+     * @param fromOrNull the lower bound of the range, or {@code null} for
+     * no lower bound.
+     * @param fromInclusive whether or not {@code fromOrNull} is part of the range.
+     * @param toOrNull the upper bound of the range, or {@code null} for
+     * no upper bound.
+     * @param toInclusive whether or not {@code toOrNull} is part of the range.
+     * @param reversed {@code true} for the highest value first.
+     * @return the entities within the range.
+     */
+    public IndexHits<T> between( String key, Number fromOrNull, boolean fromInclusive,
+            Number toOrNull, boolean toInclusive, boolean reversed )
+    {
+        return between( key, fromOrNull, fromInclusive, toOrNull, toInclusive, reversed, null );
+    }
+    
+    IndexHits<T> between( String key, Object fromOrNull, boolean fromInclusive,
+            Object toOrNull, boolean toInclusive, boolean reversed, Predicate<Long> filterOrNull )
+    {
+        SortedIndexXaConnection con = getReadOnlyConnection();
+        SortedIndexTransaction tx = con != null ? con.getSortedTx() : null;
+        NavigableMap<Entry, Boolean> txChanges = null;
+        Set<Long> removedIds = null;
+        SortedStore.State state = EMPTY;
+        if ( tx != null )
+        {
+            txChanges = tx.getChanges( this, key );
+            removedIds = tx.getRemovedIds( this, key );
+        }
+        if ( tx == null || !tx.isDeleted( this ) )
+        {
+            SortedStore store = service.dataSource().getStoreIfExists( identifier, key );
+            state = store != null ? store.state() : EMPTY;
+        }
+        
+        // Ids are far from Long.MAX_VALUE, so an entry with it as id is
+        // greater than all real entries with the same value
+        Entry from = fromOrNull == null ? null : (fromInclusive ?
+                Entry.lowest( toLong( fromOrNull ) ) : new Entry( toLong( fromOrNull ), Long.MAX_VALUE ));
+        Entry to = toOrNull == null ? null : (toInclusive ?
+                new Entry( toLong( toOrNull ), Long.MAX_VALUE ) : Entry.lowest( toLong( toOrNull ) ));
+        return new IdToEntityIterator<T>( new SortedHits( state, txChanges, from, to,
+                reversed, removedIds, filterOrNull ) )
+        {
+            @Override
+            protected T underlyingObjectToObject( Long id )
+            {
+                return getById( id );
+            }
+        };
+    }
+    
+    /**
+     * @return the entity with the lowest value for {@code key}, or
+     * {@code null} if there is none.
+     */
+    public T first( String key )
+    {
+        return firstOf( between( key, null, false, null, false, false ) );
+    }
+    
+    /**
+     * @return the entity with the highest value for {@code key}, or
+     * {@code null} if there is none.
+     */
+    public T last( String key )
+    {
+        return firstOf( between( key, null, false, null, false, true ) );
+    }
+    
+    private T firstOf( IndexHits<T> hits )
+    {
+        try
+        {
+            return hits.hasNext() ? hits.next() : null;
+        }
+        finally
+        {
+            hits.close();
+        }
+    }
+    
+    protected abstract T getById( long id );
+    
+    protected abstract long getEntityId( T entity );
+
+    static class NodeIndex extends SortedIndex<Node>
+    {
+        NodeIndex( SortedIndexImplementation service, IndexIdentifier identifier,
+                ValueType valueType )
+        {
+            super( service, identifier, valueType );
+        }
+
+        @Override
+        protected Node getById( long id )
+        {
+            return service.graphDb().getNodeById( id );
+        }
+        
+        @Override
+        protected long getEntityId( Node entity )
+        {
+            return entity.getId();
+        }
+        
+        public Class<Node> getEntityType()
+        {
+            return Node.class;
+        }
+    }
+    
+    static class RelationshipIndex extends SortedIndex<Relationship>
+            implements org.neo4j.graphdb.index.RelationshipIndex
+    {
+        RelationshipIndex( SortedIndexImplementation service, IndexIdentifier identifier,
+                ValueType valueType )
+        {
+            super( service, identifier, valueType );
+        }
+
+        @Override
+        protected Relationship getById( long id )
+        {
+            return service.graphDb().getRelationshipById( id );
+        }
+        
+        @Override
+        protected long getEntityId( Relationship entity )
+        {
+            return entity.getId();
+        }
+
+        public IndexHits<Relationship> get( String key, Object valueOrNull,
+                Node startNodeOrNull, Node endNodeOrNull )
+        {
+            if ( key == null || valueOrNull == null )
+            {
+                throw new UnsupportedOperationException( "A sorted index needs both key " +
+                        "and value to look up relationships" );
+            }
+            return between( key, valueOrNull, true, valueOrNull, true, false,
+                    filter( startNodeOrNull, endNodeOrNull ) );
+        }
+
+        public IndexHits<Relationship> query( String key, Object queryOrQueryObjectOrNull,
+                Node startNodeOrNull, Node endNodeOrNull )
+        {
+            return query( key, queryOrQueryObjectOrNull, filter( startNodeOrNull, endNodeOrNull ) );
+        }
+
+        public IndexHits<Relationship> query( Object queryOrQueryObjectOrNull,
+                Node startNodeOrNull, Node endNodeOrNull )
+        {
+            return query( null, queryOrQueryObjectOrNull, startNodeOrNull, endNodeOrNull );
+        }
+        
+        private Predicate<Long> filter( final Node startNodeOrNull, final Node endNodeOrNull )
+        {
+            if ( startNodeOrNull == null && endNodeOrNull == null )
+            {
+                return null;
+            }
+            return new Predicate<Long>()
+            {
+                public boolean accept( Long id )
+                {
+                    Relationship relationship;
+                    try
+                    {
+                        relationship = getById( id );
+                    }
+                    catch ( NotFoundException e )
+                    {
+                        return false;
+                    }
+                    return (startNodeOrNull == null ||
+                                    relationship.getStartNode().equals( startNodeOrNull )) &&
+                            (endNodeOrNull == null ||
+                                    relationship.getEndNode().equals( endNodeOrNull ));
+                }
+            };
+        }
+        
+        public Class<Relationship> getEntityType()
+        {
+            return Relationship.class;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
+
+abstract class SortedIndexCommand extends XaCommand
+{
+    private static final byte ADD_COMMAND = (byte) 1;
+    private static final byte REMOVE_COMMAND = (byte) 2;
+    private static final byte REMOVE_ENTITY_COMMAND = (byte) 3;
+    private static final byte DELETE_COMMAND = (byte) 4;
+    private static final byte CREATE_INDEX_COMMAND = (byte) 5;
+    
+    public static final byte NODE = (byte) 1;
+    public static final byte RELATIONSHIP = (byte) 2;
+    
+    final IndexIdentifier indexId;
+    final long entityId;
+    final String key;
+    final long value;
+    final byte type;
+    
+    SortedIndexCommand( IndexIdentifier indexId, long entityId, String key, long value, byte type )
+    {
+        assert indexId.entityTypeByte == NODE || indexId.entityTypeByte == RELATIONSHIP;
+        this.indexId = indexId;
+        this.entityId = entityId;
+        this.key = key;
+        this.value = value;
+        this.type = type;
+    }
+    
+    @Override
+    public void execute()
+    {
+        // Performed by the transaction, see SortedIndexTransaction#doCommit
+    }
+    
+    abstract void perform( SortedIndexDataSource dataSource, boolean recovery );
+    
+    static Class<? extends PropertyContainer> entityType( byte entityTypeByte )
+    {
+        if ( entityTypeByte == NODE )
+        {
+            return Node.class;
+        }
+        else if ( entityTypeByte == RELATIONSHIP )
+        {
+            return Relationship.class;
+        }
+        throw new IllegalArgumentException( "Unknown entity type " + entityTypeByte );
+    }
+    
+    static byte entityTypeByte( Class<? extends PropertyContainer> entityType )
+    {
+        if ( entityType == Node.class )
+        {
+            return NODE;
+        }
+        else if ( entityType == Relationship.class )
+        {
+            return RELATIONSHIP;
+        }
+        throw new IllegalArgumentException( "Unknown entity type " + entityType );
+    }
+
+    @Override
+    public void writeToFile( LogBuffer buffer ) throws IOException
+    {
+        buffer.put( type );
+        buffer.put( indexId.entityTypeByte );
+        writeLengthAndString( buffer, indexId.indexName );
+        buffer.putInt( key == null ? -1 : key.length() );
+        if ( key != null )
+        {
+            buffer.put( key.toCharArray() );
+        }
+        buffer.putLong( value );
+        buffer.putLong( entityId );
+    }
+    
+    private static void writeLengthAndString( LogBuffer buffer, String string ) throws IOException
+    {
+        char[] chars = string.toCharArray();
+        buffer.putInt( chars.length );
+        buffer.put( chars );
+    }
+    
+    static class AddCommand extends SortedIndexCommand
+    {
+        AddCommand( IndexIdentifier indexId, long entityId, String key, long value )
+        {
+            super( indexId, entityId, key, value, ADD_COMMAND );
+        }
+        
+        @Override
+        void perform( SortedIndexDataSource dataSource, boolean recovery )
+        {
+            dataSource.getStore( indexId, key ).apply( value, entityId, true );
+        }
+    }
+    
+    static class RemoveCommand extends SortedIndexCommand
+    {
+        RemoveCommand( IndexIdentifier indexId, long entityId, String key, long value )
+        {
+            super( indexId, entityId, key, value, REMOVE_COMMAND );
+        }
+        
+        @Override
+        void perform( SortedIndexDataSource dataSource, boolean recovery )
+        {
+            dataSource.getStore( indexId, key ).apply( value, entityId, false );
+        }
+    }
+    
+    /**
+     * Removes an entity from one key, or all keys if {@code key} is
+     * {@code null}, regardless of value.
+     */
+    static class RemoveEntityCommand extends SortedIndexCommand
+    {
+        RemoveEntityCommand( IndexIdentifier indexId, long entityId, String keyOrNull )
+        {
+            super( indexId, entityId, keyOrNull, 0, REMOVE_ENTITY_COMMAND );
+        }
+        
+        @Override
+        void perform( SortedIndexDataSource dataSource, boolean recovery )
+        {
+            if ( key != null )
+            {
+                dataSource.getStore( indexId, key ).removeAll( entityId );
+            }
+            else
+            {
+                for ( SortedStore store : dataSource.getStores( indexId ) )
+                {
+                    store.removeAll( entityId );
+                }
+            }
+        }
+    }
+
+    static class DeleteCommand extends SortedIndexCommand
+    {
+        DeleteCommand( IndexIdentifier indexId )
+        {
+            super( indexId, -1L, null, 0, DELETE_COMMAND );
+        }
+        
+        @Override
+        void perform( SortedIndexDataSource dataSource, boolean recovery )
+        {
+            dataSource.deleteIndex( indexId, recovery );
+        }
+    }
+    
+    static class CreateIndexCommand extends SortedIndexCommand
+    {
+        private final Map<String, String> config;
+
+        CreateIndexCommand( IndexIdentifier indexId, Map<String, String> config )
+        {
+            super( indexId, -1L, null, 0, CREATE_INDEX_COMMAND );
+            this.config = config;
+        }
+        
+        public Map<String, String> getConfig()
+        {
+            return config;
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            buffer.put( type );
+            buffer.put( indexId.entityTypeByte );
+            writeLengthAndString( buffer, indexId.indexName );
+            buffer.putInt( config.size() );
+            for ( Map.Entry<String, String> entry : config.entrySet() )
+            {
+                writeLengthAndString( buffer, entry.getKey() );
+                writeLengthAndString( buffer, entry.getValue() );
+            }
+        }
+        
+        @Override
+        void perform( SortedIndexDataSource dataSource, boolean recovery )
+        {
+            dataSource.indexStore.setIfNecessary( entityType( indexId.entityTypeByte ),
+                    indexId.indexName, config );
+        }
+    }
+    
+    static XaCommand readCommand( ReadableByteChannel channel, ByteBuffer buffer )
+            throws IOException
+    {
+        // Read what type of command it is
+        buffer.clear(); buffer.limit( 2 );
+        if ( channel.read( buffer ) != buffer.limit() )
+        {
+            return null;
+        }
+        buffer.flip();
+        byte commandType = buffer.get();
+        byte entityTypeByte = buffer.get();
+        if ( entityTypeByte != NODE && entityTypeByte != RELATIONSHIP )
+        {
+            return null;
+        }
+        
+        String indexName = IoPrimitiveUtils.readLengthAndString( channel, buffer );
+        if ( indexName == null )
+        {
+            return null;
+        }
+        IndexIdentifier indexId = new IndexIdentifier( entityTypeByte, indexName );
+        
+        if ( commandType == CREATE_INDEX_COMMAND )
+        {
+            Integer size = IoPrimitiveUtils.readInt( channel, buffer );
+            if ( size == null )
+            {
+                return null;
+            }
+            Map<String, String> config = new HashMap<String, String>();
+            for ( int i = 0; i < size; i++ )
+            {
+                String key = IoPrimitiveUtils.readLengthAndString( channel, buffer );
+                String value = IoPrimitiveUtils.readLengthAndString( channel, buffer );
+                if ( key == null || value == null )
+                {
+                    return null;
+                }
+                config.put( key, value );
+            }
+            return new CreateIndexCommand( indexId, config );
+        }
+        
+        Integer keyLength = IoPrimitiveUtils.readInt( channel, buffer );
+        if ( keyLength == null )
+        {
+            return null;
+        }
+        String key = null;
+        if ( keyLength != -1 )
+        {
+            key = IoPrimitiveUtils.readString( channel, buffer, keyLength );
+            if ( key == null )
+            {
+                return null;
+            }
+        }
+        Long value = IoPrimitiveUtils.readLong( channel, buffer );
+        Long entityId = IoPrimitiveUtils.readLong( channel, buffer );
+        if ( value == null || entityId == null )
+        {
+            return null;
+        }
+        
+        switch ( commandType )
+        {
+        case ADD_COMMAND: return new AddCommand( indexId, entityId, key, value );
+        case REMOVE_COMMAND: return new RemoveCommand( indexId, entityId, key, value );
+        case REMOVE_ENTITY_COMMAND: return new RemoveEntityCommand( indexId, entityId, key );
+        case DELETE_COMMAND: return new DeleteCommand( indexId );
+        default:
+            throw new IOException( "Unknown command type[" + commandType + "]" );
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.helpers.collection.ClosableIterable;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.index.IndexProviderStore;
+import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBackedXaDataSource;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
+import org.neo4j.kernel.impl.transaction.xaframework.XaContainer;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+import org.neo4j.kernel.impl.transaction.xaframework.XaTransaction;
+import org.neo4j.kernel.impl.transaction.xaframework.XaTransactionFactory;
+
+/**
+ * An {@link XaDataSource} for the {@link SortedIndexImplementation}, keeping
+ * one {@link SortedStore} per index and key. Committed changes are kept in
+ * memory and written to the stores when the logical log is rotated or the
+ * data source is closed. Since a rotation writes them out first, the active
+ * log holds every change after that and after a crash the recovery of it
+ * applies all committed transactions in it again, also those marked as done.
+ * Applying some of them on top of a later checkpoint (see
+ * {@link #listStoreFiles()}) is harmless since they're applied in order.
+ * This class is public because the XA framework requires it.
+ */
+public class SortedIndexDataSource extends LogBackedXaDataSource
+{
+    public static final String DEFAULT_NAME = "sorted-index";
+    public static final byte[] DEFAULT_BRANCH_ID = "162375".getBytes();
+    
+    private final XaContainer xaContainer;
+    private final File baseDirectory;
+    private final Lock lock = new ReentrantLock();
+    private final Map<IndexIdentifier, Map<String, SortedStore>> stores =
+            new HashMap<IndexIdentifier, Map<String, SortedStore>>();
+    private final AtomicInteger backupsInProgress = new AtomicInteger();
+    final IndexStore indexStore;
+    final IndexProviderStore providerStore;
+    private boolean closed;
+    final Map<IndexIdentifier, SortedIndex<? extends PropertyContainer>> indexes =
+            new HashMap<IndexIdentifier, SortedIndex<? extends PropertyContainer>>();
+
+    /**
+     * Constructs this data source.
+     * 
+     * @param params XA parameters.
+     * @throws InstantiationException if the data source couldn't be
+     * instantiated
+     */
+    public SortedIndexDataSource( Map<Object,Object> params ) 
+        throws InstantiationException
+    {
+        super( params );
+        String storeDir = (String) params.get( "store_dir" );
+        this.baseDirectory = new File( new File( storeDir, "index" ), "sorted" );
+        if ( !baseDirectory.exists() && !baseDirectory.mkdirs() )
+        {
+            throw new RuntimeException( "Unable to create directory path["
+                + baseDirectory.getAbsolutePath() + "] for Neo4j store." );
+        }
+        this.indexStore = (IndexStore) params.get( IndexStore.class );
+        this.providerStore = new IndexProviderStore( new File( baseDirectory, "sorted-store.db" ) );
+        boolean isReadOnly = false;
+        if ( params.containsKey( "read_only" ) )
+        {
+            Object readOnly = params.get( "read_only" );
+            if ( readOnly instanceof Boolean )
+            {
+                isReadOnly = (Boolean) readOnly;
+            }
+            else
+            {
+                isReadOnly = Boolean.parseBoolean( (String) readOnly );
+            }
+        }
+
+        XaCommandFactory cf = new SortedIndexCommandFactory();
+        XaTransactionFactory tf = new SortedIndexTransactionFactory();
+        xaContainer = XaContainer.create( this, new File( baseDirectory, "sorted.log" ).getPath(),
+                cf, tf, params );
+
+        if ( !isReadOnly )
+        {
+            try
+            {
+                xaContainer.openLogicalLog();
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( "Unable to open sorted index log in " +
+                        baseDirectory, e );
+            }
+            
+            xaContainer.getLogicalLog().setKeepLogs(
+                    shouldKeepLog( (String) params.get( Config.KEEP_LOGICAL_LOGS ), DEFAULT_NAME ) );
+            setLogicalLogAtCreationTime( xaContainer.getLogicalLog() );
+        }
+    }
+    
+    private File indexDirectory( IndexIdentifier identifier )
+    {
+        return new File( new File( baseDirectory, identifier.entityTypeByte ==
+                SortedIndexCommand.NODE ? "node" : "relationship" ), encode( identifier.indexName ) );
+    }
+    
+    /**
+     * Encodes an index name or key so that it can be used as a file name.
+     */
+    private static String encode( String name )
+    {
+        try
+        {
+            return URLEncoder.encode( name, "UTF-8" ).replace( ".", "%2E" ).replace( "*", "%2A" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new Error( e );
+        }
+    }
+    
+    private static String decode( String fileName )
+    {
+        try
+        {
+            return URLDecoder.decode( fileName, "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new Error( e );
+        }
+    }
+    
+    /**
+     * @return the store for {@code key} in the index, created if it doesn't
+     * exist.
+     */
+    synchronized SortedStore getStore( IndexIdentifier identifier, String key )
+    {
+        Map<String, SortedStore> keys = stores.get( identifier );
+        if ( keys == null )
+        {
+            keys = new HashMap<String, SortedStore>();
+            stores.put( identifier, keys );
+        }
+        SortedStore store = keys.get( key );
+        if ( store == null )
+        {
+            store = new SortedStore( new File( indexDirectory( identifier ), encode( key ) ) );
+            keys.put( key, store );
+        }
+        return store;
+    }
+    
+    /**
+     * @return the store for {@code key} in the index or {@code null} if
+     * nothing has been stored for that key.
+     */
+    synchronized SortedStore getStoreIfExists( IndexIdentifier identifier, String key )
+    {
+        Map<String, SortedStore> keys = stores.get( identifier );
+        if ( (keys == null || !keys.containsKey( key )) &&
+                !new File( indexDirectory( identifier ), encode( key ) ).exists() )
+        {
+            return null;
+        }
+        return getStore( identifier, key );
+    }
+    
+    /**
+     * @return the stores of all the keys in the index.
+     */
+    synchronized Collection<SortedStore> getStores( IndexIdentifier identifier )
+    {
+        File[] keyDirectories = indexDirectory( identifier ).listFiles();
+        if ( keyDirectories != null )
+        {
+            for ( File keyDirectory : keyDirectories )
+            {
+                getStore( identifier, decode( keyDirectory.getName() ) );
+            }
+        }
+        Map<String, SortedStore> keys = stores.get( identifier );
+        return keys != null ? new ArrayList<SortedStore>( keys.values() ) :
+                new ArrayList<SortedStore>();
+    }
+    
+    synchronized void deleteIndex( IndexIdentifier identifier, boolean recovery )
+    {
+        stores.remove( identifier );
+        deleteFileOrDirectory( indexDirectory( identifier ) );
+        Class<? extends PropertyContainer> entityType =
+                SortedIndexCommand.entityType( identifier.entityTypeByte );
+        boolean removeFromIndexStore = !recovery || (recovery &&
+                indexStore.has( entityType, identifier.indexName ));
+        if ( removeFromIndexStore )
+        {
+            indexStore.remove( entityType, identifier.indexName );
+        }
+        synchronized ( indexes )
+        {
+            SortedIndex<? extends PropertyContainer> index = indexes.remove( identifier );
+            if ( index != null )
+            {
+                index.markAsDeleted();
+            }
+        }
+    }
+    
+    private static void deleteFileOrDirectory( File file )
+    {
+        if ( file.exists() )
+        {
+            if ( file.isDirectory() )
+            {
+                for ( File child : file.listFiles() )
+                {
+                    deleteFileOrDirectory( child );
+                }
+            }
+            file.delete();
+        }
+    }
+    
+    private void checkpoint()
+    {
+        getWriteLock();
+        try
+        {
+            boolean mayMerge = backupsInProgress.get() == 0;
+            synchronized ( this )
+            {
+                for ( Map<String, SortedStore> keys : stores.values() )
+                {
+                    for ( SortedStore store : keys.values() )
+                    {
+                        store.checkpoint( mayMerge );
+                    }
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to write sorted index changes to disk", e );
+        }
+        finally
+        {
+            releaseWriteLock();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if ( closed )
+        {
+            return;
+        }
+        checkpoint();
+        if ( xaContainer != null )
+        {
+            xaContainer.close();
+        }
+        providerStore.close();
+        closed = true;
+    }
+
+    @Override
+    public XaConnection getXaConnection()
+    {
+        return new SortedIndexXaConnection( baseDirectory, xaContainer
+            .getResourceManager(), getBranchId() );
+    }
+    
+    private class SortedIndexCommandFactory extends XaCommandFactory
+    {
+        @Override
+        public XaCommand readCommand( ReadableByteChannel channel, 
+            ByteBuffer buffer ) throws IOException
+        {
+            return SortedIndexCommand.readCommand( channel, buffer );
+        }
+    }
+    
+    private class SortedIndexTransactionFactory extends XaTransactionFactory
+    {
+        @Override
+        public XaTransaction create( int identifier )
+        {
+            return new SortedIndexTransaction( identifier, this.getLogicalLog(),
+                    SortedIndexDataSource.this );
+        }
+
+        @Override
+        public void flushAll()
+        {
+            checkpoint();
+        }
+
+        @Override
+        public long getCurrentVersion()
+        {
+            return providerStore.getVersion();
+        }
+        
+        @Override
+        public long getAndSetNewVersion()
+        {
+            return providerStore.incrementVersion();
+        }
+
+        @Override
+        public long getLastCommittedTx()
+        {
+            return providerStore.getLastCommittedTx();
+        }
+    }
+    
+    /**
+     * Held while changes are applied to, or written to, the stores. Readers
+     * don't need it, see {@link SortedStore}.
+     */
+    void getWriteLock()
+    {
+        lock.lock();
+    }
+    
+    void releaseWriteLock()
+    {
+        lock.unlock();
+    }
+    
+    @Override
+    public long getCreationTime()
+    {
+        return providerStore.getCreationTime();
+    }
+    
+    @Override
+    public long getRandomIdentifier()
+    {
+        return providerStore.getRandomNumber();
+    }
+    
+    @Override
+    public long getCurrentLogVersion()
+    {
+        return providerStore.getVersion();
+    }
+    
+    @Override
+    public long getLastCommittedTxId()
+    {
+        return providerStore.getLastCommittedTx();
+    }
+
+    public void setLastCommittedTxId( long txId )
+    {
+        providerStore.setLastCommittedTx( txId );
+    }
+    
+    @Override
+    public XaContainer getXaContainer()
+    {
+        return this.xaContainer;
+    }
+    
+    /**
+     * Writes all committed changes to the stores and lists their files.
+     * Segments aren't merged, and so not deleted, until the returned
+     * iterable has been closed. Segments which were merged before that
+     * and still are around may be listed too, they are ignored and
+     * deleted when the store is opened.
+     */
+    @Override
+    public ClosableIterable<File> listStoreFiles() throws IOException
+    {
+        final Collection<File> files = new ArrayList<File>();
+        getWriteLock();
+        try
+        {
+            checkpoint();
+            backupsInProgress.incrementAndGet();
+            addStoreFiles( baseDirectory, files );
+        }
+        finally
+        {
+            releaseWriteLock();
+        }
+        files.add( providerStore.getFile() );
+        return new ClosableIterable<File>()
+        {
+            public Iterator<File> iterator()
+            {
+                return files.iterator();
+            }
+
+            public void close()
+            {
+                backupsInProgress.decrementAndGet();
+            }
+        };
+    }
+    
+    private void addStoreFiles( File directory, Collection<File> files )
+    {
+        for ( File file : directory.listFiles() )
+        {
+            if ( file.isDirectory() )
+            {
+                addStoreFiles( file, files );
+            }
+            else if ( SortedStore.isStoreFile( file ) )
+            {
+                files.add( file );
+            }
+        }
+    }
+}
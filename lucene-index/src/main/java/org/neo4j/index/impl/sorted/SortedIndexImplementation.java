@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexImplementation;
+import org.neo4j.graphdb.index.RelationshipIndex;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.index.IndexConnectionBroker;
+import org.neo4j.kernel.impl.index.ReadOnlyIndexConnectionBroker;
+import org.neo4j.kernel.impl.transaction.TxModule;
+
+/**
+ * An {@link IndexImplementation} of {@link SortedIndex sorted indexes},
+ * where the entities of each key are kept ordered by value on disk. Use
+ * {@link #CONFIG} to create one for integral values, or
+ * {@link #DOUBLE_CONFIG} to create one for floating point values.
+ */
+public class SortedIndexImplementation extends IndexImplementation
+{
+    static final String KEY_PROVIDER = "provider";
+    static final String KEY_TYPE = "type";
+    public static final String SERVICE_NAME = "sorted";
+
+    public static final Map<String, String> CONFIG =
+            Collections.unmodifiableMap( MapUtil.stringMap( KEY_PROVIDER, SERVICE_NAME,
+                    KEY_TYPE, ValueType.LONG.name ) );
+    public static final Map<String, String> DOUBLE_CONFIG =
+            Collections.unmodifiableMap( MapUtil.stringMap( KEY_PROVIDER, SERVICE_NAME,
+                    KEY_TYPE, ValueType.DOUBLE.name ) );
+
+    private final IndexConnectionBroker<SortedIndexXaConnection> broker;
+    private final SortedIndexDataSource dataSource;
+    private final GraphDatabaseService graphDb;
+
+    SortedIndexImplementation( GraphDatabaseService db, Config config )
+    {
+        this.graphDb = db;
+        TxModule txModule = config.getTxModule();
+        boolean isReadOnly = config.isReadOnly();
+        Map<Object, Object> params = new HashMap<Object, Object>( config.getParams() );
+        params.put( "read_only", isReadOnly );
+        dataSource = (SortedIndexDataSource) txModule.registerDataSource(
+                SortedIndexDataSource.DEFAULT_NAME, SortedIndexDataSource.class.getName(),
+                SortedIndexDataSource.DEFAULT_BRANCH_ID, params, true );
+        broker = isReadOnly ? new ReadOnlyIndexConnectionBroker<SortedIndexXaConnection>( txModule.getTxManager() )
+                : new ConnectionBroker( txModule.getTxManager(), dataSource );
+    }
+
+    IndexConnectionBroker<SortedIndexXaConnection> broker()
+    {
+        return this.broker;
+    }
+
+    SortedIndexDataSource dataSource()
+    {
+        return this.dataSource;
+    }
+
+    GraphDatabaseService graphDb()
+    {
+        return this.graphDb;
+    }
+
+    @Override
+    public Index<Node> nodeIndex( String indexName, Map<String, String> config )
+    {
+        IndexIdentifier identifier = new IndexIdentifier( SortedIndexCommand.NODE, indexName );
+        synchronized ( dataSource.indexes )
+        {
+            SortedIndex index = dataSource.indexes.get( identifier );
+            if ( index == null )
+            {
+                index = new SortedIndex.NodeIndex( this, identifier, ValueType.of( config ) );
+                dataSource.indexes.put( identifier, index );
+            }
+            return index;
+        }
+    }
+
+    @Override
+    public RelationshipIndex relationshipIndex( String indexName, Map<String, String> config )
+    {
+        IndexIdentifier identifier = new IndexIdentifier( SortedIndexCommand.RELATIONSHIP, indexName );
+        synchronized ( dataSource.indexes )
+        {
+            SortedIndex index = dataSource.indexes.get( identifier );
+            if ( index == null )
+            {
+                index = new SortedIndex.RelationshipIndex( this, identifier,
+                        ValueType.of( config ) );
+                dataSource.indexes.put( identifier, index );
+            }
+            return (RelationshipIndex) index;
+        }
+    }
+
+    @Override
+    public Map<String, String> fillInDefaults( Map<String, String> source )
+    {
+        Map<String, String> result = source != null ?
+                new HashMap<String, String>( source ) : new HashMap<String, String>();
+        result.put( KEY_TYPE, ValueType.of( result ).name );
+        return result;
+    }
+
+    @Override
+    public boolean configMatches( Map<String, String> storedConfig, Map<String, String> config )
+    {
+        return ValueType.of( storedConfig ) == ValueType.of( config );
+    }
+
+    @Override
+    public String getDataSourceName()
+    {
+        return SortedIndexDataSource.DEFAULT_NAME;
+    }
+}
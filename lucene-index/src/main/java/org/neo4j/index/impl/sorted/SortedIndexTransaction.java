@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.index.impl.sorted.SortedIndexCommand.AddCommand;
+import org.neo4j.index.impl.sorted.SortedIndexCommand.CreateIndexCommand;
+import org.neo4j.index.impl.sorted.SortedIndexCommand.DeleteCommand;
+import org.neo4j.index.impl.sorted.SortedIndexCommand.RemoveCommand;
+import org.neo4j.index.impl.sorted.SortedIndexCommand.RemoveEntityCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
+import org.neo4j.kernel.impl.transaction.xaframework.XaTransaction;
+
+class SortedIndexTransaction extends XaTransaction
+{
+    private final Map<IndexIdentifier, TxIndexState> txState =
+            new HashMap<IndexIdentifier, TxIndexState>();
+    private final List<SortedIndexCommand> commands = new ArrayList<SortedIndexCommand>();
+    private final SortedIndexDataSource dataSource;
+
+    SortedIndexTransaction( int identifier, XaLogicalLog xaLog,
+            SortedIndexDataSource dataSource )
+    {
+        super( identifier, xaLog );
+        this.dataSource = dataSource;
+    }
+    
+    <T extends PropertyContainer> void add( SortedIndex<T> index, T entity, String key, long value )
+    {
+        long id = index.getEntityId( entity );
+        getTxState( index, true ).key( key, true ).changes.put( new Entry( value, id ), true );
+        commands.add( new AddCommand( index.getIdentifier(), id, key, value ) );
+    }
+    
+    <T extends PropertyContainer> void remove( SortedIndex<T> index, T entity, String key, long value )
+    {
+        long id = index.getEntityId( entity );
+        getTxState( index, true ).key( key, true ).changes.put( new Entry( value, id ), false );
+        commands.add( new RemoveCommand( index.getIdentifier(), id, key, value ) );
+    }
+    
+    <T extends PropertyContainer> void remove( SortedIndex<T> index, T entity, String key )
+    {
+        long id = index.getEntityId( entity );
+        TxKeyState state = getTxState( index, true ).key( key, true );
+        state.removedIds.add( id );
+        state.forget( id );
+        commands.add( new RemoveEntityCommand( index.getIdentifier(), id, key ) );
+    }
+    
+    <T extends PropertyContainer> void remove( SortedIndex<T> index, T entity )
+    {
+        long id = index.getEntityId( entity );
+        TxIndexState state = getTxState( index, true );
+        state.removedIds.add( id );
+        for ( TxKeyState keyState : state.keys.values() )
+        {
+            keyState.forget( id );
+        }
+        commands.add( new RemoveEntityCommand( index.getIdentifier(), id, null ) );
+    }
+    
+    <T extends PropertyContainer> void delete( SortedIndex<T> index )
+    {
+        IndexIdentifier identifier = index.getIdentifier();
+        for ( Iterator<SortedIndexCommand> iterator = commands.iterator(); iterator.hasNext(); )
+        {
+            SortedIndexCommand command = iterator.next();
+            if ( command.indexId.equals( identifier ) && !(command instanceof CreateIndexCommand) )
+            {
+                iterator.remove();
+            }
+        }
+        TxIndexState state = new TxIndexState();
+        state.deleted = true;
+        txState.put( identifier, state );
+        commands.add( new DeleteCommand( identifier ) );
+    }
+    
+    void createIndex( Class<? extends PropertyContainer> entityType, String name,
+            Map<String, String> config )
+    {
+        commands.add( new CreateIndexCommand( new IndexIdentifier(
+                SortedIndexCommand.entityTypeByte( entityType ), name ), config ) );
+    }
+    
+    private TxIndexState getTxState( SortedIndex<?> index, boolean createIfNotExists )
+    {
+        TxIndexState state = txState.get( index.getIdentifier() );
+        if ( state == null && createIfNotExists )
+        {
+            state = new TxIndexState();
+            txState.put( index.getIdentifier(), state );
+        }
+        if ( state != null && state.deleted && createIfNotExists )
+        {
+            throw new IllegalStateException( "This index (" + index.getIdentifier() +
+                    ") has been marked as deleted in this transaction" );
+        }
+        return state;
+    }
+    
+    /**
+     * @return whether or not {@code index} has been deleted in this
+     * transaction.
+     */
+    boolean isDeleted( SortedIndex<?> index )
+    {
+        TxIndexState state = getTxState( index, false );
+        return state != null && state.deleted;
+    }
+    
+    /**
+     * @return the entries added and removed for {@code key} in this
+     * transaction, or {@code null} if there are none.
+     */
+    NavigableMap<Entry, Boolean> getChanges( SortedIndex<?> index, String key )
+    {
+        TxIndexState state = getTxState( index, false );
+        TxKeyState keyState = state != null ? state.key( key, false ) : null;
+        return keyState != null ? keyState.changes : null;
+    }
+    
+    /**
+     * @return the ids of the entities which have been removed from
+     * {@code key} regardless of value in this transaction, or {@code null}
+     * if there are none.
+     */
+    Set<Long> getRemovedIds( SortedIndex<?> index, String key )
+    {
+        TxIndexState state = getTxState( index, false );
+        if ( state == null )
+        {
+            return null;
+        }
+        TxKeyState keyState = state.key( key, false );
+        if ( keyState == null || keyState.removedIds.isEmpty() )
+        {
+            return state.removedIds.isEmpty() ? null : state.removedIds;
+        }
+        Set<Long> result = new HashSet<Long>( keyState.removedIds );
+        result.addAll( state.removedIds );
+        return result;
+    }
+    
+    @Override
+    protected void doAddCommand( XaCommand command )
+    { // we override inject command and manage our own in memory command list
+    }
+    
+    @Override
+    protected void injectCommand( XaCommand command )
+    {
+        commands.add( (SortedIndexCommand) command );
+    }
+
+    @Override
+    protected void doPrepare()
+    {
+        for ( SortedIndexCommand command : commands )
+        {
+            addCommand( command );
+        }
+    }
+
+    @Override
+    protected void doCommit()
+    {
+        dataSource.getWriteLock();
+        try
+        {
+            for ( SortedIndexCommand command : commands )
+            {
+                command.perform( dataSource, command.isRecovered() );
+            }
+            dataSource.setLastCommittedTxId( getCommitTxId() );
+            txState.clear();
+        }
+        finally
+        {
+            dataSource.releaseWriteLock();
+        }
+    }
+
+    @Override
+    protected void doRollback()
+    {
+        commands.clear();
+        txState.clear();
+    }
+
+    @Override
+    public boolean isReadOnly()
+    {
+        return commands.isEmpty();
+    }
+    
+    private static class TxIndexState
+    {
+        private final Map<String, TxKeyState> keys = new HashMap<String, TxKeyState>();
+        private final Set<Long> removedIds = new HashSet<Long>();
+        private boolean deleted;
+        
+        TxKeyState key( String key, boolean createIfNotExists )
+        {
+            TxKeyState state = keys.get( key );
+            if ( state == null && createIfNotExists )
+            {
+                state = new TxKeyState();
+                keys.put( key, state );
+            }
+            return state;
+        }
+    }
+    
+    private static class TxKeyState
+    {
+        private final NavigableMap<Entry, Boolean> changes = new TreeMap<Entry, Boolean>();
+        private final Set<Long> removedIds = new HashSet<Long>();
+        
+        void forget( long id )
+        {
+            for ( Iterator<Entry> iterator = changes.keySet().iterator(); iterator.hasNext(); )
+            {
+                if ( iterator.next().id == id )
+                {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+}
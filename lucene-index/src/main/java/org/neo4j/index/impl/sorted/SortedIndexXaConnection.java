@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.util.Map;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.kernel.impl.index.IndexXaConnection;
+import org.neo4j.kernel.impl.transaction.xaframework.XaResourceHelpImpl;
+import org.neo4j.kernel.impl.transaction.xaframework.XaResourceManager;
+
+/**
+ * An XA connection used with {@link SortedIndexDataSource}.
+ */
+class SortedIndexXaConnection extends IndexXaConnection
+{
+    private final SortedIndexXaResource xaResource;
+
+    SortedIndexXaConnection( Object identifier, XaResourceManager xaRm,
+        byte[] branchId )
+    {
+        super( xaRm );
+        xaResource = new SortedIndexXaResource( identifier, xaRm, branchId );
+    }
+    
+    @Override
+    public XAResource getXaResource()
+    {
+        return xaResource;
+    }
+    
+    private static class SortedIndexXaResource extends XaResourceHelpImpl
+    {
+        private final Object identifier;
+        
+        SortedIndexXaResource( Object identifier, XaResourceManager xaRm,
+            byte[] branchId )
+        {
+            super( xaRm, branchId );
+            this.identifier = identifier;
+        }
+        
+        @Override
+        public boolean isSameRM( XAResource xares )
+        {
+            if ( xares instanceof SortedIndexXaResource )
+            {
+                return identifier.equals( 
+                    ((SortedIndexXaResource) xares).identifier );
+            }
+            return false;
+        }
+    }
+
+    private SortedIndexTransaction sortedTx;
+    
+    SortedIndexTransaction getSortedTx()
+    {
+        if ( sortedTx == null )
+        {
+            try
+            {
+                sortedTx = (SortedIndexTransaction) getTransaction();
+            }
+            catch ( XAException e )
+            {
+                throw new RuntimeException( "Unable to get sorted index tx", e );
+            }
+        }
+        return sortedTx;
+    }
+    
+    <T extends PropertyContainer> void add( SortedIndex<T> index,
+            T entity, String key, long value )
+    {
+        getSortedTx().add( index, entity, key, value );
+    }
+    
+    <T extends PropertyContainer> void remove( SortedIndex<T> index,
+            T entity, String key, long value )
+    {
+        getSortedTx().remove( index, entity, key, value );
+    }
+    
+    <T extends PropertyContainer> void remove( SortedIndex<T> index,
+            T entity, String key )
+    {
+        getSortedTx().remove( index, entity, key );
+    }
+    
+    <T extends PropertyContainer> void remove( SortedIndex<T> index,
+            T entity )
+    {
+        getSortedTx().remove( index, entity );
+    }
+    
+    <T extends PropertyContainer> void deleteIndex( SortedIndex<T> index )
+    {
+        getSortedTx().delete( index );
+    }
+    
+    public void createIndex( Class<? extends PropertyContainer> entityType,
+            String name, Map<String, String> config )
+    {
+        getSortedTx().createIndex( entityType, name, config );
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.neo4j.index.impl.sorted.MergeIterator.MapSource;
+import org.neo4j.index.impl.sorted.MergeIterator.SegmentSource;
+import org.neo4j.index.impl.sorted.MergeIterator.Source;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+/**
+ * Keeps the {@link Entry entries} of one key in one index in sorted order,
+ * as a log structured merge of append-only files. Committed changes go into
+ * an in-memory sorted map which is written to a new immutable {@link Segment}
+ * at {@link #checkpoint()}, i.e. when the logical log of the data source is
+ * rotated or the data source is closed. Changes which haven't been written
+ * to a segment are recovered from the logical log, so applying a change
+ * must be idempotent, which it is since an entry either exists or not.
+ * 
+ * The segments currently in use are listed in a manifest file which is
+ * replaced atomically, so a crash in the middle of a checkpoint leaves the
+ * store as it was. When the number of segments grows too large they are
+ * merged into one, dropping the tombstones of removed entries.
+ * 
+ * Readers capture the current {@link State} once and see a consistent view
+ * of the segments from it, so that a range can be streamed while
+ * checkpoints happen.
+ */
+class SortedStore
+{
+    static final int MAX_SEGMENTS = 8;
+    private static final String MANIFEST = "manifest";
+    private static final String MANIFEST_TMP = MANIFEST + ".tmp";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    
+    private final File directory;
+    private volatile State state;
+    private long nextSegmentNumber;
+    
+    SortedStore( File directory )
+    {
+        this.directory = directory;
+        try
+        {
+            open();
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to open sorted store in " + directory, e );
+        }
+    }
+    
+    private void open() throws IOException
+    {
+        if ( !directory.exists() && !directory.mkdirs() )
+        {
+            throw new IOException( "Unable to create directory " + directory );
+        }
+        File manifest = new File( directory, MANIFEST );
+        File tmpManifest = new File( directory, MANIFEST_TMP );
+        if ( !manifest.exists() && tmpManifest.exists() )
+        {
+            // Crashed after the old manifest was deleted, but before the
+            // new one was renamed into its place
+            FileUtils.renameFile( tmpManifest, manifest );
+        }
+        long[] numbers = manifest.exists() ? readManifest( manifest ) : new long[0];
+        Segment[] segments = new Segment[numbers.length];
+        for ( int i = 0; i < numbers.length; i++ )
+        {
+            segments[i] = Segment.open( numbers[i], segmentFile( numbers[i] ) );
+            nextSegmentNumber = Math.max( nextSegmentNumber, numbers[i] + 1 );
+        }
+        deleteUnusedFiles( numbers );
+        state = new State( segments );
+    }
+    
+    private void deleteUnusedFiles( long[] numbers )
+    {
+        File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+        for ( File file : files )
+        {
+            String name = file.getName();
+            if ( name.equals( MANIFEST_TMP ) )
+            {
+                FileUtils.deleteFile( file );
+            }
+            else if ( name.endsWith( SEGMENT_SUFFIX ) )
+            {
+                boolean used = false;
+                for ( long number : numbers )
+                {
+                    used |= segmentFile( number ).getName().equals( name );
+                }
+                if ( !used )
+                {
+                    FileUtils.deleteFile( file );
+                }
+            }
+        }
+    }
+    
+    private File segmentFile( long number )
+    {
+        return new File( directory, number + SEGMENT_SUFFIX );
+    }
+    
+    private static long[] readManifest( File file ) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try
+        {
+            int count = raf.readInt();
+            long[] numbers = new long[count];
+            for ( int i = 0; i < count; i++ )
+            {
+                numbers[i] = raf.readLong();
+            }
+            return numbers;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+    
+    private void writeManifest( Segment[] segments ) throws IOException
+    {
+        File tmpManifest = new File( directory, MANIFEST_TMP );
+        RandomAccessFile raf = new RandomAccessFile( tmpManifest, "rw" );
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            channel.truncate( 0 );
+            ByteBuffer buffer = ByteBuffer.allocate( 4 + segments.length * 8 );
+            buffer.putInt( segments.length );
+            for ( Segment segment : segments )
+            {
+                buffer.putLong( segment.number );
+            }
+            buffer.flip();
+            while ( buffer.hasRemaining() )
+            {
+                channel.write( buffer );
+            }
+            channel.force( false );
+        }
+        finally
+        {
+            raf.close();
+        }
+        File manifest = new File( directory, MANIFEST );
+        if ( !FileUtils.deleteFile( manifest ) || !FileUtils.renameFile( tmpManifest, manifest ) )
+        {
+            throw new IOException( "Unable to replace " + manifest );
+        }
+    }
+    
+    /**
+     * Applies a committed change. Only called with the write lock of the
+     * data source held.
+     */
+    void apply( long value, long id, boolean added )
+    {
+        state.memtable.put( new Entry( value, id ), added );
+    }
+    
+    /**
+     * Removes all entries for entity {@code id}, whatever value they have.
+     * This requires a scan of the whole store. Only called with the write
+     * lock of the data source held.
+     */
+    void removeAll( long id )
+    {
+        State current = state;
+        Iterator<Map.Entry<Entry, Boolean>> entries = current.entries( null, null, null, false, null );
+        List<Entry> toRemove = new ArrayList<Entry>();
+        while ( entries.hasNext() )
+        {
+            Map.Entry<Entry, Boolean> entry = entries.next();
+            if ( entry.getValue() && entry.getKey().id == id )
+            {
+                toRemove.add( entry.getKey() );
+            }
+        }
+        for ( Entry entry : toRemove )
+        {
+            current.memtable.put( entry, false );
+        }
+    }
+    
+    State state()
+    {
+        return state;
+    }
+    
+    /**
+     * Writes the committed changes to a new segment and makes it part of the
+     * store, merging segments if there are too many of them. Only called
+     * with the write lock of the data source held.
+     * 
+     * @param mayMerge whether or not segments may be merged, and the merged
+     * ones deleted. It's {@code false} while the files are copied in a backup.
+     */
+    synchronized void checkpoint( boolean mayMerge ) throws IOException
+    {
+        State current = state;
+        if ( current.memtable.isEmpty() )
+        {
+            return;
+        }
+        
+        Segment[] segments = current.segments;
+        long number = nextSegmentNumber++;
+        Segment.write( segmentFile( number ), current.memtable.entrySet().iterator(),
+                segments.length == 0 );
+        Segment[] newSegments = new Segment[segments.length + 1];
+        System.arraycopy( segments, 0, newSegments, 0, segments.length );
+        newSegments[segments.length] = Segment.open( number, segmentFile( number ) );
+        
+        Segment[] obsolete = new Segment[0];
+        if ( mayMerge && newSegments.length > MAX_SEGMENTS )
+        {
+            long mergedNumber = nextSegmentNumber++;
+            Segment.write( segmentFile( mergedNumber ),
+                    new State( newSegments ).entries( null, null, null, false, null ), true );
+            obsolete = newSegments;
+            newSegments = new Segment[] { Segment.open( mergedNumber, segmentFile( mergedNumber ) ) };
+        }
+        
+        writeManifest( newSegments );
+        state = new State( newSegments );
+        for ( Segment segment : obsolete )
+        {
+            // Readers may still be reading a merged segment through its
+            // mapping, but where the file can't be deleted now it will be
+            // the next time the store is opened
+            segment.file.delete();
+        }
+    }
+    
+    /**
+     * @return whether or not {@code file} is one of the files making up a
+     * store, as opposed to a temporary file.
+     */
+    static boolean isStoreFile( File file )
+    {
+        return file.getName().equals( MANIFEST ) || file.getName().endsWith( SEGMENT_SUFFIX );
+    }
+    
+    /**
+     * The committed contents of the store at one point in time: the
+     * segments and the changes not yet written to a segment.
+     */
+    static class State
+    {
+        final Segment[] segments;
+        final NavigableMap<Entry, Boolean> memtable =
+                new ConcurrentSkipListMap<Entry, Boolean>();
+        
+        State( Segment[] segments )
+        {
+            this.segments = segments;
+        }
+        
+        /**
+         * @param txChangesOrNull uncommitted changes, which have precedence
+         * over the committed ones.
+         * @param hiddenIdsOrNull entity ids for which committed entries are
+         * to be considered removed.
+         */
+        Iterator<Map.Entry<Entry, Boolean>> entries( NavigableMap<Entry, Boolean> txChangesOrNull,
+                Entry fromInclusiveOrNull, Entry toExclusiveOrNull, boolean reversed,
+                Set<Long> hiddenIdsOrNull )
+        {
+            List<Source> sources = new ArrayList<Source>( segments.length + 2 );
+            if ( fromInclusiveOrNull != null && toExclusiveOrNull != null &&
+                    fromInclusiveOrNull.compareTo( toExclusiveOrNull ) >= 0 )
+            {
+                return new MergeIterator( sources, reversed, hiddenIdsOrNull );
+            }
+            for ( int i = 0; i < segments.length; i++ )
+            {
+                sources.add( new SegmentSource( i, segments[i], fromInclusiveOrNull,
+                        toExclusiveOrNull, reversed ) );
+            }
+            sources.add( new MapSource( segments.length, false, memtable,
+                    fromInclusiveOrNull, toExclusiveOrNull, reversed ) );
+            if ( txChangesOrNull != null )
+            {
+                sources.add( new MapSource( segments.length + 1, true, txChangesOrNull,
+                        fromInclusiveOrNull, toExclusiveOrNull, reversed ) );
+            }
+            return new MergeIterator( sources, reversed, hiddenIdsOrNull );
+        }
+    }
+}
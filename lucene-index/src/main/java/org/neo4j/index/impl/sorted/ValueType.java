@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import java.util.Map;
+
+import org.neo4j.index.impl.lucene.ValueContext;
+
+/**
+ * The type of the values of a {@link SortedIndex}, given by the
+ * {@link SortedIndexImplementation#KEY_TYPE} config. Entries are always
+ * ordered as longs on disk, so each type encodes its values as longs which
+ * sort the same way as the values themselves.
+ */
+enum ValueType
+{
+    LONG( "long" )
+    {
+        @Override
+        long encode( Object value )
+        {
+            value = unwrap( value );
+            if ( value instanceof Long || value instanceof Integer ||
+                    value instanceof Short || value instanceof Byte )
+            {
+                return ((Number) value).longValue();
+            }
+            throw illegalValue( value, "integral numbers" );
+        }
+    },
+    DOUBLE( "double" )
+    {
+        @Override
+        long encode( Object value )
+        {
+            value = unwrap( value );
+            if ( !(value instanceof Number) )
+            {
+                throw illegalValue( value, "numbers" );
+            }
+            double doubleValue = ((Number) value).doubleValue();
+            // -0.0 and 0.0 have different bits, but should be the same value
+            long bits = Double.doubleToLongBits( doubleValue == 0 ? 0d : doubleValue );
+            // Flip all but the sign bit of negative values, so that they
+            // are ordered as longs the way they're ordered as doubles
+            return bits ^ ((bits >> 63) & 0x7fffffffffffffffL);
+        }
+    };
+    
+    final String name;
+    
+    private ValueType( String name )
+    {
+        this.name = name;
+    }
+    
+    /**
+     * @return a long for {@code value} which is ordered among the longs of
+     * other values of this type like {@code value} is among them.
+     */
+    abstract long encode( Object value );
+    
+    static ValueType of( Map<String, String> config )
+    {
+        String name = config != null ? config.get( SortedIndexImplementation.KEY_TYPE ) : null;
+        if ( name == null )
+        {
+            return LONG;
+        }
+        for ( ValueType type : values() )
+        {
+            if ( type.name.equals( name ) )
+            {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException( "Unknown type '" + name + "' of sorted index" );
+    }
+    
+    private static Object unwrap( Object value )
+    {
+        return value instanceof ValueContext ? ((ValueContext) value).getValue() : value;
+    }
+    
+    private static IllegalArgumentException illegalValue( Object value, String allowed )
+    {
+        return new IllegalArgumentException( "Only " + allowed + " can be indexed in this sorted " +
+                "index, not " + value + (value != null ? " (" + value.getClass() + ")" : "") );
+    }
+}
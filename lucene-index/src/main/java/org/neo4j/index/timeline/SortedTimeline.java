@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.timeline;
+
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.index.impl.sorted.SortedIndex;
+import org.neo4j.index.impl.sorted.SortedIndexImplementation;
+
+/**
+ * A {@link TimelineIndex} backed by a {@link SortedIndex}, where the entities
+ * are kept ordered by timestamp on disk. Contrary to {@link LuceneTimeline},
+ * ranges are streamed in order instead of being sorted at query time and the
+ * first and last entities are looked up in logarithmic time.
+ * 
+ * The index should be created with {@link SortedIndexImplementation#CONFIG}.
+ */
+public class SortedTimeline<T extends PropertyContainer> implements TimelineIndex<T>
+{
+    private static final String FIELD = "timestamp";
+    private final SortedIndex<T> index;
+
+    public SortedTimeline( Index<T> index )
+    {
+        if ( !(index instanceof SortedIndex) )
+        {
+            throw new IllegalArgumentException( index + " isn't a sorted index" );
+        }
+        this.index = (SortedIndex<T>) index;
+    }
+    
+    @Override
+    public T getLast()
+    {
+        return index.last( FIELD );
+    }
+
+    @Override
+    public T getFirst()
+    {
+        return index.first( FIELD );
+    }
+
+    @Override
+    public void remove( T entity, long timestamp )
+    {
+        index.remove( entity, FIELD, timestamp );
+    }
+
+    @Override
+    public void add( T entity, long timestamp )
+    {
+        index.add( entity, FIELD, timestamp );
+    }
+    
+    @Override
+    public IndexHits<T> getBetween( Long startTimestampOrNull, Long endTimestampOrNull )
+    {
+        return getBetween( startTimestampOrNull, endTimestampOrNull, false );
+    }
+    
+    @Override
+    public IndexHits<T> getBetween( Long startTimestampOrNull, Long endTimestampOrNull, boolean reversed )
+    {
+        return index.between( FIELD, startTimestampOrNull, false, endTimestampOrNull, false, reversed );
+    }
+}
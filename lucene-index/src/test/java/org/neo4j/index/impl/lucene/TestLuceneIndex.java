@@ -36,6 +36,8 @@ import static org.neo4j.index.impl.lucene.ValueContext.numeric;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -1491,4 +1493,139 @@ public class TestLuceneIndex
         assertContainsInOrder( index.query( key, new QueryContext( "*" ).sort( key ) ), first, second, third, fourth );
         assertContainsInOrder( index.query( key, new QueryContext( "*" ).sort( key ).top( 2 ) ), first, second );
     }
+    
+    @Test
+    public void testStreamingQuery()
+    {
+        Index<Node> index = nodeIndex( "streaming", LuceneIndexImplementation.EXACT_CONFIG );
+        String key = "key";
+        Collection<Node> nodes = new ArrayList<Node>();
+        for ( int i = 0; i < StreamingHits.PAGE_SIZE*2 + 10; i++ )
+        {
+            Node node = graphDb.createNode();
+            index.add( node, key, "value" );
+            nodes.add( node );
+        }
+        restartTx();
+        
+        IndexHits<Node> hits = index.query( key, new QueryContext( "value" ).streaming() );
+        assertEquals( nodes.size(), hits.size() );
+        assertContains( hits, nodes.toArray( new Node[0] ) );
+        
+        // Additions and removals in the transaction
+        Node added = graphDb.createNode();
+        index.add( added, key, "value" );
+        Node removed = nodes.iterator().next();
+        index.remove( removed, key, "value" );
+        nodes.remove( removed );
+        nodes.add( added );
+        for ( int i = 0; i < 2; i++ )
+        {
+            hits = index.query( key, new QueryContext( "value" ).streaming() );
+            assertEquals( nodes.size(), hits.size() );
+            assertContains( hits, nodes.toArray( new Node[0] ) );
+            assertEquals( nodes.size(), IteratorUtil.count( (Iterable<Node>) index.query(
+                    key, new QueryContext( "value" ).streaming() ) ) );
+            restartTx();
+        }
+    }
+    
+    @Test
+    public void testQueryIds()
+    {
+        LuceneIndex<Node> index = (LuceneIndex<Node>) nodeIndex( "ids",
+                LuceneIndexImplementation.EXACT_CONFIG );
+        String key = "key";
+        Node node1 = graphDb.createNode();
+        Node node2 = graphDb.createNode();
+        index.add( node1, key, "value" );
+        index.add( node2, key, "value" );
+        restartTx();
+        Node node3 = graphDb.createNode();
+        index.add( node3, key, "value" );
+        
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertContains( index.getIds( key, "value" ), node1.getId(), node2.getId(), node3.getId() );
+            assertContains( index.queryIds( key, "value" ), node1.getId(), node2.getId(), node3.getId() );
+            assertContains( index.queryIds( key, new QueryContext( "value" ).streaming() ),
+                    node1.getId(), node2.getId(), node3.getId() );
+            restartTx();
+        }
+    }
+    
+    @Test
+    public void testCompositeKeys()
+    {
+        LuceneIndex<Node> index = (LuceneIndex<Node>) nodeIndex( "composite", MapUtil.stringMap(
+                "provider", "lucene", "type", "exact", "composite_keys", "tenant,externalId" ) );
+        Node node1 = graphDb.createNode();
+        Node node2 = graphDb.createNode();
+        index.add( node1, MapUtil.map( "tenant", "acme", "externalId", "1" ) );
+        index.add( node2, MapUtil.map( "externalId", "1", "tenant", "other" ) );
+        index.add( node2, MapUtil.map( "tenant", "acme", "externalId", 2 ) );
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertContains( index.get( MapUtil.map( "tenant", "acme", "externalId", "1" ) ), node1 );
+            assertContains( index.get( MapUtil.map( "tenant", "acme", "externalId", "2" ) ), node2 );
+            assertContains( index.get( MapUtil.map( "tenant", "other", "externalId", "1" ) ), node2 );
+            assertContains( index.get( MapUtil.map( "tenant", "other", "externalId", "2" ) ) );
+            assertContains( index.get( "tenant", "acme" ) );
+            restartTx();
+        }
+        
+        index.remove( node2, MapUtil.map( "tenant", "acme", "externalId", 2 ) );
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertContains( index.get( MapUtil.map( "tenant", "acme", "externalId", "2" ) ) );
+            assertContains( index.get( MapUtil.map( "tenant", "other", "externalId", "1" ) ), node2 );
+            restartTx();
+        }
+        
+        try
+        {
+            index.get( MapUtil.map( "tenant", "acme", "name", "1" ) );
+            fail( "Shouldn't be able to get by keys which aren't a composite key" );
+        }
+        catch ( IllegalArgumentException e )
+        { // Good
+        }
+    }
+    
+    @Test
+    public void testPutIfAbsent() throws Exception
+    {
+        final LuceneIndex<Node> index = (LuceneIndex<Node>) nodeIndex( "put-if-absent",
+                LuceneIndexImplementation.EXACT_CONFIG );
+        Node node1 = graphDb.createNode();
+        assertNull( index.putIfAbsent( node1, "key", "value" ) );
+        assertEquals( node1, index.putIfAbsent( graphDb.createNode(), "key", "value" ) );
+        
+        // Another transaction trying the same key/value has to wait for this one
+        final Node[] otherResult = new Node[1];
+        Thread other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Transaction otherTx = graphDb.beginTx();
+                try
+                {
+                    otherResult[0] = index.putIfAbsent( graphDb.createNode(), "key", "value" );
+                    otherTx.success();
+                }
+                finally
+                {
+                    otherTx.finish();
+                }
+            }
+        };
+        other.start();
+        other.join( 500 );
+        assertTrue( other.isAlive() );
+        restartTx();
+        other.join();
+        assertEquals( node1, otherResult[0] );
+        assertContains( index.get( "key", "value" ), node1 );
+    }
 }
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+/**
+ * Adds values to a sorted index, and negated quarters of them to a sorted
+ * double index, in a couple of transactions with a log rotation in between
+ * and exits without shutting down the database.
+ */
+public class AddToSortedIndexAndQuit
+{
+    public static void main( String[] args ) throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( args[0] );
+        SortedIndex<Node> index = (SortedIndex<Node>) db.index().forNodes( "sorted",
+                SortedIndexImplementation.CONFIG );
+        SortedIndex<Node> doubleIndex = (SortedIndex<Node>) db.index().forNodes(
+                "sorted-double", SortedIndexImplementation.DOUBLE_CONFIG );
+        Node removed = add( db, index, doubleIndex, 10 )[0];
+        add( db, index, doubleIndex, 20 );
+        db.getConfig().getTxModule().getXaDataSourceManager().getXaDataSource(
+                SortedIndexDataSource.DEFAULT_NAME ).rotateLogicalLog();
+        add( db, index, doubleIndex, 30, 40 );
+        
+        Transaction tx = db.beginTx();
+        index.remove( removed, "key", 10L );
+        doubleIndex.remove( removed, "key", -2.5d );
+        tx.success();
+        tx.finish();
+        add( db, index, doubleIndex, 50 );
+        // Skip shutdown
+    }
+    
+    private static Node[] add( EmbeddedGraphDatabase db, SortedIndex<Node> index,
+            SortedIndex<Node> doubleIndex, long... values )
+    {
+        Transaction tx = db.beginTx();
+        Node[] nodes = new Node[values.length];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            nodes[i] = db.createNode();
+            nodes[i].setProperty( "key", values[i] );
+            index.add( nodes[i], "key", values[i] );
+            doubleIndex.add( nodes[i], "key", -values[i] / 4d );
+        }
+        tx.success();
+        tx.finish();
+        return nodes;
+    }
+}
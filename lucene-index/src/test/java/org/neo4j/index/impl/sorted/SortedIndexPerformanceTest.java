@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import static org.neo4j.index.impl.lucene.ValueContext.numeric;
+
+import java.io.File;
+import java.util.Random;
+
+import org.apache.lucene.search.NumericRangeQuery;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.index.Neo4jTestCase;
+import org.neo4j.index.impl.lucene.LuceneIndexImplementation;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+/**
+ * Indexes random numeric values in a lucene index and a sorted index and
+ * compares how long exact lookups and range queries take in them.
+ */
+@Ignore
+public class SortedIndexPerformanceTest
+{
+    private static final String PATH = "target/var/sorted-performance";
+    
+    @Test
+    public void rangeQueries() throws Exception
+    {
+        run( 500000, 1000, 1000 );
+    }
+    
+    public static void main( String[] args ) throws Exception
+    {
+        int entities = args.length > 0 ? Integer.parseInt( args[0] ) : 500000;
+        int queries = args.length > 1 ? Integer.parseInt( args[1] ) : 1000;
+        int rangeWidth = args.length > 2 ? Integer.parseInt( args[2] ) : 1000;
+        run( entities, queries, rangeWidth );
+    }
+    
+    private static void run( int entities, int queries, int rangeWidth ) throws Exception
+    {
+        Neo4jTestCase.deleteFileOrDirectory( new File( PATH ) );
+        GraphDatabaseService graphDb = new EmbeddedGraphDatabase( PATH );
+        try
+        {
+            Index<Node> lucene = graphDb.index().forNodes( "lucene",
+                    LuceneIndexImplementation.EXACT_CONFIG );
+            Index<Node> sorted = graphDb.index().forNodes( "sorted",
+                    SortedIndexImplementation.CONFIG );
+            long maxValue = entities * 10L;
+            insert( graphDb, lucene, entities, maxValue, true );
+            insert( graphDb, sorted, entities, maxValue, false );
+            
+            for ( int round = 0; round < 2; round++ )
+            {
+                query( "Lucene", lucene, queries, rangeWidth, maxValue, true );
+                query( "Sorted", sorted, queries, rangeWidth, maxValue, false );
+            }
+        }
+        finally
+        {
+            graphDb.shutdown();
+        }
+    }
+    
+    private static void insert( GraphDatabaseService graphDb, Index<Node> index,
+            int entities, long maxValue, boolean lucene )
+    {
+        Random random = new Random( 1 );
+        long start = System.currentTimeMillis();
+        Transaction tx = graphDb.beginTx();
+        for ( int i = 0; i < entities; i++ )
+        {
+            long value = (long) (random.nextDouble() * maxValue);
+            index.add( graphDb.createNode(), "value", lucene ? numeric( value ) : value );
+            if ( i % 10000 == 9999 )
+            {
+                tx.success();
+                tx.finish();
+                tx = graphDb.beginTx();
+            }
+        }
+        tx.success();
+        tx.finish();
+        System.out.println( (lucene ? "Lucene" : "Sorted") + " insert of " + entities +
+                ": " + (System.currentTimeMillis() - start) + "ms" );
+    }
+    
+    private static void query( String name, Index<Node> index, int queries, int rangeWidth,
+            long maxValue, boolean lucene )
+    {
+        Random random = new Random( 2 );
+        long exactTime = 0;
+        long rangeTime = 0;
+        int hits = 0;
+        for ( int i = 0; i < queries; i++ )
+        {
+            long from = (long) (random.nextDouble() * (maxValue - rangeWidth));
+            long to = from + rangeWidth;
+            long start = System.nanoTime();
+            // Numeric lucene fields can only be looked up with range queries
+            hits += count( lucene ? index.query( "value", NumericRangeQuery.newLongRange(
+                    "value", from, from, true, true ) ) : index.get( "value", from ) );
+            exactTime += System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            Object query = lucene ? NumericRangeQuery.newLongRange( "value", from, to, true, true ) :
+                    new Range( from, to );
+            hits += count( index.query( "value", query ) );
+            rangeTime += System.nanoTime() - start;
+        }
+        System.out.println( name + " (" + hits + " hits): exact " + micros( exactTime, queries ) +
+                "us, range of " + rangeWidth + " " + micros( rangeTime, queries ) + "us" );
+    }
+    
+    private static int count( Iterable<Node> hits )
+    {
+        int count = 0;
+        for ( Node node : hits )
+        {
+            count++;
+        }
+        return count;
+    }
+    
+    private static long micros( long nanos, int queries )
+    {
+        return nanos / queries / 1000;
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.sorted;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.index.Neo4jTestCase.assertContains;
+import static org.neo4j.index.Neo4jTestCase.assertContainsInOrder;
+import static org.neo4j.index.Neo4jTestCase.asCollection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.lucene.search.NumericRangeQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.index.Neo4jTestCase;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+public class TestSortedIndex
+{
+    private static final String PATH = "target/var/sorted-index";
+    private EmbeddedGraphDatabase db;
+    
+    @Before
+    public void startDb()
+    {
+        Neo4jTestCase.deleteFileOrDirectory( new File( PATH ) );
+        db = new EmbeddedGraphDatabase( PATH );
+    }
+    
+    @After
+    public void stopDb()
+    {
+        db.shutdown();
+    }
+    
+    private void restartDb()
+    {
+        db.shutdown();
+        db = new EmbeddedGraphDatabase( PATH );
+    }
+    
+    private SortedIndex<Node> index()
+    {
+        return (SortedIndex<Node>) db.index().forNodes( "sorted", SortedIndexImplementation.CONFIG );
+    }
+    
+    private SortedIndex<Node> doubleIndex()
+    {
+        return (SortedIndex<Node>) db.index().forNodes( "sorted-double",
+                SortedIndexImplementation.DOUBLE_CONFIG );
+    }
+    
+    private void rotateLog() throws Exception
+    {
+        db.getConfig().getTxModule().getXaDataSourceManager().getXaDataSource(
+                SortedIndexDataSource.DEFAULT_NAME ).rotateLogicalLog();
+    }
+    
+    private Node[] createNodes( String key, long... values )
+    {
+        Transaction tx = db.beginTx();
+        Node[] nodes = new Node[values.length];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            nodes[i] = db.createNode();
+            index().add( nodes[i], key, values[i] );
+        }
+        tx.success();
+        tx.finish();
+        return nodes;
+    }
+    
+    @Test
+    public void makeSureRangeBoundsAreRespected() throws Exception
+    {
+        Node[] nodes = createNodes( "key", 10, 20, 30, 40 );
+        SortedIndex<Node> index = index();
+        assertContainsInOrder( index.between( "key", 20L, true, 40L, false, false ), nodes[1], nodes[2] );
+        assertContainsInOrder( index.between( "key", 20L, false, 40L, true, false ), nodes[2], nodes[3] );
+        assertContainsInOrder( index.between( "key", null, false, 30L, true, true ),
+                nodes[2], nodes[1], nodes[0] );
+        assertContainsInOrder( index.between( "key", 30L, false, 20L, false, false ) );
+        assertContains( index.get( "key", 30 ), nodes[2] );
+        assertContains( index.get( "other", 30 ) );
+        assertEquals( nodes[0], index.first( "key" ) );
+        assertEquals( nodes[3], index.last( "key" ) );
+        assertNull( index.first( "other" ) );
+        assertEquals( 3, index.between( "key", 10L, false, null, false, false ).size() );
+    }
+    
+    @Test
+    public void makeSureRemovalsAreVisibleInTransactionAndAfterCommit() throws Exception
+    {
+        Node[] nodes = createNodes( "key", 10, 20, 30 );
+        Transaction tx = db.beginTx();
+        SortedIndex<Node> index = index();
+        index.remove( nodes[0], "key", 10 );
+        index.remove( nodes[1], "key" );
+        index.add( nodes[1], "key", 25 );
+        index.remove( nodes[2] );
+        assertContainsInOrder( index.between( "key", null, false, null, false, false ), nodes[1] );
+        assertContains( index.get( "key", 20 ) );
+        tx.success();
+        tx.finish();
+        assertContainsInOrder( index.between( "key", null, false, null, false, false ), nodes[1] );
+        assertContains( index.get( "key", 25 ), nodes[1] );
+        restartDb();
+        assertEquals( nodes[1], index().first( "key" ) );
+        assertEquals( nodes[1], index().last( "key" ) );
+    }
+    
+    @Test
+    public void makeSureRolledBackChangesAreNotVisible() throws Exception
+    {
+        Node[] nodes = createNodes( "key", 10 );
+        Transaction tx = db.beginTx();
+        index().remove( nodes[0], "key", 10 );
+        index().add( db.createNode(), "key", 5 );
+        tx.finish();
+        assertContainsInOrder( index().between( "key", null, false, null, false, false ), nodes[0] );
+    }
+    
+    @Test
+    public void makeSureOnlyIntegralValuesAreAccepted() throws Exception
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            index().add( db.createNode(), "key", "10" );
+            fail( "Shouldn't accept strings" );
+        }
+        catch ( IllegalArgumentException e )
+        { // Good
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+    
+    @Test
+    public void makeSureRangesCanBeQueried() throws Exception
+    {
+        Node[] nodes = createNodes( "key", 10, 20, 30, 40 );
+        SortedIndex<Node> index = index();
+        assertContainsInOrder( index.query( "key", new Range( 20, 40 ).excludeTo() ), nodes[1], nodes[2] );
+        assertContainsInOrder( index.query( "key", new Range( null, 30 ).reversed() ),
+                nodes[2], nodes[1], nodes[0] );
+        assertContainsInOrder( index.query( "key", new Range( 10, null ).excludeFrom() ),
+                nodes[1], nodes[2], nodes[3] );
+        assertContainsInOrder( index.query( "key", 30 ), nodes[2] );
+        assertContainsInOrder( index.query( NumericRangeQuery.newLongRange( "key", 15L, 30L, true, true ) ),
+                nodes[1], nodes[2] );
+        assertContainsInOrder( index.query( "key", NumericRangeQuery.newLongRange( "key", 20L, null, false, true ) ),
+                nodes[2], nodes[3] );
+        try
+        {
+            index.query( "key", "20 TO 30" );
+            fail( "Shouldn't accept string queries" );
+        }
+        catch ( IllegalArgumentException e )
+        { // Good
+        }
+    }
+    
+    @Test
+    public void makeSureDoublesAreOrderedByValue() throws Exception
+    {
+        double[] values = { 2.5, -0.5, 0d, -1000.25, 1e10, -1e-10, 3 };
+        Transaction tx = db.beginTx();
+        Node[] nodes = new Node[values.length];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            nodes[i] = db.createNode();
+            doubleIndex().add( nodes[i], "key", values[i] );
+        }
+        assertContainsInOrder( doubleIndex().query( "key", new Range( -1, 3 ) ),
+                nodes[1], nodes[5], nodes[2], nodes[0], nodes[6] );
+        tx.success();
+        tx.finish();
+        
+        for ( int i = 0; i < 2; i++ )
+        {
+            SortedIndex<Node> index = doubleIndex();
+            assertContainsInOrder( index.between( "key", null, false, null, false, false ),
+                    nodes[3], nodes[1], nodes[5], nodes[2], nodes[0], nodes[6], nodes[4] );
+            assertContainsInOrder( index.query( "key", new Range( -0.5, 2.5 ).excludeFrom() ),
+                    nodes[5], nodes[2], nodes[0] );
+            assertContainsInOrder( index.query( NumericRangeQuery.newDoubleRange(
+                    "key", 0d, null, true, true ) ), nodes[2], nodes[0], nodes[6], nodes[4] );
+            assertContains( index.get( "key", -0d ), nodes[2] );
+            assertContains( index.get( "key", 3 ), nodes[6] );
+            assertEquals( nodes[3], index.first( "key" ) );
+            assertEquals( nodes[4], index.last( "key" ) );
+            restartDb();
+        }
+    }
+    
+    @Test
+    public void makeSureValueTypeOfIndexCantBeChanged() throws Exception
+    {
+        index();
+        try
+        {
+            db.index().forNodes( "sorted", SortedIndexImplementation.DOUBLE_CONFIG );
+            fail( "Shouldn't be able to change the value type of an index" );
+        }
+        catch ( IllegalArgumentException e )
+        { // Good
+        }
+    }
+    
+    @Test
+    public void makeSureIndexCanBeDeleted() throws Exception
+    {
+        createNodes( "key", 10, 20 );
+        rotateLog();
+        Transaction tx = db.beginTx();
+        index().delete();
+        tx.success();
+        tx.finish();
+        assertFalse( db.index().existsForNodes( "sorted" ) );
+        assertNull( index().first( "key" ) );
+    }
+    
+    @Test
+    public void makeSureManyCheckpointsAreMergedAndSurviveRestart() throws Exception
+    {
+        Random random = new Random( 1 );
+        TreeMap<Long, List<Node>> expected = new TreeMap<Long, List<Node>>();
+        Map<Node, Long> values = new HashMap<Node, Long>();
+        for ( int round = 0; round < SortedStore.MAX_SEGMENTS * 3; round++ )
+        {
+            Transaction tx = db.beginTx();
+            Index<Node> index = index();
+            for ( int i = 0; i < 20; i++ )
+            {
+                Node node = db.createNode();
+                long value = random.nextInt( 1000 );
+                index.add( node, "key", value );
+                values.put( node, value );
+            }
+            if ( round % 3 == 2 )
+            {
+                for ( Node node : new ArrayList<Node>( values.keySet() ).subList( 0, 10 ) )
+                {
+                    index.remove( node, "key", values.remove( node ) );
+                }
+            }
+            tx.success();
+            tx.finish();
+            rotateLog();
+        }
+        for ( Map.Entry<Node, Long> entry : values.entrySet() )
+        {
+            List<Node> nodes = expected.get( entry.getValue() );
+            if ( nodes == null )
+            {
+                nodes = new ArrayList<Node>();
+                expected.put( entry.getValue(), nodes );
+            }
+            nodes.add( entry.getKey() );
+        }
+        assertSameOrder( expected, index().between( "key", null, false, null, false, false ) );
+        restartDb();
+        assertSameOrder( expected, index().between( "key", null, false, null, false, false ) );
+        File[] segments = new File( PATH, "index/sorted/node/sorted/key" ).listFiles();
+        assertTrue( segments.length <= SortedStore.MAX_SEGMENTS + 1 );
+    }
+
+    @Test
+    public void makeSureCommittedChangesSurviveCrash() throws Exception
+    {
+        db.shutdown();
+        assertEquals( 0, Runtime.getRuntime().exec( new String[] { "java", "-cp",
+                System.getProperty( "java.class.path" ),
+                AddToSortedIndexAndQuit.class.getName(), PATH } ).waitFor() );
+        db = new EmbeddedGraphDatabase( PATH );
+        assertEquals( asList( 20L, 30L, 40L, 50L ), values( index().between(
+                "key", null, false, null, false, false ) ) );
+        assertEquals( asList( 40L, 30L, 20L ), values( doubleIndex().query(
+                "key", new Range( -11, -2.5 ) ) ) );
+        
+        // Once more, now that they've been applied a second time
+        restartDb();
+        assertEquals( asList( 20L, 30L, 40L, 50L ), values( index().between(
+                "key", null, false, null, false, false ) ) );
+        assertEquals( asList( 40L, 30L, 20L ), values( doubleIndex().query(
+                "key", new Range( -11, -2.5 ) ) ) );
+    }
+    
+    private List<Object> values( IndexHits<Node> hits )
+    {
+        List<Object> values = new ArrayList<Object>();
+        for ( Node node : hits )
+        {
+            values.add( node.getProperty( "key" ) );
+        }
+        return values;
+    }
+
+    private void assertSameOrder( TreeMap<Long, List<Node>> expected, IndexHits<Node> hits )
+    {
+        List<Node> result = new ArrayList<Node>( asCollection( hits ) );
+        int i = 0;
+        for ( Map.Entry<Long, List<Node>> entry : expected.entrySet() )
+        {
+            List<Node> found = result.subList( i, i + entry.getValue().size() );
+            assertEquals( entry.getValue().size(), found.size() );
+            assertContains( found, entry.getValue().toArray( new Node[0] ) );
+            i += found.size();
+        }
+        assertEquals( i, result.size() );
+    }
+}
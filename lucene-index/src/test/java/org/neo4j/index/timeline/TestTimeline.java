@@ -38,7 +38,9 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.helpers.Pair;
+import org.neo4j.index.impl.sorted.SortedIndexImplementation;
 import org.neo4j.index.timeline.LuceneTimeline;
+import org.neo4j.index.timeline.SortedTimeline;
 import org.neo4j.index.timeline.TimelineIndex;
 import org.neo4j.kernel.ImpermanentGraphDatabase;
 
@@ -99,6 +101,16 @@ public class TestTimeline
         return new LuceneTimeline( db, db.index().forRelationships( "timeline" ) );
     }
     
+    private TimelineIndex<PropertyContainer> sortedNodeTimeline()
+    {
+        return new SortedTimeline( db.index().forNodes( "sorted-timeline", SortedIndexImplementation.CONFIG ) );
+    }
+    
+    private TimelineIndex<PropertyContainer> sortedRelationshipTimeline()
+    {
+        return new SortedTimeline( db.index().forRelationships( "sorted-timeline", SortedIndexImplementation.CONFIG ) );
+    }
+    
     private LinkedList<Pair<PropertyContainer, Long>> createTimestamps( EntityCreator<PropertyContainer> creator,
             TimelineIndex<PropertyContainer> timeline, long... timestamps )
     {
@@ -231,4 +243,52 @@ public class TestTimeline
     {
         makeSureUncommittedChangesAreSortedCorrectly( relationshipCreator, relationshipTimeline() );
     }
+
+    @Test
+    public void makeSureFirstAndLastAreReturnedCorrectlySortedNode() throws Exception
+    {
+        makeSureFirstAndLastAreReturnedCorrectly( nodeCreator, sortedNodeTimeline() );
+    }
+
+    @Test
+    public void makeSureFirstAndLastAreReturnedCorrectlySortedRelationship() throws Exception
+    {
+        makeSureFirstAndLastAreReturnedCorrectly( relationshipCreator, sortedRelationshipTimeline() );
+    }
+
+    @Test
+    public void makeSureRangesAreReturnedInCorrectOrderSortedNode() throws Exception
+    {
+        makeSureRangesAreReturnedInCorrectOrder( nodeCreator, sortedNodeTimeline() );
+    }
+
+    @Test
+    public void makeSureRangesAreReturnedInCorrectOrderSortedRelationship() throws Exception
+    {
+        makeSureRangesAreReturnedInCorrectOrder( relationshipCreator, sortedRelationshipTimeline() );
+    }
+
+    @Test
+    public void makeSureRangesAreReturnedInCorrectReversedOrderSortedNode() throws Exception
+    {
+        makeSureRangesAreReturnedInCorrectReversedOrder( nodeCreator, sortedNodeTimeline() );
+    }
+
+    @Test
+    public void makeSureRangesAreReturnedInCorrectReversedOrderSortedRelationship() throws Exception
+    {
+        makeSureRangesAreReturnedInCorrectReversedOrder( relationshipCreator, sortedRelationshipTimeline() );
+    }
+
+    @Test
+    public void makeSureUncommittedChangesAreSortedCorrectlySortedNode() throws Exception
+    {
+        makeSureUncommittedChangesAreSortedCorrectly( nodeCreator, sortedNodeTimeline() );
+    }
+
+    @Test
+    public void makeSureUncommittedChangesAreSortedCorrectlySortedRelationship() throws Exception
+    {
+        makeSureUncommittedChangesAreSortedCorrectly( relationshipCreator, sortedRelationshipTimeline() );
+    }
 }
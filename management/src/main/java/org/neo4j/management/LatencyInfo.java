@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+public final class LatencyInfo implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+    private final String name;
+    private final long count;
+    private final double mean;
+    private final double median;
+    private final double percentile95;
+    private final double percentile99;
+    private final double max;
+
+    @ConstructorProperties( { "operation", "count", "mean", "median",
+            "percentile95", "percentile99", "max" } )
+    public LatencyInfo( String name, long count, double mean, double median,
+            double percentile95, double percentile99, double max )
+    {
+        this.name = name;
+        this.count = count;
+        this.mean = mean;
+        this.median = median;
+        this.percentile95 = percentile95;
+        this.percentile99 = percentile99;
+        this.max = max;
+    }
+
+    public String getOperation()
+    {
+        return name;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public double getMean()
+    {
+        return mean;
+    }
+
+    public double getMedian()
+    {
+        return median;
+    }
+
+    public double getPercentile95()
+    {
+        return percentile95;
+    }
+
+    public double getPercentile99()
+    {
+        return percentile99;
+    }
+
+    public double getMax()
+    {
+        return max;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+public final class LockContentionInfo implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+    private final String resource;
+    private final long readWaits;
+    private final long writeWaits;
+    private final double totalWaitTime;
+    private final double maxWaitTime;
+    private final String lastHolders;
+
+    @ConstructorProperties( { "resource", "readWaits", "writeWaits", "totalWaitTime",
+            "maxWaitTime", "lastHolders" } )
+    public LockContentionInfo( String resource, long readWaits, long writeWaits,
+            double totalWaitTime, double maxWaitTime, String lastHolders )
+    {
+        this.resource = resource;
+        this.readWaits = readWaits;
+        this.writeWaits = writeWaits;
+        this.totalWaitTime = totalWaitTime;
+        this.maxWaitTime = maxWaitTime;
+        this.lastHolders = lastHolders;
+    }
+
+    public String getResource()
+    {
+        return resource;
+    }
+
+    public long getReadWaits()
+    {
+        return readWaits;
+    }
+
+    public long getWriteWaits()
+    {
+        return writeWaits;
+    }
+
+    public double getTotalWaitTime()
+    {
+        return totalWaitTime;
+    }
+
+    public double getMaxWaitTime()
+    {
+        return maxWaitTime;
+    }
+
+    public String getLastHolders()
+    {
+        return lastHolders;
+    }
+}
@@ -24,4 +24,12 @@ public interface LockManager
     final String NAME = "Locking";
 
     long getNumberOfAdvertedDeadlocks();
+
+    LockContentionInfo[] getContendedResources();
+
+    String getWaitGraph();
+
+    String dumpContention();
+
+    void resetContention();
 }
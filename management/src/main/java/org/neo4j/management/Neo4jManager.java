@@ -228,6 +228,11 @@ public final class Neo4jManager extends KernelProxy implements Kernel
         return getBean( MemoryMapping.class );
     }
 
+    public Metrics getMetricsBean()
+    {
+        return getBean( Metrics.class );
+    }
+
     public Primitives getPrimitivesBean()
     {
         return getBean( Primitives.class );
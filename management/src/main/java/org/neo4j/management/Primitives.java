@@ -30,4 +30,10 @@ public interface Primitives
     long getNumberOfRelationshipTypeIdsInUse();
 
     long getNumberOfPropertyIdsInUse();
+
+    long getNumberOfNodes();
+
+    long getNumberOfRelationships();
+
+    long getNumberOfRelationshipsOfType( String type );
 }
@@ -52,13 +52,21 @@ public final class SlaveInfo extends InstanceInfo
     }
 
     private final SlaveTransaction[] txInfo;
+    private final boolean streamingUpdates;
+    private final long transactionLag;
+    private final long lagMillis;
 
     @ConstructorProperties( { "address", "instanceId", "machineId", "master",
-            "lastCommittedTransactionId", "txInfo" } )
+            "lastCommittedTransactionId", "streamingUpdates", "transactionLag", "lagMillis",
+            "txInfo" } )
     public SlaveInfo( String address, String instanceId, int machineId, boolean master,
-            long lastTxId, SlaveTransaction... txInfo )
+            long lastTxId, boolean streamingUpdates, long transactionLag, long lagMillis,
+            SlaveTransaction... txInfo )
     {
         super( address, instanceId, machineId, master, lastTxId );
+        this.streamingUpdates = streamingUpdates;
+        this.transactionLag = transactionLag;
+        this.lagMillis = lagMillis;
         this.txInfo = txInfo;
     }
 
@@ -66,4 +74,32 @@ public final class SlaveInfo extends InstanceInfo
     {
         return txInfo;
     }
+
+    /**
+     * @return whether or not the master pushes transactions to this slave
+     * as they are committed, instead of the slave pulling them.
+     */
+    public boolean isStreamingUpdates()
+    {
+        return streamingUpdates;
+    }
+
+    /**
+     * @return the number of transactions committed on the master which
+     * this slave hasn't applied yet.
+     */
+    public long getTransactionLag()
+    {
+        return transactionLag;
+    }
+
+    /**
+     * @return for how long, in milliseconds, the oldest transaction this
+     * slave hasn't applied has been committed on the master, or -1 if that
+     * isn't known.
+     */
+    public long getLagMillis()
+    {
+        return lagMillis;
+    }
 }
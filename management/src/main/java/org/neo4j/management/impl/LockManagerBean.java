@@ -19,10 +19,15 @@
  */
 package org.neo4j.management.impl;
 
+import java.util.List;
+
+import javax.management.MBeanOperationInfo;
 import javax.management.NotCompliantMBeanException;
 
 import org.neo4j.helpers.Service;
 import org.neo4j.kernel.KernelData;
+import org.neo4j.kernel.impl.transaction.LockContentionProfiler.Contention;
+import org.neo4j.management.LockContentionInfo;
 import org.neo4j.management.LockManager;
 
 @Service.Implementation( ManagementBeanProvider.class )
@@ -42,6 +47,8 @@ public final class LockManagerBean extends ManagementBeanProvider
     @Description( "Information about the Neo4j lock status" )
     private static class LockManagerImpl extends Neo4jMBean implements LockManager
     {
+        private static final int MAX_CONTENDED = 20;
+
         private final org.neo4j.kernel.impl.transaction.LockManager lockManager;
 
         LockManagerImpl( ManagementBeanProvider provider, KernelData kernel )
@@ -57,5 +64,55 @@ public final class LockManagerBean extends ManagementBeanProvider
         {
             return lockManager.getDetectedDeadlockCount();
         }
+
+        @Description( "The resources transactions have spent the most time waiting for locks on, "
+                      + "with wait times in milliseconds and the transactions that last held them" )
+        public LockContentionInfo[] getContendedResources()
+        {
+            List<Contention> contended = lockManager.getContentionProfiler().getMostContended(
+                    MAX_CONTENDED );
+            LockContentionInfo[] result = new LockContentionInfo[contended.size()];
+            for ( int i = 0; i < result.length; i++ )
+            {
+                Contention contention = contended.get( i );
+                result[i] = new LockContentionInfo( contention.getResource(),
+                        contention.getReadWaits(), contention.getWriteWaits(),
+                        millis( contention.getTotalWaitNanos() ),
+                        millis( contention.getMaxWaitNanos() ), contention.getLastHolders() );
+            }
+            return result;
+        }
+
+        private static double millis( long nanos )
+        {
+            return nanos / 1000000.0;
+        }
+
+        @Description( "The transactions currently waiting for locks, the resources they are "
+                      + "waiting for and the transactions holding locks on those" )
+        public String getWaitGraph()
+        {
+            return lockManager.getWaitGraph();
+        }
+
+        @Description( value = "Dumps the most contended resources and the current wait graph",
+                impact = MBeanOperationInfo.INFO )
+        public String dumpContention()
+        {
+            StringBuilder dump = new StringBuilder( "Most contended resources:\n" );
+            for ( Contention contention : lockManager.getContentionProfiler().getMostContended(
+                    MAX_CONTENDED ) )
+            {
+                dump.append( contention ).append( "\n" );
+            }
+            dump.append( "Wait graph:\n" ).append( getWaitGraph() );
+            return dump.toString();
+        }
+
+        @Description( value = "Forgets all recorded lock contention", impact = MBeanOperationInfo.ACTION )
+        public void resetContention()
+        {
+            lockManager.getContentionProfiler().reset();
+        }
     }
 }
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management.impl;
+
+import javax.management.MBeanOperationInfo;
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.kernel.KernelData;
+import org.neo4j.kernel.impl.core.TransactionEventDispatcher;
+import org.neo4j.kernel.impl.util.KernelMetrics;
+import org.neo4j.kernel.impl.util.KernelMetrics.Counter;
+import org.neo4j.kernel.impl.util.KernelMetrics.Latency;
+import org.neo4j.kernel.impl.util.LatencyHistogram;
+import org.neo4j.management.LatencyInfo;
+import org.neo4j.management.Metrics;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class MetricsBean extends ManagementBeanProvider
+{
+    public MetricsBean()
+    {
+        super( Metrics.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( KernelData kernel ) throws NotCompliantMBeanException
+    {
+        return new MetricsImpl( this, kernel );
+    }
+
+    @Description( "Latencies and counts of the operations on the critical paths of Neo4j" )
+    private static class MetricsImpl extends Neo4jMBean implements Metrics
+    {
+        private final KernelMetrics metrics;
+        private final TransactionEventDispatcher eventDispatcher;
+
+        MetricsImpl( ManagementBeanProvider provider, KernelData kernel )
+                throws NotCompliantMBeanException
+        {
+            super( provider, kernel );
+            this.metrics = kernel.getConfig().getMetrics();
+            this.eventDispatcher = kernel.getConfig().getTransactionEventDispatcher();
+        }
+
+        @Description( "Whether or not metrics are being recorded, "
+                      + "see the kernel_metrics configuration parameter" )
+        public boolean isEnabled()
+        {
+            return metrics.isEnabled();
+        }
+
+        @Description( "Latencies in microseconds of committing transactions, forcing the "
+                      + "logical log to disk, waiting for locks, from commit to dispatch of "
+                      + "transaction events and of commits waiting for the event queue" )
+        public LatencyInfo[] getLatencies()
+        {
+            if ( !metrics.isEnabled() )
+            {
+                return new LatencyInfo[0];
+            }
+            Latency[] latencies = Latency.values();
+            LatencyInfo[] result = new LatencyInfo[latencies.length];
+            for ( int i = 0; i < latencies.length; i++ )
+            {
+                LatencyHistogram histogram = metrics.getLatency( latencies[i] );
+                result[i] = new LatencyInfo( latencies[i].name().toLowerCase(),
+                        histogram.getCount(), micros( histogram.getMean() ),
+                        micros( histogram.getPercentile( 50 ) ),
+                        micros( histogram.getPercentile( 95 ) ),
+                        micros( histogram.getPercentile( 99 ) ),
+                        micros( histogram.getMax() ) );
+            }
+            return result;
+        }
+
+        private static double micros( double nanos )
+        {
+            return nanos / 1000;
+        }
+
+        @Description( "The number of node lookups served from the cache" )
+        public long getNodeCacheHits()
+        {
+            return metrics.getCount( Counter.NODE_CACHE_HIT );
+        }
+
+        @Description( "The number of node lookups that had to go to the store" )
+        public long getNodeCacheMisses()
+        {
+            return metrics.getCount( Counter.NODE_CACHE_MISS );
+        }
+
+        @Description( "The ratio of node lookups served from the cache" )
+        public double getNodeCacheHitRatio()
+        {
+            return ratio( getNodeCacheHits(), getNodeCacheMisses() );
+        }
+
+        @Description( "The number of relationship lookups served from the cache" )
+        public long getRelationshipCacheHits()
+        {
+            return metrics.getCount( Counter.RELATIONSHIP_CACHE_HIT );
+        }
+
+        @Description( "The number of relationship lookups that had to go to the store" )
+        public long getRelationshipCacheMisses()
+        {
+            return metrics.getCount( Counter.RELATIONSHIP_CACHE_MISS );
+        }
+
+        @Description( "The ratio of relationship lookups served from the cache" )
+        public double getRelationshipCacheHitRatio()
+        {
+            return ratio( getRelationshipCacheHits(), getRelationshipCacheMisses() );
+        }
+
+        @Description( "The number of committed transactions waiting for their events to be "
+                      + "dispatched, see the transaction_event_dispatch configuration parameter" )
+        public int getPendingTransactionEvents()
+        {
+            return eventDispatcher != null ? eventDispatcher.getPendingCount() : 0;
+        }
+
+        @Description( "The number of committed transactions whose events have been "
+                      + "dispatched asynchronously" )
+        public long getDispatchedTransactionEvents()
+        {
+            return eventDispatcher != null ? eventDispatcher.getDispatchedCount() : 0;
+        }
+
+        private static double ratio( long hits, long misses )
+        {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Description( value = "Resets all latencies and counters", impact = MBeanOperationInfo.ACTION )
+        public void reset()
+        {
+            metrics.reset();
+        }
+    }
+}
@@ -19,8 +19,10 @@
  */
 package org.neo4j.management.impl;
 
+import javax.management.MBeanOperationInfo;
 import javax.management.NotCompliantMBeanException;
 
+import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
@@ -79,5 +81,24 @@ public final class PrimitivesBean extends ManagementBeanProvider
         {
             return nodeManager.getNumberOfIdsInUse( RelationshipType.class );
         }
+
+        @Description( "The number of nodes in this Neo4j instance" )
+        public long getNumberOfNodes()
+        {
+            return nodeManager.getNumberOfNodes();
+        }
+
+        @Description( "The number of relationships in this Neo4j instance" )
+        public long getNumberOfRelationships()
+        {
+            return nodeManager.getNumberOfRelationships();
+        }
+
+        @Description( value = "The number of relationships of a type in this Neo4j instance",
+                impact = MBeanOperationInfo.INFO )
+        public long getNumberOfRelationshipsOfType( String type )
+        {
+            return nodeManager.getNumberOfRelationships( DynamicRelationshipType.withName( type ) );
+        }
     }
 }